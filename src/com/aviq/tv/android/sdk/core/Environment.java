@@ -126,6 +126,27 @@ public class Environment extends Activity
 		 */
 		FEATURE_INITIALIZE_TIMEOUT(180),
 
+		/**
+		 * Maximum number of features initializing at the same time
+		 */
+		FEATURE_INITIALIZE_CONCURRENCY(4),
+
+		/**
+		 * Directory of the saved features initialization traces
+		 */
+		BOOT_TRACE_PATH("boottrace"),
+
+		/**
+		 * Collect event listeners invocation statistics
+		 */
+		EVENT_METRICS(false),
+
+		/**
+		 * Event listeners slower than this on the UI thread are logged, in
+		 * milliseconds
+		 */
+		EVENT_SLOW_LISTENER_MS(16),
+
 		/**
 		 * The overlay background color
 		 */
@@ -224,6 +245,9 @@ public class Environment extends Activity
 				// create network
 				_volleyNetwork = new BasicNetwork(new HttpClientStack(AndroidHttpClient.newInstance("tvbosdk/volley")));
 
+				// record the network requests during features initialization
+				_volleyNetwork = _featureManager.getBootTrace().wrapNetwork(_volleyNetwork);
+
 				// Use 1/2th of the available memory for caching the global
 				// request queue
 				int cacheSize = 1024 * 1024 * memClass / 2;
@@ -258,14 +282,21 @@ public class Environment extends Activity
 				// BitmapMemDiskLruCache(memCache, diskCache));
 				_imageLoader = new ImageLoader(_requestQueue, noCache);
 
+				EventMetrics.setSlowThreshold(getPrefs().getInt(Param.EVENT_SLOW_LISTENER_MS));
+				EventMetrics.setEnabled(getPrefs().getBool(Param.EVENT_METRICS));
+
 				// initializes features
 				getEventMessenger().trigger(ON_INITIALIZE);
 				_featureManager.setInitTimeout(getPrefs().getInt(Param.FEATURE_INITIALIZE_TIMEOUT));
+				_featureManager.setInitConcurrency(getPrefs().getInt(Param.FEATURE_INITIALIZE_CONCURRENCY));
 				_featureManager.initialize(new OnFeatureInitialized()
 				{
 					@Override
 					public void onInitialized(FeatureError error)
 					{
+						// keep the initialization trace of this build version
+						_featureManager.getBootTrace().save(getBootTraceDir(), getBuildVersion());
+
 						if (error.isError())
 						{
 							Log.e(TAG, error.getMessage(), error);
@@ -609,6 +640,14 @@ public class Environment extends Activity
 		return _featureManager;
 	}
 
+	/**
+	 * @return the directory of the saved features initialization traces
+	 */
+	public File getBootTraceDir()
+	{
+		return new File(getFilesDir(), getPrefs().getString(Param.BOOT_TRACE_PATH));
+	}
+
 	/**
 	 * Returns global Volley requests queue
 	 *
@@ -714,51 +753,42 @@ public class Environment extends Activity
 	}
 
 	/**
+	 * Looks up the feature without initializing it if lazy, use
+	 * FeatureManager.getFeatureComponent or FeatureManager.activateFeature to
+	 * initialize a lazy feature
+	 *
 	 * @param featureName
 	 * @return FeatureComponent or null
 	 */
 	public FeatureComponent getFeatureComponent(FeatureName.Component featureName)
 	{
-		try
-		{
-			return _featureManager.getFeatureComponent(featureName);
-		}
-		catch (FeatureNotFoundException e)
-		{
-			return null;
-		}
+		return _featureManager.findFeatureComponent(featureName);
 	}
 
 	/**
+	 * Looks up the feature without initializing it if lazy, use
+	 * FeatureManager.getFeatureScheduler or FeatureManager.activateFeature to
+	 * initialize a lazy feature
+	 *
 	 * @param featureName
 	 * @return FeatureScheduler or null
 	 */
 	public FeatureScheduler getFeatureScheduler(FeatureName.Scheduler featureName)
 	{
-		try
-		{
-			return _featureManager.getFeatureScheduler(featureName);
-		}
-		catch (FeatureNotFoundException e)
-		{
-			return null;
-		}
+		return _featureManager.findFeatureScheduler(featureName);
 	}
 
 	/**
+	 * Looks up the feature without initializing it if lazy, use
+	 * FeatureManager.getFeatureState or FeatureManager.activateFeature to
+	 * initialize a lazy feature
+	 *
 	 * @param featureName
 	 * @return FeatureState or null
 	 */
 	public FeatureState getFeatureState(FeatureName.State featureName)
 	{
-		try
-		{
-			return _featureManager.getFeatureState(featureName);
-		}
-		catch (FeatureNotFoundException e)
-		{
-			return null;
-		}
+		return _featureManager.findFeatureState(featureName);
 	}
 
 	public Prefs getFeaturePrefs(FeatureName.Component featureName)
@@ -0,0 +1,335 @@
+/**
+ * Copyright (c) 2007-2015, Intelibo Ltd
+ *
+ * Project:     TVBOSDK
+ * Filename:    EventChannel.java
+ * Author:      alek
+ * Date:        18 Oct 2015
+ * Description: Delivers events to receivers on a specific looper thread
+ */
+
+package com.aviq.tv.android.sdk.core;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+
+/**
+ * Delivers events to receivers on the main looper, on a shared background
+ * looper or on a named serial looper. Each receiver registered through a
+ * channel has its own bounded queue so a slow receiver never blocks the
+ * thread triggering the events.
+ */
+public class EventChannel
+{
+	private static final String TAG = EventChannel.class.getSimpleName();
+	private static final String BACKGROUND = "EventBackground";
+
+	/**
+	 * Default capacity of the receiver queues
+	 */
+	public static final int DEFAULT_CAPACITY = 64;
+
+	/**
+	 * What to do when an event arrives at a full receiver queue
+	 */
+	public static enum Overflow
+	{
+		/**
+		 * Drop the oldest queued event
+		 */
+		DROP_OLDEST,
+
+		/**
+		 * Drop the arriving event
+		 */
+		DROP_NEWEST,
+
+		/**
+		 * Replace the queued event with the same id, otherwise drop the oldest
+		 */
+		COALESCE
+	}
+
+	private static EventChannel _main;
+	private static Map<String, EventChannel> _serialChannels = new HashMap<String, EventChannel>();
+
+	private final String _name;
+	private final Handler _handler;
+
+	private EventChannel(String name, Looper looper)
+	{
+		_name = name;
+		_handler = new Handler(looper);
+	}
+
+	/**
+	 * @return channel delivering events on the main looper
+	 */
+	public static synchronized EventChannel main()
+	{
+		if (_main == null)
+			_main = new EventChannel("main", Looper.getMainLooper());
+		return _main;
+	}
+
+	/**
+	 * @return channel delivering events on a background looper shared by all
+	 *         background receivers
+	 */
+	public static EventChannel background()
+	{
+		return serial(BACKGROUND);
+	}
+
+	/**
+	 * @param name
+	 *            the name of the channel thread
+	 * @return channel delivering events on a dedicated background thread with
+	 *         the specified name, created on first use
+	 */
+	public static synchronized EventChannel serial(String name)
+	{
+		EventChannel channel = _serialChannels.get(name);
+		if (channel == null)
+		{
+			HandlerThread thread = new HandlerThread(name, Process.THREAD_PRIORITY_BACKGROUND);
+			thread.start();
+			channel = new EventChannel(name, thread.getLooper());
+			_serialChannels.put(name, channel);
+		}
+		return channel;
+	}
+
+	/**
+	 * @return the channel name
+	 */
+	public String getName()
+	{
+		return _name;
+	}
+
+	/**
+	 * Creates receiver queuing events for the specified receiver and
+	 * delivering them on this channel. The events are always delivered
+	 * asynchronously, also when triggered with triggerDirect, so events which
+	 * must be handled before the triggering call returns need a direct
+	 * receiver.
+	 *
+	 * @param eventReceiver
+	 *            the receiver to deliver the events to
+	 * @param capacity
+	 *            maximum number of queued events
+	 * @param overflow
+	 *            what to do when the queue is full
+	 * @return receiver to register in the EventMessenger, unregistered by
+	 *         the wrapped receiver
+	 */
+	public EventReceiver createReceiver(EventReceiver eventReceiver, int capacity, Overflow overflow)
+	{
+		return new ChannelReceiver(eventReceiver, capacity, overflow);
+	}
+
+	/**
+	 * Delivers the events queued for a receiver on the calling thread, e.g.
+	 * before handling directly an event which must follow them
+	 *
+	 * @param channelReceiver
+	 *            receiver created by createReceiver of this channel
+	 */
+	public void flush(EventReceiver channelReceiver)
+	{
+		if (!(channelReceiver instanceof ChannelReceiver) || ((ChannelReceiver) channelReceiver).getChannel() != this)
+			throw new IllegalArgumentException(channelReceiver + " is not created by channel " + _name);
+		((ChannelReceiver) channelReceiver).flush();
+	}
+
+	/**
+	 * Runs the runnable on the channel looper
+	 */
+	public void post(Runnable runnable)
+	{
+		_handler.post(runnable);
+	}
+
+	private static class QueuedEvent
+	{
+		final int msgId;
+		Bundle bundle;
+
+		QueuedEvent(int msgId, Bundle bundle)
+		{
+			this.msgId = msgId;
+			this.bundle = bundle;
+		}
+	}
+
+	class ChannelReceiver implements EventReceiver, Runnable
+	{
+		private final EventReceiver _receiver;
+		private final int _capacity;
+		private final Overflow _overflow;
+		private final ArrayDeque<QueuedEvent> _queue;
+		private boolean _scheduled;
+		private boolean _canceled;
+		private int _dropped;
+
+		// keeps the events in order when flushed from another thread
+		private final Object _deliveryLock = new Object();
+
+		ChannelReceiver(EventReceiver receiver, int capacity, Overflow overflow)
+		{
+			_receiver = receiver;
+			_capacity = Math.max(1, capacity);
+			_overflow = overflow;
+			_queue = new ArrayDeque<QueuedEvent>(Math.min(_capacity, DEFAULT_CAPACITY));
+		}
+
+		@Override
+		public void onEvent(int msgId, Bundle bundle)
+		{
+			// the bundle is copied since the triggering thread may reuse it
+			// while the event is queued
+			if (bundle != null)
+				bundle = new Bundle(bundle);
+			synchronized (this)
+			{
+				if (_canceled)
+					return;
+				if (!enqueue(msgId, bundle))
+				{
+					_dropped++;
+					if (Log.isLoggable(Log.WARN) && Integer.bitCount(_dropped) == 1)
+						Log.w(TAG, _name + ": " + _receiver + " dropped " + _dropped + " events");
+				}
+				if (_scheduled)
+					return;
+				_scheduled = true;
+			}
+			_handler.post(this);
+		}
+
+		// returns false if an event was dropped
+		private boolean enqueue(int msgId, Bundle bundle)
+		{
+			if (_overflow == Overflow.COALESCE)
+			{
+				for (QueuedEvent queued : _queue)
+				{
+					if (queued.msgId == msgId)
+					{
+						queued.bundle = bundle;
+						return true;
+					}
+				}
+			}
+			if (_queue.size() < _capacity)
+			{
+				_queue.add(new QueuedEvent(msgId, bundle));
+				return true;
+			}
+			if (_overflow == Overflow.DROP_NEWEST)
+				return false;
+			_queue.poll();
+			_queue.add(new QueuedEvent(msgId, bundle));
+			return false;
+		}
+
+		@Override
+		public void run()
+		{
+			// deliver at most a queue of events at once to let other messages
+			// of the looper through
+			for (int i = 0; i < _capacity; i++)
+			{
+				synchronized (_deliveryLock)
+				{
+					QueuedEvent event;
+					synchronized (this)
+					{
+						event = _queue.poll();
+						if (event == null)
+						{
+							_scheduled = false;
+							return;
+						}
+					}
+					deliver(event);
+				}
+			}
+			_handler.post(this);
+		}
+
+		// delivers the queued events on the calling thread, the scheduled
+		// delivery finds the queue empty
+		void flush()
+		{
+			synchronized (_deliveryLock)
+			{
+				while (true)
+				{
+					QueuedEvent event;
+					synchronized (this)
+					{
+						event = _queue.poll();
+					}
+					if (event == null)
+						return;
+					deliver(event);
+				}
+			}
+		}
+
+		private void deliver(QueuedEvent event)
+		{
+			if (EventMetrics.isEnabled())
+			{
+				long processStart = System.nanoTime();
+				_receiver.onEvent(event.msgId, event.bundle);
+				EventMetrics.recordInvocation(event.msgId, _receiver, System.nanoTime() - processStart);
+			}
+			else
+			{
+				_receiver.onEvent(event.msgId, event.bundle);
+			}
+		}
+
+		EventChannel getChannel()
+		{
+			return EventChannel.this;
+		}
+
+		/**
+		 * @return true if this receiver delivers the events to eventReceiver
+		 */
+		boolean wraps(EventReceiver eventReceiver)
+		{
+			return _receiver.equals(eventReceiver);
+		}
+
+		/**
+		 * Drops the queued events and ignores the events arriving after the
+		 * receiver is unregistered
+		 */
+		void cancel()
+		{
+			synchronized (this)
+			{
+				_canceled = true;
+				_queue.clear();
+			}
+		}
+
+		@Override
+		public String toString()
+		{
+			return _receiver + "@" + _name;
+		}
+	}
+}
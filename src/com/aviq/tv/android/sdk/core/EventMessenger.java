@@ -16,8 +16,13 @@ import java.util.List;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
+import android.os.SystemClock;
 import android.util.SparseArray;
 
+import com.aviq.tv.android.sdk.core.feature.FeatureError;
+import com.aviq.tv.android.sdk.core.feature.FeatureManager;
+import com.aviq.tv.android.sdk.core.feature.IFeature;
+import com.aviq.tv.android.sdk.core.feature.IFeature.OnFeatureInitialized;
 import com.aviq.tv.android.sdk.utils.TextUtils;
 
 /**
@@ -30,12 +35,32 @@ public class EventMessenger extends Handler
 	 */
 	public static final int ON_ANY = 0;
 
-	private SparseArray<List<EventReceiver>> _listners = new SparseArray<List<EventReceiver>>();
-	private List<RegisterCouple> _registerLater = new ArrayList<RegisterCouple>();
-	private List<RegisterCouple> _unregisterLater = new ArrayList<RegisterCouple>();
-	private boolean _inEventIteration = false;
-	private static List<String> _messageNames = new ArrayList<String>();
-	private static SparseArray<List<TriggerRoute>> _eventHooks = new SparseArray<List<TriggerRoute>>();
+	/**
+	 * Bundle key of the list of bundles delivered by EventPolicy.Type.BATCH
+	 */
+	public static final String EXTRA_BATCH = "BATCH";
+
+	// message arg1 values of the messages scheduled by the event policies
+	private static final int ARG_BATCH = 1;
+	private static final int ARG_TRAILING = 2;
+	private static final int ARG_DELAYED = 3;
+
+	private static final EventReceiver[] NO_LISTENERS = new EventReceiver[0];
+	private static final TriggerRoute[] NO_ROUTES = new TriggerRoute[0];
+
+	// copy-on-write listeners indexed by message id, index ON_ANY holds the
+	// listeners of any message. The arrays are replaced on every change so
+	// dispatching iterates a snapshot without locking or copying
+	private volatile EventReceiver[][] _listeners = new EventReceiver[1][];
+	// message names indexed by message id - 1, replaced on every registration
+	// so idName reads them without locking
+	private static volatile String[] _messageNames = new String[0];
+	private static volatile TriggerRoute[][] _eventHooks = new TriggerRoute[1][];
+	private static volatile EventPolicy[] _policies = new EventPolicy[1];
+
+	// pending batches and rate limits of this messenger by message id
+	private SparseArray<ArrayList<Bundle>> _batches = new SparseArray<ArrayList<Bundle>>();
+	private SparseArray<RateLimit> _rateLimits = new SparseArray<RateLimit>();
 	private String _tag;
 
 	public EventMessenger(String tag)
@@ -47,80 +72,193 @@ public class EventMessenger extends Handler
 	{
 		if (nameId(msgName) > 0)
 			throw new RuntimeException("Message name " + msgName + " is already registered");
-		_messageNames.add(msgName);
-		return _messageNames.size();
+		String[] messageNames = new String[_messageNames.length + 1];
+		System.arraycopy(_messageNames, 0, messageNames, 0, _messageNames.length);
+		messageNames[_messageNames.length] = msgName;
+		_messageNames = messageNames;
+		return messageNames.length;
 	}
 
-	public static synchronized String idName(int msgId)
+	/**
+	 * Registers message name with event policy
+	 *
+	 * @param msgName
+	 *            the message name
+	 * @param policy
+	 *            how the events of this message are queued to the listeners
+	 * @return the message id
+	 */
+	public static synchronized int ID(String msgName, EventPolicy policy)
+	{
+		int msgId = ID(msgName);
+		setPolicy(msgId, policy);
+		return msgId;
+	}
+
+	public static String idName(int msgId)
 	{
 		if (msgId > 0)
-			return _messageNames.get(msgId - 1);
+			return _messageNames[msgId - 1];
 		return "ANY";
 	}
 
-	public static synchronized int nameId(String msg)
+	public static int nameId(String msg)
+	{
+		String[] messageNames = _messageNames;
+		for (int i = 0; i < messageNames.length; i++)
+			if (messageNames[i].equals(msg))
+				return i + 1;
+		return 0;
+	}
+
+	/**
+	 * Declares how the events with message id msgId are queued to the
+	 * listeners. Events without declared policy are delivered with
+	 * EventPolicy.latest().
+	 *
+	 * @param msgId
+	 *            the message id
+	 * @param policy
+	 *            the event policy
+	 */
+	public static synchronized void setPolicy(int msgId, EventPolicy policy)
+	{
+		EventPolicy[] policies = _policies;
+		if (msgId >= policies.length)
+		{
+			EventPolicy[] grown = new EventPolicy[msgId + 1];
+			System.arraycopy(policies, 0, grown, 0, policies.length);
+			policies = grown;
+		}
+		else
+		{
+			policies = policies.clone();
+		}
+		policies[msgId] = policy;
+		_policies = policies;
+	}
+
+	/**
+	 * @return the declared event policies indexed by message id
+	 */
+	static EventPolicy[] getPolicies()
 	{
-		int index = _messageNames.indexOf(msg);
-		return index + 1;
+		return _policies;
+	}
+
+	/**
+	 * @param msgId
+	 *            the message id
+	 * @return the event policy of message msgId with its counters
+	 */
+	public static EventPolicy getPolicy(int msgId)
+	{
+		EventPolicy[] policies = _policies;
+		if (msgId >= 0 && msgId < policies.length && policies[msgId] != null)
+			return policies[msgId];
+		synchronized (EventMessenger.class)
+		{
+			policies = _policies;
+			if (msgId < policies.length && policies[msgId] != null)
+				return policies[msgId];
+			EventPolicy policy = EventPolicy.latest();
+			setPolicy(msgId, policy);
+			return policy;
+		}
 	}
 
 	/**
-	 * Register EventReceiver to listen for messages with id msgId
+	 * Register EventReceiver to listen for messages with id msgId. A receiver
+	 * registered while an event is dispatched is notified from the next event.
 	 *
 	 * @param EventReceiver
 	 *            to be registered
 	 * @param msgId
 	 */
-	public void register(EventReceiver eventReceiver, int msgId)
+	public synchronized void register(EventReceiver eventReceiver, int msgId)
 	{
-		if (_inEventIteration)
+		if (Log.isLoggable(Log.DEBUG))
+			Log.d(_tag, ".register %s on %s (%d)", eventReceiver, idName(msgId), msgId);
+		EventReceiver[][] listeners = _listeners;
+		if (msgId >= listeners.length)
 		{
-			_registerLater.add(new RegisterCouple(eventReceiver, msgId));
+			EventReceiver[][] grown = new EventReceiver[msgId + 1][];
+			System.arraycopy(listeners, 0, grown, 0, listeners.length);
+			listeners = grown;
 		}
 		else
 		{
-			Log.d(_tag, ".register " + eventReceiver + " on " + idName(msgId) + " (" + msgId + ")");
-			List<EventReceiver> msgListeners = _listners.get(msgId);
-			if (msgListeners == null)
-			{
-				msgListeners = new ArrayList<EventReceiver>();
-				_listners.put(msgId, msgListeners);
-			}
-			msgListeners.add(eventReceiver);
+			listeners = listeners.clone();
 		}
+		listeners[msgId] = append(listeners[msgId], eventReceiver);
+		_listeners = listeners;
+	}
+
+	/**
+	 * Register EventReceiver to listen for messages with id msgId delivered
+	 * on the specified channel. The receiver gets its own queue with
+	 * EventChannel.DEFAULT_CAPACITY events coalescing the events with the
+	 * same id when full.
+	 *
+	 * @param EventReceiver
+	 *            to be registered
+	 * @param msgId
+	 * @param channel
+	 *            the channel delivering the events to the receiver
+	 */
+	public void register(EventReceiver eventReceiver, int msgId, EventChannel channel)
+	{
+		register(eventReceiver, msgId, channel, EventChannel.DEFAULT_CAPACITY, EventChannel.Overflow.COALESCE);
 	}
 
 	/**
-	 * Unregisters EventReceiver from listening to message msgId
+	 * Register EventReceiver to listen for messages with id msgId delivered
+	 * on the specified channel. The receiver is unregistered with
+	 * unregister(eventReceiver, msgId) as any other receiver.
+	 *
+	 * @param EventReceiver
+	 *            to be registered
+	 * @param msgId
+	 * @param channel
+	 *            the channel delivering the events to the receiver
+	 * @param capacity
+	 *            maximum number of events queued for the receiver
+	 * @param overflow
+	 *            what to do with events arriving at a full queue
+	 */
+	public void register(EventReceiver eventReceiver, int msgId, EventChannel channel, int capacity,
+	        EventChannel.Overflow overflow)
+	{
+		register(channel.createReceiver(eventReceiver, capacity, overflow), msgId);
+	}
+
+	/**
+	 * Unregisters EventReceiver from listening to message msgId. A receiver
+	 * unregistered while an event is dispatched is still notified with that
+	 * event.
 	 *
 	 * @param EventReceiver
 	 *            to be unregistered
 	 * @param msgId
 	 */
-	public void unregister(EventReceiver eventReceiver, int msgId)
+	public synchronized void unregister(EventReceiver eventReceiver, int msgId)
 	{
-		if (_inEventIteration)
+		if (Log.isLoggable(Log.DEBUG))
+			Log.d(_tag, ".unregister %s from %s (%d)", eventReceiver, idName(msgId), msgId);
+		EventReceiver[][] listeners = _listeners.clone();
+		int msgIdFirst = 1;
+		int msgIdLast = listeners.length - 1;
+		if (msgId > 0)
 		{
-			_unregisterLater.add(new RegisterCouple(eventReceiver, msgId));
+			msgIdFirst = msgId;
+			msgIdLast = Math.min(msgId, msgIdLast);
 		}
-		else
-		{
-			Log.d(_tag, ".unregister " + eventReceiver + " from " + idName(msgId) + " (" + msgId + ")");
-			int msgIdFirst = 1;
-			int msgIdLast = _messageNames.size();
-			if (msgId > 0)
-			{
-				msgIdFirst = msgId;
-				msgIdLast = msgId;
-			}
 
-			for (int id = msgIdFirst; id <= msgIdLast; id++)
-			{
-				List<EventReceiver> msgListeners = _listners.get(id);
-				if (msgListeners != null)
-					msgListeners.remove(eventReceiver);
-			}
+		for (int id = msgIdFirst; id <= msgIdLast; id++)
+		{
+			listeners[id] = remove(listeners[id], eventReceiver);
 		}
+		_listeners = listeners;
 	}
 
 	/**
@@ -131,9 +269,9 @@ public class EventMessenger extends Handler
 	 */
 	public void trigger(int msgId)
 	{
-		Log.v(_tag, ".trigger: " + idName(msgId) + " (" + msgId + ")");
-		removeMessages(msgId);
-		sendMessage(obtainMessage(msgId));
+		if (Log.isLoggable(Log.VERBOSE))
+			Log.v(_tag, ".trigger: %s (%d)", idName(msgId), msgId);
+		enqueue(msgId, null);
 	}
 
 	/**
@@ -145,8 +283,9 @@ public class EventMessenger extends Handler
 	 */
 	public void triggerDirect(int msgId)
 	{
-		Log.v(_tag, ".triggerDirect: " + idName(msgId) + " (" + msgId + ")");
-		handleMessage(obtainMessage(msgId));
+		if (Log.isLoggable(Log.VERBOSE))
+			Log.v(_tag, ".triggerDirect: %s (%d)", idName(msgId), msgId);
+		dispatchDirect(msgId, null);
 	}
 
 	/**
@@ -159,9 +298,9 @@ public class EventMessenger extends Handler
 	 */
 	public void trigger(int msgId, Bundle bundle)
 	{
-		Log.v(_tag, ".trigger: " + idName(msgId) + " (" + msgId + ")" + TextUtils.implodeBundle(bundle));
-		removeMessages(msgId);
-		sendMessage(obtainMessage(msgId, bundle));
+		if (Log.isLoggable(Log.VERBOSE))
+			Log.v(_tag, ".trigger: %s (%d)%s", idName(msgId), msgId, TextUtils.implodeBundle(bundle));
+		enqueue(msgId, bundle);
 	}
 
 	/**
@@ -175,8 +314,9 @@ public class EventMessenger extends Handler
 	 */
 	public void triggerDirect(int msgId, Bundle bundle)
 	{
-		Log.v(_tag, ".triggerDirect: " + idName(msgId) + " (" + msgId + ")" + TextUtils.implodeBundle(bundle));
-		handleMessage(obtainMessage(msgId, bundle));
+		if (Log.isLoggable(Log.VERBOSE))
+			Log.v(_tag, ".triggerDirect: %s (%d)%s", idName(msgId), msgId, TextUtils.implodeBundle(bundle));
+		dispatchDirect(msgId, bundle);
 	}
 
 	/**
@@ -189,9 +329,9 @@ public class EventMessenger extends Handler
 	 */
 	public void trigger(int msgId, long delayMs)
 	{
-		Log.v(_tag, ".trigger: " + idName(msgId) + " (" + msgId + ")" + " in " + delayMs + " ms");
-		removeMessages(msgId);
-		sendMessageDelayed(obtainMessage(msgId), delayMs);
+		if (Log.isLoggable(Log.VERBOSE))
+			Log.v(_tag, ".trigger: %s (%d) in %d ms", idName(msgId), msgId, delayMs);
+		enqueueDelayed(msgId, null, delayMs);
 	}
 
 	/**
@@ -206,110 +346,387 @@ public class EventMessenger extends Handler
 	 */
 	public void trigger(int msgId, Bundle bundle, long delayMs)
 	{
-		Log.v(_tag, ".trigger: " + idName(msgId) + " (" + msgId + ")" + TextUtils.implodeBundle(bundle) + " in "
-		        + delayMs + " ms");
-		removeMessages(msgId);
-		sendMessageDelayed(obtainMessage(msgId, bundle), delayMs);
+		if (Log.isLoggable(Log.VERBOSE))
+			Log.v(_tag, ".trigger: %s (%d)%s in %d ms", idName(msgId), msgId, TextUtils.implodeBundle(bundle),
+			        delayMs);
+		enqueueDelayed(msgId, bundle, delayMs);
 	}
 
 	@Override
 	public void handleMessage(Message msg)
 	{
 		super.handleMessage(msg);
-		_inEventIteration = true;
-		List<EventReceiver> msgListeners = _listners.get(msg.what);
-		List<EventReceiver> anyMsgListeners = _listners.get(ON_ANY);
-		List<EventReceiver> listeners = new ArrayList<EventReceiver>();
-
-		if (msgListeners != null)
-			listeners.addAll(msgListeners);
-		if (anyMsgListeners != null)
-			listeners.addAll(anyMsgListeners);
-		if (listeners.size() > 0)
+		if (EventMetrics.isEnabled() && msg.arg1 != ARG_DELAYED)
+			EventMetrics.recordQueueDelay(msg.what, SystemClock.uptimeMillis() - msg.getWhen());
+		switch (msg.arg1)
+		{
+			case ARG_BATCH:
+				@SuppressWarnings("unchecked")
+				ArrayList<Bundle> batch = (ArrayList<Bundle>) msg.obj;
+				dispatchBatch(msg.what, batch);
+			break;
+			case ARG_TRAILING:
+				dispatchTrailing(msg.what);
+			break;
+			case ARG_DELAYED:
+				enqueue(msg.what, (Bundle) msg.obj);
+			break;
+			default:
+				getPolicy(msg.what).onDelivered();
+				dispatch(msg.what, (Bundle) msg.obj);
+			break;
+		}
+	}
+
+	/**
+	 * Notifies the listeners and the event hooks of message msgId
+	 *
+	 * @param msgId
+	 *            the id of the message to dispatch
+	 * @param bundle
+	 *            additional data to the message
+	 */
+	public void dispatch(int msgId, Bundle bundle)
+	{
+		EventReceiver[][] listeners = _listeners;
+		EventReceiver[] msgListeners = at(listeners, msgId, NO_LISTENERS);
+		EventReceiver[] anyMsgListeners = at(listeners, ON_ANY, NO_LISTENERS);
+		int nListeners = msgListeners.length + anyMsgListeners.length;
+		if (nListeners > 0)
 		{
-			Log.v(_tag, ".handleMessage: notifying " + listeners.size() + " listeners on " + idName(msg.what) + " ("
-			        + msg.what + ")");
-			for (EventReceiver eventReceiver : listeners)
+			if (EventMetrics.isEnabled())
+			{
+				notifyListenersMeasured(msgListeners, msgId, bundle);
+				notifyListenersMeasured(anyMsgListeners, msgId, bundle);
+			}
+			else
 			{
-				Log.d(_tag, eventReceiver + ".onEvent " + idName(msg.what));
-				eventReceiver.onEvent(msg.what, (Bundle) msg.obj);
+				notifyListeners(msgListeners, msgId, bundle);
+				notifyListeners(anyMsgListeners, msgId, bundle);
 			}
 		}
 
 		// handle event hooks
-		List<TriggerRoute> triggerRoutes = _eventHooks.get(msg.what);
-		List<TriggerRoute> anyTriggerRoutes = _eventHooks.get(ON_ANY);
-		List<TriggerRoute> routes = new ArrayList<TriggerRoute>();
-		if (triggerRoutes != null)
-			routes.addAll(triggerRoutes);
-		if (anyTriggerRoutes != null)
-			routes.addAll(anyTriggerRoutes);
-
-		if (routes.size() > 0)
+		TriggerRoute[][] eventHooks = _eventHooks;
+		TriggerRoute[] triggerRoutes = at(eventHooks, msgId, NO_ROUTES);
+		TriggerRoute[] anyTriggerRoutes = at(eventHooks, ON_ANY, NO_ROUTES);
+		for (TriggerRoute triggerRoute : triggerRoutes)
+			route(msgId, bundle, triggerRoute);
+		for (TriggerRoute triggerRoute : anyTriggerRoutes)
+			route(msgId, bundle, triggerRoute);
+	}
+
+	private void notifyListeners(EventReceiver[] listeners, int msgId, Bundle bundle)
+	{
+		// not logged per listener, the log ring buffer would record every
+		// notification
+		for (EventReceiver eventReceiver : listeners)
+			eventReceiver.onEvent(msgId, bundle);
+	}
+
+	// notifies the listeners recording their latencies, the listeners on event
+	// channels are measured when the channel delivers the event
+	private void notifyListenersMeasured(EventReceiver[] listeners, int msgId, Bundle bundle)
+	{
+		for (EventReceiver eventReceiver : listeners)
+		{
+			if (eventReceiver instanceof EventChannel.ChannelReceiver)
+			{
+				eventReceiver.onEvent(msgId, bundle);
+			}
+			else
+			{
+				long processStart = System.nanoTime();
+				eventReceiver.onEvent(msgId, bundle);
+				EventMetrics.recordInvocation(msgId, eventReceiver, System.nanoTime() - processStart);
+			}
+		}
+	}
+
+	public void addEventHook(int eventId, TriggerRoute action)
+	{
+		synchronized (EventMessenger.class)
 		{
-			Bundle eventParams = (Bundle) msg.obj;
-			for (TriggerRoute triggerRoute : routes)
+			TriggerRoute[][] eventHooks = _eventHooks;
+			if (eventId >= eventHooks.length)
 			{
-				// copy routed bundle and apply value substitution from source
-				// event bundle
-				Bundle bundle = new Bundle();
-				Bundle routedEventParams = triggerRoute.getParams();
-				if (routedEventParams != null)
+				TriggerRoute[][] grown = new TriggerRoute[eventId + 1][];
+				System.arraycopy(eventHooks, 0, grown, 0, eventHooks.length);
+				eventHooks = grown;
+			}
+			else
+			{
+				eventHooks = eventHooks.clone();
+			}
+			TriggerRoute[] actions = eventHooks[eventId];
+			if (actions == null)
+			{
+				actions = new TriggerRoute[] { action };
+			}
+			else
+			{
+				TriggerRoute[] appended = new TriggerRoute[actions.length + 1];
+				System.arraycopy(actions, 0, appended, 0, actions.length);
+				appended[actions.length] = action;
+				actions = appended;
+			}
+			eventHooks[eventId] = actions;
+			_eventHooks = eventHooks;
+		}
+	}
+
+	// queues event according to its policy
+	private void enqueue(int msgId, Bundle bundle)
+	{
+		EventPolicy policy = getPolicy(msgId);
+		policy.onTriggered();
+		switch (policy.getType())
+		{
+			case LATEST:
+				if (hasMessages(msgId))
 				{
-					for (String key : routedEventParams.keySet())
-					{
-						String value = routedEventParams.getString(key);
-						if (value.charAt(0) == '{' && value.charAt(value.length() - 1) == '}')
-						{
-							// fetch value from event params
-							String eventParamKey = value.substring(1, value.length() - 1);
-							Object substVal = eventParams.get(eventParamKey);
-							if (substVal != null)
-							{
-								// substitute value to the new bundle
-								TextUtils.putBundleObject(bundle, key, substVal);
-							}
-							else
-							{
-								Log.d(_tag, "Event key `" + eventParamKey + "' has null value!");
-							}
-						}
-						else
-						{
-							bundle.putString(key, value);
-						}
-					}
+					removeMessages(msgId);
+					policy.onCoalesced();
 				}
-				Log.d(_tag,
-				        "Redirect event " + idName(msg.what) + TextUtils.implodeBundle(eventParams) + " to "
-				                + triggerRoute.getTarget().getName() + ":" + idName(triggerRoute.getEventId())
-				                + TextUtils.implodeBundle(bundle));
-				triggerRoute.getTarget().getEventMessenger().triggerDirect(triggerRoute.getEventId(), bundle);
+				sendMessage(obtainMessage(msgId, bundle));
+			break;
+			case QUEUE:
+				sendMessage(obtainMessage(msgId, bundle));
+			break;
+			case BATCH:
+				addToBatch(policy, msgId, bundle);
+			break;
+			case RATE_LIMIT:
+				if (acquireRate(policy, msgId, bundle))
+					sendMessage(obtainMessage(msgId, bundle));
+			break;
+		}
+	}
+
+	// delayed events are queued according to their policy after the delay,
+	// except the latest events replacing the pending ones
+	private void enqueueDelayed(int msgId, Bundle bundle, long delayMs)
+	{
+		EventPolicy policy = getPolicy(msgId);
+		if (policy.getType() == EventPolicy.Type.LATEST)
+		{
+			policy.onTriggered();
+			if (hasMessages(msgId))
+			{
+				removeMessages(msgId);
+				policy.onCoalesced();
 			}
+			sendMessageDelayed(obtainMessage(msgId, bundle), delayMs);
+		}
+		else
+		{
+			sendMessageDelayed(obtainMessage(msgId, ARG_DELAYED, 0, bundle), delayMs);
+		}
+	}
+
+	// direct events are dispatched immediately unless batched or rate limited
+	private void dispatchDirect(int msgId, Bundle bundle)
+	{
+		EventPolicy policy = getPolicy(msgId);
+		switch (policy.getType())
+		{
+			case BATCH:
+				policy.onTriggered();
+				addToBatch(policy, msgId, bundle);
+			break;
+			case RATE_LIMIT:
+				policy.onTriggered();
+				if (acquireRate(policy, msgId, bundle))
+				{
+					policy.onDelivered();
+					dispatch(msgId, bundle);
+				}
+			break;
+			default:
+				policy.onTriggered();
+				policy.onDelivered();
+				dispatch(msgId, bundle);
+			break;
 		}
+	}
 
-		_inEventIteration = false;
-		for (RegisterCouple registerCouple : _registerLater)
+	private void addToBatch(EventPolicy policy, int msgId, Bundle bundle)
+	{
+		synchronized (_batches)
 		{
-			register(registerCouple.Receiver, registerCouple.MsgId);
+			ArrayList<Bundle> batch = _batches.get(msgId);
+			if (batch == null)
+			{
+				batch = new ArrayList<Bundle>();
+				_batches.put(msgId, batch);
+			}
+			batch.add(bundle != null ? bundle : new Bundle());
+			// the batch list identifies the message delivering it
+			if (batch.size() >= policy.getMaxBatchSize())
+			{
+				// the batch is full, deliver it now
+				removeMessages(msgId, batch);
+				sendMessage(obtainMessage(msgId, ARG_BATCH, 0, batch));
+			}
+			else if (batch.size() == 1)
+			{
+				sendMessageDelayed(obtainMessage(msgId, ARG_BATCH, 0, batch), policy.getIntervalMs());
+			}
 		}
-		for (RegisterCouple registerCouple : _unregisterLater)
+	}
+
+	private void dispatchBatch(int msgId, ArrayList<Bundle> batch)
+	{
+		synchronized (_batches)
 		{
-			unregister(registerCouple.Receiver, registerCouple.MsgId);
+			if (_batches.get(msgId) != batch)
+				return;
+			_batches.remove(msgId);
 		}
-		_registerLater.clear();
-		_unregisterLater.clear();
+		Bundle bundle = new Bundle(batch.get(batch.size() - 1));
+		bundle.putParcelableArrayList(EXTRA_BATCH, batch);
+		getPolicy(msgId).onDelivered();
+		dispatch(msgId, bundle);
 	}
 
-	public void addEventHook(int eventId, TriggerRoute action)
+	// returns true if the event can be delivered now, otherwise keeps it as
+	// the trailing event delivered when the rate limit allows
+	private boolean acquireRate(EventPolicy policy, int msgId, Bundle bundle)
 	{
-		List<TriggerRoute> actions = _eventHooks.get(eventId);
-		if (actions == null)
+		long now = SystemClock.uptimeMillis();
+		synchronized (_rateLimits)
 		{
-			actions = new ArrayList<TriggerRoute>();
-			_eventHooks.put(eventId, actions);
+			RateLimit rateLimit = _rateLimits.get(msgId);
+			if (rateLimit == null)
+			{
+				rateLimit = new RateLimit();
+				_rateLimits.put(msgId, rateLimit);
+			}
+			if (!rateLimit.hasTrailing && now >= rateLimit.nextTime)
+			{
+				rateLimit.nextTime = now + policy.getIntervalMs();
+				return true;
+			}
+			if (rateLimit.hasTrailing)
+			{
+				policy.onDropped();
+			}
+			else
+			{
+				rateLimit.hasTrailing = true;
+				sendMessageAtTime(obtainMessage(msgId, ARG_TRAILING, 0), rateLimit.nextTime);
+			}
+			rateLimit.trailing = bundle;
+			return false;
+		}
+	}
+
+	private void dispatchTrailing(int msgId)
+	{
+		EventPolicy policy = getPolicy(msgId);
+		Bundle bundle;
+		synchronized (_rateLimits)
+		{
+			RateLimit rateLimit = _rateLimits.get(msgId);
+			if (rateLimit == null || !rateLimit.hasTrailing)
+				return;
+			bundle = rateLimit.trailing;
+			rateLimit.trailing = null;
+			rateLimit.hasTrailing = false;
+			rateLimit.nextTime = SystemClock.uptimeMillis() + policy.getIntervalMs();
+		}
+		policy.onDelivered();
+		dispatch(msgId, bundle);
+	}
+
+	private static class RateLimit
+	{
+		long nextTime;
+		boolean hasTrailing;
+		Bundle trailing;
+	}
+
+	private void route(int msgId, Bundle eventParams, TriggerRoute triggerRoute)
+	{
+		// the routed bundle is owned by the target so it is created per event
+		final Bundle bundle = triggerRoute.createRoutedParams(eventParams);
+		final IFeature target = triggerRoute.getTarget();
+		final int eventId = triggerRoute.getEventId();
+		if (Log.isLoggable(Log.DEBUG))
+			Log.d(_tag, "Redirect event %s%s to %s:%s%s", idName(msgId), TextUtils.implodeBundle(eventParams),
+			        target.getName(), idName(eventId), TextUtils.implodeBundle(bundle));
+		FeatureManager featureManager = Environment.getInstance().getFeatureManager();
+		if (featureManager.isLazy(target))
+		{
+			// deliver the event after the lazy target is initialized
+			featureManager.activateFeature(target, new OnFeatureInitialized()
+			{
+				@Override
+				public void onInitialized(FeatureError error)
+				{
+					if (!error.isError())
+						target.getEventMessenger().triggerDirect(eventId, bundle);
+				}
+
+				@Override
+				public void onInitializeProgress(IFeature feature, float progress)
+				{
+				}
+			});
+		}
+		else
+		{
+			target.getEventMessenger().triggerDirect(eventId, bundle);
+		}
+	}
+
+	private static <T> T[] at(T[][] array, int index, T[] empty)
+	{
+		if (index < 0 || index >= array.length || array[index] == null)
+			return empty;
+		return array[index];
+	}
+
+	private static EventReceiver[] append(EventReceiver[] receivers, EventReceiver eventReceiver)
+	{
+		if (receivers == null)
+			return new EventReceiver[] { eventReceiver };
+		EventReceiver[] appended = new EventReceiver[receivers.length + 1];
+		System.arraycopy(receivers, 0, appended, 0, receivers.length);
+		appended[receivers.length] = eventReceiver;
+		return appended;
+	}
+
+	// removes the first occurrence of the receiver
+	private static EventReceiver[] remove(EventReceiver[] receivers, EventReceiver eventReceiver)
+	{
+		if (receivers == null)
+			return null;
+		for (int i = 0; i < receivers.length; i++)
+		{
+			EventReceiver receiver = receivers[i];
+			boolean found;
+			if (receiver instanceof EventChannel.ChannelReceiver)
+			{
+				// channel receivers are removed by the receiver they wrap
+				EventChannel.ChannelReceiver channelReceiver = (EventChannel.ChannelReceiver) receiver;
+				found = receiver == eventReceiver || channelReceiver.wraps(eventReceiver);
+				if (found)
+					channelReceiver.cancel();
+			}
+			else
+			{
+				found = receiver.equals(eventReceiver);
+			}
+			if (found)
+			{
+				EventReceiver[] removed = new EventReceiver[receivers.length - 1];
+				System.arraycopy(receivers, 0, removed, 0, i);
+				System.arraycopy(receivers, i + 1, removed, i, receivers.length - i - 1);
+				return removed;
+			}
 		}
-		actions.add(action);
+		return receivers;
 	}
 
 	private static class RegisterCouple
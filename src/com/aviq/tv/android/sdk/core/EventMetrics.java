@@ -0,0 +1,257 @@
+/**
+ * Copyright (c) 2007-2015, Intelibo Ltd
+ *
+ * Project:     TVBOSDK
+ * Filename:    EventMetrics.java
+ * Author:      alek
+ * Date:        18 Oct 2015
+ * Description: Collects event listeners invocation statistics
+ */
+
+package com.aviq.tv.android.sdk.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.os.Looper;
+
+/**
+ * Collects invocation counts and latencies of the event listeners by message
+ * and receiver, and the queue delay of the messages. Warns about listeners
+ * slower than a threshold on the UI thread. Disabled by default.
+ */
+public class EventMetrics
+{
+	private static final String TAG = EventMetrics.class.getSimpleName();
+
+	private static volatile boolean _enabled;
+	private static volatile long _slowThresholdNs = 16 * 1000000L;
+	private static final Map<String, ListenerStats> _listenerStats = new HashMap<String, ListenerStats>();
+	private static final Map<String, QueueStats> _queueStats = new HashMap<String, QueueStats>();
+
+	private static class ListenerStats
+	{
+		final String msgName;
+		final String receiverName;
+		long count;
+		long totalNs;
+		long maxNs;
+		long slowCount;
+
+		ListenerStats(String msgName, String receiverName)
+		{
+			this.msgName = msgName;
+			this.receiverName = receiverName;
+		}
+	}
+
+	private static class QueueStats
+	{
+		final String msgName;
+		long count;
+		long totalMs;
+		long maxMs;
+
+		QueueStats(String msgName)
+		{
+			this.msgName = msgName;
+		}
+	}
+
+	/**
+	 * Enables or disables collecting statistics
+	 */
+	public static void setEnabled(boolean enabled)
+	{
+		_enabled = enabled;
+	}
+
+	/**
+	 * @return true if collecting statistics
+	 */
+	public static boolean isEnabled()
+	{
+		return _enabled;
+	}
+
+	/**
+	 * @param thresholdMs
+	 *            listeners slower than this on the UI thread are logged
+	 */
+	public static void setSlowThreshold(int thresholdMs)
+	{
+		_slowThresholdNs = thresholdMs * 1000000L;
+	}
+
+	/**
+	 * Records listener invocation
+	 *
+	 * @param msgId
+	 *            the id of the dispatched message
+	 * @param eventReceiver
+	 *            the notified receiver
+	 * @param durationNs
+	 *            the onEvent duration in nanoseconds
+	 */
+	public static void recordInvocation(int msgId, EventReceiver eventReceiver, long durationNs)
+	{
+		String msgName = EventMessenger.idName(msgId);
+		String receiverName = receiverName(eventReceiver);
+		boolean slow = durationNs > _slowThresholdNs && Looper.myLooper() == Looper.getMainLooper();
+		synchronized (_listenerStats)
+		{
+			String key = msgName + '/' + receiverName;
+			ListenerStats stats = _listenerStats.get(key);
+			if (stats == null)
+			{
+				stats = new ListenerStats(msgName, receiverName);
+				_listenerStats.put(key, stats);
+			}
+			stats.count++;
+			stats.totalNs += durationNs;
+			stats.maxNs = Math.max(stats.maxNs, durationNs);
+			if (slow)
+				stats.slowCount++;
+		}
+		if (slow)
+			Log.w(TAG, "Slow listener " + receiverName + " on " + msgName + " took " + durationNs / 1000000
+			        + " ms on the UI thread");
+	}
+
+	/**
+	 * Records the time a message waited in the queue after it was due
+	 *
+	 * @param msgId
+	 *            the id of the dispatched message
+	 * @param delayMs
+	 *            the queue delay in milliseconds
+	 */
+	public static void recordQueueDelay(int msgId, long delayMs)
+	{
+		String msgName = EventMessenger.idName(msgId);
+		synchronized (_queueStats)
+		{
+			QueueStats stats = _queueStats.get(msgName);
+			if (stats == null)
+			{
+				stats = new QueueStats(msgName);
+				_queueStats.put(msgName, stats);
+			}
+			stats.count++;
+			stats.totalMs += delayMs;
+			stats.maxMs = Math.max(stats.maxMs, delayMs);
+		}
+	}
+
+	/**
+	 * Clears the collected statistics
+	 */
+	public static void reset()
+	{
+		synchronized (_listenerStats)
+		{
+			_listenerStats.clear();
+		}
+		synchronized (_queueStats)
+		{
+			_queueStats.clear();
+		}
+	}
+
+	/**
+	 * @return the collected statistics with listeners sorted by cumulative
+	 *         latency in descending order
+	 */
+	public static JSONObject toJson() throws JSONException
+	{
+		List<ListenerStats> listeners;
+		synchronized (_listenerStats)
+		{
+			listeners = new ArrayList<ListenerStats>(_listenerStats.size());
+			for (ListenerStats stats : _listenerStats.values())
+			{
+				ListenerStats copy = new ListenerStats(stats.msgName, stats.receiverName);
+				copy.count = stats.count;
+				copy.totalNs = stats.totalNs;
+				copy.maxNs = stats.maxNs;
+				copy.slowCount = stats.slowCount;
+				listeners.add(copy);
+			}
+		}
+		Collections.sort(listeners, new Comparator<ListenerStats>()
+		{
+			@Override
+			public int compare(ListenerStats lhs, ListenerStats rhs)
+			{
+				return lhs.totalNs < rhs.totalNs ? 1 : (lhs.totalNs > rhs.totalNs ? -1 : 0);
+			}
+		});
+
+		JSONArray jsonListeners = new JSONArray();
+		for (ListenerStats stats : listeners)
+		{
+			JSONObject jsonStats = new JSONObject();
+			jsonStats.put("event", stats.msgName);
+			jsonStats.put("receiver", stats.receiverName);
+			jsonStats.put("count", stats.count);
+			jsonStats.put("total_us", stats.totalNs / 1000);
+			jsonStats.put("max_us", stats.maxNs / 1000);
+			jsonStats.put("slow", stats.slowCount);
+			jsonListeners.put(jsonStats);
+		}
+
+		JSONArray jsonQueues = new JSONArray();
+		synchronized (_queueStats)
+		{
+			for (QueueStats stats : _queueStats.values())
+			{
+				JSONObject jsonStats = new JSONObject();
+				jsonStats.put("event", stats.msgName);
+				jsonStats.put("count", stats.count);
+				jsonStats.put("total_ms", stats.totalMs);
+				jsonStats.put("max_ms", stats.maxMs);
+				jsonQueues.put(jsonStats);
+			}
+		}
+
+		JSONArray jsonPolicies = new JSONArray();
+		EventPolicy[] policies = EventMessenger.getPolicies();
+		for (int msgId = 1; msgId < policies.length; msgId++)
+		{
+			EventPolicy policy = policies[msgId];
+			if (policy == null || policy.getTriggeredCount() == 0)
+				continue;
+			JSONObject jsonPolicy = new JSONObject();
+			jsonPolicy.put("event", EventMessenger.idName(msgId));
+			jsonPolicy.put("policy", policy.toString());
+			jsonPolicy.put("triggered", policy.getTriggeredCount());
+			jsonPolicy.put("delivered", policy.getDeliveredCount());
+			jsonPolicy.put("coalesced", policy.getCoalescedCount());
+			jsonPolicy.put("dropped", policy.getDroppedCount());
+			jsonPolicies.put(jsonPolicy);
+		}
+
+		JSONObject json = new JSONObject();
+		json.put("enabled", _enabled);
+		json.put("slow_threshold_ms", _slowThresholdNs / 1000000);
+		json.put("listeners", jsonListeners);
+		json.put("queues", jsonQueues);
+		json.put("policies", jsonPolicies);
+		return json;
+	}
+
+	// receivers are aggregated by class, anonymous receivers are named after
+	// their enclosing class
+	private static String receiverName(EventReceiver eventReceiver)
+	{
+		return eventReceiver.getClass().getName();
+	}
+}
@@ -0,0 +1,187 @@
+/**
+ * Copyright (c) 2007-2015, Intelibo Ltd
+ *
+ * Project:     TVBOSDK
+ * Filename:    EventPolicy.java
+ * Author:      alek
+ * Date:        18 Oct 2015
+ * Description: Defines how triggered events are queued to the listeners
+ */
+
+package com.aviq.tv.android.sdk.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Defines how the events triggered with a message id are queued to the
+ * listeners and counts the events triggered, delivered, coalesced and
+ * dropped. The policy is declared once per message id with
+ * EventMessenger.setPolicy.
+ */
+public class EventPolicy
+{
+	public static enum Type
+	{
+		/**
+		 * A triggered event replaces the queued event with the same id
+		 */
+		LATEST,
+
+		/**
+		 * Every triggered event is delivered
+		 */
+		QUEUE,
+
+		/**
+		 * Triggered events are collected and delivered as one event every
+		 * interval. The delivered bundle has the extras of the last event and
+		 * all bundles in EventMessenger.EXTRA_BATCH
+		 */
+		BATCH,
+
+		/**
+		 * At most a number of events per second are delivered, the last event
+		 * above the limit is delivered when the limit allows
+		 */
+		RATE_LIMIT
+	}
+
+	private final Type _type;
+	private final int _intervalMs;
+	private final int _maxBatchSize;
+	private final AtomicLong _triggered = new AtomicLong();
+	private final AtomicLong _delivered = new AtomicLong();
+	private final AtomicLong _coalesced = new AtomicLong();
+	private final AtomicLong _dropped = new AtomicLong();
+
+	private EventPolicy(Type type, int intervalMs, int maxBatchSize)
+	{
+		_type = type;
+		_intervalMs = intervalMs;
+		_maxBatchSize = maxBatchSize;
+	}
+
+	/**
+	 * @return policy delivering only the latest of the queued events, the
+	 *         policy of the events without declared policy
+	 */
+	public static EventPolicy latest()
+	{
+		return new EventPolicy(Type.LATEST, 0, 0);
+	}
+
+	/**
+	 * @return policy delivering every triggered event
+	 */
+	public static EventPolicy queue()
+	{
+		return new EventPolicy(Type.QUEUE, 0, 0);
+	}
+
+	/**
+	 * @param intervalMs
+	 *            milliseconds to collect events before delivering them
+	 * @param maxBatchSize
+	 *            maximum events in a batch, the batch is delivered
+	 *            immediately when full
+	 * @return policy delivering the triggered events in batches
+	 */
+	public static EventPolicy batch(int intervalMs, int maxBatchSize)
+	{
+		return new EventPolicy(Type.BATCH, intervalMs, Math.max(1, maxBatchSize));
+	}
+
+	/**
+	 * @param perSecond
+	 *            maximum events delivered per second
+	 * @return policy limiting the rate of the delivered events
+	 */
+	public static EventPolicy rateLimit(int perSecond)
+	{
+		return new EventPolicy(Type.RATE_LIMIT, 1000 / Math.max(1, perSecond), 0);
+	}
+
+	public Type getType()
+	{
+		return _type;
+	}
+
+	/**
+	 * @return the batch interval or the minimum interval between rate limited
+	 *         events in milliseconds
+	 */
+	public int getIntervalMs()
+	{
+		return _intervalMs;
+	}
+
+	public int getMaxBatchSize()
+	{
+		return _maxBatchSize;
+	}
+
+	/**
+	 * @return the number of triggered events
+	 */
+	public long getTriggeredCount()
+	{
+		return _triggered.get();
+	}
+
+	/**
+	 * @return the number of events delivered to the listeners, a batch
+	 *         counts as one event
+	 */
+	public long getDeliveredCount()
+	{
+		return _delivered.get();
+	}
+
+	/**
+	 * @return the number of events replaced by a later event with the same
+	 *         id before delivery
+	 */
+	public long getCoalescedCount()
+	{
+		return _coalesced.get();
+	}
+
+	/**
+	 * @return the number of events dropped by the rate limit
+	 */
+	public long getDroppedCount()
+	{
+		return _dropped.get();
+	}
+
+	void onTriggered()
+	{
+		_triggered.incrementAndGet();
+	}
+
+	void onDelivered()
+	{
+		_delivered.incrementAndGet();
+	}
+
+	void onCoalesced()
+	{
+		_coalesced.incrementAndGet();
+	}
+
+	void onDropped()
+	{
+		_dropped.incrementAndGet();
+	}
+
+	@Override
+	public String toString()
+	{
+		StringBuilder sb = new StringBuilder(_type.name());
+		if (_type == Type.BATCH)
+			sb.append('(').append(_intervalMs).append(" ms, ").append(_maxBatchSize).append(')');
+		else if (_type == Type.RATE_LIMIT)
+			sb.append('(').append(1000 / Math.max(1, _intervalMs)).append("/s)");
+		return sb.toString();
+	}
+}
@@ -11,17 +11,30 @@
 
 package com.aviq.tv.android.sdk.core;
 
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.logging.Level;
-import java.util.logging.LogRecord;
-import java.util.logging.SimpleFormatter;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import org.apache.commons.collections.Buffer;
-import org.apache.commons.collections.BufferUtils;
-import org.apache.commons.collections.buffer.CircularFifoBuffer;
+import org.apache.commons.collections.buffer.UnboundedFifoBuffer;
 
 import com.aviq.tv.android.sdk.feature.crashlog.FeatureCrashLog;
+import com.aviq.tv.android.sdk.feature.crashlog.FeatureCrashLog.Severity;
 
+/**
+ * Logging wrapper writing to logcat above the log level and to an in-memory
+ * ring buffer. The ring buffer is lock-free, each record keeps the time,
+ * level, thread, tag id and the unformatted message which is formatted only
+ * when the ring buffer is read.
+ */
 public class Log
 {
 	private static final String TAG = Log.class.getSimpleName();
@@ -32,12 +45,25 @@ public class Log
 	public static final int WARN = 5;
 	public static final int ERROR = 6;
 	public static final int ASSERT = 7;
-	private static Buffer _ringBuf = BufferUtils.synchronizedBuffer(new CircularFifoBuffer(10000));
-	private static AtomicLong _counter = new AtomicLong(0);
-	private static SimpleFormatter _formatter = new SimpleFormatter();
-	private static boolean _enableRingBuffer = true;
 
-	private static int _logLevel = VERBOSE;
+	private static final String LEVEL_CHARS = "??VDIWEA";
+
+	// ring buffer capacity, power of 2
+	private static final int RING_SIZE = 16384;
+	private static final int RING_MASK = RING_SIZE - 1;
+
+	// ring buffer of immutable records, a slot is replaced as a whole so
+	// readers never see a partially written record
+	private static final AtomicLong _ringHead = new AtomicLong();
+	private static final AtomicReferenceArray<Record> _ring = new AtomicReferenceArray<Record>(RING_SIZE);
+
+	// tag ids
+	private static final ConcurrentHashMap<String, Integer> _tagIds = new ConcurrentHashMap<String, Integer>();
+	private static final List<String> _tags = new ArrayList<String>();
+
+	private static volatile boolean _enableRingBuffer = true;
+	private static volatile int _ringLevel = VERBOSE;
+	private static volatile int _logLevel = VERBOSE;
 
 	private Log()
 	{
@@ -48,99 +74,119 @@ public class Log
 		_logLevel = level;
 	}
 
+	/**
+	 * Sets the minimum level of the messages recorded in the ring buffer
+	 */
+	public static void setRingBufferLevel(int level)
+	{
+		_ringLevel = level;
+	}
+
+	/**
+	 * @return true if messages with the specified level are logged to logcat
+	 *         or to the ring buffer. Use to avoid building messages which are
+	 *         not going to be logged.
+	 */
+	public static boolean isLoggable(int level)
+	{
+		return (_enableRingBuffer && level >= _ringLevel) || level >= _logLevel;
+	}
+
 	public static int v(String tag, String msg)
 	{
-		return doLog(VERBOSE, tag, msg, null);
+		return doLog(VERBOSE, tag, msg, null, null);
 	}
 
 	public static int v(String tag, String msg, Throwable ex)
 	{
-		return doLog(VERBOSE, tag, msg, ex);
+		return doLog(VERBOSE, tag, msg, null, ex);
+	}
+
+	/**
+	 * Logs message formatted with String.format only if the level is logged.
+	 * The ring buffer formats the message when read, arguments other than
+	 * strings and boxed primitives are converted to strings when recorded
+	 * since they may change before that.
+	 */
+	public static int v(String tag, String format, Object... args)
+	{
+		return doLog(VERBOSE, tag, format, args, null);
 	}
 
 	public static int d(String tag, String msg)
 	{
-		return doLog(DEBUG, tag, msg, null);
+		return doLog(DEBUG, tag, msg, null, null);
 	}
 
 	public static int d(String tag, String msg, Throwable ex)
 	{
-		return doLog(DEBUG, tag, msg, ex);
+		return doLog(DEBUG, tag, msg, null, ex);
+	}
+
+	/**
+	 * Logs message formatted with String.format only if the level is logged.
+	 * The ring buffer formats the message when read, arguments other than
+	 * strings and boxed primitives are converted to strings when recorded
+	 * since they may change before that.
+	 */
+	public static int d(String tag, String format, Object... args)
+	{
+		return doLog(DEBUG, tag, format, args, null);
 	}
 
 	public static int i(String tag, String msg)
 	{
-		return doLog(INFO, tag, msg, null);
+		return doLog(INFO, tag, msg, null, null);
 	}
 
 	public static int i(String tag, String msg, Throwable ex)
 	{
-		return doLog(INFO, tag, msg, ex);
+		return doLog(INFO, tag, msg, null, ex);
+	}
+
+	/**
+	 * Logs message formatted with String.format only if the level is logged.
+	 * The ring buffer formats the message when read, arguments other than
+	 * strings and boxed primitives are converted to strings when recorded
+	 * since they may change before that.
+	 */
+	public static int i(String tag, String format, Object... args)
+	{
+		return doLog(INFO, tag, format, args, null);
 	}
 
 	public static int w(String tag, String msg)
 	{
-		return doLog(WARN, tag, msg, null);
+		return doLog(WARN, tag, msg, null, null);
 	}
 
 	public static int w(String tag, String msg, Throwable ex)
 	{
-		return doLog(WARN, tag, msg, ex);
+		return doLog(WARN, tag, msg, null, ex);
 	}
 
 	public static int e(String tag, String msg)
 	{
-		return doLog(ERROR, tag, msg, null);
+		return doLog(ERROR, tag, msg, null, null);
 	}
 
 	public static int e(String tag, String msg, Throwable ex)
 	{
-		return doLog(ERROR, tag, msg, ex);
+		return doLog(ERROR, tag, msg, null, ex);
 	}
 
-	@SuppressWarnings("unchecked")
-	private static int doLog(int level, String tag, String msg, Throwable ex)
+	private static int doLog(int level, String tag, String msg, Object[] args, Throwable ex)
 	{
 		if (level == WARN || level == ERROR)
 			handleWarnsAndErrors(level, tag, msg, ex);
 
-		if (_enableRingBuffer)
-		{
-			Level logLevel;
-			switch (level)
-			{
-				case VERBOSE:
-					logLevel = Level.FINER;
-				break;
-				case DEBUG:
-					logLevel = Level.FINE;
-				break;
-				case INFO:
-					logLevel = Level.INFO;
-				break;
-				case WARN:
-					logLevel = Level.WARNING;
-				break;
-				case ERROR:
-				case ASSERT:
-					logLevel = Level.SEVERE;
-				break;
-				default:
-					logLevel = Level.FINEST;
-				break;
-			}
-			LogRecord logRecord = new LogRecord(logLevel, tag + " " + msg);
-			logRecord.setThrown(ex);
-			logRecord.setThreadID((int) Thread.currentThread().getId());
-
-			String logLine = _formatter.format(logRecord);
-			logLine = logLine.replaceFirst("\n", "");
-			logLine = logLine.replaceFirst(" null null", " ");
-			_ringBuf.add(_counter.incrementAndGet() + ": " + logLine);
-		}
+		if (_enableRingBuffer && level >= _ringLevel)
+			record(level, tag, msg, args, ex);
 
 		if (level >= _logLevel)
 		{
+			if (args != null)
+				msg = format(msg, args);
 			switch (level)
 			{
 				case DEBUG:
@@ -158,14 +204,152 @@ public class Log
 		return 0;
 	}
 
+	// writes record to the ring buffer without locking. The stack trace is
+	// kept as string so the record doesn't keep the exception objects alive
+	private static void record(int level, String tag, String msg, Object[] args, Throwable ex)
+	{
+		long seq = _ringHead.getAndIncrement();
+		Record record = new Record(seq, System.currentTimeMillis(), level, Thread.currentThread().getId(),
+		        tagId(tag), msg, snapshot(args), ex != null ? getStackTraceString(ex) : null);
+		// the final fields of the record are visible to any thread reading it
+		_ring.lazySet((int) (seq & RING_MASK), record);
+	}
+
+	// converts the mutable arguments to strings, the immutable are kept as is
+	// for lazy formatting
+	private static Object[] snapshot(Object[] args)
+	{
+		if (args == null)
+			return null;
+		Object[] copy = null;
+		for (int i = 0; i < args.length; i++)
+		{
+			Object arg = args[i];
+			if (arg == null || isImmutable(arg.getClass()))
+				continue;
+			if (copy == null)
+				copy = args.clone();
+			copy[i] = String.valueOf(arg);
+		}
+		return copy != null ? copy : args;
+	}
+
+	private static boolean isImmutable(Class<?> cls)
+	{
+		return cls == String.class || cls == Integer.class || cls == Long.class || cls == Boolean.class
+		        || cls == Character.class || cls == Double.class || cls == Float.class || cls == Short.class
+		        || cls == Byte.class;
+	}
+
+	private static int tagId(String tag)
+	{
+		if (tag == null)
+			tag = "";
+		Integer id = _tagIds.get(tag);
+		if (id != null)
+			return id.intValue();
+		synchronized (_tags)
+		{
+			id = _tagIds.get(tag);
+			if (id == null)
+			{
+				id = Integer.valueOf(_tags.size());
+				_tags.add(tag);
+				_tagIds.put(tag, id);
+			}
+			return id.intValue();
+		}
+	}
+
+	private static String format(String format, Object[] args)
+	{
+		try
+		{
+			return String.format(Locale.US, format, args);
+		}
+		catch (RuntimeException e)
+		{
+			return format + " " + Arrays.toString(args);
+		}
+	}
+
 	public static void enableRingBuffer(boolean enableRingBuffer)
 	{
 		_enableRingBuffer = enableRingBuffer;
 	}
 
+	/**
+	 * Writes the ring buffer records formatted as lines, oldest first. The
+	 * records overwritten while writing are skipped.
+	 *
+	 * @param writer
+	 *            the writer to print the lines to
+	 * @param minLevel
+	 *            the minimum level of the written records
+	 * @return the number of written records
+	 */
+	public static int writeRingBuffer(PrintWriter writer, int minLevel)
+	{
+		SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.US);
+		Date date = new Date();
+		StringBuilder line = new StringBuilder(256);
+		long head = _ringHead.get();
+		int nWritten = 0;
+		for (long seq = Math.max(0, head - RING_SIZE); seq < head; seq++)
+		{
+			Record record = _ring.get((int) (seq & RING_MASK));
+			// not written yet or overwritten
+			if (record == null || record.seq != seq)
+				continue;
+			if (record.level < minLevel)
+				continue;
+
+			String tag;
+			synchronized (_tags)
+			{
+				tag = _tags.get(record.tagId);
+			}
+			date.setTime(record.time);
+			line.setLength(0);
+			line.append(seq + 1).append(": ").append(dateFormat.format(date)).append(' ');
+			line.append(record.thread).append(' ').append(LEVEL_CHARS.charAt(Math.min(record.level, ASSERT)));
+			line.append('/').append(tag).append(": ");
+			line.append(record.args != null ? format(record.msg, record.args) : record.msg);
+			if (record.stackTrace != null)
+				line.append('\n').append(record.stackTrace);
+			writer.println(line);
+			nWritten++;
+		}
+		return nWritten;
+	}
+
+	/**
+	 * @return snapshot of the ring buffer lines, oldest first
+	 * @deprecated use writeRingBuffer
+	 */
+	@Deprecated
+	@SuppressWarnings("unchecked")
 	public static Buffer getRingBuffer()
 	{
-		return _ringBuf;
+		StringWriter lines = new StringWriter();
+		writeRingBuffer(new PrintWriter(lines), ANY);
+		Buffer ringBuffer = new UnboundedFifoBuffer();
+		for (String line : lines.toString().split("\n"))
+			if (line.length() > 0)
+				ringBuffer.add(line);
+		return ringBuffer;
+	}
+
+	/**
+	 * @return the level represented by its first letter (v, d, i, w, e or a)
+	 *         or ANY if unknown
+	 */
+	public static int levelOf(String levelId)
+	{
+		if (levelId == null || levelId.length() == 0)
+			return ANY;
+		int level = LEVEL_CHARS.indexOf(Character.toUpperCase(levelId.charAt(0)));
+		return level >= VERBOSE ? level : ANY;
 	}
 
 	public static String getStackTraceString(Throwable tr)
@@ -173,39 +357,34 @@ public class Log
 		return android.util.Log.getStackTraceString(tr);
 	}
 
-	private static void handleWarnsAndErrors(final int level, final String tag, final String msg, final Throwable ex)
+	private static class Record
 	{
-		EventMessenger messenger = Environment.getInstance().getEventMessenger();
-		if (messenger != null)
-		{
-			messenger.post(new Runnable()
-			{
-				@Override
-				public void run()
-				{
-					FeatureCrashLog crashLog = (FeatureCrashLog) Environment.getInstance().getFeature(
-					        FeatureCrashLog.class);
-					if (crashLog != null)
-					{
-						if (level == WARN)
-							crashLog.alert(tag, msg, ex);
-						else if (level == ERROR)
-							crashLog.error(tag, msg, ex);
-						else
-						{
-							android.util.Log.w(TAG, "Only warn and errors will handle the crash log");
-						}
-					}
-					else
-					{
-						android.util.Log.w(TAG, "CRASHLOG is not ready yet");
-					}
-				}
-			});
-		}
-		else
+		final long seq;
+		final long time;
+		final int level;
+		final long thread;
+		final int tagId;
+		final String msg;
+		final Object[] args;
+		final String stackTrace;
+
+		Record(long seq, long time, int level, long thread, int tagId, String msg, Object[] args, String stackTrace)
 		{
-			android.util.Log.w(TAG, "Environment is not ready yet");
+			this.seq = seq;
+			this.time = time;
+			this.level = level;
+			this.thread = thread;
+			this.tagId = tagId;
+			this.msg = msg;
+			this.args = args;
+			this.stackTrace = stackTrace;
 		}
 	}
+
+	// queues the warnings and errors to the crash log without blocking the
+	// logging thread, the crash log reports them from its alert queue thread
+	private static void handleWarnsAndErrors(int level, String tag, String msg, Throwable ex)
+	{
+		FeatureCrashLog.queueAlert(level == WARN ? Severity.ALERT : Severity.ERROR, tag, msg, ex);
+	}
 }
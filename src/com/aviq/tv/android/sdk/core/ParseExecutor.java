@@ -0,0 +1,217 @@
+/**
+ * Copyright (c) 2007-2015, Intelibo Ltd
+ *
+ * Project:     TVBOSDK
+ * Filename:    ParseExecutor.java
+ * Author:      alek
+ * Date:        18 Oct 2015
+ * Description: Parses network responses on background threads
+ */
+
+package com.aviq.tv.android.sdk.core;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.os.Process;
+
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.android.volley.toolbox.HttpHeaderParser;
+import com.aviq.tv.android.sdk.core.feature.BootTrace;
+
+/**
+ * Parses raw network responses on a bounded pool of background threads and
+ * posts the parse results back to the main thread through an EventMessenger
+ */
+public class ParseExecutor
+{
+	private static final String TAG = ParseExecutor.class.getSimpleName();
+	private static final int KEEP_ALIVE_SECONDS = 30;
+
+	/**
+	 * Parses raw response on a parser thread
+	 */
+	public interface Parser<T>
+	{
+		/**
+		 * @param response
+		 *            the raw network response, response data is null on not
+		 *            modified response without cache entry
+		 * @return the parse result
+		 */
+		T parse(NetworkResponse response) throws Exception;
+	}
+
+	/**
+	 * Receives parse result on the main thread
+	 */
+	public interface OnParsed<T> extends Response.ErrorListener
+	{
+		void onParsed(T result);
+
+		void onParseError(Exception e);
+	}
+
+	private final String _name;
+	private final ThreadPoolExecutor _executor;
+	private final EventMessenger _eventMessenger;
+	private final BootTrace _bootTrace;
+
+	/**
+	 * @param name
+	 *            name prefix of the parser threads
+	 * @param nThreads
+	 *            the maximum number of parser threads
+	 * @param eventMessenger
+	 *            event messenger posting the results to the main thread
+	 */
+	public ParseExecutor(String name, int nThreads, EventMessenger eventMessenger)
+	{
+		this(name, nThreads, eventMessenger, null);
+	}
+
+	/**
+	 * @param name
+	 *            name prefix of the parser threads
+	 * @param nThreads
+	 *            the maximum number of parser threads
+	 * @param eventMessenger
+	 *            event messenger posting the results to the main thread
+	 * @param bootTrace
+	 *            boot trace recording the parse times or null
+	 */
+	public ParseExecutor(String name, int nThreads, EventMessenger eventMessenger, BootTrace bootTrace)
+	{
+		_name = name;
+		_eventMessenger = eventMessenger;
+		_bootTrace = bootTrace;
+		final String threadName = name + "-parser-";
+		_executor = new ThreadPoolExecutor(Math.max(1, nThreads), Math.max(1, nThreads), KEEP_ALIVE_SECONDS,
+		        TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory()
+		        {
+			        private final AtomicInteger _count = new AtomicInteger();
+
+			        @Override
+			        public Thread newThread(final Runnable runnable)
+			        {
+				        return new Thread(new Runnable()
+				        {
+					        @Override
+					        public void run()
+					        {
+						        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+						        runnable.run();
+					        }
+				        }, threadName + _count.incrementAndGet());
+			        }
+		        });
+		_executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Parses response on a parser thread and delivers the result to onParsed
+	 * on the main thread
+	 */
+	public <T> void parse(final NetworkResponse response, final Parser<T> parser, final OnParsed<T> onParsed)
+	{
+		_executor.execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				long processStart = System.nanoTime();
+				long traceStart = _bootTrace != null ? _bootTrace.now() : 0;
+				try
+				{
+					final T result = parser.parse(response);
+					Log.d(TAG, _name + ": parsed response in " + (System.nanoTime() - processStart) / 1000000 + " ms");
+					if (_bootTrace != null)
+						_bootTrace.addParse(_name, traceStart, response.data != null ? response.data.length : 0);
+					_eventMessenger.post(new Runnable()
+					{
+						@Override
+						public void run()
+						{
+							onParsed.onParsed(result);
+						}
+					});
+				}
+				catch (final Exception e)
+				{
+					_eventMessenger.post(new Runnable()
+					{
+						@Override
+						public void run()
+						{
+							onParsed.onParseError(e);
+						}
+					});
+				}
+			}
+		});
+	}
+
+	/**
+	 * Calls the callable on the main thread and waits for its result. Lets the
+	 * parsers use the feature state, such as the overridable meta data
+	 * methods, which must be accessed on the main thread only. Must be called
+	 * from a parser thread.
+	 *
+	 * @return the result of the callable
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the main thread
+	 */
+	public <V> V callMain(Callable<V> callable) throws InterruptedException
+	{
+		FutureTask<V> task = new FutureTask<V>(callable);
+		_eventMessenger.post(task);
+		try
+		{
+			return task.get();
+		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	/**
+	 * Volley request delivering the raw response to a parse executor
+	 */
+	public static class RawRequest<T> extends Request<NetworkResponse>
+	{
+		private final ParseExecutor _parseExecutor;
+		private final Parser<T> _parser;
+		private final OnParsed<T> _onParsed;
+
+		public RawRequest(ParseExecutor parseExecutor, int method, String url, Parser<T> parser, OnParsed<T> onParsed)
+		{
+			super(method, url, onParsed);
+			_parseExecutor = parseExecutor;
+			_parser = parser;
+			_onParsed = onParsed;
+		}
+
+		@Override
+		protected Response<NetworkResponse> parseNetworkResponse(NetworkResponse response)
+		{
+			return Response.success(response, HttpHeaderParser.parseCacheHeaders(response));
+		}
+
+		@Override
+		protected void deliverResponse(NetworkResponse response)
+		{
+			_parseExecutor.parse(response, _parser, _onParsed);
+		}
+	}
+}
@@ -17,26 +17,64 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.Editor;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 
-import com.aviq.tv.android.sdk.utils.TextUtils;
+import com.aviq.tv.android.sdk.utils.UrlTemplate;
 
 /**
- * Android SharedPreferences wrapper
+ * Android SharedPreferences wrapper. The values are read from an in-memory
+ * snapshot, enum keys are resolved by ordinal. The changes are applied to
+ * SharedPreferences once per main looper message, or on flush.
  */
 public class Prefs
 {
 	private static final String TAG = Prefs.class.getSimpleName();
+
+	// marks keys known to be missing in the snapshot slots
+	private static final Object MISSING = new Object();
+
+	private static ExecutorService _fileExecutor;
+
 	private String _name;
 	private final SharedPreferences _prefs;
 	private boolean _isOverwrite;
 	private File _externalFile;
 
+	// snapshot of all values by key name
+	private final Map<String, Object> _values;
+
+	// snapshot values by enum key ordinal, replaced on every change
+	private volatile SlotTable _slotTable = new SlotTable(new Class<?>[0], new AtomicReferenceArray<?>[0]);
+
+	// changes not applied to SharedPreferences yet
+	private Editor _pendingEditor;
+	private final Handler _handler = new Handler(Looper.getMainLooper());
+	private final Runnable _applyRunnable = new Runnable()
+	{
+		@Override
+		public void run()
+		{
+			flush();
+		}
+	};
+	private final AtomicBoolean _applyScheduled = new AtomicBoolean();
+	private final AtomicBoolean _externalFileScheduled = new AtomicBoolean();
+
+	// parsed string values by key, invalidated on change
+	private final Map<String, UrlTemplate> _templates = new HashMap<String, UrlTemplate>();
+
 	/**
 	 * Constructor
 	 *
@@ -56,6 +94,7 @@ public class Prefs
 			_externalFile = new File(android.os.Environment.getExternalStorageDirectory(), "copy.prefs");
 			loadSharedPreferencesFromFile(_externalFile);
 		}
+		_values = new HashMap<String, Object>(_prefs.getAll());
 	}
 
 	/**
@@ -67,7 +106,7 @@ public class Prefs
 	 */
 	public boolean has(Object key)
 	{
-		return _prefs.contains(key.toString());
+		return get(key) != null;
 	}
 
 	/**
@@ -79,9 +118,7 @@ public class Prefs
 	 */
 	public String getString(Object key)
 	{
-		if (!_prefs.contains(key.toString()))
-			throw new RuntimeException("Parameter " + key + " is not set");
-		return _prefs.getString(key.toString(), null);
+		return (String) getExisting(key);
 	}
 
 	/**
@@ -95,7 +132,32 @@ public class Prefs
 	 */
 	public String getString(Object key, Bundle bundle)
 	{
-		return TextUtils.substitute(getString(key), bundle);
+		return getTemplate(key).render(bundle);
+	}
+
+	/**
+	 * Returns string parameter from preferences parsed as template with
+	 * ${<i>key</i>} placeholders. The template is parsed once and cached
+	 * until the parameter changes.
+	 *
+	 * @param key
+	 *            parameter name
+	 * @return UrlTemplate of the value corresponding to the specified key
+	 */
+	public UrlTemplate getTemplate(Object key)
+	{
+		String value = getString(key);
+		synchronized (_templates)
+		{
+			UrlTemplate template = _templates.get(key.toString());
+			// compare in case the value is changed through another Prefs
+			if (template == null || !template.getTemplate().equals(value))
+			{
+				template = UrlTemplate.compile(value);
+				_templates.put(key.toString(), template);
+			}
+			return template;
+		}
 	}
 
 	/**
@@ -107,9 +169,7 @@ public class Prefs
 	 */
 	public int getInt(Object key)
 	{
-		if (!_prefs.contains(key.toString()))
-			throw new RuntimeException("Parameter " + key + " is not set");
-		return _prefs.getInt(key.toString(), 0);
+		return ((Integer) getExisting(key)).intValue();
 	}
 
 	/**
@@ -121,9 +181,7 @@ public class Prefs
 	 */
 	public long getLong(Object key)
 	{
-		if (!_prefs.contains(key.toString()))
-			throw new RuntimeException("Parameter " + key + " is not set");
-		return _prefs.getLong(key.toString(), 0);
+		return ((Long) getExisting(key)).longValue();
 	}
 
 	/**
@@ -135,9 +193,7 @@ public class Prefs
 	 */
 	public boolean getBool(Object key)
 	{
-		if (!_prefs.contains(key.toString()))
-			throw new RuntimeException("Parameter " + key + " is not set");
-		return _prefs.getBoolean(key.toString(), false);
+		return ((Boolean) getExisting(key)).booleanValue();
 	}
 
 	/**
@@ -150,13 +206,16 @@ public class Prefs
 	 */
 	public void put(Object key, String value)
 	{
-		if (_isOverwrite || !_prefs.contains(key.toString()))
+		if (_isOverwrite || !has(key))
 		{
 			Log.d(TAG + ":" + _name, "Set " + key + " = " + value);
-			Editor edit = _prefs.edit();
-			edit.putString(key.toString(), value);
-			edit.apply();
-			onApplyChanges();
+			synchronized (this)
+			{
+				setValue(key.toString(), value);
+				getPendingEditor().putString(key.toString(), value);
+			}
+			invalidateTemplate(key);
+			scheduleApply();
 		}
 		else
 		{
@@ -176,13 +235,15 @@ public class Prefs
 	 */
 	public void put(Object key, int value)
 	{
-		if (_isOverwrite || !_prefs.contains(key.toString()))
+		if (_isOverwrite || !has(key))
 		{
 			Log.d(TAG + ":" + _name, "Set " + key + " = " + value);
-			Editor edit = _prefs.edit();
-			edit.putInt(key.toString(), value);
-			edit.apply();
-			onApplyChanges();
+			synchronized (this)
+			{
+				setValue(key.toString(), Integer.valueOf(value));
+				getPendingEditor().putInt(key.toString(), value);
+			}
+			scheduleApply();
 		}
 		else
 		{
@@ -202,13 +263,15 @@ public class Prefs
 	 */
 	public void put(Object key, long value)
 	{
-		if (_isOverwrite || !_prefs.contains(key.toString()))
+		if (_isOverwrite || !has(key))
 		{
 			Log.d(TAG + ":" + _name, "Set " + key + " = " + value);
-			Editor edit = _prefs.edit();
-			edit.putLong(key.toString(), value);
-			edit.apply();
-			onApplyChanges();
+			synchronized (this)
+			{
+				setValue(key.toString(), Long.valueOf(value));
+				getPendingEditor().putLong(key.toString(), value);
+			}
+			scheduleApply();
 		}
 		else
 		{
@@ -228,13 +291,15 @@ public class Prefs
 	 */
 	public void put(Object key, boolean value)
 	{
-		if (_isOverwrite || !_prefs.contains(key.toString()))
+		if (_isOverwrite || !has(key))
 		{
 			Log.d(TAG + ":" + _name, "Set " + key + " = " + value);
-			Editor edit = _prefs.edit();
-			edit.putBoolean(key.toString(), value);
-			edit.apply();
-			onApplyChanges();
+			synchronized (this)
+			{
+				setValue(key.toString(), Boolean.valueOf(value));
+				getPendingEditor().putBoolean(key.toString(), value);
+			}
+			scheduleApply();
 		}
 		else
 		{
@@ -247,9 +312,9 @@ public class Prefs
 	/**
 	 * Return map with all preferences
 	 */
-	public Map<String, ?> getAll()
+	public synchronized Map<String, ?> getAll()
 	{
-		return _prefs.getAll();
+		return new HashMap<String, Object>(_values);
 	}
 
 	/**
@@ -260,10 +325,13 @@ public class Prefs
 	 */
 	public void remove(Object key)
 	{
-		Editor edit = _prefs.edit();
-		edit.remove(key.toString());
-		edit.apply();
-		onApplyChanges();
+		synchronized (this)
+		{
+			setValue(key.toString(), null);
+			getPendingEditor().remove(key.toString());
+		}
+		invalidateTemplate(key);
+		scheduleApply();
 	}
 
 	/**
@@ -271,31 +339,183 @@ public class Prefs
 	 */
 	public void clear()
 	{
-		Editor edit = _prefs.edit();
-		edit.clear();
-		edit.apply();
+		synchronized (this)
+		{
+			_values.clear();
+			_slotTable = new SlotTable(new Class<?>[0], new AtomicReferenceArray<?>[0]);
+
+			// the editor clears before applying its changes, so the pending
+			// changes are replaced
+			_pendingEditor = _prefs.edit();
+			_pendingEditor.clear();
+		}
+		synchronized (_templates)
+		{
+			_templates.clear();
+		}
+		scheduleApply();
+	}
+
+	/**
+	 * Applies the pending changes to SharedPreferences now instead of at the
+	 * next main looper message
+	 */
+	public void flush()
+	{
+		_applyScheduled.set(false);
+		Editor editor;
+		synchronized (this)
+		{
+			editor = _pendingEditor;
+			_pendingEditor = null;
+		}
+		if (editor == null)
+			return;
+		editor.apply();
 		onApplyChanges();
 	}
 
+	// returns the value or null if missing
+	private Object get(Object key)
+	{
+		if (key instanceof Enum)
+		{
+			Enum<?> enumKey = (Enum<?>) key;
+			AtomicReferenceArray<Object> slots = getSlots(enumKey.getDeclaringClass());
+			Object value = slots.get(enumKey.ordinal());
+			if (value == null)
+			{
+				value = lookup(enumKey.toString());
+				slots.set(enumKey.ordinal(), value);
+			}
+			return value == MISSING ? null : value;
+		}
+		Object value = lookup(key.toString());
+		return value == MISSING ? null : value;
+	}
+
+	private Object getExisting(Object key)
+	{
+		Object value = get(key);
+		if (value == null)
+			throw new RuntimeException("Parameter " + key + " is not set");
+		return value;
+	}
+
+	private synchronized Object lookup(String name)
+	{
+		Object value = _values.get(name);
+		return value != null ? value : MISSING;
+	}
+
+	// sets snapshot value or removes it if null, called with this lock held
+	private void setValue(String name, Object value)
+	{
+		if (value != null)
+			_values.put(name, value);
+		else
+			_values.remove(name);
+
+		// the slots are refilled from the values on demand
+		SlotTable slotTable = _slotTable;
+		AtomicReferenceArray<?>[] slots = new AtomicReferenceArray<?>[slotTable.classes.length];
+		for (int i = 0; i < slots.length; i++)
+			slots[i] = new AtomicReferenceArray<Object>(slotTable.slots[i].length());
+		_slotTable = new SlotTable(slotTable.classes, slots);
+	}
+
+	@SuppressWarnings("unchecked")
+	private AtomicReferenceArray<Object> getSlots(Class<?> enumClass)
+	{
+		SlotTable slotTable = _slotTable;
+		for (int i = 0; i < slotTable.classes.length; i++)
+			if (slotTable.classes[i] == enumClass)
+				return (AtomicReferenceArray<Object>) slotTable.slots[i];
+
+		synchronized (this)
+		{
+			slotTable = _slotTable;
+			for (int i = 0; i < slotTable.classes.length; i++)
+				if (slotTable.classes[i] == enumClass)
+					return (AtomicReferenceArray<Object>) slotTable.slots[i];
+
+			int count = slotTable.classes.length;
+			Class<?>[] classes = new Class<?>[count + 1];
+			AtomicReferenceArray<?>[] slots = new AtomicReferenceArray<?>[count + 1];
+			System.arraycopy(slotTable.classes, 0, classes, 0, count);
+			System.arraycopy(slotTable.slots, 0, slots, 0, count);
+			classes[count] = enumClass;
+			slots[count] = new AtomicReferenceArray<Object>(enumClass.getEnumConstants().length);
+			_slotTable = new SlotTable(classes, slots);
+			return (AtomicReferenceArray<Object>) slots[count];
+		}
+	}
+
+	// called with this lock held
+	private Editor getPendingEditor()
+	{
+		if (_pendingEditor == null)
+			_pendingEditor = _prefs.edit();
+		return _pendingEditor;
+	}
+
+	private void scheduleApply()
+	{
+		if (_applyScheduled.compareAndSet(false, true))
+			_handler.post(_applyRunnable);
+	}
+
+	private void invalidateTemplate(Object key)
+	{
+		synchronized (_templates)
+		{
+			_templates.remove(key.toString());
+		}
+	}
+
 	private void onApplyChanges()
 	{
-		if (_isOverwrite)
+		if (_isOverwrite && _externalFileScheduled.compareAndSet(false, true))
 		{
-			// save to external storage
-			saveSharedPreferencesToFile(_externalFile);
+			// save to external storage in background, the changes applied
+			// meanwhile are saved with the same write
+			getFileExecutor().execute(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					_externalFileScheduled.set(false);
+					saveSharedPreferencesToFile(_externalFile);
+				}
+			});
 		}
 	}
 
+	private static synchronized ExecutorService getFileExecutor()
+	{
+		if (_fileExecutor == null)
+			_fileExecutor = Executors.newSingleThreadExecutor();
+		return _fileExecutor;
+	}
+
+	// writes to a temporary file renamed over the destination so a crash
+	// while writing never leaves a truncated copy
 	private boolean saveSharedPreferencesToFile(File dst)
 	{
 		Log.i(TAG, ".saveSharedPreferencesToFile: dst = " + dst.getAbsolutePath());
 		boolean res = false;
+		File tmp = new File(dst.getAbsolutePath() + ".tmp");
 		ObjectOutputStream output = null;
 		try
 		{
-			output = new ObjectOutputStream(new FileOutputStream(dst));
-			output.writeObject(_prefs.getAll());
-			res = true;
+			output = new ObjectOutputStream(new FileOutputStream(tmp));
+			output.writeObject(getAll());
+			output.flush();
+			output.close();
+			output = null;
+			res = tmp.renameTo(dst);
+			if (!res)
+				Log.e(TAG, "Can't rename " + tmp + " to " + dst);
 		}
 		catch (FileNotFoundException e)
 		{
@@ -311,7 +531,6 @@ public class Prefs
 			{
 				if (output != null)
 				{
-					output.flush();
 					output.close();
 				}
 			}
@@ -323,6 +542,18 @@ public class Prefs
 		return res;
 	}
 
+	private static class SlotTable
+	{
+		final Class<?>[] classes;
+		final AtomicReferenceArray<?>[] slots;
+
+		SlotTable(Class<?>[] classes, AtomicReferenceArray<?>[] slots)
+		{
+			this.classes = classes;
+			this.slots = slots;
+		}
+	}
+
 	@SuppressWarnings(
 	{ "unchecked" })
 	private boolean loadSharedPreferencesFromFile(File src)
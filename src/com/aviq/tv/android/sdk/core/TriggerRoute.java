@@ -13,6 +13,7 @@ package com.aviq.tv.android.sdk.core;
 import android.os.Bundle;
 
 import com.aviq.tv.android.sdk.core.feature.IFeature;
+import com.aviq.tv.android.sdk.utils.TextUtils;
 
 /**
  * Event trigger route holder class
@@ -23,6 +24,12 @@ public class TriggerRoute
 	private IFeature _target;
 	private Bundle _params;
 
+	// routed params prepared by setParams, source keys are null for constant
+	// values
+	private String[] _keys = new String[0];
+	private String[] _values;
+	private String[] _sourceKeys;
+
 	/**
 	 * Creates TriggerRoute instance
 	 *
@@ -59,6 +66,25 @@ public class TriggerRoute
 	public void setParams(Bundle params)
 	{
 		_params = params;
+		int count = params != null ? params.size() : 0;
+		_keys = new String[count];
+		_values = new String[count];
+		_sourceKeys = new String[count];
+		if (params == null)
+			return;
+		int i = 0;
+		for (String key : params.keySet())
+		{
+			String value = params.getString(key);
+			_keys[i] = key;
+			_values[i] = value;
+			if (value != null && value.length() >= 2 && value.charAt(0) == '{'
+			        && value.charAt(value.length() - 1) == '}')
+			{
+				_sourceKeys[i] = value.substring(1, value.length() - 1);
+			}
+			i++;
+		}
 	}
 
 	/**
@@ -70,4 +96,39 @@ public class TriggerRoute
 	{
 		return _params;
 	}
+
+	/**
+	 * Creates the params of the routed event. Values of the form {key} are
+	 * substituted with the values of the source event params.
+	 *
+	 * @param eventParams
+	 *            the source event params
+	 * @return new Bundle owned by the target feature
+	 */
+	public Bundle createRoutedParams(Bundle eventParams)
+	{
+		Bundle bundle = new Bundle();
+		for (int i = 0; i < _keys.length; i++)
+		{
+			if (_sourceKeys[i] == null)
+			{
+				bundle.putString(_keys[i], _values[i]);
+			}
+			else
+			{
+				// fetch value from event params
+				Object substVal = eventParams != null ? eventParams.get(_sourceKeys[i]) : null;
+				if (substVal != null)
+				{
+					// substitute value to the new bundle
+					TextUtils.putBundleObject(bundle, _keys[i], substVal);
+				}
+				else if (Log.isLoggable(Log.DEBUG))
+				{
+					Log.d(_target.getName(), "Event key `" + _sourceKeys[i] + "' has null value!");
+				}
+			}
+		}
+		return bundle;
+	}
 }
@@ -0,0 +1,506 @@
+/**
+ * Copyright (c) 2007-2015, Intelibo Ltd
+ *
+ * Project:     TVBOSDK
+ * Filename:    BootTrace.java
+ * Author:      alek
+ * Date:        18 Oct 2015
+ * Description: Records features initialization timeline
+ */
+
+package com.aviq.tv.android.sdk.core.feature;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.os.Build;
+
+import com.android.volley.Network;
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.VolleyError;
+import com.aviq.tv.android.sdk.core.Log;
+import com.aviq.tv.android.sdk.utils.Files;
+
+/**
+ * Records the features initialization timeline with the network requests and
+ * the parsed bytes during the initialization. The timeline is exported in
+ * Chrome trace event format loadable in chrome://tracing.
+ */
+public class BootTrace
+{
+	private static final String TAG = BootTrace.class.getSimpleName();
+	private static final String CATEGORY_FEATURE = "feature";
+	private static final String CATEGORY_NETWORK = "network";
+	private static final String CATEGORY_PARSE = "parse";
+	private static final String TRACE_EXT = ".json";
+
+	/**
+	 * Trace of a single feature initialization
+	 */
+	private static class FeatureSpan
+	{
+		final String name;
+		long queuedTime = -1;
+		long startTime = -1;
+		long endTime = -1;
+		long threadId;
+		String threadName;
+		String result;
+
+		FeatureSpan(String name)
+		{
+			this.name = name;
+		}
+	}
+
+	/**
+	 * Trace of a network request or a response parsing
+	 */
+	private static class Span
+	{
+		final String category;
+		final String name;
+		final long startTime;
+		final long duration;
+		final long threadId;
+		final long bytes;
+		final int status;
+
+		Span(String category, String name, long startTime, long duration, long bytes, int status)
+		{
+			this.category = category;
+			this.name = name;
+			this.startTime = startTime;
+			this.duration = duration;
+			this.bytes = bytes;
+			this.status = status;
+			this.threadId = Thread.currentThread().getId();
+		}
+	}
+
+	private final Map<IFeature, FeatureSpan> _features = new LinkedHashMap<IFeature, FeatureSpan>();
+	private final List<Span> _spans = new ArrayList<Span>();
+	private final Map<Long, String> _threadNames = new HashMap<Long, String>();
+	private final List<String> _criticalPath = new ArrayList<String>();
+	private long _startNanos;
+	private long _endTime = -1;
+	private boolean _active;
+
+	/**
+	 * Starts recording a new trace
+	 */
+	public synchronized void start()
+	{
+		_features.clear();
+		_spans.clear();
+		_threadNames.clear();
+		_criticalPath.clear();
+		_startNanos = System.nanoTime();
+		_endTime = -1;
+		_active = true;
+	}
+
+	/**
+	 * Stops recording the trace
+	 */
+	public synchronized void finish()
+	{
+		_endTime = now();
+		_active = false;
+	}
+
+	/**
+	 * @return true while the trace is recording
+	 */
+	public synchronized boolean isActive()
+	{
+		return _active;
+	}
+
+	/**
+	 * @return the current trace time in microseconds
+	 */
+	public long now()
+	{
+		return (System.nanoTime() - _startNanos) / 1000;
+	}
+
+	/**
+	 * Records the time when all dependencies of the feature are initialized
+	 */
+	public synchronized void featureQueued(IFeature feature)
+	{
+		if (_active)
+			getFeatureSpan(feature).queuedTime = now();
+	}
+
+	/**
+	 * Records the feature initialization start
+	 */
+	public synchronized void featureStarted(IFeature feature)
+	{
+		if (!_active)
+			return;
+		FeatureSpan span = getFeatureSpan(feature);
+		span.startTime = now();
+		if (span.queuedTime < 0)
+			span.queuedTime = span.startTime;
+		Thread thread = Thread.currentThread();
+		span.threadId = thread.getId();
+		span.threadName = thread.getName();
+		_threadNames.put(thread.getId(), thread.getName());
+	}
+
+	/**
+	 * Records the feature initialization end
+	 */
+	public synchronized void featureFinished(IFeature feature, FeatureError error)
+	{
+		if (!_active)
+			return;
+		FeatureSpan span = getFeatureSpan(feature);
+		span.endTime = now();
+		span.result = error.isError() ? String.valueOf(error) : null;
+	}
+
+	/**
+	 * Records the features determining the total initialization time
+	 */
+	public synchronized void setCriticalPath(List<IFeature> features)
+	{
+		_criticalPath.clear();
+		for (IFeature feature : features)
+			_criticalPath.add(feature.toString());
+	}
+
+	/**
+	 * Records network request performed during the initialization
+	 *
+	 * @param startTime
+	 *            the request start time returned by now()
+	 */
+	public synchronized void addRequest(String url, long startTime, long bytes, int status)
+	{
+		if (_active)
+			addSpan(new Span(CATEGORY_NETWORK, url, startTime, now() - startTime, bytes, status));
+	}
+
+	/**
+	 * Records response parsing during the initialization
+	 *
+	 * @param startTime
+	 *            the parse start time returned by now()
+	 */
+	public synchronized void addParse(String name, long startTime, long bytes)
+	{
+		if (_active)
+			addSpan(new Span(CATEGORY_PARSE, name, startTime, now() - startTime, bytes, 0));
+	}
+
+	/**
+	 * Wraps volley network to record the requests performed during the
+	 * initialization
+	 */
+	public Network wrapNetwork(final Network network)
+	{
+		return new Network()
+		{
+			@Override
+			public NetworkResponse performRequest(Request<?> request) throws VolleyError
+			{
+				if (!isActive())
+					return network.performRequest(request);
+
+				long startTime = now();
+				try
+				{
+					NetworkResponse response = network.performRequest(request);
+					addRequest(request.getUrl(), startTime, response.data != null ? response.data.length : 0,
+					        response.statusCode);
+					return response;
+				}
+				catch (VolleyError e)
+				{
+					addRequest(request.getUrl(), startTime, 0, e.networkResponse != null ? e.networkResponse.statusCode
+					        : 0);
+					throw e;
+				}
+			}
+		};
+	}
+
+	/**
+	 * @return the trace in Chrome trace event format
+	 */
+	public synchronized JSONObject toJson() throws JSONException
+	{
+		JSONArray events = new JSONArray();
+		for (Map.Entry<Long, String> threadName : _threadNames.entrySet())
+		{
+			JSONObject event = new JSONObject();
+			event.put("name", "thread_name");
+			event.put("ph", "M");
+			event.put("pid", 1);
+			event.put("tid", threadName.getKey());
+			event.put("args", new JSONObject().put("name", threadName.getValue()));
+			events.put(event);
+		}
+
+		int index = 0;
+		for (FeatureSpan span : _features.values())
+		{
+			if (span.startTime < 0)
+				continue;
+			long endTime = span.endTime >= 0 ? span.endTime : now();
+			JSONObject args = new JSONObject();
+			args.put("index", index++);
+			args.put("queued_us", span.queuedTime);
+			args.put("wait_us", span.startTime - span.queuedTime);
+			args.put("thread", span.threadName);
+			if (span.endTime < 0)
+				args.put("result", "unfinished");
+			else if (span.result != null)
+				args.put("result", span.result);
+			events.put(completeEvent(CATEGORY_FEATURE, span.name, span.startTime, endTime - span.startTime,
+			        span.threadId, args));
+		}
+
+		for (Span span : _spans)
+		{
+			JSONObject args = new JSONObject();
+			args.put("bytes", span.bytes);
+			if (CATEGORY_NETWORK.equals(span.category))
+				args.put("status", span.status);
+			events.put(completeEvent(span.category, span.name, span.startTime, span.duration, span.threadId, args));
+		}
+
+		JSONObject metadata = new JSONObject();
+		metadata.put("model", Build.MODEL);
+		metadata.put("total_us", _endTime >= 0 ? _endTime : now());
+		metadata.put("critical_path", new JSONArray(_criticalPath));
+
+		JSONObject trace = new JSONObject();
+		trace.put("traceEvents", events);
+		trace.put("displayTimeUnit", "ms");
+		trace.put("metadata", metadata);
+		return trace;
+	}
+
+	/**
+	 * Saves the trace in the specified directory on a background thread
+	 *
+	 * @param dir
+	 *            the traces directory
+	 * @param name
+	 *            the trace name, e.g. the build version
+	 */
+	public void save(final File dir, final String name)
+	{
+		final String content;
+		try
+		{
+			JSONObject trace = toJson();
+			trace.getJSONObject("metadata").put("name", name);
+			content = trace.toString();
+		}
+		catch (JSONException e)
+		{
+			Log.e(TAG, e.getMessage(), e);
+			return;
+		}
+
+		new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					if (!dir.exists())
+						dir.mkdirs();
+					Files.saveToFile(content, new File(dir, name + TRACE_EXT).getAbsolutePath());
+					Log.i(TAG, "Boot trace saved as " + name);
+				}
+				catch (IOException e)
+				{
+					Log.e(TAG, e.getMessage(), e);
+				}
+			}
+		}).start();
+	}
+
+	/**
+	 * Loads trace saved in the specified directory
+	 *
+	 * @param name
+	 *            the trace name as returned by list
+	 * @return the trace in Chrome trace event format
+	 * @throws IOException
+	 *             if the trace is missing or the name is not a plain file name
+	 */
+	public static JSONObject load(File dir, String name) throws IOException, JSONException
+	{
+		// the name comes from requests, keep it inside the traces directory
+		if (name == null || name.length() == 0 || name.indexOf('/') >= 0 || name.indexOf('\\') >= 0
+		        || name.contains(".."))
+			throw new IOException("Invalid trace name " + name);
+		return new JSONObject(Files.loadToString(new File(dir, name + TRACE_EXT).getAbsolutePath()));
+	}
+
+	/**
+	 * @return the names of the traces saved in the specified directory
+	 */
+	public static List<String> list(File dir)
+	{
+		List<String> names = new ArrayList<String>();
+		File[] files = dir.listFiles();
+		if (files != null)
+		{
+			for (File file : files)
+			{
+				String fileName = file.getName();
+				if (fileName.endsWith(TRACE_EXT))
+					names.add(fileName.substring(0, fileName.length() - TRACE_EXT.length()));
+			}
+		}
+		Collections.sort(names);
+		return names;
+	}
+
+	/**
+	 * Compares two traces by total time, features initialization times,
+	 * network and parse totals
+	 *
+	 * @return JSON with the base and the other values and their delta in
+	 *         milliseconds. The features are ordered by descending absolute
+	 *         delta.
+	 */
+	public static JSONObject diff(JSONObject base, JSONObject other) throws JSONException
+	{
+		Map<String, long[]> baseTotals = summarize(base);
+		Map<String, long[]> otherTotals = summarize(other);
+
+		JSONObject result = new JSONObject();
+		result.put("total", diffEntry(null, base.getJSONObject("metadata").optLong("total_us"), other.getJSONObject(
+		        "metadata").optLong("total_us")));
+		for (String category : new String[]
+		{ CATEGORY_NETWORK, CATEGORY_PARSE })
+		{
+			long[] baseTotal = baseTotals.get(category);
+			long[] otherTotal = otherTotals.get(category);
+			JSONObject entry = diffEntry(null, baseTotal != null ? baseTotal[0] : 0, otherTotal != null ? otherTotal[0]
+			        : 0);
+			entry.put("base_bytes", baseTotal != null ? baseTotal[1] : 0);
+			entry.put("other_bytes", otherTotal != null ? otherTotal[1] : 0);
+			result.put(category, entry);
+		}
+
+		List<JSONObject> features = new ArrayList<JSONObject>();
+		for (Map.Entry<String, long[]> entry : baseTotals.entrySet())
+		{
+			if (!entry.getKey().startsWith(CATEGORY_FEATURE + ":"))
+				continue;
+			long[] otherTotal = otherTotals.get(entry.getKey());
+			features.add(diffEntry(entry.getKey(), entry.getValue()[0], otherTotal != null ? otherTotal[0] : 0));
+		}
+		for (Map.Entry<String, long[]> entry : otherTotals.entrySet())
+		{
+			if (entry.getKey().startsWith(CATEGORY_FEATURE + ":") && !baseTotals.containsKey(entry.getKey()))
+				features.add(diffEntry(entry.getKey(), 0, entry.getValue()[0]));
+		}
+		Collections.sort(features, new Comparator<JSONObject>()
+		{
+			@Override
+			public int compare(JSONObject lhs, JSONObject rhs)
+			{
+				long lhsDelta = Math.abs(lhs.optLong("delta"));
+				long rhsDelta = Math.abs(rhs.optLong("delta"));
+				return lhsDelta < rhsDelta ? 1 : (lhsDelta > rhsDelta ? -1 : 0);
+			}
+		});
+		result.put("features", new JSONArray(features));
+		return result;
+	}
+
+	// sums durations in us and bytes by category and by feature
+	private static Map<String, long[]> summarize(JSONObject trace) throws JSONException
+	{
+		Map<String, long[]> totals = new HashMap<String, long[]>();
+		JSONArray events = trace.getJSONArray("traceEvents");
+		for (int i = 0; i < events.length(); i++)
+		{
+			JSONObject event = events.getJSONObject(i);
+			if (!"X".equals(event.optString("ph")))
+				continue;
+			String category = event.optString("cat");
+			String key = CATEGORY_FEATURE.equals(category) ? category + ":" + event.optString("name") : category;
+			long[] total = totals.get(key);
+			if (total == null)
+			{
+				total = new long[2];
+				totals.put(key, total);
+			}
+			total[0] += event.optLong("dur");
+			JSONObject args = event.optJSONObject("args");
+			if (args != null)
+				total[1] += args.optLong("bytes");
+		}
+		return totals;
+	}
+
+	private static JSONObject diffEntry(String key, long baseUs, long otherUs) throws JSONException
+	{
+		JSONObject entry = new JSONObject();
+		if (key != null)
+			entry.put("name", key.substring(key.indexOf(':') + 1));
+		entry.put("base", baseUs / 1000);
+		entry.put("other", otherUs / 1000);
+		entry.put("delta", (otherUs - baseUs) / 1000);
+		return entry;
+	}
+
+	private static JSONObject completeEvent(String category, String name, long startTime, long duration,
+	        long threadId, JSONObject args) throws JSONException
+	{
+		JSONObject event = new JSONObject();
+		event.put("name", name);
+		event.put("cat", category);
+		event.put("ph", "X");
+		event.put("ts", startTime);
+		event.put("dur", duration);
+		event.put("pid", 1);
+		event.put("tid", threadId);
+		event.put("args", args);
+		return event;
+	}
+
+	private FeatureSpan getFeatureSpan(IFeature feature)
+	{
+		FeatureSpan span = _features.get(feature);
+		if (span == null)
+		{
+			span = new FeatureSpan(feature.toString());
+			_features.put(feature, span);
+		}
+		return span;
+	}
+
+	private void addSpan(Span span)
+	{
+		_spans.add(span);
+		if (!_threadNames.containsKey(span.threadId))
+			_threadNames.put(span.threadId, Thread.currentThread().getName());
+	}
+}
@@ -16,9 +16,13 @@ import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
 
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
@@ -37,6 +41,8 @@ import org.xml.sax.helpers.DefaultHandler;
 
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.Looper;
+import android.os.MessageQueue;
 
 import com.aviq.tv.android.sdk.core.Environment;
 import com.aviq.tv.android.sdk.core.EventMessenger;
@@ -57,6 +63,8 @@ public class FeatureManager
 	public static final String TAG = FeatureManager.class.getSimpleName();
 	private List<IFeature> _features = new ArrayList<IFeature>();
 	private final FeatureInitializer _featureInitializer = new FeatureInitializer();
+	private final BootTrace _bootTrace = new BootTrace();
+	private final Set<IFeature> _lazyFeatures = new HashSet<IFeature>();
 	private FeatureFactoryCustom _featureFactory = new FeatureFactoryCustom();
 
 	public FeatureManager()
@@ -70,7 +78,46 @@ public class FeatureManager
 
 		Log.i(TAG, "Initializing features");
 		_featureInitializer.setOnFeatureInitialized(onFeatureInitialized);
-		_featureInitializer.initialize();
+		_featureInitializer.initialize(_lazyFeatures);
+	}
+
+	/**
+	 * Declares feature to be initialized on demand after the features
+	 * initialization. A lazy feature is initialized on its first lookup by
+	 * getFeature*, on the first event routed to it or by activateFeature.
+	 * hasFeature and findFeature* don't initialize lazy features. Lazy
+	 * features required by non lazy features are initialized on start.
+	 *
+	 * @param feature
+	 *            the used feature
+	 */
+	public void setLazy(IFeature feature)
+	{
+		Log.i(TAG, ".setLazy: " + feature);
+		_lazyFeatures.add(feature);
+	}
+
+	/**
+	 * @return true if the feature is lazy and is not initialized yet
+	 */
+	public boolean isLazy(IFeature feature)
+	{
+		return _featureInitializer.isLazy(feature);
+	}
+
+	/**
+	 * Initializes lazy feature with all its lazy dependencies if not
+	 * initialized yet
+	 *
+	 * @param feature
+	 *            the feature to activate
+	 * @param onFeatureInitialized
+	 *            callback notified when the feature is initialized, may be
+	 *            null
+	 */
+	public void activateFeature(IFeature feature, OnFeatureInitialized onFeatureInitialized)
+	{
+		_featureInitializer.activate(feature, onFeatureInitialized);
 	}
 
 	/**
@@ -167,17 +214,43 @@ public class FeatureManager
 		return result;
 	}
 
+	/**
+	 * @return the trace of the features initialization
+	 */
+	public BootTrace getBootTrace()
+	{
+		return _bootTrace;
+	}
+
 	/**
 	 * Stops the timeout during feature initializations.
 	 * This method must be called from IFeature.initialize before
-	 * the response of the onInitialized callback.
+	 * the response of the onInitialized callback. Stops the timeouts of all
+	 * currently initializing features.
+	 *
+	 * @deprecated the features initialize concurrently, use
+	 *             {@link #stopInitTimeout(IFeature)} to stop the timeout of
+	 *             the calling feature only
 	 */
+	@Deprecated
 	public void stopInitTimeout()
 	{
-		Log.i(TAG, ".stopInitTimeout");
+		Log.w(TAG, ".stopInitTimeout: stopping the timeouts of all initializing features");
 		_featureInitializer.stopTimeout();
 	}
 
+	/**
+	 * Stops the initialization timeout of the specified feature.
+	 *
+	 * @param feature
+	 *            the initializing feature
+	 */
+	public void stopInitTimeout(IFeature feature)
+	{
+		Log.i(TAG, ".stopInitTimeout: feature = " + feature);
+		_featureInitializer.stopTimeout(feature);
+	}
+
 	/**
 	 * Sets timeout for feature initialization.
 	 *
@@ -189,22 +262,26 @@ public class FeatureManager
 		_featureInitializer.setTimeout(initTimeout);
 	}
 
+	/**
+	 * Sets the maximum number of features initializing at the same time. A
+	 * feature starts initializing when all its dependencies are initialized.
+	 *
+	 * @param initConcurrency
+	 *            1 initializes the features one by one in topological order
+	 */
+	public void setInitConcurrency(int initConcurrency)
+	{
+		Log.i(TAG, ".setInitConcurrency: initConcurrency = " + initConcurrency);
+		_featureInitializer.setConcurrency(initConcurrency);
+	}
+
 	/**
 	 * @param featureName
 	 * @return true if the feature component exists
 	 */
 	public boolean hasFeature(FeatureName.Component featureName)
 	{
-		try
-		{
-			// Check if feature exists
-			getFeatureComponent(featureName);
-			return true;
-		}
-		catch (FeatureNotFoundException e)
-		{
-			return false;
-		}
+		return findFeatureComponent(featureName) != null;
 	}
 
 	/**
@@ -213,16 +290,7 @@ public class FeatureManager
 	 */
 	public boolean hasFeature(FeatureName.Scheduler featureName)
 	{
-		try
-		{
-			// Check if feature exists
-			getFeatureScheduler(featureName);
-			return true;
-		}
-		catch (FeatureNotFoundException e)
-		{
-			return false;
-		}
+		return findFeatureScheduler(featureName) != null;
 	}
 
 	/**
@@ -231,16 +299,7 @@ public class FeatureManager
 	 */
 	public boolean hasFeature(FeatureName.State featureName)
 	{
-		try
-		{
-			// Check if feature exists
-			getFeatureState(featureName);
-			return true;
-		}
-		catch (FeatureNotFoundException e)
-		{
-			return false;
-		}
+		return findFeatureState(featureName) != null;
 	}
 
 	/**
@@ -255,36 +314,32 @@ public class FeatureManager
 		if (_featureFactory == null)
 			throw new RuntimeException("Set IFeatureFactory with setFeatureFactory before using features");
 
+		// Check if feature is already used
+		IFeature feature = findFeature(featureClass);
+		if (feature != null)
+			return feature;
+
+		Log.i(TAG, ".use: " + featureClass.getName());
+		if (featureClass.isAssignableFrom(IFeature.class))
+		{
+			throw new FeatureNotFoundException("Feature " + featureClass.getName() + " must implement IFeature");
+		}
+
 		try
 		{
-			// Check if feature is already used
-			return getFeature(featureClass);
+			feature = (IFeature) featureClass.newInstance();
+			useDependencies(feature);
+			_features.add(feature);
 		}
-		catch (FeatureNotFoundException fe)
+		catch (InstantiationException e)
 		{
-			Log.i(TAG, ".use: " + featureClass.getName());
-			IFeature feature = null;
-			if (featureClass.isAssignableFrom(IFeature.class))
-			{
-				throw new FeatureNotFoundException("Feature " + featureClass.getName() + " must implement IFeature");
-			}
-
-			try
-			{
-				feature = (IFeature) featureClass.newInstance();
-				useDependencies(feature);
-				_features.add(feature);
-			}
-			catch (InstantiationException e)
-			{
-				throw new FeatureNotFoundException(e);
-			}
-			catch (IllegalAccessException e)
-			{
-				throw new FeatureNotFoundException(e);
-			}
-			return feature;
+			throw new FeatureNotFoundException(e);
+		}
+		catch (IllegalAccessException e)
+		{
+			throw new FeatureNotFoundException(e);
 		}
+		return feature;
 	}
 
 	/**
@@ -299,19 +354,16 @@ public class FeatureManager
 		if (_featureFactory == null)
 			throw new RuntimeException("Set IFeatureFactory with setFeatureFactory before using features");
 
-		try
-		{
-			// Check if feature is already used
-			return getFeatureComponent(featureName);
-		}
-		catch (FeatureNotFoundException e)
-		{
-			Log.i(TAG, ".use: Component " + featureName);
-			FeatureComponent feature = _featureFactory.createComponent(featureName);
-			useDependencies(feature);
-			_features.add(feature);
+		// Check if feature is already used
+		FeatureComponent feature = findFeatureComponent(featureName);
+		if (feature != null)
 			return feature;
-		}
+
+		Log.i(TAG, ".use: Component " + featureName);
+		feature = _featureFactory.createComponent(featureName);
+		useDependencies(feature);
+		_features.add(feature);
+		return feature;
 	}
 
 	/**
@@ -326,19 +378,16 @@ public class FeatureManager
 		if (_featureFactory == null)
 			throw new RuntimeException("Set IFeatureFactory with setFeatureFactory before using features");
 
-		try
-		{
-			// Check if feature is already used
-			return getFeatureScheduler(featureName);
-		}
-		catch (FeatureNotFoundException e)
-		{
-			Log.i(TAG, ".use: Scheduler " + featureName);
-			FeatureScheduler feature = _featureFactory.createScheduler(featureName);
-			useDependencies(feature);
-			_features.add(feature);
+		// Check if feature is already used
+		FeatureScheduler feature = findFeatureScheduler(featureName);
+		if (feature != null)
 			return feature;
-		}
+
+		Log.i(TAG, ".use: Scheduler " + featureName);
+		feature = _featureFactory.createScheduler(featureName);
+		useDependencies(feature);
+		_features.add(feature);
+		return feature;
 	}
 
 	/**
@@ -354,31 +403,45 @@ public class FeatureManager
 		if (_featureFactory == null)
 			throw new RuntimeException("Set IFeatureFactory with setFeatureFactory before using features");
 
-		try
-		{
-			// Check if feature is already used
-			return getFeatureState(featureName);
-		}
-		catch (FeatureNotFoundException e)
-		{
-			Log.i(TAG, ".use: State " + featureName);
-
-			// Use feature
-			FeatureState feature = _featureFactory.createState(featureName);
-			useDependencies(feature);
-			_features.add(feature);
+		// Check if feature is already used
+		FeatureState feature = findFeatureState(featureName);
+		if (feature != null)
 			return feature;
-		}
+
+		Log.i(TAG, ".use: State " + featureName);
+
+		// Use feature
+		feature = _featureFactory.createState(featureName);
+		useDependencies(feature);
+		_features.add(feature);
+		return feature;
 	}
 
 	/**
-	 * Get feature by specifying its class implementation
+	 * Get feature by specifying its class implementation. Initializes the
+	 * feature if lazy.
 	 *
 	 * @param featureClass
 	 *            The class of the feature
 	 * @return feature instance
 	 */
 	public IFeature getFeature(Class<?> featureClass) throws FeatureNotFoundException
+	{
+		IFeature feature = findFeature(featureClass);
+		if (feature == null)
+			throw new FeatureNotFoundException(featureClass.getName());
+		return onLookup(feature);
+	}
+
+	/**
+	 * Finds feature by its class implementation without initializing it if
+	 * lazy
+	 *
+	 * @param featureClass
+	 *            The class of the feature
+	 * @return feature instance or null if not found
+	 */
+	public IFeature findFeature(Class<?> featureClass)
 	{
 		if (isFeature(featureClass))
 		{
@@ -388,7 +451,7 @@ public class FeatureManager
 					return feature;
 			}
 		}
-		throw new FeatureNotFoundException(featureClass.getName());
+		return null;
 	}
 
 	/**
@@ -405,11 +468,27 @@ public class FeatureManager
 	}
 
 	/**
+	 * Initializes the feature if lazy
+	 *
 	 * @param featureName
 	 * @return FeatureComponent
 	 * @throws FeatureNotFoundException
 	 */
 	public FeatureComponent getFeatureComponent(FeatureName.Component featureName) throws FeatureNotFoundException
+	{
+		FeatureComponent component = findFeatureComponent(featureName);
+		if (component == null)
+			throw new FeatureNotFoundException(featureName);
+		return onLookup(component);
+	}
+
+	/**
+	 * Finds feature component without initializing it if lazy
+	 *
+	 * @param featureName
+	 * @return FeatureComponent or null if not found
+	 */
+	public FeatureComponent findFeatureComponent(FeatureName.Component featureName)
 	{
 		for (IFeature feature : _features)
 		{
@@ -420,15 +499,31 @@ public class FeatureManager
 					return component;
 			}
 		}
-		throw new FeatureNotFoundException(featureName);
+		return null;
 	}
 
 	/**
+	 * Initializes the feature if lazy
+	 *
 	 * @param featureName
 	 * @return FeatureScheduler
 	 * @throws FeatureNotFoundException
 	 */
 	public FeatureScheduler getFeatureScheduler(FeatureName.Scheduler featureName) throws FeatureNotFoundException
+	{
+		FeatureScheduler scheduler = findFeatureScheduler(featureName);
+		if (scheduler == null)
+			throw new FeatureNotFoundException(featureName);
+		return onLookup(scheduler);
+	}
+
+	/**
+	 * Finds feature scheduler without initializing it if lazy
+	 *
+	 * @param featureName
+	 * @return FeatureScheduler or null if not found
+	 */
+	public FeatureScheduler findFeatureScheduler(FeatureName.Scheduler featureName)
 	{
 		for (IFeature feature : _features)
 		{
@@ -439,15 +534,31 @@ public class FeatureManager
 					return scheduler;
 			}
 		}
-		throw new FeatureNotFoundException(featureName);
+		return null;
 	}
 
 	/**
+	 * Initializes the feature if lazy
+	 *
 	 * @param featureName
 	 * @return FeatureState
 	 * @throws FeatureNotFoundException
 	 */
 	public FeatureState getFeatureState(FeatureName.State featureName) throws FeatureNotFoundException
+	{
+		FeatureState state = findFeatureState(featureName);
+		if (state == null)
+			throw new FeatureNotFoundException(featureName);
+		return onLookup(state);
+	}
+
+	/**
+	 * Finds feature state without initializing it if lazy
+	 *
+	 * @param featureName
+	 * @return FeatureState or null if not found
+	 */
+	public FeatureState findFeatureState(FeatureName.State featureName)
 	{
 		for (IFeature feature : _features)
 		{
@@ -458,7 +569,7 @@ public class FeatureManager
 					return state;
 			}
 		}
-		throw new FeatureNotFoundException(featureName);
+		return null;
 	}
 
 	/**
@@ -612,6 +723,14 @@ public class FeatureManager
 	 * *********************
 	 */
 
+	// activates lazy feature on its first explicit lookup by getFeature*
+	private <T extends IFeature> T onLookup(T feature)
+	{
+		if (_featureInitializer.isLazy(feature))
+			_featureInitializer.activate(feature, null);
+		return feature;
+	}
+
 	private void useDependencies(IFeature feature) throws FeatureNotFoundException
 	{
 		FeatureSet deps = feature.dependencies();
@@ -637,280 +756,664 @@ public class FeatureManager
 
 	private void topologicalSort()
 	{
-		List<IFeature> sorted = new ArrayList<IFeature>();
 		int featureCount = _features.size();
-
 		Log.v(TAG, ".topologicalSort: " + featureCount + " features");
-		while (sorted.size() < featureCount)
+
+		// index features by name
+		Map<FeatureName.Component, Integer> components = new HashMap<FeatureName.Component, Integer>();
+		Map<FeatureName.Scheduler, Integer> schedulers = new HashMap<FeatureName.Scheduler, Integer>();
+		Map<FeatureName.State, Integer> states = new HashMap<FeatureName.State, Integer>();
+		for (int i = 0; i < featureCount; i++)
 		{
-			int prevSortedSize = sorted.size();
+			IFeature feature = _features.get(i);
+			switch (feature.getType())
+			{
+				case COMPONENT:
+					putIfAbsent(components, ((FeatureComponent) feature).getComponentName(), i);
+				break;
+				case SCHEDULER:
+					putIfAbsent(schedulers, ((FeatureScheduler) feature).getSchedulerName(), i);
+				break;
+				case STATE:
+					putIfAbsent(states, ((FeatureState) feature).getStateName(), i);
+				break;
+			}
+		}
+		Map<Class<?>, Integer> specials = new HashMap<Class<?>, Integer>();
 
-			// remove all independent features
-			for (IFeature feature : _features)
+		// resolve dependencies to feature indices
+		int[][] dependencies = new int[featureCount][];
+		boolean[] prioritized = new boolean[featureCount];
+		for (int i = 0; i < featureCount; i++)
+		{
+			IFeature feature = _features.get(i);
+			FeatureSet deps = feature.dependencies();
+			prioritized[i] = feature.getClass().getAnnotation(Priority.class) != null;
+			if (deps == null)
 			{
-				int resolvedCounter;
-				int resolvedPosition = -1;
+				dependencies[i] = new int[0];
+				continue;
+			}
 
-				if (feature.dependencies() != null)
+			int[] featureDeps = new int[deps.Specials.size() + deps.Components.size() + deps.Schedulers.size()
+			        + deps.States.size()];
+			int n = 0;
+			for (Class<?> special : deps.Specials)
+			{
+				Integer index = specials.get(special);
+				if (index == null)
 				{
-					// check special features dependencies
-					resolvedCounter = feature.dependencies().Specials.size();
-					for (Class<?> special : feature.dependencies().Specials)
-					{
-						for (int i = 0; i < sorted.size(); i++)
-						{
-							IFeature sortedFeature = sorted.get(i);
-							if (special.isInstance(sortedFeature))
-							{
-								resolvedCounter--;
-								if (i > resolvedPosition)
-									resolvedPosition = i;
-								break;
-							}
-						}
-					}
-					if (resolvedCounter > 0) // has unresolved dependencies
-						continue;
+					for (int j = 0; j < featureCount && index == null; j++)
+						if (special.isInstance(_features.get(j)))
+							index = j;
+					if (index == null)
+						throw new RuntimeException("Feature " + feature + " requires missing special feature "
+						        + special.getName());
+					specials.put(special, index);
+				}
+				featureDeps[n++] = index;
+			}
+			for (FeatureName.Component component : deps.Components)
+				featureDeps[n++] = resolveDependency(feature, components, component, IFeature.Type.COMPONENT);
+			for (FeatureName.Scheduler scheduler : deps.Schedulers)
+				featureDeps[n++] = resolveDependency(feature, schedulers, scheduler, IFeature.Type.SCHEDULER);
+			for (FeatureName.State state : deps.States)
+				featureDeps[n++] = resolveDependency(feature, states, state, IFeature.Type.STATE);
+			dependencies[i] = featureDeps;
+		}
 
-					// check component dependencies
-					resolvedCounter = feature.dependencies().Components.size();
-					for (FeatureName.Component component : feature.dependencies().Components)
-					{
-						for (int i = 0; i < sorted.size(); i++)
-						{
-							IFeature sortedFeature = sorted.get(i);
-							if (IFeature.Type.COMPONENT.equals(sortedFeature.getType()))
-								if (component.equals(((FeatureComponent) sortedFeature).getComponentName()))
-								{
-									resolvedCounter--;
-									if (i > resolvedPosition)
-										resolvedPosition = i;
-									break;
-								}
-						}
-					}
-					if (resolvedCounter > 0) // has unresolved dependencies
-						continue;
+		int[] order;
+		try
+		{
+			order = FeatureSorter.sort(dependencies, prioritized);
+		}
+		catch (FeatureSorter.CycleException e)
+		{
+			StringBuffer sb = new StringBuffer();
+			for (int index : e.getCycle())
+				sb.append(_features.get(index)).append(" -> ");
+			sb.append(_features.get(e.getCycle()[0]));
+			throw new RuntimeException("Unable to sort features due to circular dependencies: " + sb);
+		}
+
+		List<IFeature> sorted = new ArrayList<IFeature>(featureCount);
+		for (int i = 0; i < order.length; i++)
+		{
+			IFeature feature = _features.get(order[i]);
+			sorted.add(feature);
+			if (prioritized[order[i]])
+				Log.i(TAG, "Feature " + feature + " is prioritized and shifted to position " + i);
+		}
+
+		for (int i = 0; i < sorted.size(); i++)
+		{
+			IFeature feature = sorted.get(i);
+			Log.i(TAG, i + ". " + feature + " (" + feature.getClass().getName() + ")");
+		}
+
+		_features = sorted;
+	}
 
-					// check scheduler dependencies
-					resolvedCounter = feature.dependencies().Schedulers.size();
-					for (FeatureName.Scheduler scheduler : feature.dependencies().Schedulers)
+	private static <K> void putIfAbsent(Map<K, Integer> index, K key, int value)
+	{
+		if (!index.containsKey(key))
+			index.put(key, value);
+	}
+
+	private static <K> int resolveDependency(IFeature feature, Map<K, Integer> index, K dependency, IFeature.Type type)
+	{
+		Integer dependencyIndex = index.get(dependency);
+		if (dependencyIndex == null)
+			throw new RuntimeException("Feature " + feature + " requires missing " + type + " " + dependency);
+		return dependencyIndex;
+	}
+
+	/**
+	 * Initializes features as a dependency graph. Each feature is started as
+	 * soon as all its dependencies are initialized and a free initialization
+	 * slot is available. Ready features are started in their topological
+	 * order so prioritized features are still initialized first. Lazy features
+	 * are initialized on demand when the main thread is idle.
+	 */
+	private class FeatureInitializer
+	{
+		/**
+		 * Initialization state of a single feature
+		 */
+		private class InitNode implements Runnable, OnFeatureInitialized
+		{
+			// the feature index in the topologically sorted features
+			private final int _index;
+			private final IFeature _feature;
+			private final List<InitNode> _dependencies = new ArrayList<InitNode>();
+			private final List<InitNode> _dependents = new ArrayList<InitNode>();
+
+			// callbacks waiting the feature to be initialized
+			private final List<OnFeatureInitialized> _waiters = new ArrayList<OnFeatureInitialized>();
+
+			// initialized on demand after the features initialization
+			private boolean _lazy;
+
+			// requested to be initialized, always true for non lazy features
+			private boolean _requested;
+			private FeatureError _error;
+
+			// number of dependencies not initialized yet
+			private int _pendingCount;
+			private float _progress;
+
+			// initialization times relative to the initialization start
+			private long _readyTime;
+			private long _startTime;
+			private long _endTime;
+
+			InitNode(int index, IFeature feature)
+			{
+				_index = index;
+				_feature = feature;
+			}
+
+			void start()
+			{
+				_startTime = System.currentTimeMillis() - _initStartedTime;
+				Log.i(TAG, ">" + _index + ". Initializing " + (_lazy ? "lazy " : "") + _feature + " ("
+				        + _feature.getClass().getName() + ") with timeout " + _timeout + " secs, " + _runningCount
+				        + " initializing");
+
+				if (_initializingFeatures.containsKey(_feature))
+					throw new RuntimeException("Internal Error: Attempt to initialize already initialized feature "
+					        + _feature);
+				_initializingFeatures.put(_feature, Boolean.TRUE);
+
+				onInitializeProgress(_feature, 0.0f);
+
+				startTimeout();
+
+				// initializing the feature
+				_handler.post(new Runnable()
+				{
+					@Override
+					public void run()
 					{
-						for (int i = 0; i < sorted.size(); i++)
+						try
 						{
-							IFeature sortedFeature = sorted.get(i);
-							if (IFeature.Type.SCHEDULER.equals(sortedFeature.getType()))
-								if (scheduler.equals(((FeatureScheduler) sortedFeature).getSchedulerName()))
-								{
-									resolvedCounter--;
-									if (i > resolvedPosition)
-										resolvedPosition = i;
-									break;
-								}
+							_bootTrace.featureStarted(_feature);
+							_feature.setDependencyFeatures(new Features(_feature.dependencies()));
+							_feature.initialize(InitNode.this);
 						}
-					}
-					if (resolvedCounter > 0) // has unresolved dependencies
-						continue;
-
-					// check state dependencies
-					resolvedCounter = feature.dependencies().States.size();
-					for (FeatureName.State state : feature.dependencies().States)
-					{
-						for (int i = 0; i < sorted.size(); i++)
+						catch (FeatureError e)
 						{
-							IFeature sortedFeature = sorted.get(i);
-							if (IFeature.Type.STATE.equals(sortedFeature.getType()))
-								if (state.equals(((FeatureState) sortedFeature).getStateName()))
-								{
-									resolvedCounter--;
-									if (i > resolvedPosition)
-										resolvedPosition = i;
-									break;
-								}
+							onInitialized(e);
 						}
 					}
-					if (resolvedCounter > 0) // has unresolved dependencies
-						continue;
-				}
+				});
+			}
+
+			void startTimeout()
+			{
+				_handler.removeCallbacks(this);
+				if (_timeout > 0)
+					_handler.postDelayed(this, _timeout * 1000);
+			}
 
-				if (sorted.indexOf(feature) < 0)
+			void stopTimeout()
+			{
+				_handler.removeCallbacks(this);
+			}
+
+			@Override
+			public void run()
+			{
+				// Initialization timed out
+				Log.e(TAG, _index + ". initialize " + (System.currentTimeMillis() - _initStartedTime - _startTime)
+				        + " ms: " + _feature + " timeout!");
+				_runningCount--;
+				onFeatureFailed(this, new FeatureError(_feature, ResultCode.TIMEOUT));
+			}
+
+			@Override
+			public void onInitialized(FeatureError error)
+			{
+				stopTimeout();
+				if (_initializedFeatures.containsKey(_feature))
+					throw new RuntimeException("Internal Error: Feature " + _feature
+					        + " is calling onInitialized callback more than once");
+				_initializedFeatures.put(_feature, Boolean.TRUE);
+				onInitializeProgress(_feature, 1.0f);
+
+				_endTime = System.currentTimeMillis() - _initStartedTime;
+				_bootTrace.featureFinished(_feature, error);
+				long featureInitTime = _endTime - _startTime;
+				Log.i(TAG, "<" + _index + ". " + _feature + " initialized in " + featureInitTime + " ms with result "
+				        + error);
+				if (_error != null)
 				{
-					if (feature.getClass().getAnnotation(Priority.class) != null)
-					{
-						resolvedPosition++;
-						if (resolvedPosition < sorted.size())
-							sorted.add(resolvedPosition, feature);
-						else
-							sorted.add(feature);
+					// already failed with timeout
+					return;
+				}
+				_runningCount--;
 
-						Log.i(TAG, "Feature " + feature + " is prioritized and shifted to position " + resolvedPosition);
-					}
-					else
+				// Stop all features initialization when one fails to
+				// initialize
+				if (error.isError())
+				{
+					if (error.getFeature() == null)
+						error = new FeatureError(_feature, error.getCode(), error.getBundle(), error.getMessage(),
+						        error);
+					onFeatureFailed(this, error);
+				}
+				else
+				{
+					if (!_lazy)
 					{
-						sorted.add(feature);
+						_initTotalTime += featureInitTime;
+						_initializedCount++;
 					}
+					onFeatureInitialized(this);
 				}
 			}
-			if (prevSortedSize == sorted.size())
-				throw new RuntimeException("Internal error. Unable to sort features!");
-		}
 
-		for (int i = 0; i < sorted.size(); i++)
-		{
-			IFeature feature = sorted.get(i);
-			Log.i(TAG, i + ". " + feature + " (" + feature.getClass().getName() + ")");
-		}
+			@Override
+			public void onInitializeProgress(IFeature feature, float progress)
+			{
+				if (_lazy)
+				{
+					Log.i(TAG, _feature + " load progress -> " + progress);
+					return;
+				}
+				_progressSum += progress - _progress;
+				_progress = progress;
+				float totalProgress = _progressSum / _eagerCount;
+				Log.i(TAG, "load progress -> " + totalProgress);
+				if (!_failed)
+					_onFeatureInitialized.onInitializeProgress(_feature, totalProgress);
+			}
 
-		_features = sorted;
-	}
+			void notifyWaiters(FeatureError error)
+			{
+				List<OnFeatureInitialized> waiters = new ArrayList<OnFeatureInitialized>(_waiters);
+				_waiters.clear();
+				for (OnFeatureInitialized waiter : waiters)
+					waiter.onInitialized(error);
+			}
+		}
 
-	private class FeatureInitializer implements Runnable, OnFeatureInitialized
-	{
-		// The current feature number being initialized
-		private int _featureNumber;
+		// the allowed time for feature initialization
+		private int _timeout = 0;
 
-		// Last feature number being initialized used to detect if a feature has
-		// been initialized twice
-		private int _lastFeatureNumber;
+		// the maximum number of features initializing at the same time
+		private int _concurrency = 1;
 
-		// used to compute feature initialization time
+		// used to compute feature initialization times
 		private long _initStartedTime;
 
 		// used to accumulate total initialization time
 		private long _initTotalTime;
 
-		// the allowed time for feature initialization
-		private int _timeout = 0;
+		private int _runningCount;
+
+		// number of non lazy features and the number of them initialized
+		private int _eagerCount;
+		private int _initializedCount;
+
+		private float _progressSum;
+		private boolean _failed;
+		private boolean _finished;
+		private boolean _idleScheduled;
+		private List<InitNode> _nodes = new ArrayList<InitNode>();
+		private Map<IFeature, InitNode> _nodesByFeature = new HashMap<IFeature, InitNode>();
+		private PriorityQueue<InitNode> _readyNodes;
+		private PriorityQueue<InitNode> _lazyReadyNodes;
 
 		private OnFeatureInitialized _onFeatureInitialized;
 		private Handler _handler = new Handler();
 		private Map<IFeature, Boolean> _initializingFeatures = new HashMap<IFeature, Boolean>();
 		private Map<IFeature, Boolean> _initializedFeatures = new HashMap<IFeature, Boolean>();
 
+		// starts lazy features when the main thread is idle
+		private MessageQueue.IdleHandler _lazyStarter = new MessageQueue.IdleHandler()
+		{
+			@Override
+			public boolean queueIdle()
+			{
+				_idleScheduled = false;
+				if (!_failed && _runningCount < _concurrency && !_lazyReadyNodes.isEmpty())
+				{
+					_runningCount++;
+					_lazyReadyNodes.poll().start();
+				}
+				initializeNext();
+				return false;
+			}
+		};
+
 		public void setTimeout(int timeout)
 		{
 			_timeout = timeout;
 		}
 
+		public void setConcurrency(int concurrency)
+		{
+			_concurrency = Math.max(1, concurrency);
+		}
+
 		public void setOnFeatureInitialized(OnFeatureInitialized onFeatureInitialized)
 		{
 			_onFeatureInitialized = onFeatureInitialized;
 		}
 
+		/**
+		 * @deprecated use {@link #stopTimeout(IFeature)}
+		 */
+		@Deprecated
 		public void stopTimeout()
 		{
 			Log.i(TAG, ".stopTimeout");
-			_handler.removeCallbacks(this);
+			for (InitNode node : _nodes)
+				if (_initializingFeatures.containsKey(node._feature)
+				        && !_initializedFeatures.containsKey(node._feature))
+					node.stopTimeout();
 		}
 
-		public void startTimeout()
+		public void stopTimeout(IFeature feature)
 		{
-			Log.i(TAG, ".startTimeout");
-			_handler.removeCallbacks(this);
-			_handler.postDelayed(this, _timeout * 1000);
+			Log.i(TAG, ".stopTimeout: feature = " + feature);
+			InitNode node = _nodesByFeature.get(feature);
+			if (node != null)
+				node.stopTimeout();
 		}
 
-		public void initialize()
+		public void initialize(Set<IFeature> lazyFeatures)
 		{
-			_featureNumber = _lastFeatureNumber = -1;
+			_initStartedTime = System.currentTimeMillis();
 			_initTotalTime = 0;
+			_runningCount = 0;
+			_initializedCount = 0;
+			_progressSum = 0;
+			_failed = false;
+			_finished = false;
+			_nodes.clear();
+			_nodesByFeature.clear();
+			_bootTrace.start();
+			Comparator<InitNode> byIndex = new Comparator<InitNode>()
+			{
+				@Override
+				public int compare(InitNode lhs, InitNode rhs)
+				{
+					return lhs._index - rhs._index;
+				}
+			};
+			_readyNodes = new PriorityQueue<InitNode>(Math.max(1, _features.size()), byIndex);
+			_lazyReadyNodes = new PriorityQueue<InitNode>(Math.max(1, lazyFeatures.size()), byIndex);
+
+			// build the dependency graph, the features are already sorted so
+			// each feature dependencies are found before it
+			for (int i = 0; i < _features.size(); i++)
+			{
+				InitNode node = new InitNode(i, _features.get(i));
+				node._lazy = lazyFeatures.contains(node._feature);
+				for (InitNode depNode : _nodes)
+				{
+					if (isDependency(node._feature.dependencies(), depNode._feature))
+					{
+						node._dependencies.add(depNode);
+						depNode._dependents.add(node);
+					}
+				}
+				node._pendingCount = node._dependencies.size();
+				_nodes.add(node);
+				_nodesByFeature.put(node._feature, node);
+			}
+
+			// lazy features required by non lazy features are initialized
+			// with them
+			for (int i = _nodes.size() - 1; i >= 0; i--)
+			{
+				InitNode node = _nodes.get(i);
+				if (node._lazy)
+					continue;
+				for (InitNode depNode : node._dependencies)
+				{
+					if (depNode._lazy)
+					{
+						Log.w(TAG, "Lazy " + depNode._feature + " is required by " + node._feature
+						        + " and will be initialized on start");
+						depNode._lazy = false;
+					}
+				}
+			}
+
+			_eagerCount = 0;
+			for (InitNode node : _nodes)
+			{
+				if (node._lazy)
+					continue;
+				_eagerCount++;
+				node._requested = true;
+				if (node._pendingCount == 0)
+				{
+					_bootTrace.featureQueued(node._feature);
+					_readyNodes.add(node);
+				}
+			}
+			Log.i(TAG, "Initializing " + _eagerCount + " features with " + _concurrency
+			        + " concurrent initializations, " + (_nodes.size() - _eagerCount) + " lazy features");
 			initializeNext();
 		}
 
-		// return true if there are more features to initialize or false
-		// otherwise
-		private void initializeNext()
+		/**
+		 * Requests lazy feature initialization
+		 *
+		 * @param onFeatureInitialized
+		 *            callback notified when the feature is initialized or null
+		 */
+		public void activate(IFeature feature, OnFeatureInitialized onFeatureInitialized)
 		{
-			if ((_featureNumber + 1) < _features.size())
+			InitNode node = _nodesByFeature.get(feature);
+			if (node == null)
 			{
-				_featureNumber++;
-				_initStartedTime = System.currentTimeMillis();
-				final IFeature feature = _features.get(_featureNumber);
-				Log.i(TAG, ">" + _featureNumber + ". Initializing " + feature + " (" + feature.getClass().getName()
-				        + ") with timeout " + _timeout + " secs");
+				// not initialized yet or unknown feature
+				if (onFeatureInitialized != null)
+					onFeatureInitialized.onInitialized(new FeatureError(feature, ResultCode.GENERAL_FAILURE,
+					        "Features are not initialized"));
+				return;
+			}
 
-				if (_initializingFeatures.containsKey(feature))
-					throw new RuntimeException("Internal Error: Attempt to initialize already initialized feature " + feature);
-				_initializingFeatures.put(feature, Boolean.TRUE);
+			if (onFeatureInitialized != null)
+			{
+				if (node._error != null)
+				{
+					onFeatureInitialized.onInitialized(node._error);
+					return;
+				}
+				if (_initializedFeatures.containsKey(feature))
+				{
+					onFeatureInitialized.onInitialized(FeatureError.OK(feature));
+					return;
+				}
+				node._waiters.add(onFeatureInitialized);
+			}
 
-				onInitializeProgress(feature, 0.0f);
+			if (!node._requested)
+			{
+				request(node);
+				initializeNext();
+			}
+		}
 
-				startTimeout();
+		/**
+		 * @return true if the feature is lazy and not initialized yet
+		 */
+		public boolean isLazy(IFeature feature)
+		{
+			InitNode node = _nodesByFeature.get(feature);
+			return node != null && node._lazy && !_initializedFeatures.containsKey(feature);
+		}
 
-				// initializing next feature
-				_handler.post(new Runnable()
-				{
-					@Override
-					public void run()
-					{
-						try
-						{
-							feature.setDependencyFeatures(new Features(feature.dependencies()));
-							feature.initialize(FeatureInitializer.this);
-						}
-						catch (FeatureError e)
-						{
-							_onFeatureInitialized.onInitialized(e);
-						}
-					}
-				});
-			}
+		// requests node with all its dependencies
+		private void request(InitNode node)
+		{
+			if (node._requested)
+				return;
+			Log.i(TAG, "Requesting lazy " + node._feature);
+			node._requested = true;
+			for (InitNode depNode : node._dependencies)
+				request(depNode);
+			if (node._pendingCount == 0 && node._error == null)
+				addReady(node);
+		}
+
+		private void addReady(InitNode node)
+		{
+			node._readyTime = System.currentTimeMillis() - _initStartedTime;
+			_bootTrace.featureQueued(node._feature);
+			if (node._lazy)
+				_lazyReadyNodes.add(node);
 			else
+				_readyNodes.add(node);
+		}
+
+		// starts ready features while there are free initialization slots
+		private void initializeNext()
+		{
+			if (_failed)
+				return;
+
+			if (!_finished && _initializedCount == _eagerCount)
 			{
-				Log.i(TAG, _features.size() + " features initialized in " + _initTotalTime + " ms total");
+				_finished = true;
+				long initWallTime = System.currentTimeMillis() - _initStartedTime;
+				Log.i(TAG, _eagerCount + " features initialized in " + initWallTime + " ms, " + _initTotalTime
+				        + " ms total");
+				logCriticalPath();
+				_bootTrace.finish();
 				_onFeatureInitialized.onInitialized(FeatureError.OK);
 			}
+
+			while (_runningCount < _concurrency && !_readyNodes.isEmpty())
+			{
+				_runningCount++;
+				_readyNodes.poll().start();
+			}
+
+			if (!_lazyReadyNodes.isEmpty() && !_idleScheduled)
+			{
+				_idleScheduled = true;
+				Looper.myQueue().addIdleHandler(_lazyStarter);
+			}
 		}
 
-		@Override
-		public void run()
+		private void onFeatureInitialized(InitNode node)
 		{
-			// Initialization timed out
-			IFeature feature = _features.get(_featureNumber);
-			Log.e(TAG, _featureNumber + ". initialize " + (System.currentTimeMillis() - _initStartedTime) + " ms: "
-			        + feature + " timeout!");
-			_onFeatureInitialized.onInitialized(new FeatureError(feature, ResultCode.TIMEOUT));
+			node.notifyWaiters(FeatureError.OK(node._feature));
+			for (InitNode dependent : node._dependents)
+			{
+				dependent._pendingCount--;
+				if (dependent._pendingCount == 0 && dependent._requested)
+					addReady(dependent);
+			}
+			initializeNext();
 		}
 
-		@Override
-		public void onInitialized(FeatureError error)
+		private void onFeatureFailed(InitNode node, FeatureError error)
 		{
-			stopTimeout();
-			onInitializeProgress(error.getFeature(), 1.0f);
-
-			if (_initializedFeatures.containsKey(error.getFeature()))
-				throw new RuntimeException("Internal Error: Feature " + error.getFeature() + " is calling onInitialized callback more than once");
-			_initializedFeatures.put(error.getFeature(), Boolean.TRUE);
+			if (node._error != null)
+				return;
+			node._error = error;
+			node.stopTimeout();
 
-			if (_lastFeatureNumber == _featureNumber)
+			if (node._lazy)
 			{
-				throw new RuntimeException("Internal Error: onInitialized callback is called not after initializeNext by feature " + error.getFeature());
+				// lazy features failures don't stop the application, only
+				// the features depending on the failed one
+				Log.e(TAG, "Lazy " + node._feature + " failed to initialize: " + error);
+				failDependents(node, error);
+				initializeNext();
+				return;
 			}
 
-			_lastFeatureNumber = _featureNumber;
-			long featureInitTime = System.currentTimeMillis() - _initStartedTime;
-			Log.i(TAG, "<" + _featureNumber + ". " + error.getFeature() + " initialized in " + featureInitTime
-			        + " ms with result " + error);
-			_initTotalTime += featureInitTime;
+			if (_failed)
+				return;
+			_failed = true;
+			for (InitNode n : _nodes)
+				n.stopTimeout();
+			_bootTrace.finish();
+			node.notifyWaiters(error);
+			_onFeatureInitialized.onInitialized(error);
+		}
 
-			// Stop all features initialization when one fails to initialize
-			if (error.isError())
+		private void failDependents(InitNode node, FeatureError error)
+		{
+			node.notifyWaiters(error);
+			for (InitNode dependent : node._dependents)
 			{
-				_onFeatureInitialized.onInitialized(error);
+				if (dependent._error == null)
+				{
+					dependent._error = error;
+					failDependents(dependent, error);
+				}
 			}
-			else
+		}
+
+		// logs the chain of features determining the total initialization
+		// time
+		private void logCriticalPath()
+		{
+			InitNode last = null;
+			for (InitNode node : _nodes)
+				if (!node._lazy && (last == null || node._endTime > last._endTime))
+					last = node;
+			if (last == null)
+				return;
+
+			List<InitNode> path = new ArrayList<InitNode>();
+			for (InitNode node = last; node != null;)
 			{
-				initializeNext();
+				path.add(0, node);
+				InitNode latest = null;
+				for (InitNode dependency : node._dependencies)
+					if (latest == null || dependency._endTime > latest._endTime)
+						latest = dependency;
+				node = latest;
 			}
+
+			List<IFeature> criticalFeatures = new ArrayList<IFeature>();
+			Log.i(TAG, "Critical path of " + path.size() + " features, " + last._endTime + " ms:");
+			for (InitNode node : path)
+			{
+				criticalFeatures.add(node._feature);
+				StringBuffer sb = new StringBuffer();
+				sb.append(node._index).append(". ").append(node._feature).append(": ");
+				sb.append(node._startTime).append(" - ").append(node._endTime).append(" ms (");
+				sb.append(node._endTime - node._startTime).append(" ms");
+				long slotWait = node._startTime - node._readyTime;
+				if (slotWait > 0)
+					sb.append(", waited ").append(slotWait).append(" ms for initialization slot");
+				sb.append(")");
+				Log.i(TAG, sb.toString());
+			}
+			_bootTrace.setCriticalPath(criticalFeatures);
 		}
+	}
 
-		@Override
-		public void onInitializeProgress(IFeature feature, float progress)
+	// returns true if the feature is among the specified dependencies
+	private static boolean isDependency(FeatureSet dependencies, IFeature feature)
+	{
+		if (dependencies == null)
+			return false;
+		for (Class<?> special : dependencies.Specials)
+			if (special.isInstance(feature))
+				return true;
+		switch (feature.getType())
 		{
-			float totalProgress = (_featureNumber + progress) / _features.size();
-			Log.i(TAG, "load progress -> " + totalProgress);
-			_onFeatureInitialized.onInitializeProgress(feature, totalProgress);
+			case COMPONENT:
+				return dependencies.Components.contains(((FeatureComponent) feature).getComponentName());
+			case SCHEDULER:
+				return dependencies.Schedulers.contains(((FeatureScheduler) feature).getSchedulerName());
+			case STATE:
+				return dependencies.States.contains(((FeatureState) feature).getStateName());
 		}
+		return false;
 	}
 
 	private class AVIQTVXmlHandler extends DefaultHandler
@@ -928,6 +1431,7 @@ public class FeatureManager
 		private static final String TAG_BOOLEAN = "boolean";
 		private static final String ATTR_FEATURE_PARAM_NAME = "name";
 		private static final String ATTR_FEATURE_CLASS = "class";
+		private static final String ATTR_FEATURE_LAZY = "lazy";
 		private static final String ATTR_FEATURE_PARAM_VALUE = "value";
 		private static final String TAG_HOOKS = "hooks";
 		private static final String TAG_ON = "on";
@@ -1151,6 +1655,8 @@ public class FeatureManager
 				{
 					throw new SAXParseException(e.getMessage(), _locator, e);
 				}
+				if (Boolean.parseBoolean(attributes.getValue(ATTR_FEATURE_LAZY)))
+					setLazy(_feature);
 			}
 			else if (TAG_SCHEDULER.equalsIgnoreCase(localName))
 			{
@@ -1179,6 +1685,8 @@ public class FeatureManager
 				{
 					throw new SAXParseException(e.getMessage(), _locator, e);
 				}
+				if (Boolean.parseBoolean(attributes.getValue(ATTR_FEATURE_LAZY)))
+					setLazy(_feature);
 			}
 			else if (TAG_STATE.equalsIgnoreCase(localName))
 			{
@@ -1207,6 +1715,8 @@ public class FeatureManager
 				{
 					throw new SAXParseException(e.getMessage(), _locator, e);
 				}
+				if (Boolean.parseBoolean(attributes.getValue(ATTR_FEATURE_LAZY)))
+					setLazy(_feature);
 			}
 			else if (TAG_HOOKS.equalsIgnoreCase(localName))
 			{
@@ -143,7 +143,8 @@ public abstract class FeatureScheduler implements IFeature
 	@Override
 	public void onEvent(int msgId, Bundle bundle)
 	{
-		Log.i(getName(), ".onEvent: " + EventMessenger.idName(msgId) + TextUtils.implodeBundle(bundle));
+		if (Log.isLoggable(Log.INFO))
+			Log.i(getName(), ".onEvent: %s%s", EventMessenger.idName(msgId), TextUtils.implodeBundle(bundle));
 		if (ON_SCHEDULE == msgId)
 		{
 			onSchedule(new OnFeatureInitialized()
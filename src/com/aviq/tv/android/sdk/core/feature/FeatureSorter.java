@@ -0,0 +1,216 @@
+/**
+ * Copyright (c) 2007-2015, Intelibo Ltd
+ *
+ * Project:     TVBOSDK
+ * Filename:    FeatureSorter.java
+ * Author:      alek
+ * Date:        18 Oct 2015
+ * Description: Sorts features topologically by their dependencies
+ */
+
+package com.aviq.tv.android.sdk.core.feature;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts features topologically by their dependencies with Kahn's algorithm.
+ * The features are referred by their indices in the declaration order.
+ *
+ * The order is the one of sweeping the declared features repeatedly and
+ * placing each feature with all dependencies already placed: a feature
+ * getting ready during a sweep is placed in the same sweep if it is declared
+ * after the feature resolving it, otherwise in the next sweep. Prioritized
+ * features are placed right after their last placed dependency instead of
+ * at the end.
+ */
+public class FeatureSorter
+{
+	/**
+	 * Thrown when features can't be sorted due to circular dependencies
+	 */
+	@SuppressWarnings("serial")
+	public static class CycleException extends RuntimeException
+	{
+		private final int[] _cycle;
+
+		CycleException(int[] cycle)
+		{
+			super("Circular features dependencies");
+			_cycle = cycle;
+		}
+
+		/**
+		 * @return feature indices forming the cycle, each feature depends on
+		 *         the next one and the last depends on the first
+		 */
+		public int[] getCycle()
+		{
+			return _cycle;
+		}
+	}
+
+	/**
+	 * Sorts features topologically
+	 *
+	 * @param dependencies
+	 *            the indices of the dependency features of each feature
+	 * @param prioritized
+	 *            true for the features to be placed right after their
+	 *            dependencies
+	 * @return feature indices in initialization order
+	 * @throws CycleException
+	 *             on circular dependencies
+	 */
+	public static int[] sort(int[][] dependencies, boolean[] prioritized)
+	{
+		final int count = dependencies.length;
+
+		// build the dependents lists and the number of pending dependencies
+		int[] pendingCount = new int[count];
+		int[] dependentsCount = new int[count];
+		for (int i = 0; i < count; i++)
+		{
+			pendingCount[i] = dependencies[i].length;
+			for (int dependency : dependencies[i])
+				dependentsCount[dependency]++;
+		}
+		int[][] dependents = new int[count][];
+		for (int i = 0; i < count; i++)
+			dependents[i] = new int[dependentsCount[i]];
+		for (int i = 0; i < count; i++)
+		{
+			for (int dependency : dependencies[i])
+				dependents[dependency][--dependentsCount[dependency]] = i;
+		}
+
+		// ready features ordered by sweep number and then by declaration
+		// order, encoded as sweep * count + index
+		PriorityQueue<Long> ready = new PriorityQueue<Long>(Math.max(1, count));
+		for (int i = 0; i < count; i++)
+			if (pendingCount[i] == 0)
+				ready.add(Long.valueOf(i));
+
+		List<Integer> sorted = new ArrayList<Integer>(count);
+		while (!ready.isEmpty())
+		{
+			long key = ready.poll().longValue();
+			long sweep = key / count;
+			int index = (int) (key % count);
+
+			if (prioritized[index])
+			{
+				// place right after the last placed dependency. Prioritized
+				// features are few so the positions are looked up linearly
+				int position = -1;
+				for (int dependency : dependencies[index])
+					position = Math.max(position, sorted.indexOf(Integer.valueOf(dependency)));
+				sorted.add(position + 1, Integer.valueOf(index));
+			}
+			else
+			{
+				sorted.add(Integer.valueOf(index));
+			}
+
+			for (int dependent : dependents[index])
+			{
+				if (--pendingCount[dependent] == 0)
+				{
+					long dependentSweep = dependent > index ? sweep : sweep + 1;
+					ready.add(Long.valueOf(dependentSweep * count + dependent));
+				}
+			}
+		}
+
+		if (sorted.size() < count)
+			throw new CycleException(findCycle(dependencies, pendingCount));
+
+		int[] order = new int[count];
+		for (int i = 0; i < count; i++)
+			order[i] = sorted.get(i).intValue();
+		return order;
+	}
+
+	/**
+	 * Reference implementation of the sort sweeping the features until all
+	 * are placed. Used to verify and benchmark the sort.
+	 *
+	 * @return feature indices in initialization order or null on circular
+	 *         dependencies
+	 */
+	public static int[] sortBySweeping(int[][] dependencies, boolean[] prioritized)
+	{
+		int count = dependencies.length;
+		List<Integer> sorted = new ArrayList<Integer>(count);
+		while (sorted.size() < count)
+		{
+			int prevSortedSize = sorted.size();
+			for (int i = 0; i < count; i++)
+			{
+				if (sorted.indexOf(Integer.valueOf(i)) >= 0)
+					continue;
+				int position = -1;
+				boolean resolved = true;
+				for (int dependency : dependencies[i])
+				{
+					int dependencyPosition = sorted.indexOf(Integer.valueOf(dependency));
+					if (dependencyPosition < 0)
+					{
+						resolved = false;
+						break;
+					}
+					position = Math.max(position, dependencyPosition);
+				}
+				if (!resolved)
+					continue;
+				if (prioritized[i])
+					sorted.add(position + 1, Integer.valueOf(i));
+				else
+					sorted.add(Integer.valueOf(i));
+			}
+			if (prevSortedSize == sorted.size())
+				return null;
+		}
+
+		int[] order = new int[count];
+		for (int i = 0; i < count; i++)
+			order[i] = sorted.get(i).intValue();
+		return order;
+	}
+
+	// follows unplaced dependencies from an unplaced feature until a feature
+	// repeats, every unplaced feature has at least one unplaced dependency
+	private static int[] findCycle(int[][] dependencies, int[] pendingCount)
+	{
+		int start = 0;
+		while (pendingCount[start] == 0)
+			start++;
+
+		int[] visitOrder = new int[dependencies.length];
+		for (int i = 0; i < visitOrder.length; i++)
+			visitOrder[i] = -1;
+
+		List<Integer> path = new ArrayList<Integer>();
+		int current = start;
+		while (visitOrder[current] < 0)
+		{
+			visitOrder[current] = path.size();
+			path.add(Integer.valueOf(current));
+			for (int dependency : dependencies[current])
+			{
+				if (pendingCount[dependency] > 0)
+				{
+					current = dependency;
+					break;
+				}
+			}
+		}
+
+		List<Integer> cyclePath = path.subList(visitOrder[current], path.size());
+		int[] cycle = new int[cyclePath.size()];
+		for (int i = 0; i < cycle.length; i++)
+			cycle[i] = cyclePath.get(i).intValue();
+		return cycle;
+	}
+}
@@ -21,12 +21,14 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.json.JSONException;
 import org.json.JSONObject;
 
 import android.os.Bundle;
 
 import com.aviq.tv.android.sdk.core.Environment;
 import com.aviq.tv.android.sdk.core.Log;
+import com.aviq.tv.android.sdk.core.feature.BootTrace;
 import com.aviq.tv.android.sdk.core.feature.FeatureComponent;
 import com.aviq.tv.android.sdk.core.feature.FeatureError;
 import com.aviq.tv.android.sdk.core.feature.FeatureName;
@@ -34,6 +36,11 @@ import com.aviq.tv.android.sdk.core.feature.FeatureName.Component;
 import com.aviq.tv.android.sdk.core.feature.FeatureNotFoundException;
 import com.aviq.tv.android.sdk.core.feature.annotation.Author;
 import com.aviq.tv.android.sdk.core.service.ServiceController.OnResultReceived;
+import com.aviq.tv.android.sdk.feature.command.handlers.CommandBenchmarkEvents;
+import com.aviq.tv.android.sdk.feature.command.handlers.CommandBenchmarkFeatureSort;
+import com.aviq.tv.android.sdk.feature.command.handlers.CommandBootTrace;
+import com.aviq.tv.android.sdk.feature.command.handlers.CommandBootTraceDiff;
+import com.aviq.tv.android.sdk.feature.command.handlers.CommandEventMetrics;
 import com.aviq.tv.android.sdk.feature.command.handlers.CommandFeatures;
 import com.aviq.tv.android.sdk.feature.command.handlers.CommandGetPrefs;
 import com.aviq.tv.android.sdk.feature.command.handlers.CommandHello;
@@ -78,7 +85,13 @@ public class FeatureCommand extends FeatureComponent
 		/**
 		 * Context to access the features app
 		 */
-		HTTP_CONTEXT_FEATURES("/features");
+		HTTP_CONTEXT_FEATURES("/features"),
+
+		/**
+		 * Context to download features initialization traces in Chrome trace
+		 * event format
+		 */
+		HTTP_CONTEXT_BOOT_TRACE("/boottrace");
 
 		Param(boolean value)
 		{
@@ -109,6 +122,11 @@ public class FeatureCommand extends FeatureComponent
 		addCommandHandler(new CommandTime());
 		addCommandHandler(new CommandFeatures());
 		addCommandHandler(new CommandGetPrefs());
+		addCommandHandler(new CommandBootTrace());
+		addCommandHandler(new CommandBootTraceDiff());
+		addCommandHandler(new CommandBenchmarkFeatureSort());
+		addCommandHandler(new CommandBenchmarkEvents());
+		addCommandHandler(new CommandEventMetrics());
 
 		if (_feature.Component.HTTP_SERVER instanceof FeatureHttpServerJetty)
 		{
@@ -116,6 +134,8 @@ public class FeatureCommand extends FeatureComponent
 			FeatureHttpServerJetty httpServer = (FeatureHttpServerJetty) _feature.Component.HTTP_SERVER;
 			httpServer.setServlet(JettyHttpHandlerCommand.class, getPrefs().getString(Param.HTTP_CONTEXT_COMMAND)
 			        + "/*");
+			httpServer.setServlet(JettyHttpHandlerBootTrace.class, getPrefs().getString(Param.HTTP_CONTEXT_BOOT_TRACE)
+			        + "/*");
 
 			// deploy tvboconnect html app
 			if (getPrefs().getBool(Param.DEPLOY_TVBOCONNECT))
@@ -328,4 +348,44 @@ public class FeatureCommand extends FeatureComponent
 			response.getWriter().print(jsonResult);
 		}
 	}
+
+	/**
+	 * HTTP handler to jetty web server serving features initialization traces
+	 * in Chrome trace event format. Serves the current trace or the saved
+	 * trace named by the path after the context.
+	 */
+	public static class JettyHttpHandlerBootTrace extends HttpServlet
+	{
+		private static final long serialVersionUID = 4217203880562210381L;
+
+		@Override
+		protected void doGet(HttpServletRequest request, final HttpServletResponse response) throws ServletException,
+		        IOException
+		{
+			String uri = request.getRequestURI();
+			int slashIdx = uri.substring(1).indexOf('/');
+			String name = slashIdx >= 0 ? uri.substring(2 + slashIdx) : "";
+			Log.i(TAG, ".doGet: name = " + name);
+
+			response.setContentType("application/json;charset=utf-8");
+			try
+			{
+				JSONObject trace;
+				if (name.length() == 0)
+					trace = Environment.getInstance().getFeatureManager().getBootTrace().toJson();
+				else
+					trace = BootTrace.load(Environment.getInstance().getBootTraceDir(), name);
+				response.setStatus(HttpServletResponse.SC_OK);
+				response.getWriter().print(trace);
+			}
+			catch (IOException e)
+			{
+				response.sendError(HttpServletResponse.SC_NOT_FOUND, e.getMessage());
+			}
+			catch (JSONException e)
+			{
+				response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e.getMessage());
+			}
+		}
+	}
 }
@@ -0,0 +1,207 @@
+/**
+ * Copyright (c) 2007-2015, Intelibo Ltd
+ *
+ * Project:     TVBOSDK
+ * Filename:    CommandBenchmarkEvents.java
+ * Author:      alek
+ * Date:        18 Oct 2015
+ * Description: Benchmarks events dispatching throughput
+ */
+
+package com.aviq.tv.android.sdk.feature.command.handlers;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.os.Bundle;
+import android.util.SparseArray;
+
+import com.aviq.tv.android.sdk.core.Environment;
+import com.aviq.tv.android.sdk.core.EventMessenger;
+import com.aviq.tv.android.sdk.core.EventReceiver;
+import com.aviq.tv.android.sdk.core.Log;
+import com.aviq.tv.android.sdk.core.feature.FeatureError;
+import com.aviq.tv.android.sdk.core.feature.FeatureName;
+import com.aviq.tv.android.sdk.core.service.ServiceController.OnResultReceived;
+import com.aviq.tv.android.sdk.feature.command.CommandHandler;
+
+/**
+ * Measures the events per second dispatched by EventMessenger to a number of
+ * listeners and compares with the former dispatching copying the listeners
+ * into a new list on every event
+ */
+public class CommandBenchmarkEvents implements CommandHandler
+{
+	private static final String TAG = CommandBenchmarkEvents.class.getSimpleName();
+	public static final String ID = "BENCHMARK_EVENTS";
+	private static final int ON_BENCHMARK = EventMessenger.ID("ON_BENCHMARK");
+	private static final int DEFAULT_LISTENERS = 8;
+	private static final int DEFAULT_EVENTS = 100000;
+	private static final int DEFAULT_ROUNDS = 5;
+
+	public static enum Extras
+	{
+		/**
+		 * Number of listeners of the dispatched event
+		 */
+		LISTENERS,
+
+		/**
+		 * Number of events dispatched per round
+		 */
+		EVENTS,
+
+		/**
+		 * Number of measured rounds after one warmup round
+		 */
+		ROUNDS
+	}
+
+	private static class CountingReceiver implements EventReceiver
+	{
+		int count;
+
+		@Override
+		public void onEvent(int msgId, Bundle bundle)
+		{
+			count++;
+		}
+	}
+
+	@Override
+	public void execute(Bundle params, OnResultReceived onResultReceived)
+	{
+		int nListeners = getInt(params, Extras.LISTENERS, DEFAULT_LISTENERS);
+		int nEvents = getInt(params, Extras.EVENTS, DEFAULT_EVENTS);
+		int nRounds = getInt(params, Extras.ROUNDS, DEFAULT_ROUNDS);
+		Log.i(TAG, ".execute: listeners = " + nListeners + ", events = " + nEvents + ", rounds = " + nRounds);
+
+		// the benchmark message has no other listeners and may be dispatched
+		// from the calling thread
+		EventMessenger eventMessenger = Environment.getInstance().getEventMessenger();
+		SparseArray<List<EventReceiver>> legacyListeners = new SparseArray<List<EventReceiver>>();
+		List<EventReceiver> legacyMsgListeners = new ArrayList<EventReceiver>();
+		legacyListeners.put(ON_BENCHMARK, legacyMsgListeners);
+		CountingReceiver[] receivers = new CountingReceiver[nListeners];
+		for (int i = 0; i < nListeners; i++)
+		{
+			receivers[i] = new CountingReceiver();
+			eventMessenger.register(receivers[i], ON_BENCHMARK);
+			legacyMsgListeners.add(receivers[i]);
+		}
+
+		Bundle bundle = new Bundle();
+		double[] rates = new double[nRounds];
+		double[] legacyRates = new double[nRounds];
+
+		// the first round warms up
+		for (int round = -1; round < nRounds; round++)
+		{
+			long processStart = System.nanoTime();
+			for (int i = 0; i < nEvents; i++)
+				eventMessenger.dispatch(ON_BENCHMARK, bundle);
+			long processTime = System.nanoTime() - processStart;
+
+			processStart = System.nanoTime();
+			for (int i = 0; i < nEvents; i++)
+				legacyDispatch(legacyListeners, ON_BENCHMARK, bundle);
+			long legacyProcessTime = System.nanoTime() - processStart;
+
+			if (round >= 0)
+			{
+				rates[round] = nEvents * 1e9 / Math.max(1, processTime);
+				legacyRates[round] = nEvents * 1e9 / Math.max(1, legacyProcessTime);
+			}
+		}
+
+		for (CountingReceiver receiver : receivers)
+			eventMessenger.unregister(receiver, ON_BENCHMARK);
+
+		try
+		{
+			JSONObject jsonResult = new JSONObject();
+			jsonResult.put("listeners", nListeners);
+			jsonResult.put("events", nEvents);
+			jsonResult.put("rounds", nRounds);
+			jsonResult.put("events_per_sec", (long) mean(rates));
+			jsonResult.put("events_per_sec_stddev", (long) stddev(rates));
+			jsonResult.put("legacy_events_per_sec", (long) mean(legacyRates));
+			jsonResult.put("legacy_events_per_sec_stddev", (long) stddev(legacyRates));
+			jsonResult.put("speedup", mean(rates) / Math.max(1, mean(legacyRates)));
+			jsonResult.put("notified", receivers.length > 0 ? receivers[0].count : 0);
+			onResultReceived.onReceiveResult(FeatureError.OK, jsonResult);
+		}
+		catch (JSONException e)
+		{
+			onResultReceived.onReceiveResult(
+			        new FeatureError(Environment.getInstance().getFeatureComponent(FeatureName.Component.COMMAND), e),
+			        null);
+		}
+	}
+
+	@Override
+	public String getId()
+	{
+		return ID;
+	}
+
+	// the dispatching before the copy-on-write listeners, including its
+	// unconditional logging
+	private void legacyDispatch(SparseArray<List<EventReceiver>> listners, int msgId, Bundle bundle)
+	{
+		List<EventReceiver> msgListeners = listners.get(msgId);
+		List<EventReceiver> anyMsgListeners = listners.get(EventMessenger.ON_ANY);
+		List<EventReceiver> listeners = new ArrayList<EventReceiver>();
+
+		if (msgListeners != null)
+			listeners.addAll(msgListeners);
+		if (anyMsgListeners != null)
+			listeners.addAll(anyMsgListeners);
+		if (listeners.size() > 0)
+		{
+			Log.v(TAG, ".handleMessage: notifying " + listeners.size() + " listeners on "
+			        + EventMessenger.idName(msgId) + " (" + msgId + ")");
+			for (EventReceiver eventReceiver : listeners)
+			{
+				Log.d(TAG, eventReceiver + ".onEvent " + EventMessenger.idName(msgId));
+				eventReceiver.onEvent(msgId, bundle);
+			}
+		}
+	}
+
+	private static double mean(double[] values)
+	{
+		double sum = 0;
+		for (double value : values)
+			sum += value;
+		return values.length > 0 ? sum / values.length : 0;
+	}
+
+	private static double stddev(double[] values)
+	{
+		double mean = mean(values);
+		double sum = 0;
+		for (double value : values)
+			sum += (value - mean) * (value - mean);
+		return values.length > 1 ? Math.sqrt(sum / (values.length - 1)) : 0;
+	}
+
+	private static int getInt(Bundle params, Extras extra, int defaultValue)
+	{
+		String value = params.getString(extra.name());
+		if (value == null)
+			return defaultValue;
+		try
+		{
+			return Integer.parseInt(value);
+		}
+		catch (NumberFormatException e)
+		{
+			Log.w(TAG, e.getMessage(), e);
+			return defaultValue;
+		}
+	}
+}
@@ -0,0 +1,167 @@
+/**
+ * Copyright (c) 2007-2015, Intelibo Ltd
+ *
+ * Project:     TVBOSDK
+ * Filename:    CommandBenchmarkFeatureSort.java
+ * Author:      alek
+ * Date:        18 Oct 2015
+ * Description: Benchmarks features topological sort on synthetic graphs
+ */
+
+package com.aviq.tv.android.sdk.feature.command.handlers;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.os.Bundle;
+
+import com.aviq.tv.android.sdk.core.Environment;
+import com.aviq.tv.android.sdk.core.Log;
+import com.aviq.tv.android.sdk.core.feature.FeatureError;
+import com.aviq.tv.android.sdk.core.feature.FeatureName;
+import com.aviq.tv.android.sdk.core.feature.FeatureSorter;
+import com.aviq.tv.android.sdk.core.service.ServiceController.OnResultReceived;
+import com.aviq.tv.android.sdk.feature.command.CommandHandler;
+
+/**
+ * Compares the features topological sort with the sort by sweeping on random
+ * dependency graphs declared in random order
+ */
+public class CommandBenchmarkFeatureSort implements CommandHandler
+{
+	private static final String TAG = CommandBenchmarkFeatureSort.class.getSimpleName();
+	public static final String ID = "BENCHMARK_FEATURE_SORT";
+	private static final int DEFAULT_FEATURES = 500;
+	private static final int DEFAULT_DEPENDENCIES = 4;
+	private static final int DEFAULT_ITERATIONS = 10;
+
+	// one of this number of features is prioritized
+	private static final int PRIORITIZED_RATIO = 20;
+
+	public static enum Extras
+	{
+		/**
+		 * Number of features in a graph
+		 */
+		FEATURES,
+
+		/**
+		 * Maximum number of dependencies of a feature
+		 */
+		DEPENDENCIES,
+
+		/**
+		 * Number of sorted graphs
+		 */
+		ITERATIONS,
+
+		/**
+		 * Random seed of the graphs
+		 */
+		SEED
+	}
+
+	@Override
+	public void execute(Bundle params, OnResultReceived onResultReceived)
+	{
+		int nFeatures = getInt(params, Extras.FEATURES, DEFAULT_FEATURES);
+		int nDependencies = getInt(params, Extras.DEPENDENCIES, DEFAULT_DEPENDENCIES);
+		int iterations = getInt(params, Extras.ITERATIONS, DEFAULT_ITERATIONS);
+		Random random = new Random(getInt(params, Extras.SEED, 0));
+		Log.i(TAG, ".execute: features = " + nFeatures + ", dependencies = " + nDependencies + ", iterations = "
+		        + iterations);
+
+		long sortTime = 0;
+		long sweepTime = 0;
+		int mismatches = 0;
+		for (int i = 0; i < iterations; i++)
+		{
+			int[][] dependencies = new int[nFeatures][];
+			boolean[] prioritized = new boolean[nFeatures];
+			createGraph(random, nDependencies, dependencies, prioritized);
+
+			long processStart = System.nanoTime();
+			int[] order = FeatureSorter.sort(dependencies, prioritized);
+			sortTime += System.nanoTime() - processStart;
+
+			processStart = System.nanoTime();
+			int[] sweepOrder = FeatureSorter.sortBySweeping(dependencies, prioritized);
+			sweepTime += System.nanoTime() - processStart;
+
+			if (!Arrays.equals(order, sweepOrder))
+				mismatches++;
+		}
+
+		try
+		{
+			JSONObject jsonResult = new JSONObject();
+			jsonResult.put("features", nFeatures);
+			jsonResult.put("iterations", iterations);
+			jsonResult.put("sort_us", sortTime / 1000 / Math.max(1, iterations));
+			jsonResult.put("sweep_us", sweepTime / 1000 / Math.max(1, iterations));
+			jsonResult.put("speedup", (double) sweepTime / Math.max(1, sortTime));
+
+			// non zero mismatches means both sorts disagree
+			jsonResult.put("mismatches", mismatches);
+			onResultReceived.onReceiveResult(FeatureError.OK, jsonResult);
+		}
+		catch (JSONException e)
+		{
+			onResultReceived.onReceiveResult(
+			        new FeatureError(Environment.getInstance().getFeatureComponent(FeatureName.Component.COMMAND), e),
+			        null);
+		}
+	}
+
+	@Override
+	public String getId()
+	{
+		return ID;
+	}
+
+	// creates random acyclic graph with features declared in random order
+	private static void createGraph(Random random, int nDependencies, int[][] dependencies, boolean[] prioritized)
+	{
+		int nFeatures = dependencies.length;
+		int[] declared = new int[nFeatures];
+		for (int i = 0; i < nFeatures; i++)
+			declared[i] = i;
+		for (int i = nFeatures - 1; i > 0; i--)
+		{
+			int j = random.nextInt(i + 1);
+			int tmp = declared[i];
+			declared[i] = declared[j];
+			declared[j] = tmp;
+		}
+
+		// each feature depends on features created before it
+		for (int i = 0; i < nFeatures; i++)
+		{
+			int feature = declared[i];
+			int count = i > 0 ? random.nextInt(Math.min(i, nDependencies) + 1) : 0;
+			dependencies[feature] = new int[count];
+			for (int j = 0; j < count; j++)
+				dependencies[feature][j] = declared[random.nextInt(i)];
+			prioritized[feature] = random.nextInt(PRIORITIZED_RATIO) == 0;
+		}
+	}
+
+	private static int getInt(Bundle params, Extras extra, int defaultValue)
+	{
+		String value = params.getString(extra.name());
+		if (value == null)
+			return defaultValue;
+		try
+		{
+			return Integer.parseInt(value);
+		}
+		catch (NumberFormatException e)
+		{
+			Log.w(TAG, e.getMessage(), e);
+			return defaultValue;
+		}
+	}
+}
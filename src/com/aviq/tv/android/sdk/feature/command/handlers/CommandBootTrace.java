@@ -0,0 +1,85 @@
+/**
+ * Copyright (c) 2007-2015, Intelibo Ltd
+ *
+ * Project:     TVBOSDK
+ * Filename:    CommandBootTrace.java
+ * Author:      alek
+ * Date:        18 Oct 2015
+ * Description: Returns features initialization trace
+ */
+
+package com.aviq.tv.android.sdk.feature.command.handlers;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import android.os.Bundle;
+
+import com.aviq.tv.android.sdk.core.Environment;
+import com.aviq.tv.android.sdk.core.Log;
+import com.aviq.tv.android.sdk.core.ResultCode;
+import com.aviq.tv.android.sdk.core.feature.BootTrace;
+import com.aviq.tv.android.sdk.core.feature.FeatureComponent;
+import com.aviq.tv.android.sdk.core.feature.FeatureError;
+import com.aviq.tv.android.sdk.core.feature.FeatureName;
+import com.aviq.tv.android.sdk.core.service.ServiceController.OnResultReceived;
+import com.aviq.tv.android.sdk.feature.command.CommandHandler;
+
+/**
+ * Returns the current or a saved features initialization trace in Chrome trace
+ * event format, or the names of the saved traces
+ */
+public class CommandBootTrace implements CommandHandler
+{
+	private static final String TAG = CommandBootTrace.class.getSimpleName();
+	public static final String ID = "BOOT_TRACE";
+
+	public static enum Extras
+	{
+		/**
+		 * The name of a saved trace, the current trace if missing
+		 */
+		NAME,
+
+		/**
+		 * Returns the names of the saved traces when set
+		 */
+		LIST
+	}
+
+	@Override
+	public void execute(Bundle params, final OnResultReceived onResultReceived)
+	{
+		FeatureComponent thisFeature = Environment.getInstance().getFeatureComponent(FeatureName.Component.COMMAND);
+		String name = params.getString(Extras.NAME.name());
+		Log.i(TAG, ".execute: name = " + name);
+		File traceDir = Environment.getInstance().getBootTraceDir();
+		try
+		{
+			if (params.containsKey(Extras.LIST.name()))
+				onResultReceived.onReceiveResult(FeatureError.OK, new JSONArray(BootTrace.list(traceDir)));
+			else if (name == null)
+				onResultReceived.onReceiveResult(FeatureError.OK, Environment.getInstance().getFeatureManager()
+				        .getBootTrace().toJson());
+			else
+				onResultReceived.onReceiveResult(FeatureError.OK, BootTrace.load(traceDir, name));
+		}
+		catch (IOException e)
+		{
+			onResultReceived.onReceiveResult(new FeatureError(thisFeature, ResultCode.IO_ERROR, e), null);
+		}
+		catch (JSONException e)
+		{
+			onResultReceived.onReceiveResult(new FeatureError(thisFeature, e), null);
+		}
+	}
+
+	@Override
+	public String getId()
+	{
+		return ID;
+	}
+}
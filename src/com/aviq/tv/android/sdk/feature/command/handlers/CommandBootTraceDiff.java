@@ -0,0 +1,93 @@
+/**
+ * Copyright (c) 2007-2015, Intelibo Ltd
+ *
+ * Project:     TVBOSDK
+ * Filename:    CommandBootTraceDiff.java
+ * Author:      alek
+ * Date:        18 Oct 2015
+ * Description: Compares two features initialization traces
+ */
+
+package com.aviq.tv.android.sdk.feature.command.handlers;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.os.Bundle;
+
+import com.aviq.tv.android.sdk.core.Environment;
+import com.aviq.tv.android.sdk.core.Log;
+import com.aviq.tv.android.sdk.core.ResultCode;
+import com.aviq.tv.android.sdk.core.feature.BootTrace;
+import com.aviq.tv.android.sdk.core.feature.FeatureComponent;
+import com.aviq.tv.android.sdk.core.feature.FeatureError;
+import com.aviq.tv.android.sdk.core.feature.FeatureName;
+import com.aviq.tv.android.sdk.core.service.ServiceController.OnResultReceived;
+import com.aviq.tv.android.sdk.feature.command.CommandHandler;
+
+/**
+ * Compares two saved features initialization traces, e.g. of two build
+ * versions
+ */
+public class CommandBootTraceDiff implements CommandHandler
+{
+	private static final String TAG = CommandBootTraceDiff.class.getSimpleName();
+	public static final String ID = "BOOT_TRACE_DIFF";
+
+	public static enum Extras
+	{
+		/**
+		 * The name of the base trace
+		 */
+		BASE,
+
+		/**
+		 * The name of the compared trace, the current trace if missing
+		 */
+		OTHER
+	}
+
+	@Override
+	public void execute(Bundle params, final OnResultReceived onResultReceived)
+	{
+		FeatureComponent thisFeature = Environment.getInstance().getFeatureComponent(FeatureName.Component.COMMAND);
+		String base = params.getString(Extras.BASE.name());
+		String other = params.getString(Extras.OTHER.name());
+		Log.i(TAG, ".execute: base = " + base + ", other = " + other);
+		if (base == null)
+		{
+			onResultReceived.onReceiveResult(new FeatureError(thisFeature, ResultCode.PROTOCOL_ERROR,
+			        "Expected parameter base"), null);
+			return;
+		}
+
+		File traceDir = Environment.getInstance().getBootTraceDir();
+		try
+		{
+			JSONObject otherTrace;
+			if (other == null)
+				otherTrace = Environment.getInstance().getFeatureManager().getBootTrace().toJson();
+			else
+				otherTrace = BootTrace.load(traceDir, other);
+			onResultReceived.onReceiveResult(FeatureError.OK, BootTrace.diff(BootTrace.load(traceDir, base),
+			        otherTrace));
+		}
+		catch (IOException e)
+		{
+			onResultReceived.onReceiveResult(new FeatureError(thisFeature, ResultCode.IO_ERROR, e), null);
+		}
+		catch (JSONException e)
+		{
+			onResultReceived.onReceiveResult(new FeatureError(thisFeature, e), null);
+		}
+	}
+
+	@Override
+	public String getId()
+	{
+		return ID;
+	}
+}
@@ -0,0 +1,89 @@
+/**
+ * Copyright (c) 2007-2015, Intelibo Ltd
+ *
+ * Project:     TVBOSDK
+ * Filename:    CommandEventMetrics.java
+ * Author:      alek
+ * Date:        18 Oct 2015
+ * Description: Returns event listeners invocation statistics
+ */
+
+package com.aviq.tv.android.sdk.feature.command.handlers;
+
+import org.json.JSONException;
+
+import android.os.Bundle;
+
+import com.aviq.tv.android.sdk.core.Environment;
+import com.aviq.tv.android.sdk.core.EventMetrics;
+import com.aviq.tv.android.sdk.core.Log;
+import com.aviq.tv.android.sdk.core.feature.FeatureError;
+import com.aviq.tv.android.sdk.core.feature.FeatureName;
+import com.aviq.tv.android.sdk.core.service.ServiceController.OnResultReceived;
+import com.aviq.tv.android.sdk.feature.command.CommandHandler;
+
+/**
+ * Returns the event listeners invocation counts and latencies, the event
+ * queue delays and the event policy counters
+ */
+public class CommandEventMetrics implements CommandHandler
+{
+	private static final String TAG = CommandEventMetrics.class.getSimpleName();
+	public static final String ID = "EVENT_METRICS";
+
+	public static enum Extras
+	{
+		/**
+		 * Enables collecting statistics with true, disables with false
+		 */
+		ENABLE,
+
+		/**
+		 * Sets the slow listener threshold in milliseconds
+		 */
+		SLOW_MS,
+
+		/**
+		 * Clears the statistics after returning them when set
+		 */
+		RESET
+	}
+
+	@Override
+	public void execute(Bundle params, OnResultReceived onResultReceived)
+	{
+		String enable = params.getString(Extras.ENABLE.name());
+		String slowMs = params.getString(Extras.SLOW_MS.name());
+		boolean reset = params.containsKey(Extras.RESET.name());
+		Log.i(TAG, ".execute: enable = " + enable + ", slowMs = " + slowMs + ", reset = " + reset);
+		try
+		{
+			if (enable != null)
+				EventMetrics.setEnabled(Boolean.parseBoolean(enable));
+			if (slowMs != null)
+				EventMetrics.setSlowThreshold(Integer.parseInt(slowMs));
+			Object result = EventMetrics.toJson();
+			if (reset)
+				EventMetrics.reset();
+			onResultReceived.onReceiveResult(FeatureError.OK, result);
+		}
+		catch (NumberFormatException e)
+		{
+			onResultReceived.onReceiveResult(
+			        new FeatureError(Environment.getInstance().getFeatureComponent(FeatureName.Component.COMMAND), e),
+			        null);
+		}
+		catch (JSONException e)
+		{
+			onResultReceived.onReceiveResult(
+			        new FeatureError(Environment.getInstance().getFeatureComponent(FeatureName.Component.COMMAND), e),
+			        null);
+		}
+	}
+
+	@Override
+	public String getId()
+	{
+		return ID;
+	}
+}
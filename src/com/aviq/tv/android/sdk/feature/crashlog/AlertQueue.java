@@ -0,0 +1,260 @@
+/**
+ * Copyright (c) 2007-2015, Intelibo Ltd
+ *
+ * Project:     TVBOSDK
+ * Filename:    AlertQueue.java
+ * Author:      alek
+ * Date:        18 Oct 2015
+ * Description: Deduplicates and rate limits logged warnings and errors
+ */
+
+package com.aviq.tv.android.sdk.feature.crashlog;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+
+import com.aviq.tv.android.sdk.feature.crashlog.FeatureCrashLog.Severity;
+
+/**
+ * Bounded background queue of the logged warnings and errors. The first
+ * occurrence of a tag and message template in a report interval is reported
+ * immediately, the repeated occurrences are counted and reported once at the
+ * end of the interval. At most a number of immediate reports are made per
+ * interval. The logging thread only enqueues the alert.
+ */
+class AlertQueue
+{
+	private static final String TAG = AlertQueue.class.getSimpleName();
+
+	/**
+	 * Receives the alerts to report
+	 */
+	interface OnAlert
+	{
+		/**
+		 * @param count
+		 *            the number of occurrences reported
+		 * @param repeated
+		 *            false for the first occurrence, true for the occurrences
+		 *            suppressed during the report interval
+		 */
+		void onAlert(Severity severity, String tag, String message, Throwable ex, int count, boolean repeated);
+	}
+
+	private static class Alert
+	{
+		final Severity severity;
+		final String tag;
+		final String message;
+		final Throwable ex;
+
+		Alert(Severity severity, String tag, String message, Throwable ex)
+		{
+			this.severity = severity;
+			this.tag = tag;
+			this.message = message;
+			this.ex = ex;
+		}
+	}
+
+	private static class Occurrence
+	{
+		final Alert first;
+		int suppressed;
+
+		Occurrence(Alert first)
+		{
+			this.first = first;
+		}
+	}
+
+	private final BlockingQueue<Alert> _queue;
+	private final AtomicBoolean _drainScheduled = new AtomicBoolean();
+	private final AtomicInteger _dropped = new AtomicInteger();
+	private volatile OnAlert _onAlert;
+	private volatile int _intervalMs = 60 * 1000;
+	private volatile int _maxReports = 20;
+	private final Handler _handler;
+
+	// accessed on the queue thread only
+	private final Map<String, Occurrence> _occurrences = new HashMap<String, Occurrence>();
+	private int _nReports;
+	private boolean _flushScheduled;
+
+	private final Runnable _drainRunnable = new Runnable()
+	{
+		@Override
+		public void run()
+		{
+			drain();
+		}
+	};
+
+	private final Runnable _flushRunnable = new Runnable()
+	{
+		@Override
+		public void run()
+		{
+			flush();
+		}
+	};
+
+	/**
+	 * @param capacity
+	 *            maximum number of alerts waiting to be processed
+	 */
+	AlertQueue(int capacity)
+	{
+		_queue = new ArrayBlockingQueue<Alert>(capacity);
+		HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+		thread.start();
+		_handler = new Handler(thread.getLooper());
+	}
+
+	/**
+	 * Configures the queue
+	 *
+	 * @param intervalMs
+	 *            the report interval in milliseconds
+	 * @param maxReports
+	 *            maximum number of immediate reports per interval
+	 * @param onAlert
+	 *            receiver of the reported alerts, the alerts are kept in the
+	 *            queue until set
+	 */
+	void configure(int intervalMs, int maxReports, OnAlert onAlert)
+	{
+		_intervalMs = intervalMs;
+		_maxReports = maxReports;
+		_onAlert = onAlert;
+		scheduleDrain();
+	}
+
+	/**
+	 * Enqueues alert without blocking, the alert is dropped if the queue is
+	 * full
+	 */
+	void add(Severity severity, String tag, String message, Throwable ex)
+	{
+		if (!_queue.offer(new Alert(severity, tag, message, ex)))
+		{
+			// use android log directly to avoid enqueuing warnings about the
+			// queue itself
+			int dropped = _dropped.incrementAndGet();
+			if (Integer.bitCount(dropped) == 1)
+				Log.w(TAG, "Alert queue is full, " + dropped + " alerts dropped");
+			return;
+		}
+		if (_onAlert != null)
+			scheduleDrain();
+	}
+
+	private void scheduleDrain()
+	{
+		if (_drainScheduled.compareAndSet(false, true))
+			_handler.post(_drainRunnable);
+	}
+
+	// runs on the queue thread
+	private void drain()
+	{
+		_drainScheduled.set(false);
+		OnAlert onAlert = _onAlert;
+		if (onAlert == null)
+			return;
+		Alert alert;
+		while ((alert = _queue.poll()) != null)
+		{
+			String key = alert.severity.name() + '/' + alert.tag + '/' + template(alert.message);
+			Occurrence occurrence = _occurrences.get(key);
+			if (occurrence == null && _nReports < _maxReports)
+			{
+				_occurrences.put(key, new Occurrence(alert));
+				_nReports++;
+				report(onAlert, alert, 1, false);
+			}
+			else
+			{
+				if (occurrence == null)
+				{
+					// above the reports limit, report when flushing
+					occurrence = new Occurrence(alert);
+					_occurrences.put(key, occurrence);
+				}
+				occurrence.suppressed++;
+			}
+			if (!_flushScheduled)
+			{
+				_flushScheduled = true;
+				_handler.postDelayed(_flushRunnable, _intervalMs);
+			}
+		}
+	}
+
+	// runs on the queue thread, reports the suppressed alerts with their
+	// counts and starts new interval
+	private void flush()
+	{
+		_flushScheduled = false;
+		OnAlert onAlert = _onAlert;
+		List<Occurrence> occurrences = new ArrayList<Occurrence>(_occurrences.values());
+		_occurrences.clear();
+		_nReports = 0;
+		for (Occurrence occurrence : occurrences)
+			if (occurrence.suppressed > 0)
+				report(onAlert, occurrence.first, occurrence.suppressed, true);
+	}
+
+	private void report(OnAlert onAlert, Alert alert, int count, boolean repeated)
+	{
+		try
+		{
+			onAlert.onAlert(alert.severity, alert.tag, alert.message, alert.ex, count, repeated);
+		}
+		catch (RuntimeException e)
+		{
+			Log.e(TAG, "Failed to report alert: " + e.getMessage(), e);
+		}
+	}
+
+	// message with the digit sequences replaced by #, so messages differing
+	// only by numbers such as ids, sizes or times are deduplicated
+	static String template(String message)
+	{
+		if (message == null)
+			return "";
+		StringBuilder sb = null;
+		int len = message.length();
+		for (int i = 0; i < len; i++)
+		{
+			char c = message.charAt(i);
+			if (c >= '0' && c <= '9')
+			{
+				if (sb == null)
+				{
+					sb = new StringBuilder(len);
+					sb.append(message, 0, i);
+				}
+				sb.append('#');
+				while (i + 1 < len && message.charAt(i + 1) >= '0' && message.charAt(i + 1) <= '9')
+					i++;
+			}
+			else if (sb != null)
+			{
+				sb.append(c);
+			}
+		}
+		return sb != null ? sb.toString() : message;
+	}
+}
@@ -10,22 +10,26 @@
 
 package com.aviq.tv.android.sdk.feature.crashlog;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.Random;
-import java.util.Stack;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import org.apache.commons.collections.Buffer;
 import org.apache.commons.io.IOUtils;
 
 import android.os.Bundle;
@@ -67,9 +71,33 @@ public class FeatureCrashLog extends FeatureComponent implements Thread.Uncaught
 
 	public static enum Extras
 	{
-		SEVERITY, TAG, MESSAGE, LOGCAT_URL, TRACEBACK, FILENAME, METHOD, LINE_NUMBER, FEATURE, PARAMS, AUTHOR
+		SEVERITY, TAG, MESSAGE, LOGCAT_URL, TRACEBACK, FILENAME, METHOD, LINE_NUMBER, FEATURE, PARAMS, AUTHOR, COUNT
 	}
 
+	// maximum number of logged warnings and errors waiting to be reported
+	private static final int ALERT_QUEUE_SIZE = 256;
+	private static final AlertQueue _alertQueue = new AlertQueue(ALERT_QUEUE_SIZE);
+
+	private static final int LOGCAT_BUFFER_SIZE = 16 * 1024;
+	private static final String GZIP_EXT = ".gz";
+
+	// signals terminating the previous process searched in the logcat, the
+	// groups in order of precedence:
+	// signal 9 = app kill, sample: Sending signal. PID: 6364 SIG: 9
+	// signal 15 = SIGTERM, sample: Process 5035 terminated by signal (15)
+	// signal 7 = SIGBUS, incorrect access to memory (data misalignment)
+	// signal 11 = SIGSEGV, incorrect access to memory (write to inaccessible
+	// memory)
+	private static final Pattern SIGNAL_PATTERN = Pattern.compile("(Sending signal\\.\\sPID:\\s.*?\\sSIG:\\s9)"
+	        + "|(Process\\s.*?\\sterminated by signal \\(15\\))|(Fatal signal 7)|(Fatal signal 11)",
+	        Pattern.CASE_INSENSITIVE);
+	private static final String[] SIGNAL_REASONS =
+	{ "signal 9: kill from shell", "signal 15: VM terminated the application", "signal 7: data misalignment",
+	        "signal 11: write to inaccessible memory" };
+
+	// marks classes without feature in the resolved stack frame classes
+	private static final Object NO_FEATURE = new Object();
+
 	public FeatureCrashLog() throws FeatureNotFoundException
 	{
 		require(FeatureName.Component.DEVICE);
@@ -93,7 +121,7 @@ public class FeatureCrashLog extends FeatureComponent implements Thread.Uncaught
 		CRASHLOG_SERVER_PASSWORD(""),
 
 		/** Logcat name template */
-		LOGCAT_FILENAME_TEMPLATE("${BUILD}-${CUSTOMER}-${BRAND}-${MAC}-${DATETIME}-${RANDOM}.logcat"),
+		LOGCAT_FILENAME_TEMPLATE("${BUILD}-${CUSTOMER}-${BRAND}-${MAC}-${DATETIME}-${RANDOM}.logcat.gz"),
 
 		/** Path to the CA certificate relative to the assets folder */
 		CRASHLOG_SERVER_CA_CERT_PATH(""),
@@ -114,17 +142,42 @@ public class FeatureCrashLog extends FeatureComponent implements Thread.Uncaught
 		/**
 		 * Key sequence for crash test
 		 */
-		KEY_SEQUENCE_CRASH("27274");
+		KEY_SEQUENCE_CRASH("27274"),
+
+		/**
+		 * Interval in seconds to report the repeated warnings and errors
+		 */
+		ALERT_REPORT_INTERVAL(60),
+
+		/**
+		 * Maximum number of distinct warnings and errors reported immediately
+		 * per report interval
+		 */
+		ALERT_MAX_REPORTS(20),
+
+		/**
+		 * Number of the last logcat lines searched for the signal terminating
+		 * the previous process
+		 */
+		LOGCAT_SIGNAL_WINDOW(2000);
 
 		Param(String value)
 		{
 			Environment.getInstance().getFeaturePrefs(FeatureName.Component.CRASHLOG).put(name(), value);
 		}
+
+		Param(int value)
+		{
+			Environment.getInstance().getFeaturePrefs(FeatureName.Component.CRASHLOG).put(name(), value);
+		}
 	}
 
 	private String _logcatDir;
 	private String _keySeqCrash;
 
+	// features or NO_FEATURE by stack frame class name
+	private final ConcurrentHashMap<String, Object> _classFeatures = new ConcurrentHashMap<String, Object>();
+
 	@Override
 	public void initialize(final OnFeatureInitialized onFeatureInitialized)
 	{
@@ -133,6 +186,31 @@ public class FeatureCrashLog extends FeatureComponent implements Thread.Uncaught
 
 		_keySeqCrash = getPrefs().getString(Param.KEY_SEQUENCE_CRASH);
 
+		// the alert queue thread deduplicates the logged warnings and errors,
+		// they are reported on the main thread which resolves the features
+		// of their stack traces
+		_alertQueue.configure(getPrefs().getInt(Param.ALERT_REPORT_INTERVAL) * 1000,
+		        getPrefs().getInt(Param.ALERT_MAX_REPORTS), new AlertQueue.OnAlert()
+		        {
+			        @Override
+			        public void onAlert(final Severity severity, final String tag, String message,
+			                final Throwable ex, int count, boolean repeated)
+			        {
+				        final Bundle extra = new Bundle();
+				        extra.putInt(Extras.COUNT.name(), count);
+				        final String reportMessage = repeated ? message + " (repeated " + count + " times)"
+				                : message;
+				        getEventMessenger().post(new Runnable()
+				        {
+					        @Override
+					        public void run()
+					        {
+						        log(severity, tag, reportMessage, ex, extra);
+					        }
+				        });
+			        }
+		        });
+
 		FeatureEasterEgg featureEasterEgg = (FeatureEasterEgg) Environment.getInstance().getFeatureComponent(
 		        FeatureName.Component.EASTER_EGG);
 		if (featureEasterEgg != null)
@@ -153,7 +231,8 @@ public class FeatureCrashLog extends FeatureComponent implements Thread.Uncaught
 				try
 				{
 					featureClass = Class.forName(featureClassName);
-					feature = Environment.getInstance().getFeature(featureClass);
+					// doesn't activate again the failed lazy feature
+					feature = Environment.getInstance().getFeatureManager().findFeature(featureClass);
 				}
 				catch (ClassNotFoundException e)
 				{
@@ -200,7 +279,7 @@ public class FeatureCrashLog extends FeatureComponent implements Thread.Uncaught
 							// saves logcat and search logcat for signal
 							logcatFileName = newLogcatName();
 							String logcatFilePath = _logcatDir + File.separator + logcatFileName;
-							reason = saveLogcatAndDetectSignalReason(logcatFilePath);
+							reason = saveLogcat(logcatFilePath, getPrefs().getInt(Param.LOGCAT_SIGNAL_WINDOW));
 
 							// upload logcat on server
 							String logcatUrl = uploadLogcatFile(logcatFilePath);
@@ -268,7 +347,7 @@ public class FeatureCrashLog extends FeatureComponent implements Thread.Uncaught
 		// saves logcat and search logcat for signal
 		String logcatFileName = newLogcatName();
 		String logcatFilePath = _logcatDir + File.separator + logcatFileName;
-		saveLogcat(logcatFilePath);
+		saveLogcat(logcatFilePath, 0);
 		String logcatUrl = uploadLogcatFile(logcatFilePath);
 		Bundle bundle = new Bundle();
 		bundle.putString(Extras.LOGCAT_URL.name(), logcatUrl);
@@ -352,6 +431,25 @@ public class FeatureCrashLog extends FeatureComponent implements Thread.Uncaught
 		log(Severity.FATAL, tag, message, ex, extra);
 	}
 
+	/**
+	 * Queues logged warning or error to be reported in background. Repeated
+	 * alerts with the same tag and message differing only by numbers are
+	 * reported with their count once per report interval.
+	 *
+	 * @param severity
+	 *            ALERT for warnings, ERROR for errors
+	 * @param tag
+	 *            Used to identify the source of a log message
+	 * @param message
+	 *            The logged message
+	 * @param ex
+	 *            An exception to log
+	 */
+	public static void queueAlert(Severity severity, String tag, String message, Throwable ex)
+	{
+		_alertQueue.add(severity, tag, message, ex);
+	}
+
 	@Override
 	public void uncaughtException(Thread thread, final Throwable ex)
 	{
@@ -377,43 +475,29 @@ public class FeatureCrashLog extends FeatureComponent implements Thread.Uncaught
 		{
 			bundle.putString(Extras.TRACEBACK.name(), android.util.Log.getStackTraceString(ex));
 
-			FeatureManager featureManager = Environment.getInstance().getFeatureManager();
 			StackTraceElement steLog = null;
 			for (StackTraceElement ste : ex.getStackTrace())
 			{
 				// log first point in exception stack
 				if (steLog == null)
 					steLog = ste;
-				String className = ste.getClassName();
-				try
+				IFeature feature = resolveFeature(ste.getClassName());
+				if (feature != null)
 				{
-					Class<?> featureClass = Class.forName(className);
-					if (featureManager.isFeature(featureClass))
+					// got feature in exception back trace
+					bundle.putString(Extras.FEATURE.name(), feature.getName());
+					Author author = feature.getClass().getAnnotation(Author.class);
+					if (author != null)
 					{
-						// got feature in exception back trace
-						IFeature feature = featureManager.getFeature(featureClass);
-						bundle.putString(Extras.FEATURE.name(), feature.getName());
-						Author author = featureClass.getAnnotation(Author.class);
-						if (author != null)
-						{
-							bundle.putString(Extras.AUTHOR.name(), author.value());
-						}
-						else
-						{
-							bundle.putString(Extras.AUTHOR.name(), "unknown");
-						}
-
-						bundle.putString(Extras.PARAMS.name(), collectFeatureParams(feature));
-						break;
+						bundle.putString(Extras.AUTHOR.name(), author.value());
 					}
-				}
-				catch (ClassNotFoundException e)
-				{
-					Log.e(TAG, e.getMessage(), e);
-				}
-				catch (FeatureNotFoundException e)
-				{
-					Log.e(TAG, e.getMessage(), e);
+					else
+					{
+						bundle.putString(Extras.AUTHOR.name(), "unknown");
+					}
+
+					bundle.putString(Extras.PARAMS.name(), collectFeatureParams(feature));
+					break;
 				}
 			}
 			bundle.putString(Extras.FILENAME.name(), steLog.getFileName());
@@ -430,6 +514,36 @@ public class FeatureCrashLog extends FeatureComponent implements Thread.Uncaught
 			getEventMessenger().trigger(ON_CRASH_ERROR, bundle);
 	}
 
+	// returns the feature of the stack frame class or null, cached per class
+	// name. The lookup doesn't initialize lazy features.
+	private IFeature resolveFeature(String className)
+	{
+		Object feature = _classFeatures.get(className);
+		if (feature == null)
+		{
+			feature = NO_FEATURE;
+			FeatureManager featureManager = Environment.getInstance().getFeatureManager();
+			try
+			{
+				Class<?> featureClass = Class.forName(className);
+				if (featureManager.isFeature(featureClass))
+				{
+					feature = featureManager.findFeature(featureClass);
+					// the feature may not be registered yet, resolve it
+					// again next time
+					if (feature == null)
+						return null;
+				}
+			}
+			catch (ClassNotFoundException e)
+			{
+				Log.e(TAG, e.getMessage(), e);
+			}
+			_classFeatures.put(className, feature);
+		}
+		return feature != NO_FEATURE ? (IFeature) feature : null;
+	}
+
 	private String collectFeatureParams(IFeature feature)
 	{
 		StringBuffer sb = new StringBuffer();
@@ -491,10 +605,11 @@ public class FeatureCrashLog extends FeatureComponent implements Thread.Uncaught
 			Log.w(TAG, "Directory " + logcatsDir + " is missing");
 			return;
 		}
-		String expExt = Files.ext(getPrefs().getString(Param.LOGCAT_FILENAME_TEMPLATE));
+		// matches both the plain and the gzip compressed logcats
+		String expExt = logcatExt(getPrefs().getString(Param.LOGCAT_FILENAME_TEMPLATE));
 		for (String fileName : files)
 		{
-			if (expExt.equals(Files.ext(fileName)))
+			if (expExt.equals(logcatExt(fileName)))
 			{
 				Log.i(TAG, "Deleting " + fileName + " in " + logcatsDir);
 				new File(logcatsDir, fileName).delete();
@@ -502,6 +617,14 @@ public class FeatureCrashLog extends FeatureComponent implements Thread.Uncaught
 		}
 	}
 
+	// returns the file extension ignoring the gzip extension
+	private static String logcatExt(String fileName)
+	{
+		if (fileName.endsWith(GZIP_EXT))
+			fileName = fileName.substring(0, fileName.length() - GZIP_EXT.length());
+		return Files.ext(fileName);
+	}
+
 	private String uploadLogcatFile(String logcatFilePath)
 	{
 		String url = getPrefs().getString(Param.CRASHLOG_SERVER_URL);
@@ -547,72 +670,59 @@ public class FeatureCrashLog extends FeatureComponent implements Thread.Uncaught
 		return url + Files.baseName(logcatFilePath);
 	}
 
-	private Stack<String> saveLogcat(String logcatFileName) throws IOException
+	/**
+	 * Saves logcat in a single streaming pass, gzip compressed if the file
+	 * name ends with .gz, keeping only the last lines in memory to search them
+	 * for the signal terminating the previous process
+	 *
+	 * @param logcatFileName
+	 *            the file to save the logcat to
+	 * @param signalWindow
+	 *            number of the last logcat lines to search for signal, 0 to
+	 *            skip the search
+	 * @return the signal reason or null if no signal is found
+	 * @throws IOException
+	 */
+	private String saveLogcat(String logcatFileName, int signalWindow) throws IOException
 	{
 		BufferedReader logcatReader = new BufferedReader(new InputStreamReader(
-		        _feature.Component.DEVICE.getLogcatInputStream('v')));
-		Stack<String> logcatStack = new Stack<String>();
-		String line;
-		FileOutputStream fileOut = new FileOutputStream(logcatFileName);
-		while ((line = logcatReader.readLine()) != null)
-		{
-			fileOut.write((line + "\n").getBytes());
-			logcatStack.push(line);
-		}
-		fileOut.close();
-		return logcatStack;
-	}
-
-	private String saveLogcatAndDetectSignalReason(String logcatFileName) throws IOException
-	{
-		// Pattern for Signal 7 = SIGBUS, Incorrect access to
-		// memory (data misalignment)
-		Pattern patternSignal7 = Pattern.compile(".*?Fatal signal 7.*?", Pattern.MULTILINE | Pattern.CASE_INSENSITIVE);
-
-		// Pattern for Signal 11 = SIGSEGV, Incorrect access to
-		// memory (write to inaccessible memory)
-		Pattern patternSignal11 = Pattern
-		        .compile(".*?Fatal signal 11.*?", Pattern.MULTILINE | Pattern.CASE_INSENSITIVE);
-
-		// Pattern for Signal 15 = SIGTERM, Termination request.
-		// JVM will exit normally.
-		// Sample: Process 5035 terminated by signal (15)
-		Pattern patternSignal15 = Pattern.compile(".*?Process\\s.*?\\sterminated by signal \\(15\\).*?",
-		        Pattern.MULTILINE | Pattern.CASE_INSENSITIVE);
-
-		// Pattern for Signal 9 = App kill
-		// Sample: Sending signal. PID: 6364 SIG: 9
-		Pattern patternSignal9 = Pattern.compile(".*?Sending signal\\.\\sPID:\\s.*?\\sSIG:\\s9.*?", Pattern.MULTILINE
-		        | Pattern.CASE_INSENSITIVE);
-
-		Stack<String> logcatStack = saveLogcat(logcatFileName);
-		while (!logcatStack.isEmpty())
+		        _feature.Component.DEVICE.getLogcatInputStream('v')), LOGCAT_BUFFER_SIZE);
+		String[] tail = new String[Math.max(0, signalWindow)];
+		int nLines = 0;
+		Writer logcatWriter = null;
+		try
 		{
-			String line = logcatStack.pop();
-
-			// Search for crashes resulting from signals 9 and 15
-			Matcher matcher = patternSignal9.matcher(line);
-			if (matcher.find())
-			{
-				return "signal 9: kill from shell";
-			}
-
-			matcher = patternSignal15.matcher(line);
-			if (matcher.find())
+			OutputStream fileOut = new BufferedOutputStream(new FileOutputStream(logcatFileName), LOGCAT_BUFFER_SIZE);
+			if (logcatFileName.endsWith(GZIP_EXT))
+				fileOut = new GZIPOutputStream(fileOut, LOGCAT_BUFFER_SIZE);
+			logcatWriter = new OutputStreamWriter(fileOut);
+			String line;
+			while ((line = logcatReader.readLine()) != null)
 			{
-				return "signal 15: VM terminated the application";
-			}
-
-			matcher = patternSignal7.matcher(line);
-			if (matcher.find())
-			{
-				return "signal 7: data misalignment";
+				logcatWriter.write(line);
+				logcatWriter.write('\n');
+				if (tail.length > 0)
+					tail[nLines % tail.length] = line;
+				nLines++;
 			}
+		}
+		finally
+		{
+			if (logcatWriter != null)
+				logcatWriter.close();
+			logcatReader.close();
+		}
 
-			matcher = patternSignal11.matcher(line);
+		// search the tail from the last line backwards
+		Matcher matcher = SIGNAL_PATTERN.matcher("");
+		for (int i = 1; i <= Math.min(nLines, tail.length); i++)
+		{
+			matcher.reset(tail[(nLines - i) % tail.length]);
 			if (matcher.find())
 			{
-				return "signal 11: write to inaccessible memory";
+				for (int group = 1; group <= SIGNAL_REASONS.length; group++)
+					if (matcher.group(group) != null)
+						return SIGNAL_REASONS[group - 1];
 			}
 		}
 		return null;
@@ -676,11 +786,9 @@ public class FeatureCrashLog extends FeatureComponent implements Thread.Uncaught
 
 			response.setContentType("text/plain;charset=utf-8");
 
-			Buffer ringBuffer = com.aviq.tv.android.sdk.core.Log.getRingBuffer();
-			for (Object line : ringBuffer)
-			{
-				response.getWriter().println(line);
-			}
+			// the records are formatted only here
+			com.aviq.tv.android.sdk.core.Log.writeRingBuffer(response.getWriter(),
+			        com.aviq.tv.android.sdk.core.Log.levelOf(levelId));
 		}
 	}
 
@@ -22,6 +22,7 @@ public abstract class Channel
 	private String _logoNormalUrl;
 	private Bitmap _logoNormal;
 	private String _logoNormalBase64;
+	private String[] _attributeRow;
 
 	public static class MetaData
 	{
@@ -126,6 +127,27 @@ public abstract class Channel
 		_logoNormalUrl = imageUrl;
 	}
 
+	/**
+	 * @return the raw provider specific attributes set with setAttributeRow
+	 *         or null
+	 */
+	public String[] getAttributeRow()
+	{
+		return _attributeRow;
+	}
+
+	/**
+	 * Keeps the raw provider specific attributes to be restored with
+	 * setAttributes from the EPG snapshot
+	 *
+	 * @param attributeRow
+	 *            the attributes array, not reused by the caller
+	 */
+	public void setAttributeRow(String[] attributeRow)
+	{
+		_attributeRow = attributeRow;
+	}
+
 	public void validateChannel()
 	{
 		String propName = null;
@@ -147,7 +169,8 @@ public abstract class Channel
 	 *            indexed meta data
 	 * @param attributes
 	 *            String array with the essential data positioned according the
-	 *            meta data indices
+	 *            meta data indices. The array is reused between rows and must
+	 *            not be retained.
 	 */
 	public abstract void setAttributes(MetaData metaData, String[] attributes);
 }
@@ -0,0 +1,763 @@
+/**
+ * Copyright (c) 2007-2015, Intelibo Ltd
+ *
+ * Project:     TVBOSDK
+ * Filename:    EpgDataColumnar.java
+ * Author:      alek
+ * Date:        18 Oct 2015
+ * Description: Columnar EPG data store backed by primitive arrays
+ */
+
+package com.aviq.tv.android.sdk.feature.epg;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.aviq.tv.android.sdk.core.Log;
+import com.aviq.tv.android.sdk.utils.Calendars;
+
+/**
+ * Columnar EPG data store. Program start and stop times are kept as epoch
+ * seconds in primitive arrays, program ids and titles are interned in a
+ * shared string table. Program objects are materialized on demand by the
+ * ProgramFactory when first requested and are reused afterwards.
+ */
+public class EpgDataColumnar implements IEpgDataProvider
+{
+	private static final String TAG = EpgDataColumnar.class.getSimpleName();
+
+	/**
+	 * Creates provider specific program instances on materialization
+	 */
+	public interface ProgramFactory
+	{
+		/**
+		 * @param id
+		 *            the program id
+		 * @param providerId
+		 *            provider specific program id or null
+		 * @param channel
+		 *            the program channel
+		 * @return new program instance
+		 */
+		Program createProgram(String id, String providerId, Channel channel);
+	}
+
+	/**
+	 * Supplies the programs of a channel on first access
+	 */
+	public interface ProgramSource
+	{
+		/**
+		 * Loads channel programs by calling addProgramData on the specified
+		 * EPG data
+		 */
+		void loadPrograms(EpgDataColumnar epgData, String channelId);
+	}
+
+	private List<Channel> _channelList;
+	private Map<String, Channel> _channelMap = new HashMap<String, Channel>();
+
+	/** key = channel id; value = program columns for the specific channel */
+	private Map<String, ProgramColumns> _channelToColumnsMap = new ConcurrentHashMap<String, ProgramColumns>();
+
+	/** interned program ids and titles shared by all channels */
+	private StringTable _strings = new StringTable();
+
+	/** min program start time in epoch seconds */
+	private long _minEpgStartTime;
+
+	/** max program stop time in epoch seconds */
+	private long _maxEpgStopTime;
+
+	private ProgramFactory _programFactory;
+	private ProgramSource _programSource;
+
+	/**
+	 * Program data of a single channel sorted by start time
+	 */
+	private static class ProgramColumns
+	{
+		private String channelId;
+		private int count;
+		private long[] startTimes;
+		private long[] stopTimes;
+		private int[] ids;
+		private int[] titles;
+		private int[] providerIds;
+
+		/** open addressing hash of program indices keyed by program id ref */
+		private int[] idSlots;
+
+		/** lazily materialized programs */
+		private Program[] programs;
+
+		ProgramColumns(String channelId, int count)
+		{
+			this.channelId = channelId;
+			this.count = count;
+			startTimes = new long[count];
+			stopTimes = new long[count];
+			ids = new int[count];
+			titles = new int[count];
+			providerIds = new int[count];
+		}
+
+		/**
+		 * Copies the columns re-interning their strings into another string
+		 * table. The materialized programs are kept.
+		 */
+		ProgramColumns copy(StringTable strings, StringTable newStrings)
+		{
+			ProgramColumns columns = new ProgramColumns(channelId, count);
+			System.arraycopy(startTimes, 0, columns.startTimes, 0, count);
+			System.arraycopy(stopTimes, 0, columns.stopTimes, 0, count);
+			for (int i = 0; i < count; i++)
+			{
+				columns.ids[i] = newStrings.intern(strings.get(ids[i]));
+				columns.titles[i] = newStrings.intern(strings.get(titles[i]));
+				columns.providerIds[i] = newStrings.intern(strings.get(providerIds[i]));
+			}
+			columns.indexIds();
+			synchronized (this)
+			{
+				if (programs != null)
+					columns.programs = programs.clone();
+			}
+			return columns;
+		}
+
+		/**
+		 * Builds program id index. Must be called after the ids are set.
+		 */
+		void indexIds()
+		{
+			idSlots = new int[Integer.highestOneBit(Math.max(count, 2) - 1) << 2];
+			Arrays.fill(idSlots, -1);
+			int mask = idSlots.length - 1;
+			for (int i = 0; i < count; i++)
+			{
+				int slot = ids[i] & mask;
+				while (idSlots[slot] >= 0)
+				{
+					// keep the first program with that id
+					if (ids[idSlots[slot]] == ids[i])
+						break;
+					slot = (slot + 1) & mask;
+				}
+				if (idSlots[slot] < 0)
+					idSlots[slot] = i;
+			}
+		}
+
+		/**
+		 * @return the index of the program with the specified id ref or -1 if
+		 *         not found
+		 */
+		int indexOfId(int idRef)
+		{
+			if (idRef < 0)
+				return -1;
+			int mask = idSlots.length - 1;
+			int slot = idRef & mask;
+			while (idSlots[slot] >= 0)
+			{
+				if (ids[idSlots[slot]] == idRef)
+					return idSlots[slot];
+				slot = (slot + 1) & mask;
+			}
+			return -1;
+		}
+
+		/**
+		 * @return the index of the last program started at or before when, or
+		 *         -1 if all programs start after when
+		 */
+		int floorIndex(long when)
+		{
+			int low = 0;
+			int high = count - 1;
+			while (low <= high)
+			{
+				int mid = (low + high) >>> 1;
+				if (startTimes[mid] <= when)
+					low = mid + 1;
+				else
+					high = mid - 1;
+			}
+			return high;
+		}
+
+		/**
+		 * @return the index of the first program started at or after when
+		 */
+		int ceilingIndex(long when)
+		{
+			int low = 0;
+			int high = count - 1;
+			while (low <= high)
+			{
+				int mid = (low + high) >>> 1;
+				if (startTimes[mid] < when)
+					low = mid + 1;
+				else
+					high = mid - 1;
+			}
+			return low;
+		}
+	}
+
+	/**
+	 * Deduplicates strings by assigning them integer references
+	 */
+	private static class StringTable
+	{
+		private List<String> _values = new ArrayList<String>();
+		private Map<String, Integer> _refs = new HashMap<String, Integer>();
+
+		int intern(String value)
+		{
+			if (value == null)
+				return -1;
+			Integer ref = _refs.get(value);
+			if (ref == null)
+			{
+				ref = _values.size();
+				_values.add(value);
+				_refs.put(value, ref);
+			}
+			return ref;
+		}
+
+		int find(String value)
+		{
+			Integer ref = _refs.get(value);
+			return ref == null ? -1 : ref;
+		}
+
+		String get(int ref)
+		{
+			return ref < 0 ? null : _values.get(ref);
+		}
+	}
+
+	/**
+	 * Read-only list view materializing programs on access
+	 */
+	private class ProgramListView extends AbstractList<Program>
+	{
+		private ProgramColumns _columns;
+		private int _from;
+		private int _to;
+
+		ProgramListView(ProgramColumns columns, int from, int to)
+		{
+			_columns = columns;
+			_from = from;
+			_to = to;
+		}
+
+		@Override
+		public Program get(int location)
+		{
+			if (location < 0 || location >= size())
+				throw new IndexOutOfBoundsException("Index " + location + " exceeds range [0," + size() + ")");
+			return materialize(_columns, _from + location);
+		}
+
+		@Override
+		public int size()
+		{
+			return _to - _from;
+		}
+	}
+
+	public EpgDataColumnar(List<Channel> newChannelList, ProgramFactory programFactory)
+	{
+		// Keep first value far in the past
+		Calendar maxEpgStopTime = Calendar.getInstance();
+		maxEpgStopTime.add(Calendar.YEAR, -1);
+		_maxEpgStopTime = maxEpgStopTime.getTimeInMillis() / 1000;
+
+		// Keep first value far in the future
+		Calendar minEpgStartTime = Calendar.getInstance();
+		minEpgStartTime.add(Calendar.YEAR, 1);
+		_minEpgStartTime = minEpgStartTime.getTimeInMillis() / 1000;
+
+		_channelList = newChannelList;
+		for (Channel channel : newChannelList)
+			_channelMap.put(channel.getChannelId(), channel);
+		_programFactory = programFactory;
+	}
+
+	/**
+	 * Creates a copy of this EPG data to be updated while this one is in use.
+	 * The copy shares the channels and the program source, its string table
+	 * keeps only the strings of the current programs.
+	 *
+	 * @return new EPG data with the programs of this one
+	 */
+	public synchronized EpgDataColumnar copy()
+	{
+		EpgDataColumnar epgData = new EpgDataColumnar(_channelList, _programFactory);
+		epgData._programSource = _programSource;
+		epgData._minEpgStartTime = _minEpgStartTime;
+		epgData._maxEpgStopTime = _maxEpgStopTime;
+		for (ProgramColumns columns : _channelToColumnsMap.values())
+			epgData._channelToColumnsMap.put(columns.channelId, columns.copy(_strings, epgData._strings));
+		return epgData;
+	}
+
+	/**
+	 * Sets source of channel programs loaded on first access
+	 */
+	public void setProgramSource(ProgramSource programSource)
+	{
+		_programSource = programSource;
+	}
+
+	/**
+	 * Sets EPG time range in epoch seconds
+	 */
+	void setEpgTimeRange(long minEpgStartTime, long maxEpgStopTime)
+	{
+		_minEpgStartTime = minEpgStartTime;
+		_maxEpgStopTime = maxEpgStopTime;
+	}
+
+	/**
+	 * Replaces the programs of a channel
+	 *
+	 * @param channelId
+	 *            the channel id
+	 * @param startTimes
+	 *            program start times in epoch seconds
+	 * @param stopTimes
+	 *            program stop times in epoch seconds
+	 * @param ids
+	 *            program ids
+	 * @param titles
+	 *            program titles
+	 * @param providerIds
+	 *            provider specific program ids or null
+	 * @param count
+	 *            the number of programs in the arrays
+	 * @return true if the program data has been added
+	 */
+	public synchronized boolean addProgramData(String channelId, long[] startTimes, long[] stopTimes, String[] ids,
+	        String[] titles, String[] providerIds, int count)
+	{
+		Log.d(TAG, ".addProgramData: channelId = " + channelId + ", count = " + count);
+
+		if (count == 0)
+			return false;
+
+		// order programs by start time, the last one wins on equal start times
+		// as with the NavigableMap index of EpgDataCompat
+		Integer[] order = new Integer[count];
+		boolean sorted = true;
+		for (int i = 0; i < count; i++)
+		{
+			order[i] = i;
+			if (i > 0 && startTimes[i - 1] >= startTimes[i])
+				sorted = false;
+		}
+		if (!sorted)
+		{
+			final long[] keys = startTimes;
+			Arrays.sort(order, new Comparator<Integer>()
+			{
+				@Override
+				public int compare(Integer lhs, Integer rhs)
+				{
+					// Arrays.sort is stable, equal start times keep their order
+					if (keys[lhs] == keys[rhs])
+						return 0;
+					return keys[lhs] < keys[rhs] ? -1 : 1;
+				}
+			});
+		}
+
+		int unique = 0;
+		for (int i = 0; i < count; i++)
+			if (i == count - 1 || startTimes[order[i]] != startTimes[order[i + 1]])
+				unique++;
+
+		ProgramColumns columns = new ProgramColumns(channelId, unique);
+		int pos = 0;
+		for (int i = 0; i < count; i++)
+		{
+			if (i < count - 1 && startTimes[order[i]] == startTimes[order[i + 1]])
+				continue;
+			int index = order[i];
+			columns.startTimes[pos] = startTimes[index];
+			columns.stopTimes[pos] = stopTimes[index];
+			columns.ids[pos] = _strings.intern(ids[index]);
+			columns.titles[pos] = _strings.intern(titles[index]);
+			columns.providerIds[pos] = providerIds != null ? _strings.intern(providerIds[index]) : -1;
+			pos++;
+		}
+		columns.indexIds();
+		_channelToColumnsMap.put(channelId, columns);
+
+		// Keep EPG program min start time
+		if (_minEpgStartTime > columns.startTimes[0])
+			_minEpgStartTime = columns.startTimes[0];
+
+		// Keep EPG program max stop time
+		if (_maxEpgStopTime < columns.stopTimes[unique - 1])
+			_maxEpgStopTime = columns.stopTimes[unique - 1];
+
+		Log.d(TAG, "_minEpgStartTime = " + Calendars.makeString((int) _minEpgStartTime) + ", _maxEpgStopTime = "
+		        + Calendars.makeString((int) _maxEpgStopTime));
+
+		return true;
+	}
+
+	/**
+	 * Merges a slice of programs into the programs of a channel. Existing
+	 * programs started within [windowStart, windowEnd) are replaced by the new
+	 * ones, the rest are kept. New programs win over existing ones with equal
+	 * start times, so programs crossing the border of the refreshed window are
+	 * not duplicated. Programs stopped at or before evictBefore are dropped.
+	 *
+	 * @param channelId
+	 *            the channel id
+	 * @param windowStart
+	 *            refreshed window start in epoch seconds
+	 * @param windowEnd
+	 *            refreshed window end in epoch seconds
+	 * @param startTimes
+	 *            program start times in epoch seconds
+	 * @param stopTimes
+	 *            program stop times in epoch seconds
+	 * @param ids
+	 *            program ids
+	 * @param titles
+	 *            program titles
+	 * @param providerIds
+	 *            provider specific program ids or null
+	 * @param count
+	 *            the number of programs in the arrays
+	 * @param evictBefore
+	 *            epoch seconds before which programs are evicted
+	 * @return true if the channel has programs after the merge
+	 */
+	public synchronized boolean mergeProgramData(String channelId, long windowStart, long windowEnd,
+	        long[] startTimes, long[] stopTimes, String[] ids, String[] titles, String[] providerIds, int count,
+	        long evictBefore)
+	{
+		ProgramColumns columns = getColumns(channelId);
+		int oldCount = columns != null ? columns.count : 0;
+		Log.d(TAG, ".mergeProgramData: channelId = " + channelId + ", count = " + count + ", oldCount = " + oldCount);
+
+		int total = oldCount + count;
+		long[] mergedStartTimes = new long[total];
+		long[] mergedStopTimes = new long[total];
+		String[] mergedIds = new String[total];
+		String[] mergedTitles = new String[total];
+		String[] mergedProviderIds = new String[total];
+		int n = 0;
+
+		// existing programs go first so the new ones win on equal start times
+		for (int i = 0; i < oldCount; i++)
+		{
+			long startTime = columns.startTimes[i];
+			if ((startTime >= windowStart && startTime < windowEnd) || columns.stopTimes[i] <= evictBefore)
+				continue;
+			mergedStartTimes[n] = startTime;
+			mergedStopTimes[n] = columns.stopTimes[i];
+			mergedIds[n] = _strings.get(columns.ids[i]);
+			mergedTitles[n] = _strings.get(columns.titles[i]);
+			mergedProviderIds[n] = _strings.get(columns.providerIds[i]);
+			n++;
+		}
+
+		for (int i = 0; i < count; i++)
+		{
+			if (stopTimes[i] <= evictBefore)
+				continue;
+			mergedStartTimes[n] = startTimes[i];
+			mergedStopTimes[n] = stopTimes[i];
+			mergedIds[n] = ids[i];
+			mergedTitles[n] = titles[i];
+			mergedProviderIds[n] = providerIds != null ? providerIds[i] : null;
+			n++;
+		}
+
+		if (n == 0)
+		{
+			_channelToColumnsMap.remove(channelId);
+			return false;
+		}
+		return addProgramData(channelId, mergedStartTimes, mergedStopTimes, mergedIds, mergedTitles,
+		        mergedProviderIds, n);
+	}
+
+	/**
+	 * Drops the programs stopped at or before the specified time from all
+	 * loaded channels and compacts the string table. Must not be called while
+	 * this EPG data is being read by other threads.
+	 *
+	 * @param evictBefore
+	 *            epoch seconds before which programs are evicted
+	 */
+	public synchronized void evictPrograms(long evictBefore)
+	{
+		long[] none = new long[0];
+		String[] noneStr = new String[0];
+		for (ProgramColumns columns : new ArrayList<ProgramColumns>(_channelToColumnsMap.values()))
+		{
+			if (columns.stopTimes[0] <= evictBefore)
+				mergeProgramData(columns.channelId, 0, 0, none, none, noneStr, noneStr, null, 0, evictBefore);
+		}
+
+		if (_minEpgStartTime < evictBefore)
+		{
+			long minEpgStartTime = Long.MAX_VALUE;
+			for (ProgramColumns columns : _channelToColumnsMap.values())
+				minEpgStartTime = Math.min(minEpgStartTime, columns.startTimes[0]);
+			if (minEpgStartTime != Long.MAX_VALUE)
+				_minEpgStartTime = minEpgStartTime;
+		}
+
+		// drop the strings of the evicted and replaced programs
+		StringTable strings = new StringTable();
+		for (ProgramColumns columns : new ArrayList<ProgramColumns>(_channelToColumnsMap.values()))
+			_channelToColumnsMap.put(columns.channelId, columns.copy(_strings, strings));
+		_strings = strings;
+	}
+
+	/**
+	 * @param index
+	 *            Channel position in the list
+	 * @return the Channel at location 'index' in the channel list
+	 */
+	@Override
+	public Channel getChannel(int index)
+	{
+		return _channelList.get(index);
+	}
+
+	/**
+	 * @param channel
+	 *            id
+	 * @return the Channel with specified id
+	 */
+	@Override
+	public Channel getChannel(String channelId)
+	{
+		return _channelMap.get(channelId);
+	}
+
+	/**
+	 * @return the number of all channels
+	 */
+	@Override
+	public int getChannelCount()
+	{
+		return _channelList.size();
+	}
+
+	/**
+	 * Return list with all EPG channels
+	 */
+	@Override
+	public List<Channel> getChannels()
+	{
+		return _channelList;
+	}
+
+	@Override
+	public List<Program> getProgramList(String channelId, Calendar startTime, Calendar endTime)
+	{
+		if (startTime.compareTo(endTime) > 0)
+		{
+			Log.w(TAG, ".getProgramList: startTime > endTime: " + Calendars.makeString(startTime) + " > "
+			        + Calendars.makeString(endTime) + ", ignoring method call");
+			return new ArrayList<Program>();
+		}
+
+		ProgramColumns columns = getColumns(channelId);
+		if (columns == null)
+		{
+			Log.w(TAG, ".getProgramList: no EPG data for period: startTime = " + Calendars.makeString(startTime)
+			        + ", endTime " + Calendars.makeString(endTime));
+			return new ArrayList<Program>();
+		}
+
+		int from = columns.ceilingIndex(startTime.getTimeInMillis() / 1000);
+		int to = columns.ceilingIndex(endTime.getTimeInMillis() / 1000);
+		return new ProgramListView(columns, from, Math.max(from, to));
+	}
+
+	@Override
+	public List<Program> getProgramList(String channelId)
+	{
+		ProgramColumns columns = getColumns(channelId);
+		if (columns == null)
+			return null;
+		return new ProgramListView(columns, 0, columns.count);
+	}
+
+	private int getProgramIndex(ProgramColumns columns, String channelId, Calendar when)
+	{
+		if (columns == null)
+		{
+			Log.w(TAG, "No program map for " + channelId);
+			return -1;
+		}
+
+		int programIndex = columns.floorIndex(when.getTimeInMillis() / 1000);
+		if (programIndex < 0)
+			Log.w(TAG, "No program entry for " + channelId + " at " + Calendars.makeString(when));
+		return programIndex;
+	}
+
+	private Program getProgramByIndex(ProgramColumns columns, String channelId, int programIndex)
+	{
+		if (columns == null)
+		{
+			Log.w(TAG, "No program list for " + channelId);
+			return null;
+		}
+
+		if (programIndex < 0 || programIndex >= columns.count)
+		{
+			Log.w(TAG, "Program index " + programIndex + " exceeds range [0," + columns.count + ")");
+			return null;
+		}
+
+		return materialize(columns, programIndex);
+	}
+
+	@Override
+	public Program getProgram(String channelId, Calendar when)
+	{
+		ProgramColumns columns = getColumns(channelId);
+		return getProgramByIndex(columns, channelId, getProgramIndex(columns, channelId, when));
+	}
+
+	@Override
+	public Program getProgramByOffset(String channelId, Calendar when, int offset)
+	{
+		ProgramColumns columns = getColumns(channelId);
+		return getProgramByIndex(columns, channelId, getProgramIndex(columns, channelId, when) + offset);
+	}
+
+	@Override
+	public Program getProgramById(String channelId, String programId)
+	{
+		ProgramColumns columns = getColumns(channelId);
+		if (columns == null)
+			return null;
+		int programIndex = columns.indexOfId(_strings.find(programId));
+		if (programIndex < 0)
+			return null;
+		return materialize(columns, programIndex);
+	}
+
+	@Override
+	public List<Program> getProgramsByIds(List<String> channelIds, List<String> programIds)
+	{
+		return EpgDataProviders.getProgramsByIds(this, channelIds, programIds);
+	}
+
+	@Override
+	public Calendar getMaxEpgStopTime()
+	{
+		Calendar maxEpgStopTime = Calendar.getInstance();
+		maxEpgStopTime.setTimeInMillis(_maxEpgStopTime * 1000);
+		return maxEpgStopTime;
+	}
+
+	@Override
+	public Calendar getMinEpgStartTime()
+	{
+		Calendar minEpgStartTime = Calendar.getInstance();
+		minEpgStartTime.setTimeInMillis(_minEpgStartTime * 1000);
+		return minEpgStartTime;
+	}
+
+	/**
+	 * Visits program data in raw form
+	 */
+	interface ProgramVisitor
+	{
+		void visitProgram(long startTime, long stopTime, String id, String title, String providerId);
+	}
+
+	/**
+	 * Visits channel programs in start time order without materializing them
+	 */
+	synchronized void visitPrograms(String channelId, ProgramVisitor visitor)
+	{
+		ProgramColumns columns = getColumns(channelId);
+		if (columns == null)
+			return;
+		for (int i = 0; i < columns.count; i++)
+		{
+			visitor.visitProgram(columns.startTimes[i], columns.stopTimes[i], _strings.get(columns.ids[i]),
+			        _strings.get(columns.titles[i]), _strings.get(columns.providerIds[i]));
+		}
+	}
+
+	/**
+	 * Returns channel program columns loading them from the program source on
+	 * first access
+	 */
+	private ProgramColumns getColumns(String channelId)
+	{
+		ProgramColumns columns = _channelToColumnsMap.get(channelId);
+		if (columns == null && _programSource != null)
+		{
+			synchronized (this)
+			{
+				columns = _channelToColumnsMap.get(channelId);
+				if (columns == null)
+				{
+					_programSource.loadPrograms(this, channelId);
+					columns = _channelToColumnsMap.get(channelId);
+				}
+			}
+		}
+		return columns;
+	}
+
+	/**
+	 * Returns the program at the specified index creating it on first access
+	 */
+	private Program materialize(ProgramColumns columns, int index)
+	{
+		synchronized (columns)
+		{
+			if (columns.programs == null)
+				columns.programs = new Program[columns.count];
+
+			Program program = columns.programs[index];
+			if (program == null)
+			{
+				Channel channel = _channelMap.get(columns.channelId);
+				program = _programFactory.createProgram(_strings.get(columns.ids[index]),
+				        _strings.get(columns.providerIds[index]), channel);
+				program.setTitle(_strings.get(columns.titles[index]));
+				Calendar startTime = Calendar.getInstance();
+				startTime.setTimeInMillis(columns.startTimes[index] * 1000);
+				program.setStartTime(startTime);
+				Calendar stopTime = Calendar.getInstance();
+				stopTime.setTimeInMillis(columns.stopTimes[index] * 1000);
+				program.setStopTime(stopTime);
+				program.setIndex(index);
+				columns.programs[index] = program;
+			}
+			return program;
+		}
+	}
+}
@@ -28,6 +28,9 @@ public class EpgDataCompat implements IEpgDataProvider, Serializable
 	/** key = channel id; value = program list for the specific channel */
 	private Map<String, List<Program>> _channelToProgramListMap = new LinkedHashMap<String, List<Program>>();
 
+	/** key = channel id; value = map of program id to index in program list */
+	private transient Map<String, Map<String, Integer>> _channelToProgramIdIndexMap;
+
 	/**
 	 * No-arg constructor added for Kryo serialization. Do not use for anything
 	 * else.
@@ -62,6 +65,8 @@ public class EpgDataCompat implements IEpgDataProvider, Serializable
 
 		_channelToProgramListMap.put(channelId, newProgramList);
 		_channelToProgramNavigableMap.put(channelId, newProgramNavigableMap);
+		if (_channelToProgramIdIndexMap != null)
+			_channelToProgramIdIndexMap.put(channelId, indexProgramIds(newProgramList));
 
 		// Keep EPG program min start time
 		Map.Entry<Calendar, Integer> firstEntry = newProgramNavigableMap.firstEntry();
@@ -220,13 +225,42 @@ public class EpgDataCompat implements IEpgDataProvider, Serializable
 		List<Program> programsList = _channelToProgramListMap.get(channelId);
 		if (programsList == null)
 			return null;
-		// FIXME: optimize this method
-		for (Program program : programsList)
+		Integer programIndex = getProgramIdIndex(channelId, programsList).get(programId);
+		if (programIndex == null)
+			return null;
+		return programsList.get(programIndex);
+	}
+
+	@Override
+	public List<Program> getProgramsByIds(List<String> channelIds, List<String> programIds)
+	{
+		return EpgDataProviders.getProgramsByIds(this, channelIds, programIds);
+	}
+
+	/**
+	 * Returns program id index of a channel. The index is created with the
+	 * program data and rebuilt on demand after deserialization.
+	 */
+	private synchronized Map<String, Integer> getProgramIdIndex(String channelId, List<Program> programsList)
+	{
+		if (_channelToProgramIdIndexMap == null)
+			_channelToProgramIdIndexMap = new HashMap<String, Map<String, Integer>>();
+
+		Map<String, Integer> programIdIndex = _channelToProgramIdIndexMap.get(channelId);
+		if (programIdIndex == null)
 		{
-			if (program.getId().equals(programId))
-				return program;
+			programIdIndex = indexProgramIds(programsList);
+			_channelToProgramIdIndexMap.put(channelId, programIdIndex);
 		}
-		return null;
+		return programIdIndex;
+	}
+
+	private static Map<String, Integer> indexProgramIds(List<Program> programsList)
+	{
+		Map<String, Integer> programIdIndex = new HashMap<String, Integer>(programsList.size() * 4 / 3 + 1);
+		for (int i = programsList.size() - 1; i >= 0; i--)
+			programIdIndex.put(programsList.get(i).getId(), i);
+		return programIdIndex;
 	}
 
 	@Override
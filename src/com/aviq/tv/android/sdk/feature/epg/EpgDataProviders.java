@@ -0,0 +1,41 @@
+/**
+ * Copyright (c) 2007-2015, Intelibo Ltd
+ *
+ * Project:     TVBOSDK
+ * Filename:    EpgDataProviders.java
+ * Author:      alek
+ * Date:        18 Oct 2015
+ * Description: Operations common to the EPG data providers
+ */
+
+package com.aviq.tv.android.sdk.feature.epg;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Operations common to the EPG data providers
+ */
+class EpgDataProviders
+{
+	private EpgDataProviders()
+	{
+	}
+
+	/**
+	 * Resolves multiple programs by their ids with the provider's program id
+	 * index
+	 *
+	 * @see IEpgDataProvider#getProgramsByIds(List, List)
+	 */
+	static List<Program> getProgramsByIds(IEpgDataProvider epgData, List<String> channelIds, List<String> programIds)
+	{
+		if (channelIds.size() != programIds.size())
+			throw new IllegalArgumentException("Number of channel ids must be equal to the number of program ids");
+
+		List<Program> programs = new ArrayList<Program>(programIds.size());
+		for (int i = 0; i < programIds.size(); i++)
+			programs.add(epgData.getProgramById(channelIds.get(i), programIds.get(i)));
+		return programs;
+	}
+}
@@ -0,0 +1,584 @@
+/**
+ * Copyright (c) 2007-2015, Intelibo Ltd
+ *
+ * Project:     TVBOSDK
+ * Filename:    EpgSnapshot.java
+ * Author:      alek
+ * Date:        20 Oct 2015
+ * Description: Memory mapped binary EPG snapshot
+ */
+
+package com.aviq.tv.android.sdk.feature.epg;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import com.aviq.tv.android.sdk.core.Log;
+
+/**
+ * Versioned binary EPG snapshot. The snapshot is opened with FileChannel.map
+ * and channel programs are decoded on first access. The file layout is:
+ *
+ * <pre>
+ * header:     magic, version, created on, min start, max stop, channels count,
+ *             strings offset, channels offset, CRC32 of strings, channels and
+ *             attributes, attributes offset, programs offset
+ * strings:    count, offsets[count + 1], UTF-8 bytes
+ * channels:   id, title, logo url, ndvr, programs offset, programs count,
+ *             CRC32 of the programs, attributes offset or -1
+ * attributes: count, names[count], channel attribute rows[count]
+ * programs:   start, stop, id, title, provider id
+ * </pre>
+ *
+ * Strings are referenced by index in the string table, -1 stands for null.
+ * Times are in epoch seconds. The attributes are the raw provider specific
+ * channel attributes replayed through Channel.setAttributes when opened. The
+ * channel programs are verified with their checksum on first access, so
+ * opening the snapshot reads only the sections before the programs.
+ */
+public class EpgSnapshot
+{
+	private static final String TAG = EpgSnapshot.class.getSimpleName();
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** "EPGS" */
+	private static final int MAGIC = 0x45504753;
+
+	/** Increase on every change of the file layout */
+	public static final int VERSION = 2;
+
+	private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 8 + 4 + 4 + 4 + 4 + 4 + 4;
+	private static final int CHANNEL_RECORD_SIZE = 8 * 4;
+	private static final int PROGRAM_RECORD_SIZE = 8 + 8 + 4 + 4 + 4;
+
+	/**
+	 * Creates the provider specific EPG objects
+	 */
+	public interface Factory extends EpgDataColumnar.ProgramFactory
+	{
+		/**
+		 * @return new channel instance at the specified index
+		 */
+		Channel createChannel(int index);
+
+		/**
+		 * @return provider specific program id or null
+		 */
+		String getProgramProviderId(Program program);
+
+		/**
+		 * @return names of the provider specific channel attributes or null
+		 */
+		String[] getChannelMeta();
+
+		/**
+		 * @return meta data indexing the channel attributes with the specified
+		 *         names
+		 */
+		Channel.MetaData createChannelMetaData(String[] meta);
+	}
+
+	/**
+	 * Writes EPG data snapshot to file. The file is replaced atomically.
+	 *
+	 * @param file
+	 *            the snapshot file
+	 * @param epgData
+	 *            the EPG data to write
+	 * @param factory
+	 *            provides provider specific program ids
+	 * @throws IOException
+	 */
+	public static void write(File file, IEpgDataProvider epgData, final Factory factory) throws IOException
+	{
+		long processStart = System.nanoTime();
+
+		final StringTable strings = new StringTable();
+		final ProgramBuffer programs = new ProgramBuffer(strings);
+		int nChannels = epgData.getChannelCount();
+		int[] channelRecords = new int[nChannels * 4];
+		int[] channelPrograms = new int[nChannels + 1];
+		String[] meta = factory.getChannelMeta();
+		int nAttributes = meta != null ? meta.length : 0;
+		int[] metaRefs = new int[nAttributes];
+		for (int j = 0; j < nAttributes; j++)
+			metaRefs[j] = strings.intern(meta[j]);
+		int[][] attributeRows = new int[nChannels][];
+
+		for (int i = 0; i < nChannels; i++)
+		{
+			Channel channel = epgData.getChannel(i);
+			String channelId = channel.getChannelId();
+			channelRecords[4 * i] = strings.intern(channelId);
+			channelRecords[4 * i + 1] = strings.intern(channel.getTitle());
+			channelRecords[4 * i + 2] = strings.intern(channel.getChannelImageUrl(Channel.LOGO_NORMAL));
+			channelRecords[4 * i + 3] = channel.getNDVR();
+			String[] attributes = channel.getAttributeRow();
+			if (nAttributes > 0 && attributes != null && attributes.length == nAttributes)
+			{
+				attributeRows[i] = new int[nAttributes];
+				for (int j = 0; j < nAttributes; j++)
+					attributeRows[i][j] = strings.intern(attributes[j]);
+			}
+
+			if (epgData instanceof EpgDataColumnar)
+			{
+				// avoid materializing programs of the columnar store
+				((EpgDataColumnar) epgData).visitPrograms(channelId, programs);
+			}
+			else
+			{
+				List<Program> programList = epgData.getProgramList(channelId);
+				if (programList != null)
+				{
+					for (Program program : programList)
+					{
+						programs.visitProgram(program.getStartTime().getTimeInMillis() / 1000, program.getStopTime()
+						        .getTimeInMillis() / 1000, program.getId(), program.getTitle(), factory
+						        .getProgramProviderId(program));
+					}
+				}
+			}
+			channelPrograms[i + 1] = programs.count;
+		}
+
+		byte[][] stringBytes = new byte[strings.size()][];
+		int stringBytesSize = 0;
+		for (int i = 0; i < stringBytes.length; i++)
+		{
+			stringBytes[i] = strings.get(i).getBytes(UTF8);
+			stringBytesSize += stringBytes[i].length;
+		}
+
+		int stringsOffset = HEADER_SIZE;
+		int channelsOffset = stringsOffset + 4 + 4 * (stringBytes.length + 1) + stringBytesSize;
+		int attributesOffset = channelsOffset + nChannels * CHANNEL_RECORD_SIZE;
+		int nAttributeRows = 0;
+		for (int i = 0; i < nChannels; i++)
+			if (attributeRows[i] != null)
+				nAttributeRows++;
+		int programsOffset = attributesOffset + 4 + 4 * nAttributes * (1 + nAttributeRows);
+
+		// checksums of the channel programs
+		ByteBuffer programRecord = ByteBuffer.allocate(PROGRAM_RECORD_SIZE);
+		int[] programCrcs = new int[nChannels];
+		for (int i = 0; i < nChannels; i++)
+		{
+			CRC32 programCrc = new CRC32();
+			for (int k = channelPrograms[i]; k < channelPrograms[i + 1]; k++)
+			{
+				programs.encode(k, programRecord);
+				programCrc.update(programRecord.array(), 0, PROGRAM_RECORD_SIZE);
+			}
+			programCrcs[i] = (int) programCrc.getValue();
+		}
+
+		File tmpFile = new File(file.getPath() + ".tmp");
+		CRC32 crc = new CRC32();
+		int headerCrc;
+		DataOutputStream out = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(
+		        new FileOutputStream(tmpFile)), crc));
+		try
+		{
+			// header placeholder, written when the checksum is known
+			out.write(new byte[HEADER_SIZE]);
+			crc.reset();
+
+			// strings
+			out.writeInt(stringBytes.length);
+			int stringOffset = 0;
+			out.writeInt(stringOffset);
+			for (int i = 0; i < stringBytes.length; i++)
+			{
+				stringOffset += stringBytes[i].length;
+				out.writeInt(stringOffset);
+			}
+			for (int i = 0; i < stringBytes.length; i++)
+				out.write(stringBytes[i]);
+
+			// channels
+			int attributeRowOffset = attributesOffset + 4 + 4 * nAttributes;
+			for (int i = 0; i < nChannels; i++)
+			{
+				out.writeInt(channelRecords[4 * i]);
+				out.writeInt(channelRecords[4 * i + 1]);
+				out.writeInt(channelRecords[4 * i + 2]);
+				out.writeInt(channelRecords[4 * i + 3]);
+				out.writeInt(programsOffset + channelPrograms[i] * PROGRAM_RECORD_SIZE);
+				out.writeInt(channelPrograms[i + 1] - channelPrograms[i]);
+				out.writeInt(programCrcs[i]);
+				if (attributeRows[i] != null)
+				{
+					out.writeInt(attributeRowOffset);
+					attributeRowOffset += 4 * nAttributes;
+				}
+				else
+				{
+					out.writeInt(-1);
+				}
+			}
+
+			// attributes
+			out.writeInt(nAttributes);
+			for (int j = 0; j < nAttributes; j++)
+				out.writeInt(metaRefs[j]);
+			for (int i = 0; i < nChannels; i++)
+				if (attributeRows[i] != null)
+					for (int j = 0; j < nAttributes; j++)
+						out.writeInt(attributeRows[i][j]);
+			out.flush();
+			headerCrc = (int) crc.getValue();
+
+			// programs
+			for (int i = 0; i < programs.count; i++)
+			{
+				programs.encode(i, programRecord);
+				out.write(programRecord.array(), 0, PROGRAM_RECORD_SIZE);
+			}
+		}
+		finally
+		{
+			out.close();
+		}
+
+		RandomAccessFile raf = new RandomAccessFile(tmpFile, "rw");
+		try
+		{
+			raf.writeInt(MAGIC);
+			raf.writeInt(VERSION);
+			raf.writeLong(System.currentTimeMillis());
+			raf.writeLong(epgData.getMinEpgStartTime().getTimeInMillis() / 1000);
+			raf.writeLong(epgData.getMaxEpgStopTime().getTimeInMillis() / 1000);
+			raf.writeInt(nChannels);
+			raf.writeInt(stringsOffset);
+			raf.writeInt(channelsOffset);
+			raf.writeInt(headerCrc);
+			raf.writeInt(attributesOffset);
+			raf.writeInt(programsOffset);
+			raf.getFD().sync();
+		}
+		finally
+		{
+			raf.close();
+		}
+
+		if (!tmpFile.renameTo(file))
+		{
+			tmpFile.delete();
+			throw new IOException("Cannot rename " + tmpFile + " to " + file);
+		}
+
+		double processTime = (System.nanoTime() - processStart) / 1000000000.0;
+		Log.i(TAG, "Written " + nChannels + " channels, " + programs.count + " programs, " + stringBytes.length
+		        + " strings to " + file + " for " + processTime + " sec");
+	}
+
+	/**
+	 * Opens EPG snapshot file. Only the channels are decoded and verified, the
+	 * channel programs are verified and decoded on first access.
+	 *
+	 * @param file
+	 *            the snapshot file
+	 * @param factory
+	 *            creates provider specific channels and programs
+	 * @return EPG data backed by the snapshot file
+	 * @throws IOException
+	 *             if the file can't be read, has unsupported version or is
+	 *             corrupted
+	 */
+	public static EpgDataColumnar open(File file, Factory factory) throws IOException
+	{
+		ByteBuffer buffer;
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try
+		{
+			FileChannel fileChannel = raf.getChannel();
+			if (fileChannel.size() < HEADER_SIZE || fileChannel.size() > Integer.MAX_VALUE)
+				throw new IOException("Invalid EPG snapshot size " + fileChannel.size());
+			buffer = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, fileChannel.size());
+		}
+		finally
+		{
+			raf.close();
+		}
+
+		Reader reader = new Reader(buffer, factory);
+		return reader.createEpgData();
+	}
+
+	/**
+	 * Decodes the snapshot channels and supplies their programs on demand
+	 */
+	private static class Reader implements EpgDataColumnar.ProgramSource
+	{
+		private ByteBuffer _buffer;
+		private Factory _factory;
+		private long _minEpgStartTime;
+		private long _maxEpgStopTime;
+		private int _nChannels;
+		private int _stringsCount;
+		private int _stringOffsetsPos;
+		private int _stringBytesPos;
+		private int _channelsOffset;
+		private int _attributesOffset;
+		private String[] _stringCache;
+		private boolean[] _loadedChannels;
+		private Map<String, Integer> _channelIndex = new HashMap<String, Integer>();
+
+		Reader(ByteBuffer buffer, Factory factory) throws IOException
+		{
+			_buffer = buffer;
+			_factory = factory;
+
+			int magic = buffer.getInt(0);
+			if (magic != MAGIC)
+				throw new IOException("Invalid EPG snapshot magic " + Integer.toHexString(magic));
+			int version = buffer.getInt(4);
+			if (version != VERSION)
+				throw new IOException("Unsupported EPG snapshot version " + version + ", expected " + VERSION);
+			_minEpgStartTime = buffer.getLong(16);
+			_maxEpgStopTime = buffer.getLong(24);
+			_nChannels = buffer.getInt(32);
+			int stringsOffset = buffer.getInt(36);
+			_channelsOffset = buffer.getInt(40);
+			int crcValue = buffer.getInt(44);
+			_attributesOffset = buffer.getInt(48);
+			int programsOffset = buffer.getInt(52);
+
+			int size = buffer.limit();
+			if (_nChannels < 0 || stringsOffset != HEADER_SIZE || _channelsOffset < stringsOffset
+			        || (long) _channelsOffset + (long) _nChannels * CHANNEL_RECORD_SIZE != _attributesOffset
+			        || programsOffset < _attributesOffset + 4 || programsOffset > size)
+				throw new IOException("Invalid EPG snapshot header");
+
+			// the programs are verified per channel on first access
+			if (crc(HEADER_SIZE, programsOffset) != crcValue)
+				throw new IOException("EPG snapshot CRC mismatch");
+
+			_stringsCount = buffer.getInt(stringsOffset);
+			_stringOffsetsPos = stringsOffset + 4;
+			_stringBytesPos = _stringOffsetsPos + 4 * (_stringsCount + 1);
+			_stringCache = new String[_stringsCount];
+			_loadedChannels = new boolean[_nChannels];
+		}
+
+		EpgDataColumnar createEpgData()
+		{
+			int nAttributes = _buffer.getInt(_attributesOffset);
+			Channel.MetaData metaData = null;
+			if (nAttributes > 0)
+			{
+				String[] meta = new String[nAttributes];
+				for (int j = 0; j < nAttributes; j++)
+					meta[j] = getString(_buffer.getInt(_attributesOffset + 4 + 4 * j));
+				metaData = _factory.createChannelMetaData(meta);
+			}
+
+			List<Channel> channels = new ArrayList<Channel>(_nChannels);
+			for (int i = 0; i < _nChannels; i++)
+			{
+				int record = _channelsOffset + i * CHANNEL_RECORD_SIZE;
+				Channel channel = _factory.createChannel(i);
+				channel.setChannelId(getString(_buffer.getInt(record)));
+				channel.setTitle(getString(_buffer.getInt(record + 4)));
+				String logoUrl = getString(_buffer.getInt(record + 8));
+				if (logoUrl != null)
+					channel.setChannelImageUrl(Channel.LOGO_NORMAL, logoUrl);
+				channel.setNDVR(_buffer.getInt(record + 12));
+				int attributesRow = _buffer.getInt(record + 28);
+				if (metaData != null && attributesRow >= 0)
+				{
+					// replay the provider specific channel attributes
+					String[] attributes = new String[nAttributes];
+					for (int j = 0; j < nAttributes; j++)
+						attributes[j] = getString(_buffer.getInt(attributesRow + 4 * j));
+					channel.setAttributes(metaData, attributes);
+					channel.setAttributeRow(attributes);
+				}
+				channels.add(channel);
+				_channelIndex.put(channel.getChannelId(), i);
+			}
+
+			EpgDataColumnar epgData = new EpgDataColumnar(channels, _factory);
+			epgData.setEpgTimeRange(_minEpgStartTime, _maxEpgStopTime);
+			epgData.setProgramSource(this);
+			return epgData;
+		}
+
+		@Override
+		public synchronized void loadPrograms(EpgDataColumnar epgData, String channelId)
+		{
+			Integer channelIndex = _channelIndex.get(channelId);
+			if (channelIndex == null || _loadedChannels[channelIndex])
+				return;
+			_loadedChannels[channelIndex] = true;
+
+			int record = _channelsOffset + channelIndex * CHANNEL_RECORD_SIZE;
+			int offset = _buffer.getInt(record + 16);
+			int count = _buffer.getInt(record + 20);
+			if (offset < 0 || count < 0 || (long) offset + (long) count * PROGRAM_RECORD_SIZE > _buffer.limit()
+			        || crc(offset, offset + count * PROGRAM_RECORD_SIZE) != _buffer.getInt(record + 24))
+			{
+				Log.e(TAG, "EPG snapshot programs of channel " + channelId + " are corrupted");
+				return;
+			}
+			long[] startTimes = new long[count];
+			long[] stopTimes = new long[count];
+			String[] ids = new String[count];
+			String[] titles = new String[count];
+			String[] providerIds = new String[count];
+			for (int i = 0; i < count; i++)
+			{
+				int pos = offset + i * PROGRAM_RECORD_SIZE;
+				startTimes[i] = _buffer.getLong(pos);
+				stopTimes[i] = _buffer.getLong(pos + 8);
+				ids[i] = getString(_buffer.getInt(pos + 16));
+				titles[i] = getString(_buffer.getInt(pos + 20));
+				providerIds[i] = getString(_buffer.getInt(pos + 24));
+			}
+			epgData.addProgramData(channelId, startTimes, stopTimes, ids, titles, providerIds, count);
+		}
+
+		// checksum of the snapshot bytes in range [start, end)
+		private int crc(int start, int end)
+		{
+			CRC32 crc = new CRC32();
+			byte[] chunk = new byte[8192];
+			ByteBuffer data = _buffer.duplicate();
+			data.position(start);
+			data.limit(end);
+			while (data.hasRemaining())
+			{
+				int length = Math.min(chunk.length, data.remaining());
+				data.get(chunk, 0, length);
+				crc.update(chunk, 0, length);
+			}
+			return (int) crc.getValue();
+		}
+
+		private String getString(int ref)
+		{
+			if (ref < 0 || ref >= _stringsCount)
+				return null;
+			String value = _stringCache[ref];
+			if (value == null)
+			{
+				int start = _buffer.getInt(_stringOffsetsPos + 4 * ref);
+				int end = _buffer.getInt(_stringOffsetsPos + 4 * (ref + 1));
+				byte[] bytes = new byte[end - start];
+				ByteBuffer data = _buffer.duplicate();
+				data.position(_stringBytesPos + start);
+				data.get(bytes);
+				value = new String(bytes, UTF8);
+				_stringCache[ref] = value;
+			}
+			return value;
+		}
+	}
+
+	/**
+	 * Deduplicates strings by assigning them integer references
+	 */
+	private static class StringTable
+	{
+		private List<String> _values = new ArrayList<String>();
+		private Map<String, Integer> _refs = new HashMap<String, Integer>();
+
+		int intern(String value)
+		{
+			if (value == null)
+				return -1;
+			Integer ref = _refs.get(value);
+			if (ref == null)
+			{
+				ref = _values.size();
+				_values.add(value);
+				_refs.put(value, ref);
+			}
+			return ref;
+		}
+
+		String get(int ref)
+		{
+			return _values.get(ref);
+		}
+
+		int size()
+		{
+			return _values.size();
+		}
+	}
+
+	/**
+	 * Growable program records buffer
+	 */
+	private static class ProgramBuffer implements EpgDataColumnar.ProgramVisitor
+	{
+		private StringTable _strings;
+		int count;
+		long[] startTimes = new long[1024];
+		long[] stopTimes = new long[1024];
+		int[] ids = new int[1024];
+		int[] titles = new int[1024];
+		int[] providerIds = new int[1024];
+
+		ProgramBuffer(StringTable strings)
+		{
+			_strings = strings;
+		}
+
+		@Override
+		public void visitProgram(long startTime, long stopTime, String id, String title, String providerId)
+		{
+			if (count == startTimes.length)
+			{
+				int capacity = 2 * count;
+				long[] newStartTimes = new long[capacity];
+				long[] newStopTimes = new long[capacity];
+				int[] newIds = new int[capacity];
+				int[] newTitles = new int[capacity];
+				int[] newProviderIds = new int[capacity];
+				System.arraycopy(startTimes, 0, newStartTimes, 0, count);
+				System.arraycopy(stopTimes, 0, newStopTimes, 0, count);
+				System.arraycopy(ids, 0, newIds, 0, count);
+				System.arraycopy(titles, 0, newTitles, 0, count);
+				System.arraycopy(providerIds, 0, newProviderIds, 0, count);
+				startTimes = newStartTimes;
+				stopTimes = newStopTimes;
+				ids = newIds;
+				titles = newTitles;
+				providerIds = newProviderIds;
+			}
+			startTimes[count] = startTime;
+			stopTimes[count] = stopTime;
+			ids[count] = _strings.intern(id);
+			titles[count] = _strings.intern(title);
+			providerIds[count] = _strings.intern(providerId);
+			count++;
+		}
+
+		// encodes program record at the specified index
+		void encode(int index, ByteBuffer record)
+		{
+			record.clear();
+			record.putLong(startTimes[index]);
+			record.putLong(stopTimes[index]);
+			record.putInt(ids[index]);
+			record.putInt(titles[index]);
+			record.putInt(providerIds[index]);
+		}
+	}
+}
@@ -10,32 +10,48 @@
 
 package com.aviq.tv.android.sdk.feature.epg;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.TimeZone;
+import java.util.concurrent.Callable;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.net.Uri;
 import android.os.Bundle;
+import android.text.TextUtils;
 import android.util.Base64;
 
 import com.android.volley.AuthFailureError;
+import com.android.volley.NetworkResponse;
 import com.android.volley.Request;
 import com.android.volley.Response;
 import com.android.volley.VolleyError;
+import com.android.volley.toolbox.HttpHeaderParser;
 import com.android.volley.toolbox.JsonObjectRequest;
 import com.aviq.tv.android.sdk.core.Environment;
 import com.aviq.tv.android.sdk.core.EventMessenger;
+import com.aviq.tv.android.sdk.core.EventReceiver;
 import com.aviq.tv.android.sdk.core.Log;
+import com.aviq.tv.android.sdk.core.ParseExecutor;
 import com.aviq.tv.android.sdk.core.ResultCode;
 import com.aviq.tv.android.sdk.core.feature.FeatureComponent;
 import com.aviq.tv.android.sdk.core.feature.FeatureError;
@@ -47,6 +63,7 @@ import com.aviq.tv.android.sdk.core.service.ServiceController.OnResultReceived;
 import com.aviq.tv.android.sdk.feature.command.CommandHandler;
 import com.aviq.tv.android.sdk.feature.system.FeatureTimeZone;
 import com.aviq.tv.android.sdk.utils.Calendars;
+import com.aviq.tv.android.sdk.utils.JsonTable;
 
 /**
  * Component feature providing EPG data
@@ -59,9 +76,17 @@ public abstract class FeatureEPG extends FeatureComponent
 	public static final int ON_CHANNELS_UPDATED = EventMessenger.ID("ON_CHANNELS_UPDATED");
 	public static final int ON_CHANNELS_CHANGED = EventMessenger.ID("ON_CHANNELS_CHANGED");
 
+	/**
+	 * Triggered by the application on the EPG feature messenger when a channel
+	 * gets focused, e.g. in a channel list. The details of the current and the
+	 * next programs of the channel are prefetched.
+	 */
+	public static final int ON_CHANNEL_FOCUSED = EventMessenger.ID("ON_CHANNEL_FOCUSED");
+	public static final String EXTRA_CHANNEL_ID = "CHANNEL_ID";
+
 	public static enum Command
 	{
-		GET_PROGRAMS, GET_PROGRAM_DETAILS
+		GET_PROGRAMS, GET_PROGRAM_DETAILS, BENCHMARK_TIME_PARSER
 	}
 
 	public static enum CommandGetProgramsExtras
@@ -74,6 +99,11 @@ public abstract class FeatureEPG extends FeatureComponent
 		CHANNEL_ID, PROGRAM_ID
 	}
 
+	public static enum CommandBenchmarkTimeParserExtras
+	{
+		ITERATIONS
+	}
+
 	public static enum Param
 	{
 		/**
@@ -111,6 +141,13 @@ public abstract class FeatureEPG extends FeatureComponent
 		 */
 		EPG_PROGRAM_DETAILS_URL("${SERVER}/v${VERSION}/programs/${PROVIDER}/${CHANNEL}/${ID}"),
 
+		/**
+		 * EPG multiple program details url format, IDS is comma separated list
+		 * of CHANNEL/ID pairs. Leave empty if the provider doesn't support
+		 * batch requests of program details.
+		 */
+		EPG_PROGRAMS_DETAILS_URL(""),
+
 		/**
 		 * Channel logo width
 		 */
@@ -141,7 +178,57 @@ public abstract class FeatureEPG extends FeatureComponent
 		 * The number of days in future the program is allowed to be imported by
 		 * EPG
 		 */
-		PROGRAM_RANGE_MAX_DAYS(7);
+		PROGRAM_RANGE_MAX_DAYS(7),
+
+		/**
+		 * JSON parser of channels and programs responses, dom or stream
+		 */
+		JSON_PARSER(JsonTable.Parser.stream.name()),
+
+		/**
+		 * The number of threads parsing channels and programs responses
+		 */
+		PARSER_THREADS(1),
+
+		/**
+		 * The maximum number of channels with programs kept in the programs
+		 * cache
+		 */
+		PROGRAMS_CACHE_SIZE(16),
+
+		/**
+		 * The maximum number of programs requested by one batch details
+		 * request
+		 */
+		PROGRAM_DETAILS_BATCH_SIZE(20),
+
+		/**
+		 * The maximum number of concurrent program details requests if the
+		 * provider doesn't support batch requests
+		 */
+		PROGRAM_DETAILS_MAX_REQUESTS(4),
+
+		/**
+		 * Delay in ms after the last channel focus before the details of the
+		 * channel programs are prefetched
+		 */
+		PROGRAM_DETAILS_PREFETCH_DELAY(500),
+
+		/**
+		 * The maximum number of programs with details kept in the program
+		 * details cache
+		 */
+		PROGRAM_DETAILS_CACHE_SIZE(256),
+
+		/**
+		 * The maximum size in bytes of the program details disk cache
+		 */
+		PROGRAM_DETAILS_DISK_CACHE_SIZE(4 * 1024 * 1024),
+
+		/**
+		 * Program details disk cache directory
+		 */
+		PROGRAM_DETAILS_CACHE_PATH("cache" + File.separator + "details");
 
 		Param(boolean value)
 		{
@@ -168,70 +255,161 @@ public abstract class FeatureEPG extends FeatureComponent
 	private Calendar _maxDate;
 	private FeatureTimeZone _featureTimeZone;
 	private int _maxChannels = 0;
-	private ProgramsCache _programsCache = new ProgramsCache();
+	private ProgramsCache _programsCache;
+	private ProgramDetailsCache _programDetailsCache;
+	private ProgramDetailsPipeline _programDetailsPipeline = new ProgramDetailsPipeline();
 	private JsonObjectRequest _programDetailsRequest;
+	// tags the requests of the outstanding prefetch, null if none
+	private Object _prefetchTag;
+	private Runnable _prefetchRunnable;
 	// List of all channels from the EPG provider
 	protected List<Channel> _channels = new ArrayList<Channel>();
 	// Maps channel id to channel object
 	protected Map<String, Channel> _channelsMap = new HashMap<String, Channel>();
-	private SimpleDateFormat _sdfUTC;
+	private JsonTable.Parser _jsonParser;
+	private ParseExecutor _parseExecutor;
 
+	/**
+	 * LRU cache of the programs windows by channel id. A window of
+	 * consecutive programs serves any request for programs around a time
+	 * within the window.
+	 */
 	private class ProgramsCache
 	{
-		private String _channelId;
-		private int _offset;
-		private int _count;
-		private List<Program> _programs;
+		private final int _maxSize;
+		private final LinkedHashMap<String, ProgramsWindow> _windows;
+		private int _hits;
+		private int _misses;
+
+		ProgramsCache(final int maxSize)
+		{
+			_maxSize = maxSize;
+			_windows = new LinkedHashMap<String, ProgramsWindow>(16, 0.75f, true)
+			{
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, ProgramsWindow> eldest)
+				{
+					return size() > _maxSize;
+				}
+			};
+		}
 
 		void reset()
 		{
-			_channelId = null;
-			_programs = null;
-			_offset = _count = 0;
+			_windows.clear();
 		}
 
 		List<Program> getPrograms(String channelId, Calendar when, int offset, int count)
 		{
-			if (_channelId == null || !_channelId.equals(channelId) || _offset != offset || _count != count)
-			{
-				Log.i(TAG, "ProgramsCache.getPrograms: _channelId = " + _channelId + ", channelId = " + channelId
-				        + ", _offset = " + _offset + ", offset = " + offset + ", _count= " + _count + ", count = "
-				        + count);
-				return null;
-			}
-
-			if (_programs != null)
+			List<Program> programs = null;
+			ProgramsWindow window = channelId != null ? _windows.get(channelId) : null;
+			if (window != null)
 			{
-				Log.i(TAG, ".getPrograms: _programs.size() = " + _programs.size() + ", count = " + count
-				        + ", _offset = " + _offset);
-
-				if (_programs.size() == count && _offset < 0 && -_offset < count)
+				if (window.validTo <= System.currentTimeMillis())
 				{
-					Program currentProgram = _programs.get(-_offset);
-					if (currentProgram != null)
-					{
-						if (currentProgram.getStartTime().before(when) && currentProgram.getStopTime().after(when))
-						{
-							return _programs;
-						}
-					}
+					// all programs of the window are in the past
+					_windows.remove(channelId);
+				}
+				else if (when == null)
+				{
+					// all channel programs requested
+					if (window.complete)
+						programs = window.programs;
+				}
+				else if (count > 0)
+				{
+					programs = window.getPrograms(when.getTimeInMillis(), offset, count);
 				}
 			}
+
+			if (programs != null)
+				_hits++;
 			else
+				_misses++;
+			Log.i(TAG, "ProgramsCache.getPrograms: channelId = %s, offset = %d, count = %d, %s, hits = %d, misses = %d"
+			        + ", size = %d/%d", channelId, offset, count, programs != null ? "hit" : "miss", _hits, _misses,
+			        _windows.size(), _maxSize);
+			return programs != null ? new ArrayList<Program>(programs) : null;
+		}
+
+		void putPrograms(String channelId, Calendar when, List<Program> programs)
+		{
+			if (channelId == null || _maxSize <= 0 || programs.size() == 0)
+				return;
+
+			ProgramsWindow window = _windows.get(channelId);
+			if (window != null && window.complete && when != null)
 			{
-				Log.i(TAG, ".getPrograms: null programs");
+				// keep all channel programs
+				return;
 			}
-			return null;
+			_windows.put(channelId, new ProgramsWindow(programs, when == null));
 		}
 
-		void putPrograms(String channelId, int offset, int count, List<Program> programs)
+		int getHits()
 		{
-			Log.i(TAG, ".putPrograms: channelId = " + channelId + ", offset = " + offset + ", count= " + count
-			        + ", programs = " + programs);
-			_channelId = channelId;
-			_offset = offset;
-			_count = count;
-			_programs = programs;
+			return _hits;
+		}
+
+		int getMisses()
+		{
+			return _misses;
+		}
+	}
+
+	/**
+	 * Consecutive programs of a channel sorted by start time, valid between the
+	 * start of the first and the stop of the last program
+	 */
+	private static class ProgramsWindow
+	{
+		final List<Program> programs;
+		final long validFrom;
+		final long validTo;
+		final boolean complete;
+
+		ProgramsWindow(List<Program> programs, boolean complete)
+		{
+			this.programs = new ArrayList<Program>(programs);
+			this.complete = complete;
+			validFrom = programs.get(0).getStartTime().getTimeInMillis();
+			validTo = programs.get(programs.size() - 1).getStopTime().getTimeInMillis();
+		}
+
+		/**
+		 * @return count programs starting at offset from the program at time
+		 *         when or null if the window doesn't contain all of them
+		 */
+		List<Program> getPrograms(long when, int offset, int count)
+		{
+			if (when < validFrom || when >= validTo)
+				return null;
+
+			// binary search of the last program starting before or at when
+			int low = 0;
+			int high = programs.size() - 1;
+			while (low < high)
+			{
+				int mid = (low + high + 1) >>> 1;
+				if (programs.get(mid).getStartTime().getTimeInMillis() <= when)
+					low = mid;
+				else
+					high = mid - 1;
+			}
+
+			if (programs.get(low).getStopTime().getTimeInMillis() <= when)
+			{
+				// when is in a gap between programs
+				return null;
+			}
+
+			int from = low + offset;
+			int to = from + count;
+			if (from < 0 || to > programs.size())
+				return null;
+			return programs.subList(from, to);
 		}
 	}
 
@@ -241,9 +419,6 @@ public abstract class FeatureEPG extends FeatureComponent
 		require(FeatureName.Component.NETWORK_TIME);
 		require(FeatureName.Component.TIMEZONE);
 		require(FeatureName.Component.COMMAND);
-
-		_sdfUTC = new SimpleDateFormat("yyyyMMddHHmmss", Locale.getDefault());
-		_sdfUTC.setTimeZone(TimeZone.getTimeZone("UTC"));
 	}
 
 	@Override
@@ -259,6 +434,14 @@ public abstract class FeatureEPG extends FeatureComponent
 		_channelLogoWidth = getPrefs().getInt(Param.CHANNEL_LOGO_WIDTH);
 		_channelLogoHeight = getPrefs().getInt(Param.CHANNEL_LOGO_HEIGHT);
 		_maxChannels = getPrefs().getInt(Param.MAX_CHANNELS);
+		_jsonParser = JsonTable.Parser.valueOf(getPrefs().getString(Param.JSON_PARSER));
+		_parseExecutor = new ParseExecutor(TAG, getPrefs().getInt(Param.PARSER_THREADS), getEventMessenger(),
+		        Environment.getInstance().getFeatureManager().getBootTrace());
+		_programsCache = new ProgramsCache(getPrefs().getInt(Param.PROGRAMS_CACHE_SIZE));
+		_programDetailsCache = new ProgramDetailsCache(new File(Environment.getInstance().getFilesDir(), getPrefs()
+		        .getString(Param.PROGRAM_DETAILS_CACHE_PATH)), getPrefs().getInt(Param.PROGRAM_DETAILS_CACHE_SIZE),
+		        getPrefs().getInt(Param.PROGRAM_DETAILS_DISK_CACHE_SIZE), getEventMessenger());
+		_programDetailsPipeline.setMaxRequests(getPrefs().getInt(Param.PROGRAM_DETAILS_MAX_REQUESTS));
 
 		loadChannels(new OnResultReceived()
 		{
@@ -269,10 +452,43 @@ public abstract class FeatureEPG extends FeatureComponent
 			}
 		});
 
+		// the details of the focused channel programs are likely to be
+		// requested soon
+		getEventMessenger().register(new EventReceiver()
+		{
+			@Override
+			public void onEvent(int msgId, Bundle bundle)
+			{
+				// prefetches only the channel which keeps the focus
+				final String channelId = bundle.getString(EXTRA_CHANNEL_ID);
+				if (_prefetchRunnable != null)
+					getEventMessenger().removeCallbacks(_prefetchRunnable);
+				_prefetchRunnable = new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						_prefetchRunnable = null;
+						prefetchProgramDetails(getChannelById(channelId));
+					}
+				};
+				getEventMessenger().postDelayed(_prefetchRunnable,
+				        getPrefs().getInt(Param.PROGRAM_DETAILS_PREFETCH_DELAY));
+			}
+		}, ON_CHANNEL_FOCUSED);
+
 		registerCommands();
 
 	} // initialize
 
+	/**
+	 * @return executor parsing the EPG responses on background threads
+	 */
+	protected ParseExecutor getParseExecutor()
+	{
+		return _parseExecutor;
+	}
+
 	@Override
 	public Component getComponentName()
 	{
@@ -283,6 +499,7 @@ public abstract class FeatureEPG extends FeatureComponent
 	{
 		_feature.Component.COMMAND.addCommandHandler(new OnCommandGetPrograms());
 		_feature.Component.COMMAND.addCommandHandler(new OnCommandGetProgramDetails());
+		_feature.Component.COMMAND.addCommandHandler(new OnCommandBenchmarkTimeParser());
 	}
 
 	/**
@@ -292,12 +509,14 @@ public abstract class FeatureEPG extends FeatureComponent
 	 */
 	public void loadChannels(OnResultReceived onResultReceived)
 	{
+		// cached programs refer to the previously loaded channels
+		_programsCache.reset();
 		getEventMessenger().trigger(ON_CHANNELS_UPDATING);
 
 		// retrieve new channels from server
 		ChannelsResponse channelsResponse = new ChannelsResponse(onResultReceived);
-		JsonObjectRequest request = new JsonObjectRequest(getChannelsUrl(), null, channelsResponse, channelsResponse);
-		Environment.getInstance().getRequestQueue().add(request);
+		Environment.getInstance().getRequestQueue()
+		        .add(JsonTable.createRequest(getChannelsUrl(), _jsonParser, _parseExecutor, channelsResponse));
 	}
 
 	public List<Channel> getChannels()
@@ -312,14 +531,17 @@ public abstract class FeatureEPG extends FeatureComponent
 
 	protected void addChannel(Channel channel)
 	{
-		Log.d(TAG, ".addChannel: " + channel.getChannelId());
+		Log.d(TAG, ".addChannel: %s", channel.getChannelId());
 		_channelsMap.put(channel.getChannelId(), channel);
 		_channels.add(channel);
 	}
 
-	private class ChannelsResponse implements Response.Listener<JSONObject>, Response.ErrorListener
+	private class ChannelsResponse implements JsonTable.OnTableReceived
 	{
 		private OnResultReceived _onResultReceived;
+		private Channel.MetaData _metaData;
+		private List<String[]> _channelRows = new ArrayList<String[]>();
+		private List<Bitmap> _channelLogos = new ArrayList<Bitmap>();
 
 		ChannelsResponse(OnResultReceived onResultReceived)
 		{
@@ -327,26 +549,43 @@ public abstract class FeatureEPG extends FeatureComponent
 		}
 
 		@Override
-		public void onResponse(JSONObject response)
+		public void onMeta(String[] meta) throws IOException
 		{
-			try
-			{
-				Channel.MetaData metaData = createChannelMetaData();
-				JSONArray jsonArr = response.getJSONArray("meta");
-				String[] meta = new String[jsonArr.length()];
-				for (int i = 0; i < jsonArr.length(); i++)
-					meta[i] = jsonArr.get(i).toString();
-				indexChannelMetaData(metaData, meta);
-				parseChannelData(metaData, response.getJSONArray("data"));
-				_onResultReceived.onReceiveResult(FeatureError.OK(FeatureEPG.this), null);
-			}
-			catch (JSONException e)
+			_metaData = indexChannelMeta(meta);
+		}
+
+		@Override
+		public void onRow(String[] values)
+		{
+			if (_maxChannels > 0 && _channelRows.size() == _maxChannels)
+				return;
+
+			// channel logos are decoded by the parser thread, the channels are
+			// created on the main thread
+			Bitmap logo = null;
+			if (values[_metaData.metaChannelLogo] != null)
 			{
-				// Load channels failed, notify error
-				Log.e(TAG, e.getMessage(), e);
-				_onResultReceived
-				        .onReceiveResult(new FeatureError(FeatureEPG.this, ResultCode.PROTOCOL_ERROR, e), null);
+				byte[] decodedString = Base64.decode(values[_metaData.metaChannelLogo], Base64.DEFAULT);
+				logo = BitmapFactory.decodeByteArray(decodedString, 0, decodedString.length);
 			}
+			_channelRows.add(values);
+			_channelLogos.add(logo);
+		}
+
+		@Override
+		public void onTableReceived()
+		{
+			for (int i = 0; i < _channelRows.size(); i++)
+				parseChannelData(_metaData, _channelRows.get(i), _channelLogos.get(i));
+			_onResultReceived.onReceiveResult(FeatureError.OK(FeatureEPG.this), null);
+		}
+
+		@Override
+		public void onTableError(Exception e)
+		{
+			// Load channels failed, notify error
+			Log.e(TAG, e.getMessage(), e);
+			_onResultReceived.onReceiveResult(new FeatureError(FeatureEPG.this, ResultCode.PROTOCOL_ERROR, e), null);
 		}
 
 		@Override
@@ -382,12 +621,28 @@ public abstract class FeatureEPG extends FeatureComponent
 		}
 
 		// retrieve desired programs from server
-		ProgramsResponse programsResponse = new ProgramsResponse(channelId, when, offset, count, onResultReceived);
+		ProgramsResponse programsResponse = new ProgramsResponse(channelId, when, onResultReceived);
 		String programsUrl = getProgramsUrl(channelId, when, offset, count);
-		Log.i(TAG, ".getPrograms: channel = " + channel + ", when = " + Calendars.makeString(when) + ", offset = "
-		        + offset + ", count = " + count + " -> " + programsUrl);
-		JsonObjectRequest request = new JsonObjectRequest(programsUrl, null, programsResponse, programsResponse);
-		Environment.getInstance().getRequestQueue().add(request);
+		Log.i(TAG, ".getPrograms: channel = %s, when = %s, offset = %d, count = %d -> %s", channel,
+		        Calendars.makeString(when), offset, count, programsUrl);
+		Environment.getInstance().getRequestQueue()
+		        .add(JsonTable.createRequest(programsUrl, _jsonParser, _parseExecutor, programsResponse));
+	}
+
+	/**
+	 * @return the number of programs requests served from the programs cache
+	 */
+	public int getProgramsCacheHits()
+	{
+		return _programsCache.getHits();
+	}
+
+	/**
+	 * @return the number of programs requests not found in the programs cache
+	 */
+	public int getProgramsCacheMisses()
+	{
+		return _programsCache.getMisses();
 	}
 
 	public void getPrograms(Calendar when, int offset, int count, OnResultReceived onResultReceived)
@@ -400,48 +655,125 @@ public abstract class FeatureEPG extends FeatureComponent
 		getPrograms(channel, null, 0, 0, onResultReceived);
 	}
 
-	private class ProgramsResponse implements Response.Listener<JSONObject>, Response.ErrorListener
+	// the rows are parsed into columns on a parser thread, the programs are
+	// created on the main thread
+	private class ProgramsResponse implements JsonTable.OnTableReceived
 	{
 		private OnResultReceived _onResultReceived;
 		private String _channelId;
 		private Calendar _when;
-		private int _offset;
-		private int _count;
-
-		ProgramsResponse(String channelId, Calendar when, int offset, int count, OnResultReceived onResultReceived)
+		private Program.MetaData _metaData;
+		private long _programRangeMin;
+		private long _programRangeMax;
+		private List<String[]> _rows = new ArrayList<String[]>();
+		private long[] _startTimes = new long[64];
+		private long[] _stopTimes = new long[64];
+		private int _nPrograms;
+		private int _skippedPrograms;
+		private long _processStart = System.nanoTime();
+
+		ProgramsResponse(String channelId, Calendar when, OnResultReceived onResultReceived)
 		{
 			_channelId = channelId;
 			_when = when;
-			_offset = offset;
-			_count = count;
 			_onResultReceived = onResultReceived;
+
+			Calendar programRangeMin = Calendar.getInstance(_featureTimeZone.getTimeZone());
+			Calendar programRangeMax = Calendar.getInstance(_featureTimeZone.getTimeZone());
+			programRangeMin.add(Calendar.DATE, -getPrefs().getInt(Param.PROGRAM_RANGE_MIN_DAYS));
+			programRangeMax.add(Calendar.DATE, getPrefs().getInt(Param.PROGRAM_RANGE_MAX_DAYS));
+			_programRangeMin = programRangeMin.getTimeInMillis() / 1000;
+			_programRangeMax = programRangeMax.getTimeInMillis() / 1000;
 		}
 
 		@Override
-		public void onResponse(JSONObject response)
+		public void onMeta(String[] meta) throws IOException
 		{
+			_processStart = System.nanoTime();
+			_metaData = indexProgramMeta(meta);
+		}
+
+		@Override
+		public void onRow(String[] values)
+		{
+			_nPrograms++;
 			try
 			{
-				Program.MetaData metaData = createProgramMetaData();
-				JSONArray jsonArr = response.getJSONArray("meta");
-				String[] meta = new String[jsonArr.length()];
-				for (int i = 0; i < jsonArr.length(); i++)
-					meta[i] = jsonArr.get(i).toString();
-				indexProgramMetaData(metaData, meta);
-				List<Program> programs = parseProgramData(metaData, _channelId, _when, _offset, _count,
-				        response.getJSONArray("data"));
-				_onResultReceived.onReceiveResult(FeatureError.OK(FeatureEPG.this), programs);
-
-				// add programs to cache
-				_programsCache.putPrograms(_channelId, _offset, _count, programs);
+				long start = Calendars.parseUTCTime(values[_metaData.metaStart]);
+
+				// skip programs outside the desired limit
+				if (start < _programRangeMin || start > _programRangeMax)
+				{
+					_skippedPrograms++;
+					return;
+				}
+				long stop = Calendars.parseUTCTime(values[_metaData.metaStop]);
+
+				int count = _rows.size();
+				if (count == _startTimes.length)
+				{
+					_startTimes = Arrays.copyOf(_startTimes, 2 * count);
+					_stopTimes = Arrays.copyOf(_stopTimes, 2 * count);
+				}
+				_startTimes[count] = start;
+				_stopTimes[count] = stop;
+				_rows.add(values);
+			}
+			catch (ParseException e)
+			{
+				Log.w(TAG, e.getMessage(), e);
 			}
-			catch (JSONException e)
+		}
+
+		@Override
+		public void onTableReceived()
+		{
+			List<Program> programs = new ArrayList<Program>(_rows.size());
+			Calendar minStartTime = null;
+			Calendar maxStartTime = null;
+			for (int i = 0; i < _rows.size(); i++)
 			{
-				// Load channels failed, notify error
-				Log.e(TAG, e.getMessage(), e);
-				_onResultReceived
-				        .onReceiveResult(new FeatureError(FeatureEPG.this, ResultCode.PROTOCOL_ERROR, e), null);
+				Program program = createProgram(_metaData, _channelId, _startTimes[i], _stopTimes[i], _rows.get(i));
+				if (program == null)
+				{
+					_skippedPrograms++;
+					continue;
+				}
+				programs.add(program);
+
+				if (minStartTime == null || minStartTime.after(program.getStartTime()))
+					minStartTime = program.getStartTime();
+				if (maxStartTime == null || maxStartTime.before(program.getStartTime()))
+					maxStartTime = program.getStartTime();
 			}
+
+			long processEnd = System.nanoTime();
+			double processTime = (processEnd - _processStart) / 1000000000.0;
+			Log.d(TAG, "Parsed %d program items from channel %s for %s sec with %s parser, skipped = %d", _nPrograms,
+			        _channelId, processTime, _jsonParser, _skippedPrograms);
+
+			if (_minDate != null && minStartTime != null && _minDate.after(minStartTime))
+			{
+				_minDate = minStartTime;
+			}
+
+			if (_maxDate != null && maxStartTime != null && _maxDate.before(maxStartTime))
+			{
+				_maxDate = maxStartTime;
+			}
+
+			_onResultReceived.onReceiveResult(FeatureError.OK(FeatureEPG.this), programs);
+
+			// add programs to cache
+			_programsCache.putPrograms(_channelId, _when, programs);
+		}
+
+		@Override
+		public void onTableError(Exception e)
+		{
+			// Load programs failed, notify error
+			Log.e(TAG, e.getMessage(), e);
+			_onResultReceived.onReceiveResult(new FeatureError(FeatureEPG.this, ResultCode.PROTOCOL_ERROR, e), null);
 		}
 
 		@Override
@@ -549,46 +881,29 @@ public abstract class FeatureEPG extends FeatureComponent
 		}
 	}
 
-	private void parseChannelData(Channel.MetaData metaData, JSONArray data) throws JSONException
+	private void parseChannelData(Channel.MetaData metaData, String[] values, Bitmap logo)
 	{
-		int nChannels = (_maxChannels > 0) ? _maxChannels : data.length();
-		for (int i = 0; i < nChannels; i++)
-		{
-			JSONArray jsonArr = data.getJSONArray(i);
-			String[] values = new String[jsonArr.length()];
-			for (int j = 0; j < jsonArr.length(); j++)
-			{
-				if (jsonArr.get(j) != null)
-				{
-					if (!jsonArr.isNull(j))
-						values[j] = jsonArr.get(j).toString();
-				}
-			}
-
-			Channel channel = createChannel();
-			channel.setChannelId(values[metaData.metaChannelId]);
-			channel.setTitle(values[metaData.metaChannelTitle]);
+		Channel channel = createChannel();
+		channel.setChannelId(values[metaData.metaChannelId]);
+		channel.setTitle(values[metaData.metaChannelTitle]);
 
-			if (values[metaData.metaChannelLogo] != null)
-			{
-				channel.setChannelImageBase64(Channel.LOGO_NORMAL, values[metaData.metaChannelLogo]);
-				byte[] decodedString = Base64.decode(values[metaData.metaChannelLogo], Base64.DEFAULT);
-				channel.setChannelImage(Channel.LOGO_NORMAL,
-				        BitmapFactory.decodeByteArray(decodedString, 0, decodedString.length));
-			}
-			try
-			{
-				channel.setAttributes(metaData, values);
-			}
-			catch (Exception e)
-			{
-				// invalid channel attributes, skip this channel
-				Log.w(TAG, e.getMessage(), e);
-			}
-
-			// add channel must be called after channel object has assigned id
-			addChannel(channel);
+		if (values[metaData.metaChannelLogo] != null)
+		{
+			channel.setChannelImageBase64(Channel.LOGO_NORMAL, values[metaData.metaChannelLogo]);
+			channel.setChannelImage(Channel.LOGO_NORMAL, logo);
 		}
+		try
+		{
+			channel.setAttributes(metaData, values);
+		}
+		catch (Exception e)
+		{
+			// invalid channel attributes, skip this channel
+			Log.w(TAG, e.getMessage(), e);
+		}
+
+		// add channel must be called after channel object has assigned id
+		addChannel(channel);
 	}
 
 	protected void indexProgramMetaData(Program.MetaData metaData, String[] meta)
@@ -608,93 +923,86 @@ public abstract class FeatureEPG extends FeatureComponent
 		}
 	}
 
-	private List<Program> parseProgramData(Program.MetaData metaData, final String channelId, Calendar when,
-	        int offset, int count, final JSONArray data) throws JSONException
+	/**
+	 * @return new program created from the row values or null if its channel
+	 *         is not available
+	 */
+	private Program createProgram(Program.MetaData metaData, String channelId, long start, long stop,
+	        String[] values)
 	{
-		long processStart = System.nanoTime();
-
-		List<Program> programList = new ArrayList<Program>(data.length());
+		String id = new String(values[metaData.metaStart]);
 
-		Calendar programRangeMin = Calendar.getInstance(_featureTimeZone.getTimeZone());
-		Calendar programRangeMax = Calendar.getInstance(_featureTimeZone.getTimeZone());
-		programRangeMin.add(Calendar.DATE, -getPrefs().getInt(Param.PROGRAM_RANGE_MIN_DAYS));
-		programRangeMax.add(Calendar.DATE, getPrefs().getInt(Param.PROGRAM_RANGE_MAX_DAYS));
+		Channel channel;
+		if (channelId != null)
+			channel = getChannelById(channelId);
+		else
+			channel = getChannelById(values[metaData.metaChannel]);
 
-		int skippedPrograms = 0;
-		for (int i = 0; i < data.length(); i++)
+		if (channel == null)
 		{
-			try
-			{
-				JSONArray jsonArr = data.getJSONArray(i);
-				Calendar startTime = Calendar.getInstance();
-				startTime.setTime(_sdfUTC.parse(jsonArr.getString(metaData.metaStart)));
-
-				// skip programs outside the desired limit
-				if (startTime.before(programRangeMin) || startTime.after(programRangeMax))
-				{
-					skippedPrograms++;
-					continue;
-				}
-
-				if (_minDate != null && _minDate.after(startTime))
-				{
-					_minDate = startTime;
-				}
-
-				if (_maxDate != null && _maxDate.before(startTime))
-				{
-					_maxDate = startTime;
-				}
-
-				Calendar stopTime = Calendar.getInstance();
-				stopTime.setTime(_sdfUTC.parse(jsonArr.getString(metaData.metaStop)));
-
-				String id = new String(jsonArr.getString(metaData.metaStart));
+			// program channel is not available
+			return null;
+		}
 
-				Channel channel;
-				if (channelId != null)
-					channel = getChannelById(channelId);
-				else
-					channel = getChannelById(data.getJSONArray(i).getString(metaData.metaChannel));
+		Program program = createProgram(id, channel);
+		if (values[metaData.metaTitle] != null)
+			program.setTitle(new String(values[metaData.metaTitle]));
+		Calendar startTime = Calendar.getInstance();
+		startTime.setTimeInMillis(1000 * start);
+		program.setStartTime(startTime);
+		Calendar stopTime = Calendar.getInstance();
+		stopTime.setTimeInMillis(1000 * stop);
+		program.setStopTime(stopTime);
+
+		// set custom provider attributes
+		program.setDetailAttributes(metaData, values);
+		return program;
+	}
 
-				if (channel == null)
+	// creates channel meta data with the overridable methods on the main
+	// thread, called by the parser threads
+	private Channel.MetaData indexChannelMeta(final String[] meta) throws IOException
+	{
+		try
+		{
+			return _parseExecutor.callMain(new Callable<Channel.MetaData>()
+			{
+				@Override
+				public Channel.MetaData call()
 				{
-					// program channel is not available
-					continue;
+					Channel.MetaData metaData = createChannelMetaData();
+					indexChannelMetaData(metaData, meta);
+					return metaData;
 				}
+			});
+		}
+		catch (InterruptedException e)
+		{
+			throw new InterruptedIOException("Interrupted while indexing channels meta");
+		}
+	}
 
-				Program program = createProgram(id, channel);
-				if (!jsonArr.isNull(metaData.metaTitle))
-					program.setTitle(new String(jsonArr.getString(metaData.metaTitle)));
-				program.setStartTime(startTime);
-				program.setStopTime(stopTime);
-
-				String[] values = new String[jsonArr.length()];
-				for (int j = 0; j < jsonArr.length(); j++)
+	// creates program meta data with the overridable methods on the main
+	// thread, called by the parser threads
+	private Program.MetaData indexProgramMeta(final String[] meta) throws IOException
+	{
+		try
+		{
+			return _parseExecutor.callMain(new Callable<Program.MetaData>()
+			{
+				@Override
+				public Program.MetaData call()
 				{
-					if (jsonArr.get(j) != null)
-					{
-						if (!jsonArr.isNull(j))
-							values[j] = jsonArr.get(j).toString();
-					}
+					Program.MetaData metaData = createProgramMetaData();
+					indexProgramMetaData(metaData, meta);
+					return metaData;
 				}
-
-				// set custom provider attributes
-				program.setDetailAttributes(metaData, values);
-				programList.add(program);
-			}
-			catch (ParseException e)
-			{
-				Log.w(TAG, e.getMessage(), e);
-			}
+			});
+		}
+		catch (InterruptedException e)
+		{
+			throw new InterruptedIOException("Interrupted while indexing programs meta");
 		}
-
-		long processEnd = System.nanoTime();
-		double processTime = (processEnd - processStart) / 1000000000.0;
-		Log.d(TAG, "Parsed " + data.length() + " program items from channel " + channelId + " for " + processTime
-		        + " sec, skipped = " + skippedPrograms);
-
-		return programList;
 	}
 
 	protected String getChannelsUrl()
@@ -724,9 +1032,7 @@ public abstract class FeatureEPG extends FeatureComponent
 			sb.append("?when=");
 
 			// format when and convert to GMT
-			SimpleDateFormat sdf = new SimpleDateFormat("yyyyMMddHHmmss", Locale.US);
-			sdf.setTimeZone(TimeZone.getTimeZone("UTC"));
-			sb.append(sdf.format(when.getTime()));
+			sb.append(Calendars.formatUTCTime(when.getTimeInMillis() / 1000));
 
 			sb.append("&offset=").append(offset);
 			sb.append("&count=").append(count);
@@ -741,14 +1047,33 @@ public abstract class FeatureEPG extends FeatureComponent
 	 * @param program
 	 * @param onResultReceived
 	 */
-	public void getProgramDetails(String channelId, String programId, OnResultReceived onResultReceived)
+	public void getProgramDetails(final String channelId, final String programId,
+	        final OnResultReceived onResultReceived)
+	{
+		String key = ProgramDetailsCache.makeKey(_epgProvider, channelId, programId);
+		_programDetailsCache.load(new String[]
+		{ key }, new ProgramDetailsCache.OnDetailsLoaded()
+		{
+			@Override
+			public void onDetailsLoaded(JSONObject[] details)
+			{
+				Program program = createCachedProgram(channelId, programId, details[0]);
+				if (program != null)
+					onResultReceived.onReceiveResult(FeatureError.OK(FeatureEPG.this), program);
+				else
+					retrieveProgramDetails(channelId, programId, onResultReceived);
+			}
+		});
+	}
+
+	private void retrieveProgramDetails(String channelId, String programId, OnResultReceived onResultReceived)
 	{
 		String programDetailsUrl = getProgramDetailsUrl(channelId, programId);
-		Log.i(TAG, "Retrieving program details of " + channelId + "/" + programId + " from " + programDetailsUrl);
+		Log.i(TAG, "Retrieving program details of %s/%s from %s", channelId, programId, programDetailsUrl);
 
 		Channel channel = getChannelById(channelId);
 
-		Log.i(TAG, "Channel created:" + channel);
+		Log.i(TAG, "Channel created:%s", channel);
 		ProgramDetailsResponseCallback responseCallback = new ProgramDetailsResponseCallback(channel, programId,
 		        onResultReceived);
 
@@ -765,86 +1090,344 @@ public abstract class FeatureEPG extends FeatureComponent
 				return headers;
 			}
 		};
-		Log.i(TAG, " _programDetailsRequest:" + _programDetailsRequest.toString());
+		responseCallback.setRequest(_programDetailsRequest);
+		Log.i(TAG, " _programDetailsRequest:%s", _programDetailsRequest);
 
 		// retrieves program details from the global request queue
 		Environment.getInstance().getRequestQueue().add(_programDetailsRequest);
 	}
 
 	/**
-	 * Load multiple detailed programs
+	 * Load multiple detailed programs. Programs with details in the program
+	 * details cache are not requested. The rest are requested in batches if
+	 * the provider has a batch details url, otherwise with a limited number
+	 * of concurrent keep-alive requests.
 	 *
 	 * @param channelIds
 	 *            String array with corresponding channel ids
 	 * @param programIds
 	 *            String array with corresponding program ids
 	 * @param onResultReceived
+	 *            receives list of the loaded programs in the order of the
+	 *            requested ids, the programs failed to load are left out
 	 */
-	public void getMultiplePrograms(final List<String> channelIds, final List<String> programIds,
-	        final OnResultReceived onResultReceived)
+	public void getMultiplePrograms(List<String> channelIds, List<String> programIds,
+	        OnResultReceived onResultReceived)
+	{
+		getMultiplePrograms(channelIds, programIds, null, onResultReceived);
+	}
+
+	/**
+	 * @param tag
+	 *            tags the program details requests, null for requests which
+	 *            are not canceled
+	 */
+	private void getMultiplePrograms(final List<String> channelIds, final List<String> programIds,
+	        final Object tag, final OnResultReceived onResultReceived)
 	{
 		if (channelIds.size() != programIds.size())
 			throw new IllegalArgumentException("Number of channel ids must be equal to the number of program ids");
 
-		if (channelIds.size() == 0)
+		String[] keys = new String[programIds.size()];
+		for (int i = 0; i < keys.length; i++)
+			keys[i] = ProgramDetailsCache.makeKey(_epgProvider, channelIds.get(i), programIds.get(i));
+		_programDetailsCache.load(keys, new ProgramDetailsCache.OnDetailsLoaded()
+		{
+			@Override
+			public void onDetailsLoaded(JSONObject[] details)
+			{
+				// the prefetch was canceled while loading from the disk
+				if (tag != null && tag != _prefetchTag)
+					return;
+				retrieveMultiplePrograms(channelIds, programIds, details, tag, onResultReceived);
+			}
+		});
+	}
+
+	private void retrieveMultiplePrograms(List<String> channelIds, List<String> programIds, JSONObject[] details,
+	        Object tag, OnResultReceived onResultReceived)
+	{
+		MultipleProgramsResult result = new MultipleProgramsResult(programIds.size(), onResultReceived);
+		List<Integer> missingIndices = new ArrayList<Integer>();
+		for (int i = 0; i < programIds.size(); i++)
+		{
+			Program program = createCachedProgram(channelIds.get(i), programIds.get(i), details[i]);
+			if (program != null)
+				result.programs[i] = program;
+			else
+				missingIndices.add(i);
+		}
+		Log.i(TAG, ".getMultiplePrograms: %d programs, %d not cached", programIds.size(), missingIndices.size());
+		result.pending = missingIndices.size();
+		if (result.pending == 0)
 		{
-			// return empty list with success status
-			onResultReceived.onReceiveResult(FeatureError.OK(this), new ArrayList<Program>());
+			result.deliver();
 			return;
 		}
 
-		final int nPrograms = programIds.size();
-		final Map<String, Program> programsMap = new HashMap<String, Program>();
-		final int[] responseCount = new int[1];
+		int batchSize = getPrefs().getInt(Param.PROGRAM_DETAILS_BATCH_SIZE);
+		for (int from = 0; from < missingIndices.size(); from += batchSize)
+		{
+			List<Integer> batchIndices = missingIndices.subList(from,
+			        Math.min(from + batchSize, missingIndices.size()));
+			List<String> batchChannelIds = new ArrayList<String>(batchIndices.size());
+			List<String> batchProgramIds = new ArrayList<String>(batchIndices.size());
+			for (int index : batchIndices)
+			{
+				batchChannelIds.add(channelIds.get(index));
+				batchProgramIds.add(programIds.get(index));
+			}
+
+			String batchUrl = getProgramsDetailsUrl(batchChannelIds, batchProgramIds);
+			if (batchUrl != null)
+			{
+				retrieveProgramsDetails(batchUrl, batchChannelIds, batchProgramIds, new ArrayList<Integer>(
+				        batchIndices), tag, result);
+			}
+			else
+			{
+				for (int i = 0; i < batchIndices.size(); i++)
+				{
+					_programDetailsPipeline.add(batchChannelIds.get(i), batchProgramIds.get(i), batchIndices.get(i),
+					        tag, result);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Override to build provider specific url of multiple program details
+	 *
+	 * @return url of the details of multiple programs or null if the provider
+	 *         doesn't support batch requests of program details
+	 */
+	protected String getProgramsDetailsUrl(List<String> channelIds, List<String> programIds)
+	{
+		String urlTemplate = getPrefs().getString(Param.EPG_PROGRAMS_DETAILS_URL);
+		if (TextUtils.isEmpty(urlTemplate))
+			return null;
 
-		for (int i = 0; i < nPrograms; i++)
+		StringBuffer ids = new StringBuffer();
+		for (int i = 0; i < programIds.size(); i++)
 		{
-			final String channelId = channelIds.get(i);
-			final String programId = programIds.get(i);
+			if (i > 0)
+				ids.append(',');
+			ids.append(Uri.encode(channelIds.get(i))).append('/').append(Uri.encode(programIds.get(i)));
+		}
 
-			String programDetailsUrl = getProgramDetailsUrl(channelId, programId);
-			Channel channel = getChannelById(channelId);
-			ProgramDetailsResponseCallback responseCallback = new ProgramDetailsResponseCallback(channel, programId,
-			        new OnResultReceived()
-			        {
-				        @Override
-				        public void onReceiveResult(FeatureError error, Object object)
-				        {
-					        if (!error.isError())
-					        {
-						        programsMap.put(channelId + programId, (Program) object);
-					        }
-					        else
-					        {
-						        Log.e(TAG, error.getMessage(), error);
-					        }
-					        responseCount[0]++;
-					        if (responseCount[0] == nPrograms)
-					        {
-						        List<Program> programs = new ArrayList<Program>();
-						        for (int j = 0; j < nPrograms; j++)
-						        {
-							        programs.add(programsMap.get(channelIds.get(j) + programIds.get(j)));
-						        }
-						        onResultReceived.onReceiveResult(FeatureError.OK(FeatureEPG.this), programs);
-					        }
-				        }
-			        });
+		Bundle bundle = new Bundle();
+		bundle.putString("SERVER", _epgServer);
+		bundle.putInt("VERSION", _epgVersion);
+		bundle.putString("PROVIDER", _epgProvider);
+		bundle.putString("IDS", ids.toString());
+		return getPrefs().getString(Param.EPG_PROGRAMS_DETAILS_URL, bundle);
+	}
 
-			JsonObjectRequest programDetailsRequest = new JsonObjectRequest(Request.Method.GET, programDetailsUrl,
-			        null, responseCallback, responseCallback)
+	private void retrieveProgramsDetails(String url, final List<String> channelIds, final List<String> programIds,
+	        final List<Integer> indices, Object tag, final MultipleProgramsResult result)
+	{
+		Log.i(TAG, "Retrieving details of %d programs from %s", programIds.size(), url);
+		ParseExecutor.Parser<JSONArray> parser = new ParseExecutor.Parser<JSONArray>()
+		{
+			@Override
+			public JSONArray parse(NetworkResponse response) throws Exception
 			{
-				@Override
-				public Map<String, String> getHeaders() throws AuthFailureError
+				return new JSONArray(new String(response.data, HttpHeaderParser.parseCharset(response.headers)));
+			}
+		};
+		ParseExecutor.OnParsed<JSONArray> onParsed = new ParseExecutor.OnParsed<JSONArray>()
+		{
+			@Override
+			public void onParsed(JSONArray response)
+			{
+				// key = channel id/program id, value = program details
+				Map<String, JSONObject> detailsMap = new HashMap<String, JSONObject>();
+				for (int i = 0; i < response.length(); i++)
 				{
-					Map<String, String> headers = new HashMap<String, String>();
-					headers.put("Connection", "close");
-					return headers;
+					JSONObject details = response.optJSONObject(i);
+					if (details != null)
+						detailsMap.put(details.optString("channel") + '/' + details.optString("id"), details);
 				}
-			};
+
+				for (int i = 0; i < programIds.size(); i++)
+				{
+					String channelId = channelIds.get(i);
+					String programId = programIds.get(i);
+					JSONObject details = detailsMap.get(channelId + '/' + programId);
+					Program program = null;
+					if (details != null)
+					{
+						try
+						{
+							program = createProgramDetails(getChannelById(channelId), programId, details);
+							cacheProgramDetails(program, details);
+						}
+						catch (Exception e)
+						{
+							Log.e(TAG, e.getMessage(), e);
+						}
+					}
+					else
+					{
+						Log.w(TAG, "Missing details of program " + channelId + "/" + programId);
+					}
+					result.onProgram(indices.get(i), program);
+				}
+			}
+
+			@Override
+			public void onParseError(Exception e)
+			{
+				Log.e(TAG, e.getMessage(), e);
+				for (int index : indices)
+					result.onProgram(index, null);
+			}
+
+			@Override
+			public void onErrorResponse(VolleyError error)
+			{
+				Log.e(TAG, "Error retrieving details of " + programIds.size() + " programs: " + error);
+				for (int index : indices)
+					result.onProgram(index, null);
+			}
+		};
+		Request<?> request = new ParseExecutor.RawRequest<JSONArray>(_parseExecutor, Request.Method.GET, url,
+		        parser, onParsed);
+		if (tag != null)
+			request.setTag(tag);
+		Environment.getInstance().getRequestQueue().add(request);
+	}
+
+	/**
+	 * Collects the programs requested by getMultiplePrograms
+	 */
+	private class MultipleProgramsResult
+	{
+		final Program[] programs;
+		final OnResultReceived onResultReceived;
+		int pending;
+
+		MultipleProgramsResult(int nPrograms, OnResultReceived onResultReceived)
+		{
+			programs = new Program[nPrograms];
+			this.onResultReceived = onResultReceived;
+		}
+
+		void onProgram(int index, Program program)
+		{
+			programs[index] = program;
+			pending--;
+			if (pending == 0)
+				deliver();
+		}
+
+		void deliver()
+		{
+			List<Program> programList = new ArrayList<Program>(programs.length);
+			for (Program program : programs)
+				if (program != null)
+					programList.add(program);
+			onResultReceived.onReceiveResult(FeatureError.OK(FeatureEPG.this), programList);
+		}
+	}
+
+	/**
+	 * Retrieves program details with limited number of concurrent keep-alive
+	 * requests
+	 */
+	private class ProgramDetailsPipeline
+	{
+		private final LinkedList<PipelineRequest> _pending = new LinkedList<PipelineRequest>();
+		private final List<PipelineRequest> _active = new ArrayList<PipelineRequest>();
+		private int _maxRequests;
+
+		void setMaxRequests(int maxRequests)
+		{
+			_maxRequests = Math.max(1, maxRequests);
+		}
+
+		void add(String channelId, String programId, int index, Object tag, MultipleProgramsResult result)
+		{
+			_pending.add(new PipelineRequest(channelId, programId, index, tag, result));
+			next();
+		}
+
+		/**
+		 * Cancels the pending and the active requests added with tag
+		 */
+		void cancel(Object tag)
+		{
+			for (Iterator<PipelineRequest> it = _pending.iterator(); it.hasNext();)
+				if (it.next().tag == tag)
+					it.remove();
+			for (Iterator<PipelineRequest> it = _active.iterator(); it.hasNext();)
+			{
+				PipelineRequest pipelineRequest = it.next();
+				if (pipelineRequest.tag == tag)
+				{
+					pipelineRequest.request.cancel();
+					it.remove();
+				}
+			}
+			next();
+		}
+
+		private void next()
+		{
+			while (_active.size() < _maxRequests && !_pending.isEmpty())
+			{
+				PipelineRequest pipelineRequest = _pending.removeFirst();
+				_active.add(pipelineRequest);
+				pipelineRequest.request = retrieveProgramDetails(pipelineRequest.channelId,
+				        pipelineRequest.programId, pipelineRequest);
+			}
+		}
+
+		private Request<?> retrieveProgramDetails(String channelId, String programId,
+		        OnResultReceived onResultReceived)
+		{
+			String programDetailsUrl = getProgramDetailsUrl(channelId, programId);
+			ProgramDetailsResponseCallback responseCallback = new ProgramDetailsResponseCallback(
+			        getChannelById(channelId), programId, onResultReceived);
+
+			// the connection is kept alive for the next pipelined request
+			JsonObjectRequest programDetailsRequest = new JsonObjectRequest(Request.Method.GET, programDetailsUrl,
+			        null, responseCallback, responseCallback);
 
 			// retrieves program details from the global request queue
 			Environment.getInstance().getRequestQueue().add(programDetailsRequest);
+			return programDetailsRequest;
+		}
+
+		private class PipelineRequest implements OnResultReceived
+		{
+			final String channelId;
+			final String programId;
+			final int index;
+			final Object tag;
+			final MultipleProgramsResult result;
+			Request<?> request;
+
+			PipelineRequest(String channelId, String programId, int index, Object tag, MultipleProgramsResult result)
+			{
+				this.channelId = channelId;
+				this.programId = programId;
+				this.index = index;
+				this.tag = tag;
+				this.result = result;
+			}
+
+			@Override
+			public void onReceiveResult(FeatureError error, Object object)
+			{
+				// canceled
+				if (!_active.remove(this))
+					return;
+				if (error.isError())
+					Log.e(TAG, error.getMessage(), error);
+				result.onProgram(index, error.isError() ? null : (Program) object);
+				next();
+			}
 		}
 	}
 
@@ -860,12 +1443,117 @@ public abstract class FeatureEPG extends FeatureComponent
 		return getPrefs().getString(Param.EPG_PROGRAM_DETAILS_URL, bundle);
 	}
 
+	/**
+	 * Creates program from program details
+	 */
+	private Program createProgramDetails(Channel channel, String programId, JSONObject details) throws JSONException,
+	        ParseException
+	{
+		Program program = createProgram(programId, channel);
+		program.setTitle(details.getString("title"));
+		Calendar startTime = Calendar.getInstance();
+		startTime.setTimeInMillis(1000 * Calendars.parseUTCTime(programId));
+		program.setStartTime(startTime);
+		Calendar stopTime = Calendar.getInstance();
+		stopTime.setTimeInMillis(1000 * Calendars.parseUTCTime(details.getString("stop")));
+		program.setStopTime(stopTime);
+		program.setDetails(details);
+		return program;
+	}
+
+	/**
+	 * @return program created from cached program details or null if the
+	 *         details are not cached or invalid
+	 */
+	private Program createCachedProgram(String channelId, String programId, JSONObject details)
+	{
+		if (details == null)
+			return null;
+		try
+		{
+			return createProgramDetails(getChannelById(channelId), programId, details);
+		}
+		catch (Exception e)
+		{
+			Log.w(TAG, "Invalid cached details of program " + channelId + "/" + programId + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Adds program details to the program details cache until the program
+	 * stops
+	 */
+	private void cacheProgramDetails(Program program, JSONObject details)
+	{
+		if (program.getChannel() == null)
+			return;
+		String key = ProgramDetailsCache.makeKey(_epgProvider, program.getChannel().getChannelId(), program.getId());
+		_programDetailsCache.put(key, program.getStopTime().getTimeInMillis() / 1000, details);
+	}
+
+	/**
+	 * Prefetches the details of the current and the next program of a channel,
+	 * e.g. the focused channel. Cancels the previous prefetch.
+	 */
+	public void prefetchProgramDetails(Channel channel)
+	{
+		cancelPrefetch();
+		if (channel == null)
+			return;
+		final Object tag = new Object();
+		_prefetchTag = tag;
+		getPrograms(channel, Calendar.getInstance(), 0, 2, new OnResultReceived()
+		{
+			@Override
+			public void onReceiveResult(FeatureError error, Object object)
+			{
+				if (error.isError() || tag != _prefetchTag)
+					return;
+				@SuppressWarnings("unchecked")
+				List<Program> programs = (List<Program>) object;
+				List<String> channelIds = new ArrayList<String>(programs.size());
+				List<String> programIds = new ArrayList<String>(programs.size());
+				for (Program program : programs)
+				{
+					channelIds.add(program.getChannel().getChannelId());
+					programIds.add(program.getId());
+				}
+				getMultiplePrograms(channelIds, programIds, tag, new OnResultReceived()
+				{
+					@Override
+					public void onReceiveResult(FeatureError error, Object object)
+					{
+						Log.d(TAG, ".prefetchProgramDetails: " + error);
+						if (tag == _prefetchTag)
+							_prefetchTag = null;
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Cancels the outstanding program details prefetch requests
+	 */
+	private void cancelPrefetch()
+	{
+		if (_prefetchTag == null)
+			return;
+		Environment.getInstance().getRequestQueue().cancelAll(_prefetchTag);
+		_programDetailsPipeline.cancel(_prefetchTag);
+		_prefetchTag = null;
+	}
+
 	private class ProgramDetailsResponseCallback implements Response.Listener<JSONObject>, Response.ErrorListener
 	{
 		private Channel _channel;
 		String _programId;
 		private OnResultReceived _onResultReceived;
 
+		// the single program details request, null for the pipelined requests
+		private Request<?> _request;
+
 		ProgramDetailsResponseCallback(Channel channel, String programId, OnResultReceived onResultReceived)
 		{
 			_channel = channel;
@@ -873,20 +1561,18 @@ public abstract class FeatureEPG extends FeatureComponent
 			_onResultReceived = onResultReceived;
 		}
 
+		void setRequest(Request<?> request)
+		{
+			_request = request;
+		}
+
 		@Override
 		public void onResponse(JSONObject response)
 		{
-			Program program = createProgram(_programId, _channel);
 			try
 			{
-				program.setTitle(response.getString("title"));
-				Calendar startTime = Calendar.getInstance();
-				startTime.setTime(_sdfUTC.parse(_programId));
-				program.setStartTime(startTime);
-				Calendar stopTime = Calendar.getInstance();
-				stopTime.setTime(_sdfUTC.parse(response.getString("stop")));
-				program.setStopTime(stopTime);
-				program.setDetails(response);
+				Program program = createProgramDetails(_channel, _programId, response);
+				cacheProgramDetails(program, response);
 				_onResultReceived.onReceiveResult(FeatureError.OK, program);
 			}
 			catch (Exception e)
@@ -894,7 +1580,7 @@ public abstract class FeatureEPG extends FeatureComponent
 				Log.e(TAG, e.getMessage(), e);
 				_onResultReceived.onReceiveResult(new FeatureError(FeatureEPG.this, e), null);
 			}
-			_programDetailsRequest = null;
+			onRequestFinished();
 		}
 
 		@Override
@@ -904,7 +1590,14 @@ public abstract class FeatureEPG extends FeatureComponent
 			        : ResultCode.GENERAL_FAILURE;
 			Log.e(TAG, "Error retrieving program details of " + _channel.getChannelId() + "/" + _programId + ": " + statusCode + ": " + error);
 			_onResultReceived.onReceiveResult(new FeatureError(FeatureEPG.this, statusCode, error), null);
-			_programDetailsRequest = null;
+			onRequestFinished();
+		}
+
+		// keeps the cancel handle of a newer single request
+		private void onRequestFinished()
+		{
+			if (_request != null && _programDetailsRequest == _request)
+				_programDetailsRequest = null;
 		}
 	}
 
@@ -1037,4 +1730,97 @@ public abstract class FeatureEPG extends FeatureComponent
 			return Command.GET_PROGRAM_DETAILS.name();
 		}
 	}
+
+	/**
+	 * Compares program times parsing and formatting with SimpleDateFormat and
+	 * Calendars
+	 */
+	protected class OnCommandBenchmarkTimeParser implements CommandHandler
+	{
+		private static final int DEFAULT_ITERATIONS = 100000;
+		private static final int SAMPLES = 1024;
+
+		@Override
+		public void execute(Bundle params, OnResultReceived onResultReceived)
+		{
+			int iterations = DEFAULT_ITERATIONS;
+			String iterationsStr = params.getString(CommandBenchmarkTimeParserExtras.ITERATIONS.name());
+			if (iterationsStr != null)
+			{
+				try
+				{
+					iterations = Integer.parseInt(iterationsStr);
+				}
+				catch (NumberFormatException e)
+				{
+					Log.w(TAG, e.getMessage(), e);
+				}
+			}
+
+			// program ids of programs starting every 30 minutes from now
+			long now = System.currentTimeMillis() / 1000;
+			long[] timestamps = new long[SAMPLES];
+			String[] ids = new String[SAMPLES];
+			for (int i = 0; i < SAMPLES; i++)
+			{
+				timestamps[i] = now + i * 1800;
+				ids[i] = Calendars.formatUTCTime(timestamps[i]);
+			}
+
+			SimpleDateFormat sdfUTC = new SimpleDateFormat(Calendars.FORMAT_UTC_TIME, Locale.getDefault());
+			sdfUTC.setTimeZone(TimeZone.getTimeZone("UTC"));
+			char[] buffer = new char[ids[0].length()];
+			long checksum = 0;
+			try
+			{
+				long processStart = System.nanoTime();
+				for (int i = 0; i < iterations; i++)
+					checksum += sdfUTC.parse(ids[i % SAMPLES]).getTime() / 1000;
+				long sdfParseTime = System.nanoTime() - processStart;
+
+				processStart = System.nanoTime();
+				for (int i = 0; i < iterations; i++)
+					checksum -= Calendars.parseUTCTime(ids[i % SAMPLES]);
+				long calendarsParseTime = System.nanoTime() - processStart;
+
+				processStart = System.nanoTime();
+				for (int i = 0; i < iterations; i++)
+					checksum += sdfUTC.format(new Date(1000 * timestamps[i % SAMPLES])).length();
+				long sdfFormatTime = System.nanoTime() - processStart;
+
+				processStart = System.nanoTime();
+				for (int i = 0; i < iterations; i++)
+				{
+					Calendars.formatUTCTime(timestamps[i % SAMPLES], buffer, 0);
+					checksum -= buffer.length;
+				}
+				long calendarsFormatTime = System.nanoTime() - processStart;
+
+				JSONObject jsonResult = new JSONObject();
+				jsonResult.put("iterations", iterations);
+				jsonResult.put("sdf_parse_ms", sdfParseTime / 1000000);
+				jsonResult.put("calendars_parse_ms", calendarsParseTime / 1000000);
+				jsonResult.put("parse_speedup", (double) sdfParseTime / Math.max(1, calendarsParseTime));
+				jsonResult.put("sdf_format_ms", sdfFormatTime / 1000000);
+				jsonResult.put("calendars_format_ms", calendarsFormatTime / 1000000);
+				jsonResult.put("format_speedup", (double) sdfFormatTime / Math.max(1, calendarsFormatTime));
+
+				// non zero checksum means both implementations disagree
+				jsonResult.put("checksum", checksum);
+				Log.i(TAG, ".OnCommandBenchmarkTimeParser.execute: " + jsonResult);
+				onResultReceived.onReceiveResult(FeatureError.OK(FeatureEPG.this), jsonResult);
+			}
+			catch (Exception e)
+			{
+				Log.e(TAG, e.getMessage(), e);
+				onResultReceived.onReceiveResult(new FeatureError(FeatureEPG.this, e), null);
+			}
+		}
+
+		@Override
+		public String getId()
+		{
+			return Command.BENCHMARK_TIME_PARSER.name();
+		}
+	}
 }
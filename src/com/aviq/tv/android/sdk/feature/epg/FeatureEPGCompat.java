@@ -11,23 +11,17 @@
 package com.aviq.tv.android.sdk.feature.epg;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.ObjectInputStream;
 import java.io.UnsupportedEncodingException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.NavigableMap;
-import java.util.TimeZone;
-import java.util.TreeMap;
+import java.util.concurrent.Callable;
 
 import org.json.JSONObject;
 
@@ -50,6 +44,7 @@ import com.aviq.tv.android.sdk.core.Environment;
 import com.aviq.tv.android.sdk.core.EventMessenger;
 import com.aviq.tv.android.sdk.core.EventReceiver;
 import com.aviq.tv.android.sdk.core.Log;
+import com.aviq.tv.android.sdk.core.ParseExecutor;
 import com.aviq.tv.android.sdk.core.Prefs;
 import com.aviq.tv.android.sdk.core.ResultCode;
 import com.aviq.tv.android.sdk.core.feature.FeatureError;
@@ -60,9 +55,7 @@ import com.aviq.tv.android.sdk.core.feature.FeatureScheduler;
 import com.aviq.tv.android.sdk.core.feature.annotation.Author;
 import com.aviq.tv.android.sdk.feature.system.FeatureStandBy;
 import com.aviq.tv.android.sdk.feature.system.FeatureTimeZone;
-import com.esotericsoftware.kryo.Kryo;
-import com.esotericsoftware.kryo.io.Input;
-import com.esotericsoftware.kryo.io.Output;
+import com.aviq.tv.android.sdk.utils.Calendars;
 import com.google.gson.Gson;
 import com.google.gson.JsonSyntaxException;
 
@@ -76,6 +69,12 @@ public abstract class FeatureEPGCompat extends FeatureScheduler
 
 	public static final int ON_EPG_UPDATED = EventMessenger.ID("ON_EPG_UPDATED");
 
+	/**
+	 * Triggered by the application on the EPG feature messenger when a channel
+	 * gets focused with the channel id in FeatureEPG.EXTRA_CHANNEL_ID
+	 */
+	public static final int ON_CHANNEL_FOCUSED = FeatureEPG.ON_CHANNEL_FOCUSED;
+
 	public enum Provider
 	{
 		rayv, wilmaa, bulsat, zattoo
@@ -158,7 +157,40 @@ public abstract class FeatureEPGCompat extends FeatureScheduler
 		 * The number of days in future the program is allowed to be imported by
 		 * EPG
 		 */
-		PROGRAM_RANGE_MAX_DAYS(7);
+		PROGRAM_RANGE_MAX_DAYS(7),
+
+		/**
+		 * Keep the loaded EPG data on schedule and retrieve only the programs
+		 * of channels changed on the server since the last update
+		 */
+		DELTA_UPDATE(false),
+
+		/**
+		 * The number of threads parsing programs responses
+		 */
+		PARSER_THREADS(1),
+
+		/**
+		 * Delay in ms after the last channel focus before the details of the
+		 * channel programs are prefetched
+		 */
+		PROGRAM_DETAILS_PREFETCH_DELAY(500),
+
+		/**
+		 * The maximum number of programs with details kept in the program
+		 * details cache
+		 */
+		PROGRAM_DETAILS_CACHE_SIZE(256),
+
+		/**
+		 * The maximum size in bytes of the program details disk cache
+		 */
+		PROGRAM_DETAILS_DISK_CACHE_SIZE(4 * 1024 * 1024),
+
+		/**
+		 * Program details disk cache directory
+		 */
+		PROGRAM_DETAILS_CACHE_PATH("cache" + File.separator + "details");
 
 		Param(boolean value)
 		{
@@ -209,11 +241,73 @@ public abstract class FeatureEPGCompat extends FeatureScheduler
 	// error
 	private int _retrievedChannelPrograms;
 
-	protected EpgDataCompat _epgData;
-	protected EpgDataCompat _epgDataBeingLoaded;
+	protected IEpgDataProvider _epgData;
+	protected EpgDataColumnar _epgDataBeingLoaded;
+
+	// true if _epgDataBeingLoaded is a copy of _epgData merging the changed
+	// programs
+	private boolean _deltaUpdate;
+
 	private JsonObjectRequest _programDetailsRequest;
+	// tags the requests of the outstanding prefetch, null if none
+	private Object _prefetchTag;
+	private Runnable _prefetchRunnable;
 	private FeatureTimeZone _featureTimeZone;
 	private int _maxChannels = 0;
+	private ParseExecutor _parseExecutor;
+	private ProgramDetailsCache _programDetailsCache;
+
+	// programs meta data indexed on the main thread for the programs meta
+	// columns, passed to the programs parsers
+	private String[] _programMeta;
+	private Program.MetaData _programMetaData;
+
+	// key = channel id; value = ETag of the last retrieved channel programs,
+	// used by the delta update to skip channels not changed on the server
+	private Map<String, String> _programsETags = new HashMap<String, String>();
+
+	// creates provider specific EPG objects for the columnar EPG store and
+	// the EPG snapshot
+	private final EpgSnapshot.Factory _epgFactory = new EpgSnapshot.Factory()
+	{
+		@Override
+		public Program createProgram(String id, String providerId, Channel channel)
+		{
+			return FeatureEPGCompat.this.createProgram(id, providerId, channel);
+		}
+
+		@Override
+		public Channel createChannel(int index)
+		{
+			return FeatureEPGCompat.this.createChannel(index);
+		}
+
+		@Override
+		public String getProgramProviderId(Program program)
+		{
+			return FeatureEPGCompat.this.getProgramProviderId(program);
+		}
+
+		@Override
+		public String[] getChannelMeta()
+		{
+			return _channelMeta;
+		}
+
+		@Override
+		public Channel.MetaData createChannelMetaData(String[] meta)
+		{
+			// restoring from the snapshot
+			_channelMeta = meta;
+			Channel.MetaData metaData = FeatureEPGCompat.this.createChannelMetaData();
+			indexChannelMetaData(metaData, meta);
+			return metaData;
+		}
+	};
+
+	// names of the provider specific channel attributes of the loaded
+	// channels
+	private String[] _channelMeta;
 
 	public interface OnStreamURLReceived
 	{
@@ -241,6 +335,8 @@ public abstract class FeatureEPGCompat extends FeatureScheduler
 		_channelLogoHeight = getPrefs().getInt(Param.CHANNEL_LOGO_HEIGHT);
 		_requestQueue = Environment.getInstance().getRequestQueue();
 		_maxChannels = getPrefs().getInt(Param.MAX_CHANNELS);
+		_parseExecutor = new ParseExecutor(TAG, getPrefs().getInt(Param.PARSER_THREADS), getEventMessenger(),
+		        Environment.getInstance().getFeatureManager().getBootTrace());
 
 		// update epg on exiting standby
 		// FIXME: ...
@@ -257,9 +353,43 @@ public abstract class FeatureEPGCompat extends FeatureScheduler
 			}, FeatureStandBy.ON_STANDBY_LEAVE);
 		}
 
+		// the details of the focused channel programs are likely to be
+		// requested soon
+		getEventMessenger().register(new EventReceiver()
+		{
+			@Override
+			public void onEvent(int msgId, Bundle bundle)
+			{
+				// prefetches only the channel which keeps the focus
+				final String channelId = bundle.getString(FeatureEPG.EXTRA_CHANNEL_ID);
+				if (_prefetchRunnable != null)
+					getEventMessenger().removeCallbacks(_prefetchRunnable);
+				_prefetchRunnable = new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						_prefetchRunnable = null;
+						if (_epgData != null)
+							prefetchProgramDetails(_epgData.getChannel(channelId));
+					}
+				};
+				getEventMessenger().postDelayed(_prefetchRunnable,
+				        getPrefs().getInt(Param.PROGRAM_DETAILS_PREFETCH_DELAY));
+			}
+		}, ON_CHANNEL_FOCUSED);
+
 		onSchedule(onFeatureInitialized);
 	}
 
+	/**
+	 * @return executor parsing the EPG responses on background threads
+	 */
+	protected ParseExecutor getParseExecutor()
+	{
+		return _parseExecutor;
+	}
+
 	@Override
 	protected void onSchedule(OnFeatureInitialized onFeatureInitialized)
 	{
@@ -294,6 +424,60 @@ public abstract class FeatureEPGCompat extends FeatureScheduler
 	 * @param onProgramDetails
 	 */
 	public void getProgramDetails(String channelId, Program program, IOnProgramDetails onProgramDetails)
+	{
+		loadProgramDetails(channelId, program, onProgramDetails, null);
+	}
+
+	/**
+	 * Prefetches the details of the current and the next program of a channel,
+	 * e.g. the focused channel. Cancels the previous prefetch.
+	 */
+	public void prefetchProgramDetails(Channel channel)
+	{
+		cancelPrefetch();
+		if (channel == null || _epgData == null)
+			return;
+
+		IOnProgramDetails onProgramDetails = new IOnProgramDetails()
+		{
+			@Override
+			public void onProgramDetails(FeatureError error, Program program)
+			{
+				Log.d(TAG, ".prefetchProgramDetails: " + error);
+			}
+		};
+		Object tag = new Object();
+		_prefetchTag = tag;
+		Calendar now = Calendar.getInstance();
+		String channelId = channel.getChannelId();
+		Program currentProgram = _epgData.getProgram(channelId, now);
+		if (currentProgram != null)
+			loadProgramDetails(channelId, currentProgram, onProgramDetails, tag);
+		Program nextProgram = _epgData.getProgramByOffset(channelId, now, 1);
+		if (nextProgram != null)
+			loadProgramDetails(channelId, nextProgram, onProgramDetails, tag);
+	}
+
+	/**
+	 * Cancels the outstanding program details prefetch requests
+	 */
+	private void cancelPrefetch()
+	{
+		if (_prefetchTag == null)
+			return;
+		_requestQueue.cancelAll(_prefetchTag);
+		_prefetchTag = null;
+	}
+
+	/**
+	 * Fills program details from the program details cache or the server
+	 *
+	 * @param prefetchTag
+	 *            tags the prefetch requests, which don't cancel the previous
+	 *            program details request, null for the user requests
+	 */
+	private void loadProgramDetails(final String channelId, final Program program,
+	        final IOnProgramDetails onProgramDetails, final Object prefetchTag)
 	{
 		if (program.hasDetails())
 		{
@@ -301,15 +485,37 @@ public abstract class FeatureEPGCompat extends FeatureScheduler
 			return;
 		}
 
+		final String key = ProgramDetailsCache.makeKey(_epgProvider, channelId, program.getId());
+		getProgramDetailsCache().load(new String[]
+		{ key }, new ProgramDetailsCache.OnDetailsLoaded()
+		{
+			@Override
+			public void onDetailsLoaded(JSONObject[] details)
+			{
+				if (details[0] != null)
+				{
+					program.setDetails(details[0]);
+					onProgramDetails.onProgramDetails(FeatureError.OK, program);
+				}
+				else if (prefetchTag == null || prefetchTag == _prefetchTag)
+				{
+					retrieveProgramDetails(channelId, key, program, onProgramDetails, prefetchTag);
+				}
+			}
+		});
+	}
+
+	private void retrieveProgramDetails(String channelId, String key, Program program,
+	        IOnProgramDetails onProgramDetails, Object prefetchTag)
+	{
 		String programDetailsUrl = getProgramDetailsUrl(channelId, program.getId());
 		Log.i(TAG, "Retrieving program details of " + program.getTitle() + ", id = " + program.getId() + " from "
 		        + programDetailsUrl);
-		ProgramDetailsResponseCallback responseCallback = new ProgramDetailsResponseCallback(program, onProgramDetails);
+		ProgramDetailsResponseCallback responseCallback = new ProgramDetailsResponseCallback(key, program,
+		        onProgramDetails);
 
-		if (_programDetailsRequest != null)
-			_programDetailsRequest.cancel();
-		_programDetailsRequest = new JsonObjectRequest(Request.Method.GET, programDetailsUrl, null, responseCallback,
-		        responseCallback)
+		JsonObjectRequest programDetailsRequest = new JsonObjectRequest(Request.Method.GET, programDetailsUrl, null,
+		        responseCallback, responseCallback)
 		{
 			@Override
 			public Map<String, String> getHeaders() throws AuthFailureError
@@ -319,9 +525,35 @@ public abstract class FeatureEPGCompat extends FeatureScheduler
 				return headers;
 			}
 		};
+		// prefetch requests are not tracked in _programDetailsRequest, so their
+		// completion keeps the handle of the pending user request
+		if (prefetchTag != null)
+		{
+			programDetailsRequest.setTag(prefetchTag);
+		}
+		else
+		{
+			if (_programDetailsRequest != null)
+				_programDetailsRequest.cancel();
+			_programDetailsRequest = programDetailsRequest;
+			responseCallback.setRequest(programDetailsRequest);
+		}
 
 		// retrieves program details from the global request queue
-		_requestQueue.add(_programDetailsRequest);
+		_requestQueue.add(programDetailsRequest);
+	}
+
+	private ProgramDetailsCache getProgramDetailsCache()
+	{
+		// created on demand since the provider specific features may not
+		// initialize this feature
+		if (_programDetailsCache == null)
+		{
+			_programDetailsCache = new ProgramDetailsCache(new File(Environment.getInstance().getFilesDir(), getPrefs()
+			        .getString(Param.PROGRAM_DETAILS_CACHE_PATH)), getPrefs().getInt(Param.PROGRAM_DETAILS_CACHE_SIZE),
+			        getPrefs().getInt(Param.PROGRAM_DETAILS_DISK_CACHE_SIZE), getEventMessenger());
+		}
+		return _programDetailsCache;
 	}
 
 	@Override
@@ -395,16 +627,55 @@ public abstract class FeatureEPGCompat extends FeatureScheduler
 	 */
 	protected abstract Program createProgram(String id, Channel channel);
 
+	/**
+	 * Creates program instance restored from the EPG store. Override to
+	 * restore the provider specific program id.
+	 *
+	 * @param id
+	 * @param providerId
+	 *            provider specific program id as returned by
+	 *            getProgramProviderId or null
+	 * @param channel
+	 * @return new program instance
+	 */
+	protected Program createProgram(String id, String providerId, Channel channel)
+	{
+		return createProgram(id, channel);
+	}
+
+	/**
+	 * @param program
+	 * @return provider specific program id to be kept in the EPG cache or null
+	 */
+	protected String getProgramProviderId(Program program)
+	{
+		return null;
+	}
+
 	private void retrievePrograms(Channel channel)
 	{
-		String channelId = channel.getChannelId();
+		final String channelId = channel.getChannelId();
 		String programsUrl = getProgramsUrl(channelId);
-		Log.d(TAG, "Retrieving programs from " + programsUrl);
+		Log.d(TAG, "Retrieving programs from %s", programsUrl);
 
+		// request the programs only if changed since the last update
+		final String eTag = isDeltaUpdate() ? _programsETags.get(channelId) : null;
 		ProgramsResponseCallback responseCallback = new ProgramsResponseCallback(channelId);
+		ProgramsParser programsParser = new ProgramsParser(channelId, _programMeta, _programMetaData);
 
-		GsonRequest<ProgramsResponse> programsRequest = new GsonRequest<ProgramsResponse>(Request.Method.GET,
-		        programsUrl, ProgramsResponse.class, responseCallback, responseCallback);
+		Request<?> programsRequest = new ParseExecutor.RawRequest<ParsedPrograms>(_parseExecutor, Request.Method.GET,
+		        programsUrl, programsParser, responseCallback)
+		{
+			@Override
+			public Map<String, String> getHeaders() throws AuthFailureError
+			{
+				Map<String, String> headers = new HashMap<String, String>();
+				headers.put("Connection", "close");
+				if (eTag != null)
+					headers.put("If-None-Match", eTag);
+				return headers;
+			}
+		};
 
 		_requestQueue.add(programsRequest);
 	}
@@ -416,6 +687,7 @@ public abstract class FeatureEPGCompat extends FeatureScheduler
 		{
 			Channel.MetaData metaData = createChannelMetaData();
 			indexChannelMetaData(metaData, response.meta);
+			_channelMeta = response.meta;
 			parseChannelData(metaData, response.data);
 
 			if (_epgDataBeingLoaded == null)
@@ -447,7 +719,7 @@ public abstract class FeatureEPGCompat extends FeatureScheduler
 		}
 	}
 
-	private class ProgramsResponseCallback implements Response.Listener<ProgramsResponse>, Response.ErrorListener
+	private class ProgramsResponseCallback implements ParseExecutor.OnParsed<ParsedPrograms>
 	{
 		private String _channelId;
 
@@ -457,12 +729,28 @@ public abstract class FeatureEPGCompat extends FeatureScheduler
 		}
 
 		@Override
-		public void onResponse(ProgramsResponse response)
+		public void onParsed(ParsedPrograms programs)
 		{
-			Log.d(TAG, "Received programs for channel " + _channelId);
-			Program.MetaData metaData = createProgramMetaData();
-			indexProgramMetaData(metaData, response.meta);
-			parseProgramsData(metaData, _channelId, response.data);
+			if (programs == null)
+			{
+				Log.d(TAG, "Programs for channel %s not modified", _channelId);
+				programsProcessed();
+				return;
+			}
+
+			Log.d(TAG, "Received programs for channel %s", _channelId);
+			if (programs.eTag != null)
+				_programsETags.put(_channelId, programs.eTag);
+			else
+				_programsETags.remove(_channelId);
+			addProgramsData(_channelId, programs);
+			programsProcessed();
+		}
+
+		@Override
+		public void onParseError(Exception e)
+		{
+			Log.w(TAG, "Error parsing programs for " + _channelId + ": " + e.getMessage(), e);
 			programsProcessed();
 		}
 
@@ -482,28 +770,46 @@ public abstract class FeatureEPGCompat extends FeatureScheduler
 
 	private class ProgramDetailsResponseCallback implements Response.Listener<JSONObject>, Response.ErrorListener
 	{
+		private String _key;
 		private IOnProgramDetails _onProgramDetails;
 		private Program _program;
 
-		ProgramDetailsResponseCallback(Program program, IOnProgramDetails onProgramDetails)
+		// the tracked program details request, null for the prefetch requests
+		private Request<?> _request;
+
+		ProgramDetailsResponseCallback(String key, Program program, IOnProgramDetails onProgramDetails)
 		{
+			_key = key;
 			_program = program;
 			_onProgramDetails = onProgramDetails;
 		}
 
+		void setRequest(Request<?> request)
+		{
+			_request = request;
+		}
+
 		@Override
 		public void onResponse(JSONObject response)
 		{
 			_program.setDetails(response);
+			getProgramDetailsCache().put(_key, _program.getStopTime().getTimeInMillis() / 1000, response);
 			_onProgramDetails.onProgramDetails(FeatureError.OK, _program);
-			_programDetailsRequest = null;
+			onRequestFinished();
 		}
 
 		@Override
 		public void onErrorResponse(VolleyError error)
 		{
 			_onProgramDetails.onProgramDetails(new FeatureError(error), null);
-			_programDetailsRequest = null;
+			onRequestFinished();
+		}
+
+		// keeps the cancel handle of a newer request
+		private void onRequestFinished()
+		{
+			if (_request != null && _programDetailsRequest == _request)
+				_programDetailsRequest = null;
 		}
 	}
 
@@ -526,8 +832,11 @@ public abstract class FeatureEPGCompat extends FeatureScheduler
 			// be able to finish its job. Then the garbage collector will
 			// free up the memory.
 
+			if (isDeltaUpdate())
+				_epgDataBeingLoaded.evictPrograms(getProgramRangeMin().getTimeInMillis() / 1000);
 			_epgData = _epgDataBeingLoaded;
 			_epgDataBeingLoaded = null;
+			_deltaUpdate = false;
 			_retrievedChannelPrograms = 0;
 			_retrievedChannelLogos = 0;
 
@@ -602,6 +911,18 @@ public abstract class FeatureEPGCompat extends FeatureScheduler
 		if (_maxChannels == 0)
 			_maxChannels = data.length;
 
+		if (getPrefs().getBool(Param.DELTA_UPDATE) && _epgData instanceof EpgDataColumnar
+		        && hasSameChannels(_epgData, metaData, data))
+		{
+			// update the programs of a copy of the loaded EPG data, the loaded
+			// one is kept unchanged while in use and being cached
+			Log.i(TAG, "EPG channels not changed, updating programs of the loaded EPG data");
+			_epgDataBeingLoaded = ((EpgDataColumnar) _epgData).copy();
+			_deltaUpdate = true;
+			return;
+		}
+		_programsETags.clear();
+
 		for (int i = 0; i < _maxChannels; i++)
 		{
 			Channel channel = createChannel(i);
@@ -613,10 +934,39 @@ public abstract class FeatureEPGCompat extends FeatureScheduler
 				channel.setChannelImage(Channel.LOGO_NORMAL, BitmapFactory.decodeByteArray(decodedString, 0, decodedString.length));
 			}
 			channel.setAttributes(metaData, data[i]);
+			channel.setAttributeRow(data[i]);
 			newChannelList.add(channel);
 		}
 
-		_epgDataBeingLoaded = new EpgDataCompat(newChannelList);
+		_epgDataBeingLoaded = new EpgDataColumnar(newChannelList, _epgFactory);
+		_deltaUpdate = false;
+	}
+
+	private boolean hasSameChannels(IEpgDataProvider epgData, Channel.MetaData metaData, String[][] data)
+	{
+		if (epgData.getChannelCount() != _maxChannels)
+			return false;
+		for (int i = 0; i < _maxChannels; i++)
+		{
+			if (!epgData.getChannel(i).getChannelId().equals(data[i][metaData.metaChannelId]))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return true if the programs are being merged into the loaded EPG data
+	 */
+	private boolean isDeltaUpdate()
+	{
+		return _epgDataBeingLoaded != null && _deltaUpdate;
+	}
+
+	private Calendar getProgramRangeMin()
+	{
+		Calendar programRangeMin = Calendar.getInstance(_featureTimeZone.getTimeZone());
+		programRangeMin.add(Calendar.DATE, -getPrefs().getInt(Param.PROGRAM_RANGE_MIN_DAYS));
+		return programRangeMin;
 	}
 
 	protected void indexProgramMetaData(Program.MetaData metaData, String[] meta)
@@ -634,70 +984,159 @@ public abstract class FeatureEPGCompat extends FeatureScheduler
 		}
 	}
 
-	private void parseProgramsData(Program.MetaData metaData, final String channelId, final String[][] data)
+	// programs of a channel parsed on a parser thread
+	private static class ParsedPrograms
 	{
-		long processStart = System.nanoTime();
-
-		NavigableMap<Calendar, Integer> programMap = new TreeMap<Calendar, Integer>();
-		List<Program> programList = new ArrayList<Program>(data.length);
-		Channel channel = _epgDataBeingLoaded.getChannel(channelId);
+		long[] startTimes;
+		long[] stopTimes;
+		String[] ids;
+		String[] titles;
+		int count;
+		long windowStart = Long.MAX_VALUE;
+		long windowEnd = Long.MIN_VALUE;
+		long minStartMillis = Long.MAX_VALUE;
+		long maxStartMillis = Long.MIN_VALUE;
+		long rangeMinMillis;
+		String eTag;
+	}
 
-		SimpleDateFormat sdf = new SimpleDateFormat("yyyyMMddHHmmss", Locale.getDefault());
-		sdf.setTimeZone(TimeZone.getTimeZone("UTC"));
+	// parses programs response into columns on a parser thread
+	private class ProgramsParser implements ParseExecutor.Parser<ParsedPrograms>
+	{
+		private final String _channelId;
+		private final String[] _meta;
+		private final Program.MetaData _metaData;
+		private final long _rangeMinMillis;
+		private final long _rangeMaxMillis;
+		private final Gson _gson = new Gson();
+
+		// created on the main thread, the parser thread must not access the
+		// feature state
+		ProgramsParser(String channelId, String[] meta, Program.MetaData metaData)
+		{
+			_channelId = channelId;
+			_meta = meta;
+			_metaData = metaData;
+			Calendar programRangeMax = Calendar.getInstance(_featureTimeZone.getTimeZone());
+			programRangeMax.add(Calendar.DATE, getPrefs().getInt(Param.PROGRAM_RANGE_MAX_DAYS));
+			_rangeMinMillis = getProgramRangeMin().getTimeInMillis();
+			_rangeMaxMillis = programRangeMax.getTimeInMillis();
+		}
 
-		Calendar programRangeMin = Calendar.getInstance(_featureTimeZone.getTimeZone());
-		Calendar programRangeMax = Calendar.getInstance(_featureTimeZone.getTimeZone());
-		programRangeMin.add(Calendar.DATE, -getPrefs().getInt(Param.PROGRAM_RANGE_MIN_DAYS));
-		programRangeMax.add(Calendar.DATE, getPrefs().getInt(Param.PROGRAM_RANGE_MAX_DAYS));
+		@Override
+		public ParsedPrograms parse(NetworkResponse response) throws Exception
+		{
+			if (response.notModified || response.data == null)
+				return null;
+
+			String json = new String(response.data, HttpHeaderParser.parseCharset(response.headers));
+			ProgramsResponse programsResponse = _gson.fromJson(json, ProgramsResponse.class);
+
+			// the meta data is indexed on the main thread when the programs
+			// meta is not known yet or has changed
+			Program.MetaData metaData = _metaData;
+			if (metaData == null || !Arrays.equals(_meta, programsResponse.meta))
+				metaData = indexProgramMeta(programsResponse.meta);
+			ParsedPrograms programs = parseProgramsData(metaData, programsResponse.data);
+			programs.eTag = getHeader(response.headers, "ETag");
+			return programs;
+		}
 
-		for (int i = 0; i < data.length; i++)
+		private ParsedPrograms parseProgramsData(Program.MetaData metaData, final String[][] data)
 		{
-			try
+			long processStart = System.nanoTime();
+
+			// programs are kept in columns and materialized by the EPG store on
+			// demand, so provider specific row attributes set by
+			// Program.setDetailAttributes are not retained
+			ParsedPrograms programs = new ParsedPrograms();
+			programs.startTimes = new long[data.length];
+			programs.stopTimes = new long[data.length];
+			programs.ids = new String[data.length];
+			programs.titles = new String[data.length];
+			programs.rangeMinMillis = _rangeMinMillis;
+
+			for (int i = 0; i < data.length; i++)
 			{
-				Calendar startTime = Calendar.getInstance();
-				startTime.setTime(sdf.parse(data[i][metaData.metaStart]));
-
-				if (startTime.before(programRangeMin) || startTime.after(programRangeMax))
+				try
 				{
-					continue;
-				}
+					long startMillis = 1000 * Calendars.parseUTCTime(data[i][metaData.metaStart]);
 
-				if (_minDate.after(startTime))
-				{
-					_minDate = startTime;
-				}
+					if (startMillis < _rangeMinMillis || startMillis > _rangeMaxMillis)
+					{
+						continue;
+					}
+
+					programs.minStartMillis = Math.min(programs.minStartMillis, startMillis);
+					programs.maxStartMillis = Math.max(programs.maxStartMillis, startMillis);
 
-				if (_maxDate.before(startTime))
+					long stopMillis = 1000 * Calendars.parseUTCTime(data[i][metaData.metaStop]);
+
+					int count = programs.count;
+					programs.startTimes[count] = startMillis / 1000;
+					programs.stopTimes[count] = stopMillis / 1000;
+					programs.ids[count] = data[i][metaData.metaStart];
+					programs.titles[count] = data[i][metaData.metaTitle];
+					programs.windowStart = Math.min(programs.windowStart, programs.startTimes[count]);
+					programs.windowEnd = Math.max(programs.windowEnd, programs.stopTimes[count]);
+					programs.count++;
+				}
+				catch (ParseException e)
 				{
-					_maxDate = startTime;
+					Log.w(TAG, e.getMessage(), e);
 				}
+			}
 
-				Calendar stopTime = Calendar.getInstance();
-				stopTime.setTime(sdf.parse(data[i][metaData.metaStop]));
-
-				String id = new String(data[i][metaData.metaStart]);
-				Program program = createProgram(id, channel);
-				program.setTitle(new String(data[i][metaData.metaTitle]));
-				program.setStartTime(startTime);
-				program.setStopTime(stopTime);
+			long processEnd = System.nanoTime();
+			double processTime = (processEnd - processStart) / 1000000000.0;
+			Log.d(TAG, "Parsed %d program items for channel %s for %s sec", data.length, _channelId, processTime);
+			return programs;
+		}
+	}
 
-				// set custom provider attributes
-				program.setDetailAttributes(metaData, data[i]);
-				programList.add(program);
-				program.setIndex(programList.size() - 1);
-				programMap.put(program.getStartTime(), program.getIndex());
-			}
-			catch (ParseException e)
+	// creates and keeps the programs meta data with the overridable methods on
+	// the main thread, called by the parser threads
+	private Program.MetaData indexProgramMeta(final String[] meta) throws InterruptedException
+	{
+		return _parseExecutor.callMain(new Callable<Program.MetaData>()
+		{
+			@Override
+			public Program.MetaData call()
 			{
-				Log.w(TAG, e.getMessage(), e);
+				if (_programMetaData == null || !Arrays.equals(_programMeta, meta))
+				{
+					Program.MetaData metaData = createProgramMetaData();
+					indexProgramMetaData(metaData, meta);
+					_programMeta = meta;
+					_programMetaData = metaData;
+				}
+				return _programMetaData;
 			}
-		}
+		});
+	}
 
-		_epgDataBeingLoaded.addProgramData(channelId, programMap, programList);
+	private void addProgramsData(String channelId, ParsedPrograms programs)
+	{
+		if (programs.count > 0)
+		{
+			if (_minDate.getTimeInMillis() > programs.minStartMillis)
+				_minDate.setTimeInMillis(programs.minStartMillis);
+			if (_maxDate.getTimeInMillis() < programs.maxStartMillis)
+				_maxDate.setTimeInMillis(programs.maxStartMillis);
+		}
 
-		long processEnd = System.nanoTime();
-		double processTime = (processEnd - processStart) / 1000000000.0;
-		Log.d(TAG, "Parsed " + data.length + " program items for channel " + channelId + " for " + processTime + " sec");
+		if (isDeltaUpdate())
+		{
+			// replace the programs within the time range of the response
+			_epgDataBeingLoaded.mergeProgramData(channelId, programs.windowStart, programs.windowEnd,
+			        programs.startTimes, programs.stopTimes, programs.ids, programs.titles, null, programs.count,
+			        programs.rangeMinMillis / 1000);
+		}
+		else
+		{
+			_epgDataBeingLoaded.addProgramData(channelId, programs.startTimes, programs.stopTimes, programs.ids,
+			        programs.titles, null, programs.count);
+		}
 	}
 
 	protected String getChannelsUrl()
@@ -788,18 +1227,9 @@ public abstract class FeatureEPGCompat extends FeatureScheduler
 		if (_epgData == null)
 			return false;
 
-		Kryo kryo = new Kryo();
 		try
 		{
-			File cacheFile = getEpgDataCacheFile();
-			Output output = new Output(new FileOutputStream(cacheFile));
-			kryo.writeObject(output, _epgData);
-			output.close();
-		}
-		catch (FileNotFoundException e)
-		{
-			Log.e(TAG, "Cannot create EPG data cache file.", e);
-			return false;
+			EpgSnapshot.write(getEpgDataCacheFile(), _epgData, _epgFactory);
 		}
 		catch (Exception e)
 		{
@@ -813,55 +1243,26 @@ public abstract class FeatureEPGCompat extends FeatureScheduler
 	{
 		Log.i(TAG, ".deserializeData");
 
-		FileInputStream fis = null;
-		ObjectInputStream ois = null;
-		try
+		File cacheFile = getEpgDataCacheFile();
+		if (!cacheFile.exists())
 		{
-			File cacheFile = getEpgDataCacheFile();
-			if (!cacheFile.exists())
-			{
-				Log.i(TAG, "No EPG cached data exists. Nothing to do.");
-				return false;
-			}
-
-			Kryo kryo = new Kryo();
-			Input input = new Input(new FileInputStream(cacheFile));
-			_epgData = kryo.readObject(input, EpgDataCompat.class);
-			_epgDataBeingLoaded = _epgData;
-			input.close();
+			Log.i(TAG, "No EPG cached data exists. Nothing to do.");
+			return false;
 		}
-		catch (FileNotFoundException e)
+
+		try
 		{
-			Log.e(TAG, "Cannot open EPG data cache file.", e);
-			return false;
+			_epgDataBeingLoaded = EpgSnapshot.open(cacheFile, _epgFactory);
+			_epgData = _epgDataBeingLoaded;
+			_deltaUpdate = false;
 		}
 		catch (Exception e)
 		{
+			// corrupted, stale or incompatible cache file
 			Log.e(TAG, "Cannot open EPG data cache file.", e);
+			cacheFile.delete();
 			return false;
 		}
-		finally
-		{
-			try
-			{
-				if (fis != null)
-					fis.close();
-			}
-			catch (IOException e)
-			{
-				Log.e(TAG, "Cannot close file output stream.", e);
-			}
-
-			try
-			{
-				if (ois != null)
-					ois.close();
-			}
-			catch (IOException e)
-			{
-				Log.e(TAG, "Cannot close object output stream.", e);
-			}
-		}
 		return true;
 	}
 
@@ -936,6 +1337,16 @@ public abstract class FeatureEPGCompat extends FeatureScheduler
 		}
 	}
 
+	private static String getHeader(Map<String, String> headers, String name)
+	{
+		if (headers == null)
+			return null;
+		for (Map.Entry<String, String> header : headers.entrySet())
+			if (name.equalsIgnoreCase(header.getKey()))
+				return header.getValue();
+		return null;
+	}
+
 	private void resetMinMaxDates()
 	{
 		_minDate = Calendar.getInstance();
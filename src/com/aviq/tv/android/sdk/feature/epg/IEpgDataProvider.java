@@ -19,6 +19,18 @@ public interface IEpgDataProvider
 	public List<Program> getProgramList(String channelId, Calendar timeStart, Calendar timeEnd);
 	public List<Program> getProgramList(String channelId);
 	public Program getProgramById(String channelId, String programId);
+
+	/**
+	 * Resolves multiple programs in one pass
+	 *
+	 * @param channelIds
+	 *            list of channel ids
+	 * @param programIds
+	 *            list of program ids corresponding to the channel ids
+	 * @return list of programs in the order of the requested ids, with null
+	 *         elements for the programs not found
+	 */
+	public List<Program> getProgramsByIds(List<String> channelIds, List<String> programIds);
 	public Calendar getMaxEpgStopTime();
 	public Calendar getMinEpgStartTime();
 }
@@ -10,21 +10,18 @@
 package com.aviq.tv.android.sdk.feature.epg;
 
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.Calendar;
-import java.util.Locale;
-import java.util.TimeZone;
 
 import org.json.JSONObject;
 
 import com.aviq.tv.android.sdk.core.Log;
+import com.aviq.tv.android.sdk.utils.Calendars;
 
 /**
  * Program data holder class
  */
 public abstract class Program implements Comparable<Program>
 {
-	private static final String PROGRAM_TIME_ID = "yyyyMMddHHmmss";
     private static final long serialVersionUID = 7712628341257180116L;
     private static final String TAG = Program.class.getSimpleName();
 
@@ -50,20 +47,30 @@ public abstract class Program implements Comparable<Program>
 
 	public static Calendar timeById(String programId)
 	{
-		SimpleDateFormat sdfUTC = new SimpleDateFormat(PROGRAM_TIME_ID, Locale.getDefault());
-		sdfUTC.setTimeZone(TimeZone.getTimeZone("UTC"));
 		Calendar startTime = Calendar.getInstance();
-		try
-        {
-	        startTime.setTime(sdfUTC.parse(programId));
-        }
-        catch (ParseException e)
-        {
-        	Log.w(TAG, e.getMessage(), e);
-        }
+		startTime.setTimeInMillis(1000 * timestampById(programId));
 		return startTime;
 	}
 
+	/**
+	 * @param programId
+	 *            program id formatted as UTC start time yyyyMMddHHmmss
+	 * @return the program start time in unix timestamp seconds or the current
+	 *         time if the program id is not a valid start time
+	 */
+	public static long timestampById(String programId)
+	{
+		try
+		{
+			return Calendars.parseUTCTime(programId);
+		}
+		catch (ParseException e)
+		{
+			Log.w(TAG, e.getMessage(), e);
+			return System.currentTimeMillis() / 1000;
+		}
+	}
+
 	/**
 	 * No-arg constructor added for Kryo serialization. Do not use for anything else.
 	 */
@@ -173,7 +180,8 @@ public abstract class Program implements Comparable<Program>
 	 * Sets provider's specific program attributes
 	 *
 	 * @param metaData indexed meta data
-	 * @param attributes String array with the essential data positioned according the meta data indices
+	 * @param attributes String array with the essential data positioned according the meta data indices.
+	 *        The array is reused between rows and must not be retained.
 	 */
     public abstract void setDetailAttributes(MetaData metaData, String[] attributes);
 }
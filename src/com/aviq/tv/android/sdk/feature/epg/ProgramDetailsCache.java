@@ -0,0 +1,380 @@
+/**
+ * Copyright (c) 2007-2015, Intelibo Ltd
+ *
+ * Project:     TVBOSDK
+ * Filename:    ProgramDetailsCache.java
+ * Author:      alek
+ * Date:        18 Oct 2015
+ * Description: Two-tier memory and disk cache of program details
+ */
+
+package com.aviq.tv.android.sdk.feature.epg;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.os.Process;
+
+import com.aviq.tv.android.sdk.core.EventMessenger;
+import com.aviq.tv.android.sdk.core.Log;
+import com.aviq.tv.android.sdk.utils.TextUtils;
+import com.jakewharton.disklrucache.DiskLruCache;
+
+/**
+ * Caches program details in a memory LRU backed by a DiskLruCache. The cache
+ * entries expire at the stop time of their programs. The disk is accessed
+ * on a background thread and the loaded details are posted back to the main
+ * thread.
+ */
+public class ProgramDetailsCache
+{
+	private static final String TAG = ProgramDetailsCache.class.getSimpleName();
+
+	// version of the disk cache entries format
+	private static final int DISK_CACHE_VERSION = 1;
+
+	/**
+	 * Receives the details loaded from the cache
+	 */
+	public interface OnDetailsLoaded
+	{
+		/**
+		 * @param details
+		 *            program details in the order of the requested keys, null
+		 *            for details not in the cache
+		 */
+		void onDetailsLoaded(JSONObject[] details);
+	}
+
+	private static class Entry
+	{
+		final JSONObject details;
+		final long expireTime;
+
+		Entry(JSONObject details, long expireTime)
+		{
+			this.details = details;
+			this.expireTime = expireTime;
+		}
+	}
+
+	private final File _dir;
+	private final long _diskSize;
+	private final EventMessenger _eventMessenger;
+	private final LinkedHashMap<String, Entry> _memory;
+	private final ExecutorService _diskExecutor;
+
+	// accessed on the disk thread only, null if the disk cache can't be opened
+	private DiskLruCache _diskCache;
+
+	/**
+	 * @param dir
+	 *            directory of the cache files
+	 * @param memorySize
+	 *            the maximum number of entries kept in memory
+	 * @param diskSize
+	 *            the maximum size in bytes of the entries kept on disk
+	 * @param eventMessenger
+	 *            event messenger posting the loaded details to the main thread
+	 */
+	public ProgramDetailsCache(File dir, final int memorySize, long diskSize, EventMessenger eventMessenger)
+	{
+		_dir = dir;
+		_diskSize = diskSize;
+		_eventMessenger = eventMessenger;
+		_memory = new LinkedHashMap<String, Entry>(16, 0.75f, true)
+		{
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest)
+			{
+				return size() > memorySize;
+			}
+		};
+		_diskExecutor = Executors.newSingleThreadExecutor(new ThreadFactory()
+		{
+			@Override
+			public Thread newThread(final Runnable runnable)
+			{
+				return new Thread(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+						runnable.run();
+					}
+				}, TAG);
+			}
+		});
+
+		_diskExecutor.execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				openDisk();
+			}
+		});
+	}
+
+	/**
+	 * @return cache key of program details
+	 */
+	public static String makeKey(String provider, String channelId, String programId)
+	{
+		return provider + '/' + channelId + '/' + programId;
+	}
+
+	/**
+	 * @return program details from the memory cache or null if not in memory
+	 */
+	public JSONObject get(String key)
+	{
+		Entry entry = _memory.get(key);
+		if (entry == null)
+			return null;
+		if (entry.expireTime <= System.currentTimeMillis() / 1000)
+		{
+			_memory.remove(key);
+			return null;
+		}
+		return entry.details;
+	}
+
+	/**
+	 * Loads program details from the memory or the disk cache. The callback
+	 * is invoked immediately if all details are in memory, otherwise after
+	 * reading the rest from the disk.
+	 */
+	public void load(final String[] keys, final OnDetailsLoaded onDetailsLoaded)
+	{
+		final JSONObject[] details = new JSONObject[keys.length];
+		boolean allInMemory = true;
+		for (int i = 0; i < keys.length; i++)
+		{
+			details[i] = get(keys[i]);
+			if (details[i] == null)
+				allInMemory = false;
+		}
+		if (allInMemory)
+		{
+			onDetailsLoaded.onDetailsLoaded(details);
+			return;
+		}
+
+		_diskExecutor.execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				final long[] expireTimes = new long[keys.length];
+				for (int i = 0; i < keys.length; i++)
+				{
+					if (details[i] == null)
+						expireTimes[i] = readEntry(keys[i], details, i);
+				}
+				_eventMessenger.post(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						// promote the details read from disk to memory
+						for (int i = 0; i < keys.length; i++)
+						{
+							if (expireTimes[i] > 0)
+								_memory.put(keys[i], new Entry(details[i], expireTimes[i]));
+						}
+						onDetailsLoaded.onDetailsLoaded(details);
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Adds program details to the cache
+	 *
+	 * @param key
+	 *            the cache key created by makeKey
+	 * @param expireTime
+	 *            the program stop time in unix timestamp seconds
+	 * @param details
+	 *            the program details
+	 */
+	public void put(final String key, final long expireTime, JSONObject details)
+	{
+		if (expireTime <= System.currentTimeMillis() / 1000)
+			return;
+
+		_memory.put(key, new Entry(details, expireTime));
+		final String content = expireTime + "\n" + key + "\n" + details.toString();
+		_diskExecutor.execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				if (_diskCache == null)
+					return;
+				try
+				{
+					// the edit is written to a temporary file and committed
+					// atomically, the least recently used entries are evicted
+					// above the disk size
+					DiskLruCache.Editor editor = _diskCache.edit(getDiskKey(key));
+					if (editor == null)
+						return;
+					try
+					{
+						editor.set(0, content);
+						editor.commit();
+					}
+					finally
+					{
+						editor.abortUnlessCommitted();
+					}
+				}
+				catch (IOException e)
+				{
+					Log.w(TAG, "Can't write program details cache of " + key + ": " + e.getMessage());
+				}
+			}
+		});
+	}
+
+	/**
+	 * Removes all entries from the memory and the disk cache
+	 */
+	public void clear()
+	{
+		_memory.clear();
+		_diskExecutor.execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				if (_diskCache == null)
+					return;
+				try
+				{
+					_diskCache.delete();
+				}
+				catch (IOException e)
+				{
+					Log.w(TAG, "Can't delete program details cache: " + e.getMessage());
+				}
+				openDisk();
+			}
+		});
+	}
+
+	// runs on the disk thread
+	private void openDisk()
+	{
+		try
+		{
+			_diskCache = DiskLruCache.open(_dir, DISK_CACHE_VERSION, 1, _diskSize);
+		}
+		catch (IOException e)
+		{
+			// the details are cached in memory only
+			Log.e(TAG, "Can't open program details cache in " + _dir + ": " + e.getMessage());
+			_diskCache = null;
+		}
+	}
+
+	// runs on the disk thread, returns the entry expire time or 0 if the entry
+	// is missing or expired
+	private long readEntry(String key, JSONObject[] details, int index)
+	{
+		if (_diskCache == null)
+			return 0;
+		String diskKey = getDiskKey(key);
+		try
+		{
+			DiskLruCache.Snapshot snapshot = _diskCache.get(diskKey);
+			if (snapshot == null)
+				return 0;
+			String content;
+			try
+			{
+				content = snapshot.getString(0);
+			}
+			finally
+			{
+				snapshot.close();
+			}
+			int expireEnd = content.indexOf('\n');
+			int keyEnd = content.indexOf('\n', expireEnd + 1);
+			long expireTime = Long.parseLong(content.substring(0, expireEnd));
+			if (!key.equals(content.substring(expireEnd + 1, keyEnd)))
+			{
+				// hash collision
+				return 0;
+			}
+			if (expireTime <= System.currentTimeMillis() / 1000)
+			{
+				_diskCache.remove(diskKey);
+				return 0;
+			}
+			details[index] = new JSONObject(content.substring(keyEnd + 1));
+			return expireTime;
+		}
+		catch (IOException e)
+		{
+			Log.w(TAG, "Can't read program details cache of " + key + ": " + e.getMessage());
+		}
+		catch (JSONException e)
+		{
+			Log.w(TAG, "Corrupted program details cache of " + key + ": " + e.getMessage());
+			removeEntry(diskKey);
+		}
+		catch (RuntimeException e)
+		{
+			Log.w(TAG, "Corrupted program details cache of " + key + ": " + e.getMessage());
+			removeEntry(diskKey);
+		}
+		return 0;
+	}
+
+	private void removeEntry(String diskKey)
+	{
+		try
+		{
+			_diskCache.remove(diskKey);
+		}
+		catch (IOException e)
+		{
+			Log.w(TAG, "Can't remove program details cache entry " + diskKey + ": " + e.getMessage());
+		}
+	}
+
+	// returns key matching the disk cache key pattern [a-z0-9_-]{1,64}
+	private static String getDiskKey(String key)
+	{
+		try
+		{
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			return TextUtils.implodeBytesArray(digest.digest(key.getBytes("UTF-8")), "%02x", "");
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			return Integer.toHexString(key.hashCode());
+		}
+		catch (IOException e)
+		{
+			return Integer.toHexString(key.hashCode());
+		}
+	}
+}
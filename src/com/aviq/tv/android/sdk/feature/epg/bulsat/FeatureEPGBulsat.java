@@ -13,14 +13,11 @@ package com.aviq.tv.android.sdk.feature.epg.bulsat;
 import java.io.BufferedReader;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.HashMap;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map;
-import java.util.TimeZone;
 
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
@@ -48,14 +45,18 @@ import android.util.Base64;
 import android.widget.Toast;
 
 import com.android.volley.AuthFailureError;
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
 import com.android.volley.Response;
 import com.android.volley.Response.ErrorListener;
 import com.android.volley.VolleyError;
 import com.android.volley.toolbox.ImageRequest;
+import com.android.volley.toolbox.HttpHeaderParser;
 import com.android.volley.toolbox.JsonArrayRequest;
 import com.android.volley.toolbox.JsonObjectRequest;
 import com.aviq.tv.android.sdk.core.Environment;
 import com.aviq.tv.android.sdk.core.Log;
+import com.aviq.tv.android.sdk.core.ParseExecutor;
 import com.aviq.tv.android.sdk.core.ResultCode;
 import com.aviq.tv.android.sdk.core.feature.FeatureError;
 import com.aviq.tv.android.sdk.core.feature.FeatureName;
@@ -387,11 +388,7 @@ public class FeatureEPGBulsat extends FeatureEPG
 		String streamUrl;
 		if (playTime > 0 && playTimeDelta > 0 && channelBulsat.getSeekUrl() != null)
 		{
-			Calendar startTime = Calendar.getInstance();
-			startTime.setTimeInMillis(1000 * playTime);
-			SimpleDateFormat sdf = new SimpleDateFormat("yyyyMMddHHmmss", Locale.getDefault());
-			sdf.setTimeZone(TimeZone.getTimeZone("UTC"));
-			String startTimeFormat = sdf.format(startTime.getTime());
+			String startTimeFormat = Calendars.formatUTCTime(playTime);
 			String seekUrl = channelBulsat.getSeekUrl();
 			if (seekUrl.indexOf('?') > 0)
 				seekUrl += '&';
@@ -755,7 +752,7 @@ public class FeatureEPGBulsat extends FeatureEPG
 		return s1.equals(s2);
 	}
 
-	private class ChannelJSONResponse implements Response.Listener<JSONArray>, Response.ErrorListener
+	private class ChannelJSONResponse implements ParseExecutor.OnParsed<JSONArray>
 	{
 		private OnResultReceived _onResultReceived;
 		private int _logosRequested;
@@ -769,7 +766,7 @@ public class FeatureEPGBulsat extends FeatureEPG
 		}
 
 		@Override
-		public void onResponse(JSONArray jsonArr)
+		public void onParsed(JSONArray jsonArr)
 		{
 			try
 			{
@@ -990,6 +987,14 @@ public class FeatureEPGBulsat extends FeatureEPG
 			}
 		}
 
+		@Override
+		public void onParseError(Exception e)
+		{
+			Log.e(TAG, "Parsing " + _url + " failed: " + e.getMessage(), e);
+			_onResultReceived.onReceiveResult(new FeatureError(FeatureEPGBulsat.this, ResultCode.PROTOCOL_ERROR, e),
+			        null);
+		}
+
 		@Override
 		public void onErrorResponse(VolleyError error)
 		{
@@ -1049,8 +1054,19 @@ public class FeatureEPGBulsat extends FeatureEPG
 			Log.i(TAG, ".UpdateChannelsJSON.update: url = " + url);
 
 			// retrieve channel streams from server
+			// the channels JSON is parsed by the parser threads, the channels
+			// are updated on the main thread
 			ChannelJSONResponse channelJSONResponse = new ChannelJSONResponse(url, onResultReceived);
-			JsonArrayRequest request = new JsonArrayRequest(url, channelJSONResponse, channelJSONResponse)
+			Request<?> request = new ParseExecutor.RawRequest<JSONArray>(getParseExecutor(), Request.Method.GET, url,
+			        new ParseExecutor.Parser<JSONArray>()
+			        {
+				        @Override
+				        public JSONArray parse(NetworkResponse response) throws Exception
+				        {
+					        return new JSONArray(new String(response.data, HttpHeaderParser
+					                .parseCharset(response.headers)));
+				        }
+			        }, channelJSONResponse)
 			{
 				@Override
 				public Map<String, String> getHeaders() throws AuthFailureError
@@ -10,17 +10,12 @@
 
 package com.aviq.tv.android.sdk.feature.epg.zattoo;
 
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.GregorianCalendar;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map;
-import java.util.NavigableMap;
-import java.util.TimeZone;
-import java.util.TreeMap;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -36,20 +31,22 @@ import com.android.volley.Request;
 import com.android.volley.RequestQueue;
 import com.android.volley.Response;
 import com.android.volley.VolleyError;
+import com.android.volley.toolbox.HttpHeaderParser;
 import com.android.volley.toolbox.ImageRequest;
 import com.android.volley.toolbox.StringRequest;
 import com.android.volley.toolbox.Volley;
 import com.aviq.tv.android.sdk.core.Environment;
 import com.aviq.tv.android.sdk.core.Log;
+import com.aviq.tv.android.sdk.core.ParseExecutor;
 import com.aviq.tv.android.sdk.core.ResultCode;
 import com.aviq.tv.android.sdk.core.feature.FeatureError;
 import com.aviq.tv.android.sdk.core.feature.FeatureName;
 import com.aviq.tv.android.sdk.core.feature.IFeature;
 import com.aviq.tv.android.sdk.core.service.ServiceController.OnResultReceived;
 import com.aviq.tv.android.sdk.feature.epg.Channel;
-import com.aviq.tv.android.sdk.feature.epg.EpgDataCompat;
+import com.aviq.tv.android.sdk.feature.epg.EpgDataColumnar;
+import com.aviq.tv.android.sdk.feature.epg.IEpgDataProvider;
 import com.aviq.tv.android.sdk.feature.epg.Program;
-import com.aviq.tv.android.sdk.feature.system.FeatureTimeZone;
 import com.aviq.tv.android.sdk.utils.Calendars;
 
 /**
@@ -73,12 +70,28 @@ public class ClientZAPI
 	private RequestQueue _requestQueue;
 	private IFeature _ownerFeature;
 	private Map<String, Channel> _channelsMap = new HashMap<String, Channel>();
-	private EpgDataCompat _epgData;
+	private EpgDataColumnar _epgData;
+
+	// key = day start in epoch seconds; value = ETag of the day programs
+	private Map<Long, String> _dayETags = new HashMap<Long, String>();
+
+	// creates zattoo programs with the zapi id kept as provider specific id
+	private final EpgDataColumnar.ProgramFactory _programFactory = new EpgDataColumnar.ProgramFactory()
+	{
+		@Override
+		public Program createProgram(String id, String providerId, Channel channel)
+		{
+			ProgramZattoo program = new ProgramZattoo(id, channel);
+			program.setZapiID(providerId);
+			return program;
+		}
+	};
 	private int _countChannelLogos;
 	private int _maxChannels;
+	private ParseExecutor _parseExecutor;
 
 	public ClientZAPI(IFeature ownerFeature, String baseUri, int minRateEth, int maxRateEth, int initRateEth,
-	        int minRateWifi, int maxRateWifi, int initRateWifi, int maxChannels)
+	        int minRateWifi, int maxRateWifi, int initRateWifi, int maxChannels, int parserThreads)
 	{
 		_minRateEth = minRateEth;
 		_maxRateEth = maxRateEth;
@@ -90,13 +103,28 @@ public class ClientZAPI
 		_requestQueue = Volley.newRequestQueue(Environment.getInstance(), new ExtHttpClientStack(new SslHttpClient()));
 		_ownerFeature = ownerFeature;
 		_maxChannels = maxChannels;
+		_parseExecutor = new ParseExecutor(TAG, parserThreads, ownerFeature.getEventMessenger(), Environment
+		        .getInstance().getFeatureManager().getBootTrace());
 	}
 
-	public EpgDataCompat getEpgData()
+	public EpgDataColumnar getEpgData()
 	{
 		return _epgData;
 	}
 
+	/**
+	 * Sets the EPG data to be updated by retrievePrograms, e.g. restored from
+	 * the EPG cache
+	 */
+	public void setEpgData(EpgDataColumnar epgData)
+	{
+		_epgData = epgData;
+		_dayETags.clear();
+		_channelsMap.clear();
+		for (Channel channel : epgData.getChannels())
+			_channelsMap.put(channel.getChannelId(), channel);
+	}
+
 	public void hello(final String appid, final String uuid, OnResultReceived onResultReceived)
 	{
 		HelloResponseCallback responseCallback = new HelloResponseCallback(onResultReceived);
@@ -281,9 +309,8 @@ public class ClientZAPI
 					channel.setChannelImageUrl(Channel.LOGO_NORMAL, (String) jsonChannel.get("logo_84"));
 					channel.setTitle((String) jsonChannel.get("title"));
 					channels.add(channel);
-					_channelsMap.put(channel.getChannelId(), channel);
 				}
-				_epgData = new EpgDataCompat(channels);
+				setEpgData(new EpgDataColumnar(channels, _programFactory));
 				retrieveChannelLogos(_epgData, _onResultReceived);
 			}
 			catch (JSONException e)
@@ -304,7 +331,7 @@ public class ClientZAPI
 		}
 	}
 
-	public void retrieveChannelLogos(final EpgDataCompat epgDataCompat, final OnResultReceived onResultReceived)
+	public void retrieveChannelLogos(final IEpgDataProvider epgDataCompat, final OnResultReceived onResultReceived)
 	{
 		// retrieve channel logos
 		_countChannelLogos = 0;
@@ -345,6 +372,12 @@ public class ClientZAPI
 		}
 	}
 
+	/**
+	 * Retrieves the programs of the EPG days from dayFrom to dayTo. Days
+	 * retrieved before are requested conditionally and skipped when not changed
+	 * on the server. The programs of the changed days are merged in place and
+	 * the days before dayFrom are evicted.
+	 */
 	public void retrievePrograms(final OnResultReceived onResultReceived)
 	{
 		final int dayFrom = -4;
@@ -355,9 +388,7 @@ public class ClientZAPI
 		OnResultReceived programsResultReceived = new OnResultReceived()
 		{
 			private int _ndays = 0;
-			private Map<String, List<Program>[]> _channelToProgramLists = new HashMap<String, List<Program>[]>();
 
-			@SuppressWarnings("unchecked")
 			@Override
 			public void onReceiveResult(FeatureError error, Object object)
 			{
@@ -366,45 +397,10 @@ public class ClientZAPI
 				{
 					int day = error.getBundle().getInt("day");
 					Log.i(TAG, "Got programs response for day " + day + " of " + daysTotal);
-					Map<String, List<Program>> channelsToProgram = programResponses[day - dayFrom]
-					        .getChannelsToPrograms();
-
-					for (Map.Entry<String, List<Program>> entry : channelsToProgram.entrySet())
-					{
-						String channelId = entry.getKey();
-						List<Program> programList = entry.getValue();
-						List<Program>[] programLists = _channelToProgramLists.get(channelId);
-						if (programLists == null)
-						{
-							programLists = (List<Program>[]) new ArrayList<?>[daysTotal];
-							_channelToProgramLists.put(channelId, programLists);
-						}
-						programLists[day - dayFrom] = programList;
-					}
 				}
 				if (_ndays == daysTotal)
 				{
-					for (Map.Entry<String, List<Program>[]> entry : _channelToProgramLists.entrySet())
-					{
-						String channelId = entry.getKey();
-						List<Program>[] programLists = entry.getValue();
-						List<Program> allProgramsList = new ArrayList<Program>();
-						NavigableMap<Calendar, Integer> programMap = new TreeMap<Calendar, Integer>();
-						// FIXME: resolve border programs between days
-						for (int day = 0; day < daysTotal; day++)
-						{
-							List<Program> programList = programLists[day];
-							if (programList != null)
-							{
-								for (Program program : programList)
-								{
-									allProgramsList.add(program);
-									programMap.put(program.getStartTime(), allProgramsList.size() - 1);
-								}
-							}
-						}
-						_epgData.addProgramData(channelId, programMap, allProgramsList);
-					}
+					mergePrograms(programResponses, programResponses[0].getDayStart());
 					onResultReceived.onReceiveResult(error, null);
 				}
 			}
@@ -412,9 +408,11 @@ public class ClientZAPI
 
 		for (int day = dayFrom; day < dayTo; day++)
 		{
-			programResponses[day - dayFrom] = new ProgramsResponseCallback(day, programsResultReceived);
 			Calendar startTime = Calendars.getDateByDayOffset(day);
 			Calendar endTime = Calendars.getDateByDayOffset(day + 1);
+			final ProgramsResponseCallback responseCallback = new ProgramsResponseCallback(day,
+			        startTime.getTimeInMillis() / 1000, endTime.getTimeInMillis() / 1000, programsResultReceived);
+			programResponses[day - dayFrom] = responseCallback;
 			endTime.setTimeInMillis(endTime.getTimeInMillis() - 1000);
 			Log.i(TAG,
 			        "day " + day + " is time between " + Calendars.makeString(startTime) + " and "
@@ -422,9 +420,10 @@ public class ClientZAPI
 			                + ((endTime.getTimeInMillis() - startTime.getTimeInMillis()) / 1000));
 			String startTimeParam = String.valueOf(startTime.getTimeInMillis() / 1000); // 1415012400
 			String endTimeParam = String.valueOf(endTime.getTimeInMillis() / 1000); // 1415098800
-			StringRequest stringRequest = new StringRequest(Request.Method.GET, _baseUri
-			        + "/zapi/v2/cached/program/power_guide/" + _pghash + "?start=" + startTimeParam + "&end="
-			        + endTimeParam, programResponses[day - dayFrom], programResponses[day - dayFrom])
+			final String eTag = _dayETags.get(responseCallback.getDayStart());
+			Request<?> programsRequest = new ParseExecutor.RawRequest<Map<String, ProgramSlice>>(_parseExecutor,
+			        Request.Method.GET, _baseUri + "/zapi/v2/cached/program/power_guide/" + _pghash + "?start="
+			                + startTimeParam + "&end=" + endTimeParam, responseCallback, responseCallback)
 			{
 				@Override
 				protected Map<String, String> getParams() throws AuthFailureError
@@ -439,101 +438,217 @@ public class ClientZAPI
 					Map<String, String> header = new HashMap<String, String>();
 					header.put("cookie", _cookie);
 					header.put("Connection", "close");
+					if (eTag != null)
+						header.put("If-None-Match", eTag);
 					return header;
 				}
 
 				@Override
-				protected Response<String> parseNetworkResponse(NetworkResponse response)
+				protected Response<NetworkResponse> parseNetworkResponse(NetworkResponse response)
 				{
 					Map<String, String> responseHeaders = response.headers;
 					_cookie = responseHeaders.get("set-cookie");
+					responseCallback.setETag(getHeader(responseHeaders, "ETag"));
 					return super.parseNetworkResponse(response);
 				}
 			};
-			Log.i(TAG, "call " + stringRequest.getUrl());
-			_requestQueue.add(stringRequest);
+			Log.i(TAG, "call " + programsRequest.getUrl());
+			_requestQueue.add(programsRequest);
 		}
 	}
 
-	private class ProgramsResponseCallback implements Response.Listener<String>, Response.ErrorListener
+	/**
+	 * Merges the programs of the changed days into the EPG data
+	 */
+	private void mergePrograms(ProgramsResponseCallback[] programResponses, long evictBefore)
+	{
+		for (ProgramsResponseCallback programResponse : programResponses)
+		{
+			if (programResponse.isChanged() && programResponse.getETag() != null)
+				_dayETags.put(programResponse.getDayStart(), programResponse.getETag());
+			else if (programResponse.isChanged())
+				_dayETags.remove(programResponse.getDayStart());
+		}
+		Iterator<Long> dayIterator = _dayETags.keySet().iterator();
+		while (dayIterator.hasNext())
+			if (dayIterator.next() < evictBefore)
+				dayIterator.remove();
+
+		for (Channel channel : _epgData.getChannels())
+		{
+			String channelId = channel.getChannelId();
+			int day = 0;
+			while (day < programResponses.length)
+			{
+				if (!programResponses[day].isChanged())
+				{
+					day++;
+					continue;
+				}
+
+				// merge each run of consecutive changed days at once
+				int dayEnd = day;
+				int count = 0;
+				while (dayEnd < programResponses.length && programResponses[dayEnd].isChanged())
+				{
+					ProgramSlice programs = programResponses[dayEnd].getPrograms(channelId);
+					if (programs != null)
+						count += programs.count;
+					dayEnd++;
+				}
+				ProgramSlice programs = new ProgramSlice(count);
+				for (int i = day; i < dayEnd; i++)
+					programs.addAll(programResponses[i].getPrograms(channelId));
+
+				_epgData.mergeProgramData(channelId, programResponses[day].getDayStart(),
+				        programResponses[dayEnd - 1].getDayEnd(), programs.startTimes, programs.stopTimes,
+				        programs.ids, programs.titles, programs.zapiIds, programs.count, evictBefore);
+				day = dayEnd;
+			}
+		}
+		_epgData.evictPrograms(evictBefore);
+	}
+
+	private static String getHeader(Map<String, String> headers, String name)
+	{
+		if (headers == null)
+			return null;
+		for (Map.Entry<String, String> header : headers.entrySet())
+			if (name.equalsIgnoreCase(header.getKey()))
+				return header.getValue();
+		return null;
+	}
+
+	/**
+	 * Programs of a channel in columns as expected by EpgDataColumnar
+	 */
+	private static class ProgramSlice
+	{
+		private long[] startTimes;
+		private long[] stopTimes;
+		private String[] ids;
+		private String[] titles;
+		private String[] zapiIds;
+		private int count;
+
+		ProgramSlice(int capacity)
+		{
+			startTimes = new long[capacity];
+			stopTimes = new long[capacity];
+			ids = new String[capacity];
+			titles = new String[capacity];
+			zapiIds = new String[capacity];
+		}
+
+		void add(long startTime, long stopTime, String id, String title, String zapiId)
+		{
+			startTimes[count] = startTime;
+			stopTimes[count] = stopTime;
+			ids[count] = id;
+			titles[count] = title;
+			zapiIds[count] = zapiId;
+			count++;
+		}
+
+		void addAll(ProgramSlice programs)
+		{
+			if (programs == null)
+				return;
+			for (int i = 0; i < programs.count; i++)
+				add(programs.startTimes[i], programs.stopTimes[i], programs.ids[i], programs.titles[i],
+				        programs.zapiIds[i]);
+		}
+	}
+
+	/**
+	 * Parses the programs of a day on a parser thread and keeps them until
+	 * merged into the EPG data
+	 */
+	private class ProgramsResponseCallback implements ParseExecutor.Parser<Map<String, ProgramSlice>>,
+	        ParseExecutor.OnParsed<Map<String, ProgramSlice>>
 	{
 		protected OnResultReceived _onResultReceived;
-		public static final String FORMAT_PROGRAM_ID = "yyyyMMddHHmmss";
-		private SimpleDateFormat _dfUtc;
-		private FeatureTimeZone _featureTimeZone;
-		private Map<String, List<Program>> _channelsToPrograms = new HashMap<String, List<Program>>();
+		private Map<String, ProgramSlice> _channelsToPrograms = new HashMap<String, ProgramSlice>();
 		private int _day;
+		private long _dayStart;
+		private long _dayEnd;
+		private volatile String _eTag;
+		private boolean _changed;
 
-		ProgramsResponseCallback(int day, OnResultReceived onResultReceived)
+		ProgramsResponseCallback(int day, long dayStart, long dayEnd, OnResultReceived onResultReceived)
 		{
 			_day = day;
+			_dayStart = dayStart;
+			_dayEnd = dayEnd;
 			_onResultReceived = onResultReceived;
-			_dfUtc = new SimpleDateFormat(FORMAT_PROGRAM_ID, Locale.getDefault());
-			_dfUtc.setTimeZone(TimeZone.getTimeZone("UTC"));
-			_featureTimeZone = (FeatureTimeZone) Environment.getInstance().getFeatureComponent(
-			        FeatureName.Component.TIMEZONE);
 		}
 
+		/**
+		 * Parses the programs response by channel id on a parser thread,
+		 * returns null if the programs are not modified
+		 */
 		@Override
-		public void onResponse(String response)
+		public Map<String, ProgramSlice> parse(NetworkResponse response) throws Exception
 		{
-			Log.i(TAG, ".onResponse: response = " + response);
-			try
+			if (response.notModified || response.data == null)
+				return null;
+
+			Map<String, ProgramSlice> channelsToPrograms = new HashMap<String, ProgramSlice>();
+			String json = new String(response.data, HttpHeaderParser.parseCharset(response.headers));
+			JSONObject jsonObj = new JSONObject(json);
+			JSONArray jsonChannels = jsonObj.getJSONArray("channels");
+			for (int i = 0; i < jsonChannels.length(); i++)
 			{
-				JSONObject jsonObj = new JSONObject(response);
-				JSONArray jsonChannels = jsonObj.getJSONArray("channels");
-				for (int i = 0; i < jsonChannels.length(); i++)
+				JSONObject jsonChannel = (JSONObject) jsonChannels.get(i);
+				JSONArray jsonPrograms = (JSONArray) jsonChannel.get("programs");
+				ProgramSlice programs = new ProgramSlice(jsonPrograms.length());
+				for (int j = 0; j < jsonPrograms.length(); j++)
 				{
-					JSONObject jsonChannel = (JSONObject) jsonChannels.get(i);
+					JSONObject jsonProgram = (JSONObject) jsonPrograms.get(j);
+					long startTime = jsonProgram.getLong("s");
+
+					// a program crossing the day border is kept only by the day
+					// it starts in
+					if (startTime < _dayStart || startTime >= _dayEnd)
+						continue;
 
-					Channel channel = _channelsMap.get(jsonChannel.get("cid"));
-					if (channel == null)
-					{
-						Log.w(TAG, "Can't find channel " + jsonChannel.get("cid") + " in the initial map");
-					}
-					else
-					{
-						JSONArray jsonPrograms = (JSONArray) jsonChannel.get("programs");
-						Calendar cal = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
-						List<Program> programList = new ArrayList<Program>(jsonPrograms.length());
-						for (int j = 0; j < jsonPrograms.length(); j++)
-						{
-							JSONObject jsonProgram = (JSONObject) jsonPrograms.get(j);
-
-							// creates zattoo program instance
-							ProgramZattoo program = new ProgramZattoo(_dfUtc.format(cal.getTime()), channel);
-							program.setZapiID(jsonProgram.getString("id"));
-
-							// set program start time
-							cal.setTimeInMillis(jsonProgram.getLong("s") * 1000);
-							Calendar startTime = new GregorianCalendar(_featureTimeZone.getTimeZone());
-							startTime.setTimeInMillis(cal.getTimeInMillis());
-							program.setStartTime(startTime);
-
-							// set program end time
-							cal.setTimeInMillis(jsonProgram.getLong("e") * 1000);
-							Calendar endTime = new GregorianCalendar(_featureTimeZone.getTimeZone());
-							endTime.setTimeInMillis(cal.getTimeInMillis());
-							program.setStopTime(endTime);
-
-							// set program title
-							program.setTitle(jsonProgram.getString("t"));
-
-							// add program to list and calendar map
-							programList.add(program);
-						}
-						_channelsToPrograms.put(channel.getChannelId(), programList);
-					}
+					programs.add(startTime, jsonProgram.getLong("e"), Calendars.formatUTCTime(startTime),
+					        jsonProgram.getString("t"), jsonProgram.getString("id"));
 				}
-				Bundle bundle = new Bundle();
-				bundle.putInt("day", _day);
+				channelsToPrograms.put(jsonChannel.getString("cid"), programs);
+			}
+			return channelsToPrograms;
+		}
+
+		@Override
+		public void onParsed(Map<String, ProgramSlice> channelsToPrograms)
+		{
+			Bundle bundle = new Bundle();
+			bundle.putInt("day", _day);
+			if (channelsToPrograms == null)
+			{
+				Log.i(TAG, ".onParsed: programs of day " + _day + " not modified");
 				_onResultReceived.onReceiveResult(new FeatureError(_ownerFeature, ResultCode.OK, bundle), null);
+				return;
 			}
-			catch (JSONException e)
+
+			Log.i(TAG, ".onParsed: programs of " + channelsToPrograms.size() + " channels for day " + _day);
+			for (Map.Entry<String, ProgramSlice> entry : channelsToPrograms.entrySet())
 			{
-				Log.e(TAG, e.getMessage(), e);
-				_onResultReceived.onReceiveResult(new FeatureError(_ownerFeature, ResultCode.PROTOCOL_ERROR, e), null);
+				if (_channelsMap.containsKey(entry.getKey()))
+					_channelsToPrograms.put(entry.getKey(), entry.getValue());
+				else
+					Log.w(TAG, "Can't find channel " + entry.getKey() + " in the initial map");
 			}
+			_changed = true;
+			_onResultReceived.onReceiveResult(new FeatureError(_ownerFeature, ResultCode.OK, bundle), null);
+		}
+
+		@Override
+		public void onParseError(Exception e)
+		{
+			Log.e(TAG, e.getMessage(), e);
+			_onResultReceived.onReceiveResult(new FeatureError(_ownerFeature, ResultCode.PROTOCOL_ERROR, e), null);
 		}
 
 		@Override
@@ -545,9 +660,37 @@ public class ClientZAPI
 			_onResultReceived.onReceiveResult(new FeatureError(_ownerFeature, error), null);
 		}
 
-		public Map<String, List<Program>> getChannelsToPrograms()
+		void setETag(String eTag)
+		{
+			_eTag = eTag;
+		}
+
+		String getETag()
+		{
+			return _eTag;
+		}
+
+		long getDayStart()
+		{
+			return _dayStart;
+		}
+
+		long getDayEnd()
+		{
+			return _dayEnd;
+		}
+
+		/**
+		 * @return true if the programs of the day have been received and parsed
+		 */
+		boolean isChanged()
+		{
+			return _changed;
+		}
+
+		ProgramSlice getPrograms(String channelId)
 		{
-			return _channelsToPrograms;
+			return _channelsToPrograms.get(channelId);
 		}
 	}
 
@@ -129,7 +129,8 @@ public class FeatureEPGZattoo extends FeatureEPGCompat
 		        Param.ZATTOO_STREAM_MINRATE_ETH), getPrefs().getInt(Param.ZATTOO_STREAM_MAXRATE_ETH), getPrefs()
 		        .getInt(Param.ZATTOO_STREAM_INITRATE_ETH), getPrefs().getInt(Param.ZATTOO_STREAM_MINRATE_WIFI),
 		        getPrefs().getInt(Param.ZATTOO_STREAM_MAXRATE_WIFI), getPrefs().getInt(
-		                Param.ZATTOO_STREAM_INITRATE_WIFI), getPrefs().getInt(FeatureEPGCompat.Param.MAX_CHANNELS));
+		                Param.ZATTOO_STREAM_INITRATE_WIFI), getPrefs().getInt(FeatureEPGCompat.Param.MAX_CHANNELS),
+		        getPrefs().getInt(FeatureEPGCompat.Param.PARSER_THREADS));
 
 		Prefs userPrefs = Environment.getInstance().getUserPrefs();
 		String mac = _feature.Component.DEVICE.getDeviceAttribute(DeviceAttribute.MAC);
@@ -21,6 +21,7 @@ import com.aviq.tv.android.sdk.core.feature.FeatureName;
 import com.aviq.tv.android.sdk.core.feature.FeatureNotFoundException;
 import com.aviq.tv.android.sdk.core.service.ServiceController.OnResultReceived;
 import com.aviq.tv.android.sdk.feature.epg.Channel;
+import com.aviq.tv.android.sdk.feature.epg.EpgDataColumnar;
 import com.aviq.tv.android.sdk.feature.epg.FeatureEPGCompat;
 import com.aviq.tv.android.sdk.feature.epg.Program;
 import com.aviq.tv.android.sdk.feature.system.FeatureDevice.DeviceAttribute;
@@ -132,7 +133,8 @@ public class FeatureEPGZattooDirect extends FeatureEPGCompat
 		        Param.ZATTOO_STREAM_MINRATE_ETH), getPrefs().getInt(Param.ZATTOO_STREAM_MAXRATE_ETH), getPrefs()
 		        .getInt(Param.ZATTOO_STREAM_INITRATE_ETH), getPrefs().getInt(Param.ZATTOO_STREAM_MINRATE_WIFI),
 		        getPrefs().getInt(Param.ZATTOO_STREAM_MAXRATE_WIFI), getPrefs().getInt(
-		                Param.ZATTOO_STREAM_INITRATE_WIFI), getPrefs().getInt(FeatureEPGCompat.Param.MAX_CHANNELS));
+		                Param.ZATTOO_STREAM_INITRATE_WIFI), getPrefs().getInt(FeatureEPGCompat.Param.MAX_CHANNELS),
+		        getPrefs().getInt(FeatureEPGCompat.Param.PARSER_THREADS));
 		Prefs userPrefs = Environment.getInstance().getUserPrefs();
 		String mac = _feature.Component.DEVICE.getDeviceAttribute(DeviceAttribute.MAC);
 		mac = mac.replace(":", "");
@@ -229,9 +231,30 @@ public class FeatureEPGZattooDirect extends FeatureEPGCompat
 	}
 
 	@Override
-	protected void onSchedule(OnFeatureInitialized onFeatureInitialized)
+	protected void onSchedule(final OnFeatureInitialized onFeatureInitialized)
 	{
-		// FIXME: implement scheduled EPG data retrieval
+		if (!getPrefs().getBool(FeatureEPGCompat.Param.DELTA_UPDATE) || !(_epgData instanceof EpgDataColumnar))
+		{
+			// FIXME: implement scheduled full EPG data retrieval
+			onFeatureInitialized.onInitialized(FeatureError.OK(this));
+			return;
+		}
+
+		// update the programs of the loaded EPG data in place
+		if (_clientZAPI.getEpgData() != _epgData)
+			_clientZAPI.setEpgData((EpgDataColumnar) _epgData);
+		_clientZAPI.retrievePrograms(new OnResultReceived()
+		{
+			@Override
+			public void onReceiveResult(FeatureError error, Object object)
+			{
+				Log.i(TAG, "Updating EPG programs finished with status " + error);
+				cacheEpgData();
+				getEventMessenger().trigger(ON_EPG_UPDATED);
+				scheduleDelayed(getPrefs().getInt(FeatureEPGCompat.Param.UPDATE_INTERVAL));
+				onFeatureInitialized.onInitialized(error);
+			}
+		});
 	}
 
 	/**
@@ -249,6 +272,20 @@ public class FeatureEPGZattooDirect extends FeatureEPGCompat
 		return new ProgramZattoo(id, channel);
 	}
 
+	@Override
+	protected Program createProgram(String id, String providerId, Channel channel)
+	{
+		ProgramZattoo program = new ProgramZattoo(id, channel);
+		program.setZapiID(providerId);
+		return program;
+	}
+
+	@Override
+	protected String getProgramProviderId(Program program)
+	{
+		return ((ProgramZattoo) program).getZapiID();
+	}
+
 	@Override
 	protected Channel createChannel(int index)
 	{
@@ -298,6 +335,8 @@ public class FeatureEPGZattooDirect extends FeatureEPGCompat
 		if (!error.isError())
 		{
 			Log.i(TAG, ".onEPGLoadFinished: _onFeatureInitialized = " + _onFeatureInitialized);
+			if (getPrefs().getBool(FeatureEPGCompat.Param.DELTA_UPDATE))
+				scheduleDelayed(getPrefs().getInt(FeatureEPGCompat.Param.UPDATE_INTERVAL));
 			_onFeatureInitialized.onInitialized(error);
 		}
 		else if (error.getCode() == 402)
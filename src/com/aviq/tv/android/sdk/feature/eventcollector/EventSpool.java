@@ -0,0 +1,229 @@
+/**
+ * Copyright (c) 2007-2015, Intelibo Ltd
+ *
+ * Project:     TVBOSDK
+ * Filename:    EventSpool.java
+ * Author:      alek
+ * Date:        18 Oct 2015
+ * Description: Append-only segmented spool of the collected events
+ */
+
+package com.aviq.tv.android.sdk.feature.eventcollector;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import com.aviq.tv.android.sdk.core.Log;
+
+/**
+ * Append-only spool of the collected events kept on disk until uploaded. The
+ * events are appended as lines to the active segment, which is sealed into a
+ * named segment file, gzip compressed if the name ends with .gz. The sealed
+ * segments are deleted after confirmed upload or, oldest first, when the spool
+ * exceeds its maximum size.
+ */
+class EventSpool
+{
+	private static final String TAG = EventSpool.class.getSimpleName();
+	private static final String ACTIVE_SEGMENT = "active.spool";
+	private static final String TMP_EXT = ".tmp";
+	private static final String GZIP_EXT = ".gz";
+	private static final int BUFFER_SIZE = 16 * 1024;
+
+	private final File _dir;
+	private final File _activeFile;
+	private final long _segmentSize;
+	private final long _maxSize;
+	private OutputStream _activeOut;
+	private long _activeSize;
+	private String _lastHeader;
+
+	/**
+	 * @param dir
+	 *            the spool directory
+	 * @param segmentSize
+	 *            size in bytes of the active segment to be sealed
+	 * @param maxSize
+	 *            maximum size in bytes of all segments
+	 */
+	EventSpool(File dir, long segmentSize, long maxSize)
+	{
+		_dir = dir;
+		_activeFile = new File(dir, ACTIVE_SEGMENT);
+		_segmentSize = segmentSize;
+		_maxSize = maxSize;
+		if (!dir.exists())
+			dir.mkdirs();
+
+		// remove segments interrupted while sealing, their active segment is
+		// still present
+		for (File file : listFiles())
+			if (file.getName().endsWith(TMP_EXT))
+				file.delete();
+		_activeSize = _activeFile.length();
+	}
+
+	/**
+	 * Appends event line to the active segment. The line is written to the
+	 * file immediately so it survives the process being killed. The header
+	 * line is written before the event if the segment is new or the header
+	 * has changed, so the events following a header line belong to it.
+	 *
+	 * @param header
+	 *            the header line without line terminator, may be null
+	 * @param line
+	 *            the event line without line terminator
+	 * @return true if the active segment reached the segment size and should be
+	 *         sealed
+	 * @throws IOException
+	 */
+	synchronized boolean append(String header, String line) throws IOException
+	{
+		if (_activeOut == null)
+			_activeOut = new FileOutputStream(_activeFile, true);
+		if (header != null && (_activeSize == 0 || !header.equals(_lastHeader)))
+		{
+			write(header);
+			_lastHeader = header;
+		}
+		write(line);
+		return _activeSize >= _segmentSize;
+	}
+
+	private void write(String line) throws IOException
+	{
+		byte[] data = (line + '\n').getBytes("UTF-8");
+		_activeOut.write(data);
+		_activeSize += data.length;
+	}
+
+	/**
+	 * Seals the active segment into a segment file and deletes the oldest
+	 * segments above the maximum spool size
+	 *
+	 * @param segmentName
+	 *            the name of the sealed segment file
+	 * @return the sealed segment or null if the active segment is empty
+	 * @throws IOException
+	 */
+	synchronized File seal(String segmentName) throws IOException
+	{
+		if (_activeOut != null)
+		{
+			_activeOut.close();
+			_activeOut = null;
+		}
+		if (_activeSize == 0)
+			return null;
+
+		File segment = new File(_dir, segmentName);
+		File tmpFile = new File(_dir, segmentName + TMP_EXT);
+		if (segmentName.endsWith(GZIP_EXT))
+		{
+			InputStream in = new BufferedInputStream(new FileInputStream(_activeFile), BUFFER_SIZE);
+			OutputStream out = null;
+			try
+			{
+				out = new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile), BUFFER_SIZE),
+				        BUFFER_SIZE);
+				byte[] buffer = new byte[BUFFER_SIZE];
+				int n;
+				while ((n = in.read(buffer)) > 0)
+					out.write(buffer, 0, n);
+			}
+			finally
+			{
+				in.close();
+				if (out != null)
+					out.close();
+			}
+			if (!tmpFile.renameTo(segment))
+				throw new IOException("Unable to rename " + tmpFile + " to " + segment);
+			_activeFile.delete();
+		}
+		else if (!_activeFile.renameTo(segment))
+		{
+			throw new IOException("Unable to rename " + _activeFile + " to " + segment);
+		}
+		_activeSize = 0;
+		trim();
+		return segment;
+	}
+
+	/**
+	 * @return the oldest sealed segment or null if none
+	 */
+	synchronized File nextSegment()
+	{
+		List<File> segments = getSegments();
+		return segments.isEmpty() ? null : segments.get(0);
+	}
+
+	/**
+	 * Deletes uploaded segment
+	 */
+	synchronized void remove(File segment)
+	{
+		// the segment may be already dropped by trim while uploading
+		if (segment.exists() && !segment.delete())
+			Log.w(TAG, "Unable to delete segment " + segment);
+	}
+
+	// deletes the oldest segments while the spool is above its maximum size
+	private void trim()
+	{
+		List<File> segments = getSegments();
+		long size = _activeSize;
+		for (File segment : segments)
+			size += segment.length();
+		int nDropped = 0;
+		for (int i = 0; i < segments.size() && size > _maxSize; i++)
+		{
+			File segment = segments.get(i);
+			size -= segment.length();
+			segment.delete();
+			nDropped++;
+		}
+		if (nDropped > 0)
+			Log.w(TAG, "Spool exceeded " + _maxSize + " bytes, dropped " + nDropped + " oldest segments");
+	}
+
+	// returns the sealed segments, oldest first
+	private List<File> getSegments()
+	{
+		List<File> segments = new ArrayList<File>();
+		for (File file : listFiles())
+			if (!file.equals(_activeFile) && !file.getName().endsWith(TMP_EXT))
+				segments.add(file);
+		Collections.sort(segments, new Comparator<File>()
+		{
+			@Override
+			public int compare(File lhs, File rhs)
+			{
+				long lhsModified = lhs.lastModified();
+				long rhsModified = rhs.lastModified();
+				if (lhsModified != rhsModified)
+					return lhsModified < rhsModified ? -1 : 1;
+				return lhs.getName().compareTo(rhs.getName());
+			}
+		});
+		return segments;
+	}
+
+	private File[] listFiles()
+	{
+		File[] files = _dir.listFiles();
+		return files != null ? files : new File[0];
+	}
+}
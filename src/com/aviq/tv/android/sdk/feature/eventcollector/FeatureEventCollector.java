@@ -10,25 +10,29 @@
 
 package com.aviq.tv.android.sdk.feature.eventcollector;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.StringWriter;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
 import java.util.Locale;
 import java.util.Random;
 import java.util.Set;
 import java.util.TimeZone;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
 
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.text.format.Time;
 import android.util.JsonWriter;
 
 import com.aviq.tv.android.sdk.core.Environment;
+import com.aviq.tv.android.sdk.core.EventChannel;
 import com.aviq.tv.android.sdk.core.EventMessenger;
+import com.aviq.tv.android.sdk.core.EventReceiver;
 import com.aviq.tv.android.sdk.core.Log;
+import com.aviq.tv.android.sdk.core.ResultCode;
 import com.aviq.tv.android.sdk.core.feature.FeatureError;
 import com.aviq.tv.android.sdk.core.feature.FeatureName;
 import com.aviq.tv.android.sdk.core.feature.FeatureName.Scheduler;
@@ -70,13 +74,40 @@ public class FeatureEventCollector extends FeatureScheduler
 		EVENTS_SERVER_PASSWORD(""),
 
 		/** Report name template */
-		REPORT_FILENAME_TEMPLATE("${BUILD}-${CUSTOMER}-${BRAND}-${MAC}-${DATETIME}-${RANDOM}.eventlog"),
+		REPORT_FILENAME_TEMPLATE("${BUILD}-${CUSTOMER}-${BRAND}-${MAC}-${DATETIME}-${RANDOM}.eventlog.gz"),
 
 		/** Path to the CA certificate relative to the assets folder */
 		EVENTS_SERVER_CA_CERT_PATH(""),
 
 		/** Tell this feature to send events or not, false = disabled statistics */
-		SEND_EVENTS(false);
+		SEND_EVENTS(false),
+
+		/**
+		 * Maximum number of tracked events waiting to be collected, the oldest
+		 * events are dropped above it
+		 */
+		TRACK_QUEUE_SIZE(256),
+
+		/** Directory where to spool the events before upload */
+		SPOOL_DIRECTORY("eventlog"),
+
+		/**
+		 * Size in bytes of the spooled events to be sealed in a report before
+		 * the next SEND_EVENTS_INTERVAL
+		 */
+		SPOOL_SEGMENT_SIZE(256 * 1024),
+
+		/**
+		 * Maximum size in bytes of the spooled events, the oldest reports are
+		 * dropped above it
+		 */
+		SPOOL_MAX_SIZE(4 * 1024 * 1024),
+
+		/**
+		 * Time in ms after which a report upload without result is abandoned
+		 * and the next upload is allowed
+		 */
+		UPLOAD_TIMEOUT(5 * 60 * 1000);
 
 		Param(boolean value)
 		{
@@ -110,23 +141,99 @@ public class FeatureEventCollector extends FeatureScheduler
 	}
 
 	/**
-	 * keep all collected events until uploading to the tracking server
+	 * keep all collected events on disk until uploading to the tracking server
 	 */
-	private List<Bundle> _eventList = Collections.synchronizedList(new ArrayList<Bundle>());
+	private EventSpool _spool;
 	private boolean _isSendEvents;
 
+	// device and geoip attributes as JSON, updated on connect and geoip
+	private volatile String _header;
+	private final TimestampFormat _timestampFormat = new TimestampFormat();
+
+	// ON_TRACK extras not added to the custom event attributes
+	private final Set<String> _trackExtras = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+
+	// only one report is uploaded at a time, holds the upload start time or 0
+	private final AtomicLong _uploadStarted = new AtomicLong();
+
+	// the serial thread collecting the events, sealing and uploading the
+	// reports
+	private EventChannel _spoolChannel;
+	private EventReceiver _trackReceiver;
+
+	private final Runnable _processRunnable = new Runnable()
+	{
+		@Override
+		public void run()
+		{
+			processCollectedEvents();
+		}
+	};
+
+	private final Runnable _uploadRunnable = new Runnable()
+	{
+		@Override
+		public void run()
+		{
+			uploadReports();
+		}
+	};
+
 	public FeatureEventCollector() throws FeatureNotFoundException
 	{
 		require(FeatureName.Component.DEVICE);
 		require(FeatureName.Scheduler.INTERNET);
+		for (OnTrackExtra extra : OnTrackExtra.values())
+			_trackExtras.add(extra.name());
 	}
 
 	@Override
 	public void initialize(OnFeatureInitialized onFeatureInitialized)
 	{
-		getEventMessenger().register(this, ON_TRACK);
+		// collect tracked events on a background thread
+		_spoolChannel = EventChannel.serial(TAG);
+		_trackReceiver = _spoolChannel.createReceiver(new EventReceiver()
+		{
+			@Override
+			public void onEvent(int msgId, Bundle bundle)
+			{
+				// the immediate events are collected by the direct receiver
+				if (_isSendEvents && !bundle.getBoolean(OnTrackExtra.IMMEDIATE.name()))
+					collectEvent(bundle);
+			}
+		}, getPrefs().getInt(Param.TRACK_QUEUE_SIZE), EventChannel.Overflow.DROP_OLDEST);
+		getEventMessenger().register(_trackReceiver, ON_TRACK);
+
+		// channel receivers always deliver asynchronously, so the immediate
+		// events, e.g. fatal errors triggered directly before the process
+		// exits, are spooled synchronously on the triggering thread after the
+		// events queued before them
+		getEventMessenger().register(new EventReceiver()
+		{
+			@Override
+			public void onEvent(int msgId, Bundle bundle)
+			{
+				if (_isSendEvents && bundle.getBoolean(OnTrackExtra.IMMEDIATE.name()))
+				{
+					_spoolChannel.flush(_trackReceiver);
+					collectEvent(bundle);
+				}
+			}
+		}, ON_TRACK);
 		_feature.Scheduler.INTERNET.getEventMessenger().register(this, FeatureInternet.ON_CONNECTED);
+		_feature.Scheduler.INTERNET.getEventMessenger().register(this, FeatureInternet.ON_GEOIP);
 		_isSendEvents = getPrefs().getBool(Param.SEND_EVENTS);
+		if (_isSendEvents)
+		{
+			updateHeader();
+
+			// the events spooled before the last exit are sealed and sent on
+			// the first schedule
+			File spoolDir = new File(Environment.getInstance().getFilesDir(),
+			        getPrefs().getString(Param.SPOOL_DIRECTORY));
+			_spool = new EventSpool(spoolDir, getPrefs().getInt(Param.SPOOL_SEGMENT_SIZE),
+			        getPrefs().getInt(Param.SPOOL_MAX_SIZE));
+		}
 		onSchedule(onFeatureInitialized);
 	}
 
@@ -140,59 +247,87 @@ public class FeatureEventCollector extends FeatureScheduler
 	public void onEvent(int msgId, Bundle bundle)
 	{
 		super.onEvent(msgId, bundle);
-		if (_isSendEvents && ON_TRACK == msgId)
+		if (_isSendEvents && FeatureInternet.ON_CONNECTED == msgId)
 		{
-			String eventName = bundle.getString(OnTrackExtra.EVENT.name().toLowerCase());
-			if (eventName == null)
-			{
-				Log.e(TAG, "attribute `" + OnTrackExtra.EVENT.name().toLowerCase()
-				        + "' is required but missing in event " + TextUtils.implodeBundle(bundle));
-				return;
-			}
-			String eventSource = bundle.getString(OnTrackExtra.SOURCE.name().toLowerCase());
-			if (eventSource == null)
-			{
-				Log.e(TAG, "attribute `" + OnTrackExtra.SOURCE.name().toLowerCase()
-				        + "' is required but missing in event " + TextUtils.implodeBundle(bundle));
-				return;
-			}
-			Bundle eventParams = new Bundle();
-			eventParams.putBundle("device", createDeviceAttributes());
-			eventParams.putBundle("geoip", createGeoIPAttributes());
-			eventParams.putBundle("event", createEventAttributes(eventName, eventSource));
+			// the network may have changed
+			updateHeader();
 
-			Bundle customAttributes = new Bundle();
-			for (String key : bundle.keySet())
-			{
-				// verify if the custom param is not one of the OnTrackExtra
-				boolean skipParam = false;
-				for (OnTrackExtra extra : OnTrackExtra.values())
-				{
-					if (extra.name().equals(key.toUpperCase()))
-					{
-						skipParam = true;
-						break;
-					}
-				}
+			// resume uploading the reports left by a failed upload
+			_spoolChannel.post(_uploadRunnable);
+		}
+		else if (_isSendEvents && FeatureInternet.ON_GEOIP == msgId)
+		{
+			// the geoip is fetched after ON_CONNECTED
+			updateHeader();
+		}
+	}
 
-				if (!skipParam)
-				{
-					Object value = bundle.get(key);
-					TextUtils.putBundleObject(customAttributes, key, value);
-				}
-			}
-			eventParams.putBundle(eventName, customAttributes);
-			addEvent(eventParams);
+	/**
+	 * Adds tracked event to the collection, the immediate events are sent
+	 * right away. Runs on the spool thread or, for the immediate events, on
+	 * the triggering thread.
+	 */
+	private void collectEvent(Bundle bundle)
+	{
+		String eventName = bundle.getString(OnTrackExtra.EVENT.name().toLowerCase());
+		if (eventName == null)
+		{
+			Log.e(TAG, "attribute `" + OnTrackExtra.EVENT.name().toLowerCase()
+			        + "' is required but missing in event " + TextUtils.implodeBundle(bundle));
+			return;
+		}
+		String eventSource = bundle.getString(OnTrackExtra.SOURCE.name().toLowerCase());
+		if (eventSource == null)
+		{
+			Log.e(TAG, "attribute `" + OnTrackExtra.SOURCE.name().toLowerCase()
+			        + "' is required but missing in event " + TextUtils.implodeBundle(bundle));
+			return;
+		}
+		// device and geoip attributes are written once in the report header
+		Bundle eventParams = new Bundle();
+		eventParams.putBundle("event", createEventAttributes(eventName, eventSource));
 
-			if (bundle.getBoolean(OnTrackExtra.IMMEDIATE.name()))
+		Bundle customAttributes = new Bundle();
+		for (String key : bundle.keySet())
+		{
+			// verify if the custom param is not one of the OnTrackExtra
+			if (!_trackExtras.contains(key))
 			{
-				processCollectedEvents();
+				Object value = bundle.get(key);
+				TextUtils.putBundleObject(customAttributes, key, value);
 			}
 		}
+		eventParams.putBundle(eventName, customAttributes);
+		addEvent(eventParams);
+
+		if (bundle.getBoolean(OnTrackExtra.IMMEDIATE.name()))
+		{
+			// the event is already on disk, sealed and sent from the spool
+			// thread
+			_spoolChannel.post(_processRunnable);
+		}
+	}
+
+	/**
+	 * Recomputes the report header with the device and geoip attributes
+	 */
+	protected void updateHeader()
+	{
+		Bundle header = new Bundle();
+		header.putBundle("device", createDeviceAttributes());
+		header.putBundle("geoip", createGeoIPAttributes());
+		try
+		{
+			_header = toJson(header);
+		}
+		catch (IOException e)
+		{
+			Log.e(TAG, e.getMessage(), e);
+		}
 	}
 
 	/**
-	 * Create device attributes to attach to each event
+	 * Create device attributes to attach to the report header
 	 *
 	 * @return Bundle
 	 */
@@ -208,7 +343,7 @@ public class FeatureEventCollector extends FeatureScheduler
 	}
 
 	/**
-	 * Create geoip attributes to attach to each event
+	 * Create geoip attributes to attach to the report header
 	 *
 	 * @return Bundle
 	 */
@@ -227,10 +362,7 @@ public class FeatureEventCollector extends FeatureScheduler
 	 */
 	protected Bundle createEventAttributes(String name, String source)
 	{
-		TimeZone tzUTC = TimeZone.getTimeZone("UTC");
-		DateFormat df = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
-		df.setTimeZone(tzUTC);
-		String timestamp = df.format(System.currentTimeMillis());
+		String timestamp = _timestampFormat.format(System.currentTimeMillis());
 		Bundle eventParams = new Bundle();
 		eventParams.putString("name", name);
 		eventParams.putString("source", source);
@@ -244,53 +376,89 @@ public class FeatureEventCollector extends FeatureScheduler
 		// process events
 		if (_isSendEvents)
 		{
-			processCollectedEvents();
+			_spoolChannel.post(_processRunnable);
 			scheduleDelayed(getPrefs().getInt(Param.SEND_EVENTS_INTERVAL));
 		}
 		super.initialize(onFeatureInitialized);
 	}
 
 	/**
-	 * Upload all collected events to the tracking server
+	 * Seals the collected events in a report and uploads all reports to the
+	 * tracking server. Runs on the spool thread.
 	 */
 	protected void processCollectedEvents()
 	{
-		Log.v(TAG, "Process " + _eventList.size() + " collected events");
+		try
+		{
+			File report = _spool.seal(newReportName());
+			if (report != null)
+				Log.v(TAG, "Sealed report " + report.getName() + " of " + report.length() + " bytes");
+		}
+		catch (IOException e)
+		{
+			Log.e(TAG, e.getMessage(), e);
+		}
+		uploadReports();
+	}
 
-		String data = null;
-		synchronized (_eventList)
+	/**
+	 * Uploads the sealed reports one by one, oldest first. A report is deleted
+	 * only after the server confirms its upload, the uploading stops on the
+	 * first failure until the next schedule or internet connection. Runs on the
+	 * spool thread.
+	 */
+	private void uploadReports()
+	{
+		final long now = SystemClock.elapsedRealtime();
+		long started = _uploadStarted.get();
+		if (started != 0 && now - started < getPrefs().getInt(Param.UPLOAD_TIMEOUT))
+			return;
+		if (!_uploadStarted.compareAndSet(started, now))
+			return;
+		if (started != 0)
+			Log.w(TAG, "Report upload timed out after " + (now - started) + " ms");
+		final File report = _spool.nextSegment();
+		if (report == null)
 		{
-			data = parseEventListToString(_eventList);
-			_eventList.clear();
+			_uploadStarted.compareAndSet(now, 0);
+			return;
 		}
 
-		if (data != null && data.length() > 0)
+		// UploadService appends the report name to the url
+		Bundle uploadParams = new Bundle();
+		uploadParams.putString(UploadService.Extras.URL.name(), getPrefs().getString(Param.EVENTS_SERVER_URL));
+		uploadParams.putString(UploadService.Extras.CA_CERT_PATH.name(),
+		        getPrefs().getString(Param.EVENTS_SERVER_CA_CERT_PATH));
+		uploadParams.putString(UploadService.Extras.USERNAME.name(),
+		        getPrefs().getString(Param.EVENTS_SERVER_USERNAME));
+		uploadParams.putString(UploadService.Extras.PASSWORD.name(),
+		        getPrefs().getString(Param.EVENTS_SERVER_PASSWORD));
+		uploadParams.putString(UploadService.Extras.LOCAL_FILE.name(), report.getAbsolutePath());
+
+		_feature.Scheduler.INTERNET.uploadFile(uploadParams, new OnResultReceived()
 		{
-			String reportName = newReportName();
-			String url = getPrefs().getString(Param.EVENTS_SERVER_URL);
-			if (url.charAt(url.length() - 1) != '/')
-				url += '/';
-			url += reportName;
-			Bundle uploadParams = new Bundle();
-			uploadParams.putString(UploadService.Extras.URL.name(), url);
-			uploadParams.putString(UploadService.Extras.CA_CERT_PATH.name(),
-			        getPrefs().getString(Param.EVENTS_SERVER_CA_CERT_PATH));
-			uploadParams.putString(UploadService.Extras.USERNAME.name(),
-			        getPrefs().getString(Param.EVENTS_SERVER_USERNAME));
-			uploadParams.putString(UploadService.Extras.PASSWORD.name(),
-			        getPrefs().getString(Param.EVENTS_SERVER_PASSWORD));
-			uploadParams.putString(UploadService.Extras.BUFFER.name(), data);
-
-			_feature.Scheduler.INTERNET.uploadFile(uploadParams, new OnResultReceived()
+			@Override
+			public void onReceiveResult(FeatureError result, Object object)
 			{
-				@Override
-				public void onReceiveResult(FeatureError result, Object object)
-				{
-					if (result.isError())
-						Log.e(TAG, ".uploadFile:onReceiveResult: " + result);
-				}
-			});
-		}
+				// the HTTP status is passed as result code when not 201 or 204
+				int code = result.getCode();
+				boolean uploaded = code == ResultCode.OK || code == 200;
+				if (!uploaded)
+					Log.e(TAG, ".uploadFile:onReceiveResult: " + report.getName() + ": " + result);
+
+				// the report is rejected permanently on client errors, retried
+				// on the next schedule on server or I/O errors
+				boolean rejected = code >= 400 && code < 500;
+				if (rejected)
+					Log.w(TAG, "Dropping rejected report " + report.getName());
+				if (uploaded || rejected)
+					_spool.remove(report);
+
+				// continues only if this upload has not timed out meanwhile
+				if (_uploadStarted.compareAndSet(now, 0) && (uploaded || rejected))
+					_spoolChannel.post(_uploadRunnable);
+			}
+		});
 	}
 
 	/**
@@ -323,12 +491,26 @@ public class FeatureEventCollector extends FeatureScheduler
 	 */
 	protected void addEvent(Bundle eventParams)
 	{
-		synchronized (_eventList)
+		try
+		{
+			if (_spool.append(_header, toJson(eventParams)))
+				_spoolChannel.post(_processRunnable);
+		}
+		catch (IOException e)
 		{
-			_eventList.add(eventParams);
+			Log.e(TAG, e.getMessage(), e);
 		}
 	}
 
+	private String toJson(Bundle bundle) throws IOException
+	{
+		StringWriter out = new StringWriter();
+		JsonWriter writer = new JsonWriter(out);
+		writeBundle(writer, bundle);
+		writer.close();
+		return out.toString();
+	}
+
 	/**
 	 * Writes bundle to JsonWriter
 	 *
@@ -404,37 +586,48 @@ public class FeatureEventCollector extends FeatureScheduler
 	}
 
 	/**
-	 * Creates string buffer from events list
-	 * Concatenate all events represented as JSON strings and separated with new
-	 * line
-	 *
-	 * @param eventList
-	 * @return String with all events
+	 * Formats UTC timestamps as yyyy-MM-dd'T'HH:mm:ss.SSS'Z' formatting the
+	 * date part once per day
 	 */
-	private String parseEventListToString(List<Bundle> eventList)
+	private static class TimestampFormat
 	{
-		StringBuffer data = new StringBuffer();
-		try
-		{
-			for (Bundle event : eventList)
-			{
-				StringWriter out = new StringWriter();
-				JsonWriter writer = new JsonWriter(out);
+		private static final long DAY_MS = 24 * 3600 * 1000L;
 
-				writeBundle(writer, event);
+		private final DateFormat _dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'", Locale.US);
+		private final StringBuilder _sb = new StringBuilder(24);
+		private long _dayStart = -1;
+		private String _datePrefix;
 
-				StringBuffer line = out.getBuffer();
-				data.append(line).append('\n');
+		TimestampFormat()
+		{
+			_dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+		}
 
-				writer.close();
-				out.close();
+		synchronized String format(long millis)
+		{
+			long dayStart = millis - millis % DAY_MS;
+			if (dayStart != _dayStart)
+			{
+				_datePrefix = _dateFormat.format(dayStart);
+				_dayStart = dayStart;
 			}
+			int dayMs = (int) (millis - dayStart);
+			_sb.setLength(0);
+			_sb.append(_datePrefix);
+			appendPadded(dayMs / 3600000, 2).append(':');
+			appendPadded(dayMs / 60000 % 60, 2).append(':');
+			appendPadded(dayMs / 1000 % 60, 2).append('.');
+			appendPadded(dayMs % 1000, 3).append('Z');
+			return _sb.toString();
 		}
-		catch (IOException e)
+
+		private StringBuilder appendPadded(int value, int digits)
 		{
-			Log.e(TAG, e.getMessage(), e);
+			if (digits == 3 && value < 100)
+				_sb.append('0');
+			if (value < 10)
+				_sb.append('0');
+			return _sb.append(value);
 		}
-
-		return data.toString();
 	}
 }
@@ -36,6 +36,7 @@ import android.os.ResultReceiver;
 import android.os.StatFs;
 
 import com.aviq.tv.android.sdk.core.EventMessenger;
+import com.aviq.tv.android.sdk.core.EventPolicy;
 import com.aviq.tv.android.sdk.core.Log;
 import com.aviq.tv.android.sdk.core.ResultCode;
 import com.aviq.tv.android.sdk.core.service.BaseService;
@@ -52,7 +53,7 @@ public class DownloadService extends BaseService
 	private static final int BUFFER_SIZE = 10 * 8192;
 	private static final int ONE_MEGABYTE = 1024 * 1024;
 
-	public static final int DOWNLOAD_PROGRESS = EventMessenger.ID("DOWNLOAD_PROGRESS");
+	public static final int DOWNLOAD_PROGRESS = EventMessenger.ID("DOWNLOAD_PROGRESS", EventPolicy.rateLimit(10));
 	public static final int DOWNLOAD_SUCCESS = EventMessenger.ID("DOWNLOAD_SUCCESS");
 	public static final int DOWNLOAD_CANCELLED = EventMessenger.ID("DOWNLOAD_CANCELLED");
 
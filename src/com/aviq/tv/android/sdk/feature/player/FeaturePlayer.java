@@ -18,6 +18,7 @@ import android.widget.VideoView;
 
 import com.aviq.tv.android.sdk.core.Environment;
 import com.aviq.tv.android.sdk.core.EventMessenger;
+import com.aviq.tv.android.sdk.core.EventPolicy;
 import com.aviq.tv.android.sdk.core.EventReceiver;
 import com.aviq.tv.android.sdk.core.Key;
 import com.aviq.tv.android.sdk.core.Log;
@@ -38,17 +39,17 @@ import com.aviq.tv.android.sdk.utils.TextUtils;
 public class FeaturePlayer extends FeatureComponent implements EventReceiver, AndroidPlayer.OnPlayerStatusListener
 {
 	public static final String TAG = FeaturePlayer.class.getSimpleName();
-	public static final int ON_PLAY_URL = EventMessenger.ID("ON_PLAY_URL");
-	public static final int ON_PLAY_STOP = EventMessenger.ID("ON_PLAY_STOP");
-	public static final int ON_PLAY_STOPPING = EventMessenger.ID("ON_PLAY_STOPPING");
-	public static final int ON_PLAY_PAUSE = EventMessenger.ID("ON_PLAY_PAUSE");
-	public static final int ON_PLAY_PAUSING = EventMessenger.ID("ON_PLAY_PAUSING");
-	public static final int ON_PLAY_RESUMING = EventMessenger.ID("ON_PLAY_RESUMING");
-	public static final int ON_PLAY_STARTED = EventMessenger.ID("ON_PLAY_STARTED");
-	public static final int ON_PLAY_TIMEOUT = EventMessenger.ID("ON_PLAY_TIMEOUT");
-	public static final int ON_PLAY_ERROR = EventMessenger.ID("ON_PLAY_ERROR");
-	public static final int ON_PLAY_FREEZE = EventMessenger.ID("ON_PLAY_FREEZE");
-	public static final int ON_PLAY_UNFREEZE = EventMessenger.ID("ON_PLAY_UNFREEZE");
+	public static final int ON_PLAY_URL = EventMessenger.ID("ON_PLAY_URL", EventPolicy.latest());
+	public static final int ON_PLAY_STOP = EventMessenger.ID("ON_PLAY_STOP", EventPolicy.latest());
+	public static final int ON_PLAY_STOPPING = EventMessenger.ID("ON_PLAY_STOPPING", EventPolicy.latest());
+	public static final int ON_PLAY_PAUSE = EventMessenger.ID("ON_PLAY_PAUSE", EventPolicy.latest());
+	public static final int ON_PLAY_PAUSING = EventMessenger.ID("ON_PLAY_PAUSING", EventPolicy.latest());
+	public static final int ON_PLAY_RESUMING = EventMessenger.ID("ON_PLAY_RESUMING", EventPolicy.latest());
+	public static final int ON_PLAY_STARTED = EventMessenger.ID("ON_PLAY_STARTED", EventPolicy.latest());
+	public static final int ON_PLAY_TIMEOUT = EventMessenger.ID("ON_PLAY_TIMEOUT", EventPolicy.latest());
+	public static final int ON_PLAY_ERROR = EventMessenger.ID("ON_PLAY_ERROR", EventPolicy.latest());
+	public static final int ON_PLAY_FREEZE = EventMessenger.ID("ON_PLAY_FREEZE", EventPolicy.latest());
+	public static final int ON_PLAY_UNFREEZE = EventMessenger.ID("ON_PLAY_UNFREEZE", EventPolicy.latest());
 
 	protected BasePlayer _player;
 	protected VideoView _videoView;
@@ -659,7 +660,8 @@ public class FeaturePlayer extends FeatureComponent implements EventReceiver, An
 	@Override
 	public void onEvent(int msgId, Bundle bundle)
 	{
-		Log.i(TAG, ".onEvent: " + EventMessenger.idName(msgId) + TextUtils.implodeBundle(bundle));
+		if (Log.isLoggable(Log.INFO))
+			Log.i(TAG, ".onEvent: %s%s", EventMessenger.idName(msgId), TextUtils.implodeBundle(bundle));
 		if (FeatureRCU.ON_KEY_PRESSED == msgId)
 		{
 			Key key = Key.valueOf(bundle.getString(Environment.EXTRA_KEY));
@@ -11,6 +11,7 @@
 package com.aviq.tv.android.sdk.feature.rcu;
 
 import com.aviq.tv.android.sdk.core.EventMessenger;
+import com.aviq.tv.android.sdk.core.EventPolicy;
 import com.aviq.tv.android.sdk.core.Key;
 import com.aviq.tv.android.sdk.core.feature.FeatureComponent;
 import com.aviq.tv.android.sdk.core.feature.FeatureName;
@@ -24,8 +25,8 @@ import com.aviq.tv.android.sdk.core.feature.annotation.Author;
 @Author("alek")
 public abstract class FeatureRCU extends FeatureComponent
 {
-	public static final int ON_KEY_PRESSED = EventMessenger.ID("ON_KEY_PRESSED");
-	public static final int ON_KEY_RELEASED = EventMessenger.ID("ON_KEY_RELEASED");
+	public static final int ON_KEY_PRESSED = EventMessenger.ID("ON_KEY_PRESSED", EventPolicy.queue());
+	public static final int ON_KEY_RELEASED = EventMessenger.ID("ON_KEY_RELEASED", EventPolicy.queue());
 
 	@Override
 	public Component getComponentName()
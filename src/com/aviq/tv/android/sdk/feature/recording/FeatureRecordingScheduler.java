@@ -11,7 +11,6 @@ package com.aviq.tv.android.sdk.feature.recording;
 
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Calendar;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -282,9 +281,8 @@ public class FeatureRecordingScheduler extends FeatureComponent
 	private boolean isRecordingExpired(String channelId, String programId)
 	{
 		Channel channel = _feature.Component.EPG.getChannelById(channelId);
-		Calendar startTime = Program.timeById(programId);
-		startTime.add(Calendar.SECOND, channel.getNDVR());
-		return _feature.Component.TIMEZONE.getCurrentTime().after(startTime);
+		long expireTime = Program.timestampById(programId) + channel.getNDVR();
+		return _feature.Component.TIMEZONE.getCurrentTime().getTimeInMillis() / 1000 > expireTime;
 	}
 
 	/**
@@ -423,7 +421,7 @@ public class FeatureRecordingScheduler extends FeatureComponent
 		{
 			if (isProgramRecorded(rec.channelId, rec.programId))
 			{
-				Calendar startTime = Program.timeById(rec.programId);
+				int startTime = (int) Program.timestampById(rec.programId);
 				if (Calendars.getDayOffsetByDate(startTime) == dayOffset)
 				{
 					channelIds.add(rec.channelId);
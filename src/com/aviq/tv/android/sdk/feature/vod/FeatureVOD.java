@@ -34,6 +34,7 @@ import com.aviq.tv.android.sdk.R;
 import com.aviq.tv.android.sdk.core.Environment;
 import com.aviq.tv.android.sdk.core.EventMessenger;
 import com.aviq.tv.android.sdk.core.Log;
+import com.aviq.tv.android.sdk.core.ParseExecutor;
 import com.aviq.tv.android.sdk.core.ResultCode;
 import com.aviq.tv.android.sdk.core.feature.FeatureError;
 import com.aviq.tv.android.sdk.core.feature.FeatureName;
@@ -44,6 +45,7 @@ import com.aviq.tv.android.sdk.core.feature.annotation.Author;
 import com.aviq.tv.android.sdk.core.service.ServiceController.OnResultReceived;
 import com.aviq.tv.android.sdk.feature.command.CommandHandler;
 import com.aviq.tv.android.sdk.feature.system.FeatureDevice.DeviceAttribute;
+import com.aviq.tv.android.sdk.utils.JsonTable;
 
 /**
  * Feature providing VOD data
@@ -140,7 +142,17 @@ public abstract class FeatureVOD extends FeatureScheduler
 		/**
 		 * The maximum recommended VOD items
 		 */
-		MAX_RECOMMENDED(30);
+		MAX_RECOMMENDED(30),
+
+		/**
+		 * JSON parser of VOD groups and items responses, dom or stream
+		 */
+		JSON_PARSER(JsonTable.Parser.stream.name()),
+
+		/**
+		 * The number of threads parsing VOD groups and items responses
+		 */
+		PARSER_THREADS(1);
 
 		Param(boolean value)
 		{
@@ -166,6 +178,8 @@ public abstract class FeatureVOD extends FeatureScheduler
 	protected VodData _vodData;
 	protected VodData _vodDataBeingLoaded;
 	private int _maxRecommended;
+	private JsonTable.Parser _jsonParser;
+	private ParseExecutor _parseExecutor;
 	private String _lastSearchTerm;
 	private List<VODItem> _lastSearchResults = new ArrayList<VODItem>();
 
@@ -189,6 +203,9 @@ public abstract class FeatureVOD extends FeatureScheduler
 		_vodVersion = getPrefs().getInt(Param.VOD_VERSION);
 		_vodServer = getPrefs().getString(Param.VOD_SERVER);
 		_maxRecommended = getPrefs().getInt(Param.MAX_RECOMMENDED);
+		_jsonParser = JsonTable.Parser.valueOf(getPrefs().getString(Param.JSON_PARSER));
+		_parseExecutor = new ParseExecutor(TAG, getPrefs().getInt(Param.PARSER_THREADS), getEventMessenger(),
+		        Environment.getInstance().getFeatureManager().getBootTrace());
 		_requestQueue = Environment.getInstance().getRequestQueue();
 
 		CYRILLIC_CHARS = Environment.getInstance().getResources().getString(R.string.cyrillic_chars);
@@ -211,43 +228,49 @@ public abstract class FeatureVOD extends FeatureScheduler
 
 		Log.i(TAG, "Retrieving VOD groups from " + vodGroupsUrl);
 		VodGroupResponseCallback responseCallback = new VodGroupResponseCallback();
-		JsonObjectRequest vodGroupsRequest = new JsonObjectRequest(vodGroupsUrl, null, responseCallback,
-		        responseCallback);
-		_requestQueue.add(vodGroupsRequest);
+		_requestQueue.add(JsonTable.createRequest(vodGroupsUrl, _jsonParser, _parseExecutor, responseCallback));
 
 		// schedule update later
 		scheduleDelayed(getPrefs().getInt(Param.UPDATE_INTERVAL));
 	}
 
-	private class VodGroupResponseCallback implements Response.Listener<JSONObject>, Response.ErrorListener
+	private class VodGroupResponseCallback implements JsonTable.OnTableReceived
 	{
+		private VODGroup.MetaData _metaData;
+		private List<VODGroup> _vodGroups = new ArrayList<VODGroup>();
+		private Map<String, VODGroup> _vodGroupsMap = new HashMap<String, VODGroup>();
+
 		@Override
-		public void onResponse(JSONObject response)
+		public void onMeta(String[] meta)
 		{
-			try
-			{
-				VODGroup.MetaData metaData = createVodGroupMetaData();
-				JSONArray jsonArr = response.getJSONArray("meta");
-				String[] meta = new String[jsonArr.length()];
-				for (int i = 0; i < jsonArr.length(); i++)
-					meta[i] = jsonArr.get(i).toString();
-				indexVodGroupMetaData(metaData, meta);
-				_vodDataBeingLoaded = parseVodGroupData(metaData, response.getJSONArray("data"));
-
-				// Load VOD items from server
-				String vodItemsUrl = getVodItemsUrl();
-				Log.i(TAG, "Retrieving VOD items from " + vodItemsUrl);
-				VodItemsResponseCallback responseCallback = new VodItemsResponseCallback();
-				JsonObjectRequest vodItemsRequest = new JsonObjectRequest(vodItemsUrl, null, responseCallback,
-				        responseCallback);
-				_requestQueue.add(vodItemsRequest);
-			}
-			catch (JSONException e)
-			{
-				// Vod group load failed, notify error
-				Log.e(TAG, e.getMessage(), e);
-				_onFeatureInitialized.onInitialized(new FeatureError(FeatureVOD.this, ResultCode.PROTOCOL_ERROR, e));
-			}
+			_metaData = createVodGroupMetaData();
+			indexVodGroupMetaData(_metaData, meta);
+		}
+
+		@Override
+		public void onRow(String[] values)
+		{
+			parseVodGroupData(_metaData, values, _vodGroups, _vodGroupsMap);
+		}
+
+		@Override
+		public void onTableReceived()
+		{
+			_vodDataBeingLoaded = new VodData(_vodGroups);
+
+			// Load VOD items from server
+			String vodItemsUrl = getVodItemsUrl();
+			Log.i(TAG, "Retrieving VOD items from " + vodItemsUrl);
+			VodItemsResponseCallback responseCallback = new VodItemsResponseCallback(_vodDataBeingLoaded);
+			_requestQueue.add(JsonTable.createRequest(vodItemsUrl, _jsonParser, _parseExecutor, responseCallback));
+		}
+
+		@Override
+		public void onTableError(Exception e)
+		{
+			// Vod group load failed, notify error
+			Log.e(TAG, e.getMessage(), e);
+			_onFeatureInitialized.onInitialized(new FeatureError(FeatureVOD.this, ResultCode.PROTOCOL_ERROR, e));
 		}
 
 		@Override
@@ -262,34 +285,47 @@ public abstract class FeatureVOD extends FeatureScheduler
 		}
 	}
 
-	private class VodItemsResponseCallback implements Response.Listener<JSONObject>, Response.ErrorListener
+	private class VodItemsResponseCallback implements JsonTable.OnTableReceived
 	{
+		private VodData _newVodData;
+		private VODItem.MetaData _metaData;
+		private Map<VODGroup, List<VODItem>> _vodGroupItemsMap = new HashMap<VODGroup, List<VODItem>>();
+
+		VodItemsResponseCallback(VodData vodData)
+		{
+			_newVodData = vodData;
+		}
+
 		@Override
-		public void onResponse(JSONObject response)
+		public void onMeta(String[] meta)
 		{
-			try
-			{
-				VODItem.MetaData metaData = createVodItemMetaData();
-				JSONArray jsonArr = response.getJSONArray("meta");
-				String[] meta = new String[jsonArr.length()];
-				for (int i = 0; i < jsonArr.length(); i++)
-					meta[i] = jsonArr.get(i).toString();
-
-				// the meta data is the same as for vod group
-				indexVodItemMetaData(metaData, meta);
-				parseVodItemsData(_vodDataBeingLoaded, metaData, response.getJSONArray("data"));
-
-				_vodData = _vodDataBeingLoaded;
-				_vodDataBeingLoaded = null;
-				getEventMessenger().trigger(ON_VOD_UPDATED);
-				FeatureVOD.super.initialize(_onFeatureInitialized);
-			}
-			catch (JSONException e)
-			{
-				// Vod items load failed, notify error
-				Log.e(TAG, e.getMessage(), e);
-				_onFeatureInitialized.onInitialized(new FeatureError(FeatureVOD.this, ResultCode.PROTOCOL_ERROR, e));
-			}
+			// the meta data is the same as for vod group
+			_metaData = createVodItemMetaData();
+			indexVodItemMetaData(_metaData, meta);
+		}
+
+		@Override
+		public void onRow(String[] values)
+		{
+			parseVodItemsData(_newVodData, _metaData, values, _vodGroupItemsMap);
+		}
+
+		@Override
+		public void onTableReceived()
+		{
+			_newVodData.setVodGroupItems(_vodGroupItemsMap);
+			_vodData = _newVodData;
+			_vodDataBeingLoaded = null;
+			getEventMessenger().trigger(ON_VOD_UPDATED);
+			FeatureVOD.super.initialize(_onFeatureInitialized);
+		}
+
+		@Override
+		public void onTableError(Exception e)
+		{
+			// Vod items load failed, notify error
+			Log.e(TAG, e.getMessage(), e);
+			_onFeatureInitialized.onInitialized(new FeatureError(FeatureVOD.this, ResultCode.PROTOCOL_ERROR, e));
 		}
 
 		@Override
@@ -371,83 +407,48 @@ public abstract class FeatureVOD extends FeatureScheduler
 		indexVodGroupMetaData(metaData, meta);
 	}
 
-	private VodData parseVodGroupData(VODGroup.MetaData metaData, JSONArray data) throws JSONException
+	private void parseVodGroupData(VODGroup.MetaData metaData, String[] values, List<VODGroup> vodGroups,
+	        Map<String, VODGroup> vodMap)
 	{
-		List<VODGroup> newVodGroupList = new ArrayList<VODGroup>();
-		Map<String, VODGroup> vodMap = new HashMap<String, VODGroup>();
-
-		for (int i = 0; i < data.length(); i++)
-		{
-			JSONArray jsonArr = data.getJSONArray(i);
-			String[] values = new String[jsonArr.length()];
-			for (int j = 0; j < jsonArr.length(); j++)
-			{
-				if (jsonArr.get(j) != null)
-				{
-					if (!jsonArr.isNull(j))
-						values[j] = jsonArr.get(j).toString();
-				}
-			}
-
-			VODGroup parent = null;
-			String parentId = values[metaData.metaVodGroupParent];
-			if (parentId != null)
-				parent = vodMap.get(parentId);
+		VODGroup parent = null;
+		String parentId = values[metaData.metaVodGroupParent];
+		if (parentId != null)
+			parent = vodMap.get(parentId);
 
-			String vodGroupId = values[metaData.metaVodGroupId];
-			String vodGroupTitle = values[metaData.metaVodGroupTitle];
-			VODGroup vodGroup = createVodGroup(vodGroupId, vodGroupTitle, parent);
-			vodMap.put(vodGroup.getId(), vodGroup);
+		String vodGroupId = values[metaData.metaVodGroupId];
+		String vodGroupTitle = values[metaData.metaVodGroupTitle];
+		VODGroup vodGroup = createVodGroup(vodGroupId, vodGroupTitle, parent);
+		vodMap.put(vodGroup.getId(), vodGroup);
 
-			vodGroup.setAttributes(metaData, values);
+		vodGroup.setAttributes(metaData, values);
 
-			newVodGroupList.add(vodGroup);
-		}
-
-		return new VodData(newVodGroupList);
+		vodGroups.add(vodGroup);
 	}
 
-	private void parseVodItemsData(VodData vodData, VODItem.MetaData metaData, JSONArray data) throws JSONException
+	private void parseVodItemsData(VodData vodData, VODItem.MetaData metaData, String[] values,
+	        Map<VODGroup, List<VODItem>> vodGroupItemsMap)
 	{
-		Map<VODGroup, List<VODItem>> newVodGroupItemsMap = new HashMap<VODGroup, List<VODItem>>();
-
-		for (int i = 0; i < data.length(); i++)
+		String vodItemId = values[metaData.metaVodGroupId];
+		String parentId = values[metaData.metaVodGroupParent];
+		if (parentId != null)
 		{
-			JSONArray jsonArr = data.getJSONArray(i);
-			String[] values = new String[jsonArr.length()];
-			for (int j = 0; j < jsonArr.length(); j++)
-			{
-				if (!jsonArr.isNull(j))
-				{
-					if (jsonArr.get(j) != null)
-						values[j] = jsonArr.get(j).toString();
-				}
-			}
+			VODGroup parent = vodData.getVodGroupById(parentId);
+			String vodItemTitle = values[metaData.metaVodGroupTitle];
+			VODItem vodItem = createVodItem(vodItemId, vodItemTitle, parent);
+			vodItem.setAttributes(metaData, values);
 
-			String vodItemId = values[metaData.metaVodGroupId];
-			String parentId = values[metaData.metaVodGroupParent];
-			if (parentId != null)
+			List<VODItem> vodItems = vodGroupItemsMap.get(parent);
+			if (vodItems == null)
 			{
-				VODGroup parent = vodData.getVodGroupById(parentId);
-				String vodItemTitle = values[metaData.metaVodGroupTitle];
-				VODItem vodItem = createVodItem(vodItemId, vodItemTitle, parent);
-				vodItem.setAttributes(metaData, values);
-
-				List<VODItem> vodItems = newVodGroupItemsMap.get(parent);
-				if (vodItems == null)
-				{
-					vodItems = new ArrayList<VODItem>();
-					newVodGroupItemsMap.put(parent, vodItems);
-				}
-				vodItems.add(vodItem);
-			}
-			else
-			{
-				Log.w(TAG, "Parent id is missing in vod item " + vodItemId);
+				vodItems = new ArrayList<VODItem>();
+				vodGroupItemsMap.put(parent, vodItems);
 			}
+			vodItems.add(vodItem);
+		}
+		else
+		{
+			Log.w(TAG, "Parent id is missing in vod item " + vodItemId);
 		}
-
-		vodData.setVodGroupItems(newVodGroupItemsMap);
 	}
 
 	/**
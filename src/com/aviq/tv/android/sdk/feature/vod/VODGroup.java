@@ -75,7 +75,8 @@ public abstract class VODGroup
 	 *            indexed meta data
 	 * @param attributes
 	 *            String array with the essential data positioned according the
-	 *            meta data indices
+	 *            meta data indices. The array is reused between rows and must
+	 *            not be retained.
 	 */
 	public abstract void setAttributes(MetaData metaData, String[] attributes);
 
@@ -11,7 +11,6 @@
 package com.aviq.tv.android.sdk.feature.watchlist;
 
 import java.util.ArrayList;
-import java.util.Calendar;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
@@ -154,7 +153,7 @@ public class FeatureWatchlist extends FeatureComponent
 	 */
 	public boolean isExpired(Program program)
 	{
-		return Calendar.getInstance().compareTo(program.getStartTime()) > 0;
+		return System.currentTimeMillis() > program.getStartTime().getTimeInMillis();
 	}
 
 	public void enableNotifications()
@@ -198,26 +197,34 @@ public class FeatureWatchlist extends FeatureComponent
 		if (epgData == null || !_userPrefs.has(UserParam.WATCHLIST))
 			return programs;
 		String buffer = _userPrefs.getString(UserParam.WATCHLIST);
-		String[] programIds = buffer.split(",");
-		for (String programId : programIds)
+		String[] programKeys = buffer.split(",");
+		List<String> chIds = new ArrayList<String>(programKeys.length);
+		List<String> prIds = new ArrayList<String>(programKeys.length);
+		for (String programKey : programKeys)
 		{
-			String[] idElements = programId.split("/");
+			String[] idElements = programKey.split("/");
 			if (idElements.length != 2)
 			{
-				Log.w(TAG, "Invalid program ID saved in the watchlist: " + programId);
+				Log.w(TAG, "Invalid program ID saved in the watchlist: " + programKey);
 			}
 			else
 			{
-				String chId = idElements[0];
-				String prId = idElements[1];
-				Program program = epgData.getProgramById(chId, prId);
-				if (program == null)
-				{
-					Log.w(TAG, "Program " + prId + " not found in channel " + chId);
-					continue;
-				}
-				programs.add(program);
+				chIds.add(idElements[0]);
+				prIds.add(idElements[1]);
+			}
+		}
+
+		// resolve all programs in one pass
+		List<Program> resolvedPrograms = epgData.getProgramsByIds(chIds, prIds);
+		for (int i = 0; i < resolvedPrograms.size(); i++)
+		{
+			Program program = resolvedPrograms.get(i);
+			if (program == null)
+			{
+				Log.w(TAG, "Program " + prIds.get(i) + " not found in channel " + chIds.get(i));
+				continue;
 			}
+			programs.add(program);
 		}
 		return programs;
 	}
@@ -247,7 +254,7 @@ public class FeatureWatchlist extends FeatureComponent
 	{
 		getEventMessenger().removeCallbacks(_onProgramNotification);
 		_onProgramNotification.NotifyProgram = program;
-		long now = Calendar.getInstance().getTimeInMillis();
+		long now = System.currentTimeMillis();
 		long delayToNotify = program.getStartTime().getTimeInMillis() - now - 1000 * _notifyEarlier;
 		if (delayToNotify < 0)
 			delayToNotify = 5 * 1000;
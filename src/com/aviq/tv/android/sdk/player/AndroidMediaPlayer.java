@@ -211,7 +211,7 @@ public class AndroidMediaPlayer extends BasePlayer implements OnBufferingUpdateL
 	@Override
 	public void setPositionAndSize(int x, int y, int w, int h)
 	{
-		Log.i(TAG, ".setPositionAndSize: " + x + "," + y + " " + w + "x" + h);
+		Log.i(TAG, ".setPositionAndSize: %d,%d %dx%d", x, y, w, h);
 		RelativeLayout.LayoutParams params = new RelativeLayout.LayoutParams(w, h);
 		params.leftMargin = x;
 		params.topMargin = y;
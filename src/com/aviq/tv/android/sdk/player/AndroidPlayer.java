@@ -130,7 +130,7 @@ public class AndroidPlayer extends BasePlayer implements OnCompletionListener, O
 	@Override
 	public void seekTo(int offset)
 	{
-		Log.i(TAG, ".seekTo: offset = " + offset);
+		Log.i(TAG, ".seekTo: offset = %d", offset);
 		super.seekTo(offset);
 		_videoView.seekTo(offset);
 	}
@@ -181,7 +181,7 @@ public class AndroidPlayer extends BasePlayer implements OnCompletionListener, O
 	@Override
 	public void setPositionAndSize(int x, int y, int w, int h)
 	{
-		Log.i(TAG, ".setPositionAndSize: " + x + "," + y + " " + w + "x" + h);
+		Log.i(TAG, ".setPositionAndSize: %d,%d %dx%d", x, y, w, h);
 		RelativeLayout.LayoutParams params = new RelativeLayout.LayoutParams(w, h);
 		params.leftMargin = x;
 		params.topMargin = y;
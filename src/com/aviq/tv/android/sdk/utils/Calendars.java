@@ -28,6 +28,12 @@ public class Calendars
 	public static final String FORMAT_DATE = "yyyy-MM-dd";
 	public static final String FORMAT_TIME_HHMM = "HH:mm";
 	public static final String FORMAT_TIME_HHMMSS = "HH:mm:ss";
+	public static final String FORMAT_UTC_TIME = "yyyyMMddHHmmss";
+
+	private static final int UTC_TIME_LENGTH = 14;
+	private static final int SECONDS_PER_DAY = 24 * 60 * 60;
+	private static final int DAYS_PER_ERA = 146097;
+	private static final int DAYS_TO_EPOCH = 719468;
 
 	/**
 	 * @return Current time in unix timestamp in seconds
@@ -277,4 +283,139 @@ public class Calendars
 
 		return calendar;
 	}
+
+	/**
+	 * Parses UTC time formatted as Calendars.FORMAT_UTC_TIME without
+	 * allocations. Safe to be called from any thread.
+	 *
+	 * @param text
+	 *            UTC time formatted as yyyyMMddHHmmss
+	 * @return unix timestamp in seconds
+	 * @throws ParseException
+	 *             if the text is not a valid yyyyMMddHHmmss time
+	 */
+	public static long parseUTCTime(CharSequence text) throws ParseException
+	{
+		if (text == null || text.length() != UTC_TIME_LENGTH)
+			throw new ParseException("Unparseable UTC time: \"" + text + "\"", 0);
+
+		int year = parseDigits(text, 0, 4);
+		int month = parseDigits(text, 4, 2);
+		int day = parseDigits(text, 6, 2);
+		int hour = parseDigits(text, 8, 2);
+		int minute = parseDigits(text, 10, 2);
+		int second = parseDigits(text, 12, 2);
+
+		if (month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month) || hour > 23 || minute > 59
+		        || second > 59)
+			throw new ParseException("Unparseable UTC time: \"" + text + "\"", 4);
+
+		return daysFromCivil(year, month, day) * SECONDS_PER_DAY + hour * 3600 + minute * 60 + second;
+	}
+
+	/**
+	 * Formats unix timestamp as UTC time in Calendars.FORMAT_UTC_TIME into
+	 * the specified buffer without allocations. Safe to be called from any
+	 * thread.
+	 *
+	 * @param timestamp
+	 *            unix timestamp in seconds
+	 * @param buffer
+	 *            receives 14 characters formatted as yyyyMMddHHmmss
+	 * @param offset
+	 *            the buffer offset to start formatting from
+	 */
+	public static void formatUTCTime(long timestamp, char[] buffer, int offset)
+	{
+		long days = timestamp / SECONDS_PER_DAY;
+		int secondOfDay = (int) (timestamp % SECONDS_PER_DAY);
+		if (secondOfDay < 0)
+		{
+			secondOfDay += SECONDS_PER_DAY;
+			days--;
+		}
+
+		// civil from days, see http://howardhinnant.github.io/date_algorithms.html
+		days += DAYS_TO_EPOCH;
+		long era = (days >= 0 ? days : days - DAYS_PER_ERA + 1) / DAYS_PER_ERA;
+		int dayOfEra = (int) (days - era * DAYS_PER_ERA);
+		int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+		int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+		int mp = (5 * dayOfYear + 2) / 153;
+		int day = dayOfYear - (153 * mp + 2) / 5 + 1;
+		int month = mp < 10 ? mp + 3 : mp - 9;
+		int year = (int) (yearOfEra + era * 400) + (month <= 2 ? 1 : 0);
+
+		formatDigits(year, buffer, offset, 4);
+		formatDigits(month, buffer, offset + 4, 2);
+		formatDigits(day, buffer, offset + 6, 2);
+		formatDigits(secondOfDay / 3600, buffer, offset + 8, 2);
+		formatDigits(secondOfDay / 60 % 60, buffer, offset + 10, 2);
+		formatDigits(secondOfDay % 60, buffer, offset + 12, 2);
+	}
+
+	/**
+	 * Formats unix timestamp as UTC time in Calendars.FORMAT_UTC_TIME. Safe to
+	 * be called from any thread.
+	 *
+	 * @param timestamp
+	 *            unix timestamp in seconds
+	 * @return UTC time formatted as yyyyMMddHHmmss
+	 */
+	public static String formatUTCTime(long timestamp)
+	{
+		char[] buffer = new char[UTC_TIME_LENGTH];
+		formatUTCTime(timestamp, buffer, 0);
+		return new String(buffer);
+	}
+
+	private static int parseDigits(CharSequence text, int offset, int count) throws ParseException
+	{
+		int value = 0;
+		for (int i = offset; i < offset + count; i++)
+		{
+			int digit = text.charAt(i) - '0';
+			if (digit < 0 || digit > 9)
+				throw new ParseException("Unparseable UTC time: \"" + text + "\"", i);
+			value = value * 10 + digit;
+		}
+		return value;
+	}
+
+	private static void formatDigits(int value, char[] buffer, int offset, int count)
+	{
+		for (int i = offset + count - 1; i >= offset; i--)
+		{
+			buffer[i] = (char) ('0' + value % 10);
+			value /= 10;
+		}
+	}
+
+	private static int daysInMonth(int year, int month)
+	{
+		switch (month)
+		{
+			case 2:
+				return (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+			case 4:
+			case 6:
+			case 9:
+			case 11:
+				return 30;
+			default:
+				return 31;
+		}
+	}
+
+	// days since 1970-01-01 of the proleptic Gregorian date
+	private static long daysFromCivil(int year, int month, int day)
+	{
+		if (month <= 2)
+			year--;
+		int era = (year >= 0 ? year : year - 399) / 400;
+		int yearOfEra = year - era * 400;
+		int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+		int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		return (long) era * DAYS_PER_ERA + dayOfEra - DAYS_TO_EPOCH;
+	}
 }
@@ -0,0 +1,304 @@
+/**
+ * Copyright (c) 2007-2015, Intelibo Ltd
+ *
+ * Project:     TVBOSDK
+ * Filename:    JsonTable.java
+ * Author:      alek
+ * Date:        18 Oct 2015
+ * Description: Reads tabular JSON responses in meta/data format
+ */
+
+package com.aviq.tv.android.sdk.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+import com.android.volley.toolbox.HttpHeaderParser;
+import com.aviq.tv.android.sdk.core.ParseExecutor;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/**
+ * Reads tabular JSON responses of the form
+ * {"meta": ["column", ...], "data": [["value", ...], ...]} row by row. The
+ * stream parser reads the response without building JSON DOM into a single
+ * values array per row. Requested tables are parsed on the threads of a
+ * ParseExecutor.
+ */
+public class JsonTable
+{
+	/**
+	 * JSON parser implementation
+	 */
+	public enum Parser
+	{
+		/**
+		 * Parses the response into org.json DOM first
+		 */
+		dom,
+
+		/**
+		 * Streams the response rows directly from the response bytes
+		 */
+		stream
+	}
+
+	/**
+	 * Receives table columns and rows
+	 */
+	public interface RowHandler
+	{
+		/**
+		 * Called once before the first row
+		 *
+		 * @param meta
+		 *            column names
+		 * @throws IOException
+		 *             to abort reading the table
+		 */
+		void onMeta(String[] meta) throws IOException;
+
+		/**
+		 * Called for each data row
+		 *
+		 * @param values
+		 *            row values by column index, null for JSON null. The array
+		 *            is created for this row and is owned by the handler, so
+		 *            it may be retained without copying.
+		 */
+		void onRow(String[] values);
+	}
+
+	/**
+	 * Receives the rows of a table requested with createRequest. The meta and
+	 * rows are received on a parser thread, the rest of the callbacks are
+	 * invoked on the main thread.
+	 */
+	public interface OnTableReceived extends RowHandler, Response.ErrorListener
+	{
+		/**
+		 * Called after the last row
+		 */
+		void onTableReceived();
+
+		/**
+		 * Called when the response cannot be parsed
+		 */
+		void onTableError(Exception e);
+	}
+
+	/**
+	 * Creates volley request reading table rows with the specified parser
+	 *
+	 * @param url
+	 *            the table url
+	 * @param parser
+	 *            the JSON parser implementation
+	 * @param parseExecutor
+	 *            executor of the parsing
+	 * @param onTableReceived
+	 *            receives the table rows
+	 * @return new request to be added to a request queue
+	 */
+	public static Request<?> createRequest(String url, final Parser parser, ParseExecutor parseExecutor,
+	        final OnTableReceived onTableReceived)
+	{
+		return new ParseExecutor.RawRequest<Void>(parseExecutor, Request.Method.GET, url,
+		        new ParseExecutor.Parser<Void>()
+		        {
+			        @Override
+			        public Void parse(NetworkResponse response) throws Exception
+			        {
+				        read(response, parser, onTableReceived);
+				        return null;
+			        }
+		        }, new ParseExecutor.OnParsed<Void>()
+		        {
+			        @Override
+			        public void onParsed(Void result)
+			        {
+				        onTableReceived.onTableReceived();
+			        }
+
+			        @Override
+			        public void onParseError(Exception e)
+			        {
+				        onTableReceived.onTableError(e);
+			        }
+
+			        @Override
+			        public void onErrorResponse(VolleyError error)
+			        {
+				        onTableReceived.onErrorResponse(error);
+			        }
+		        });
+	}
+
+	/**
+	 * Reads table rows from network response with the specified parser
+	 */
+	public static void read(NetworkResponse response, Parser parser, RowHandler rowHandler) throws IOException,
+	        JSONException
+	{
+		String charset = HttpHeaderParser.parseCharset(response.headers);
+		if (Parser.stream.equals(parser))
+			read(new InputStreamReader(new ByteArrayInputStream(response.data), charset), rowHandler);
+		else
+			read(new JSONObject(new String(response.data, charset)), rowHandler);
+	}
+
+	/**
+	 * Reads table rows from JSON DOM
+	 */
+	public static void read(JSONObject response, RowHandler rowHandler) throws JSONException, IOException
+	{
+		JSONArray jsonMeta = response.getJSONArray("meta");
+		String[] meta = new String[jsonMeta.length()];
+		for (int i = 0; i < jsonMeta.length(); i++)
+			meta[i] = jsonMeta.get(i).toString();
+		rowHandler.onMeta(meta);
+
+		JSONArray data = response.getJSONArray("data");
+		for (int i = 0; i < data.length(); i++)
+		{
+			JSONArray jsonArr = data.getJSONArray(i);
+			String[] values = new String[jsonArr.length()];
+			for (int j = 0; j < jsonArr.length(); j++)
+			{
+				if (!jsonArr.isNull(j))
+					values[j] = jsonArr.get(j).toString();
+			}
+			rowHandler.onRow(values);
+		}
+	}
+
+	/**
+	 * Reads table rows from JSON stream
+	 */
+	public static void read(Reader in, RowHandler rowHandler) throws IOException
+	{
+		JsonReader reader = new JsonReader(in);
+		try
+		{
+			String[] meta = null;
+
+			// rows received before the meta are kept until the meta is known
+			List<String[]> pendingRows = null;
+
+			reader.beginObject();
+			while (reader.hasNext())
+			{
+				String name = reader.nextName();
+				if ("meta".equals(name))
+				{
+					List<String> columns = new ArrayList<String>();
+					reader.beginArray();
+					while (reader.hasNext())
+						columns.add(readValue(reader));
+					reader.endArray();
+					meta = columns.toArray(new String[columns.size()]);
+					rowHandler.onMeta(meta);
+
+					if (pendingRows != null)
+					{
+						for (String[] row : pendingRows)
+							rowHandler.onRow(row);
+						pendingRows = null;
+					}
+				}
+				else if ("data".equals(name))
+				{
+					reader.beginArray();
+					while (reader.hasNext())
+					{
+						if (meta != null)
+						{
+							String[] values = new String[meta.length];
+							readRow(reader, values);
+							rowHandler.onRow(values);
+						}
+						else
+						{
+							if (pendingRows == null)
+								pendingRows = new ArrayList<String[]>();
+							pendingRows.add(readRow(reader));
+						}
+					}
+					reader.endArray();
+				}
+				else
+				{
+					reader.skipValue();
+				}
+			}
+			reader.endObject();
+
+			if (meta == null)
+				throw new IOException("Missing meta in JSON table");
+		}
+		catch (IllegalStateException e)
+		{
+			// unexpected JSON token
+			throw new IOException(e.getMessage());
+		}
+		finally
+		{
+			reader.close();
+		}
+	}
+
+	private static void readRow(JsonReader reader, String[] values) throws IOException
+	{
+		reader.beginArray();
+		for (int j = 0; reader.hasNext(); j++)
+		{
+			if (j < values.length)
+				values[j] = readValue(reader);
+			else
+				reader.skipValue();
+		}
+		reader.endArray();
+	}
+
+	private static String[] readRow(JsonReader reader) throws IOException
+	{
+		List<String> values = new ArrayList<String>();
+		reader.beginArray();
+		while (reader.hasNext())
+			values.add(readValue(reader));
+		reader.endArray();
+		return values.toArray(new String[values.size()]);
+	}
+
+	private static String readValue(JsonReader reader) throws IOException
+	{
+		JsonToken token = reader.peek();
+		switch (token)
+		{
+			case NULL:
+				reader.nextNull();
+				return null;
+			case BOOLEAN:
+				return String.valueOf(reader.nextBoolean());
+			case BEGIN_ARRAY:
+			case BEGIN_OBJECT:
+				// nested values are kept in their JSON form
+				return new JsonParser().parse(reader).toString();
+			default:
+				return reader.nextString();
+		}
+	}
+}
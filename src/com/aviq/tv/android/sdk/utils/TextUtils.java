@@ -163,7 +163,8 @@ public class TextUtils
 	/**
 	 * Substitutes all occurrences of ${<i>key</i>} with bundle.get(<i>key</i>)
 	 * in the
-	 * input string, for all <i>key</i> in bundle's key set
+	 * input string, for all <i>key</i> in bundle's key set. Use UrlTemplate
+	 * to substitute the same input repeatedly.
 	 *
 	 * @param input
 	 *            the string in which to find ${<i>key</i>} occurrences
@@ -173,11 +174,7 @@ public class TextUtils
 	 */
 	public static String substitute(String input, Bundle bundle)
 	{
-		for (String key : bundle.keySet())
-		{
-			input = input.replaceAll("\\$\\{" + key + "\\}", String.valueOf(bundle.get(key)));
-		}
-		return input;
+		return UrlTemplate.compile(input).render(bundle);
 	}
 
 	/**
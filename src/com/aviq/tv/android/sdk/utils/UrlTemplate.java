@@ -0,0 +1,126 @@
+/**
+ * Copyright (c) 2007-2015, Intelibo Ltd
+ *
+ * Project:     TVBOSDK
+ * Filename:    UrlTemplate.java
+ * Author:      alek
+ * Date:        18 Oct 2015
+ * Description: String template with ${key} placeholders parsed once
+ */
+
+package com.aviq.tv.android.sdk.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.os.Bundle;
+
+/**
+ * String template with ${<i>key</i>} placeholders, parsed once into literal
+ * parts and keys and rendered in a single pass. Placeholders of keys missing
+ * in the rendering bundle are kept unchanged.
+ */
+public class UrlTemplate
+{
+	private static final ThreadLocal<StringBuilder> _builder = new ThreadLocal<StringBuilder>()
+	{
+		@Override
+		protected StringBuilder initialValue()
+		{
+			return new StringBuilder(256);
+		}
+	};
+
+	private final String _template;
+
+	// literal parts around the placeholders, one more than the keys
+	private final String[] _literals;
+	private final String[] _keys;
+
+	private UrlTemplate(String template, String[] literals, String[] keys)
+	{
+		_template = template;
+		_literals = literals;
+		_keys = keys;
+	}
+
+	/**
+	 * Parses template
+	 *
+	 * @param template
+	 *            the string with ${<i>key</i>} placeholders
+	 * @return the parsed template
+	 */
+	public static UrlTemplate compile(String template)
+	{
+		List<String> literals = new ArrayList<String>();
+		List<String> keys = new ArrayList<String>();
+		int literalStart = 0;
+		int pos = 0;
+		while ((pos = template.indexOf("${", pos)) >= 0)
+		{
+			int end = template.indexOf('}', pos + 2);
+			if (end < 0)
+				break;
+			literals.add(template.substring(literalStart, pos));
+			keys.add(template.substring(pos + 2, end));
+			literalStart = pos = end + 1;
+		}
+		literals.add(template.substring(literalStart));
+		return new UrlTemplate(template, literals.toArray(new String[literals.size()]),
+		        keys.toArray(new String[keys.size()]));
+	}
+
+	/**
+	 * @return the template string
+	 */
+	public String getTemplate()
+	{
+		return _template;
+	}
+
+	/**
+	 * Substitutes the placeholders with the bundle values
+	 *
+	 * @param bundle
+	 *            Bundle with <i>key</i> -> <i>value</i> pairs
+	 * @return the rendered string
+	 */
+	public String render(Bundle bundle)
+	{
+		if (_keys.length == 0)
+			return _template;
+		StringBuilder sb = _builder.get();
+		sb.setLength(0);
+		render(bundle, sb);
+		return sb.toString();
+	}
+
+	/**
+	 * Appends the template with placeholders substituted with the bundle
+	 * values
+	 *
+	 * @param bundle
+	 *            Bundle with <i>key</i> -> <i>value</i> pairs
+	 * @param sb
+	 *            the builder to append to
+	 */
+	public void render(Bundle bundle, StringBuilder sb)
+	{
+		for (int i = 0; i < _keys.length; i++)
+		{
+			sb.append(_literals[i]);
+			if (bundle.containsKey(_keys[i]))
+				sb.append(bundle.get(_keys[i]));
+			else
+				sb.append("${").append(_keys[i]).append('}');
+		}
+		sb.append(_literals[_keys.length]);
+	}
+
+	@Override
+	public String toString()
+	{
+		return _template;
+	}
+}